@@ -0,0 +1,80 @@
+package com.gynt.lwprotojson.benchmarks;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gynt.lwprotojson.LWProtoJson;
+import com.gynt.lwprotojson.LWProtoJson.Registry;
+import com.gynt.lwprotojson.LWProtoJson.Serializer;
+import com.gynt.lwprotojson.examples.Example;
+
+/**
+ * Compares reading a large array in parallel mode with reading it
+ * sequentially. Parallel mode scans the text of every element once to split
+ * it off and once more to bind it, so with a single thread this measures that
+ * extra scan; with more threads it shows whether binding in parallel makes up
+ * for it:
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar ParallelReadBenchmark -p threads=1,4
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelReadBenchmark {
+
+	@Param({ "1000" })
+	public int size;
+
+	/**
+	 * The parallelism of the pool, or 0 to read sequentially.
+	 */
+	@Param({ "0", "1", "4" })
+	public int threads;
+
+	private ForkJoinPool pool;
+	private Serializer<Example[]> serializer;
+	private String data;
+
+	@Setup
+	public void setup() throws Exception {
+		serializer = new Serializer<Example[]>(Example[].class, new Registry(LWProtoJson.registry()), true);
+		if (threads > 0) {
+			pool = new ForkJoinPool(threads);
+			serializer.setParallel(pool, 64);
+		}
+		Example[] examples = new Example[size];
+		for (int i = 0; i < size; i++) {
+			examples[i] = new Example();
+		}
+		data = serializer.serialize(examples);
+	}
+
+	@TearDown
+	public void shutdown() {
+		if (pool != null)
+			pool.shutdown();
+	}
+
+	@Benchmark
+	public Object deserialize() throws Exception {
+		return serializer.deserialize(data);
+	}
+}
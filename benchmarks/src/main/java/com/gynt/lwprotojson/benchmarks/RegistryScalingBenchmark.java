@@ -0,0 +1,108 @@
+package com.gynt.lwprotojson.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gynt.lwprotojson.LWProtoJson;
+import com.gynt.lwprotojson.LWProtoJson.AbstractSerializer;
+import com.gynt.lwprotojson.LWProtoJson.Registry;
+import com.gynt.lwprotojson.LWProtoJson.Serializer;
+import com.gynt.lwprotojson.examples.Example;
+
+/**
+ * Measures codec lookups and serializer round trips while another thread keeps
+ * registering and removing a codec. Compare the results for several thread
+ * counts to see how they scale:
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar RegistryScalingBenchmark -t 1
+ * java -jar benchmarks/target/benchmarks.jar RegistryScalingBenchmark -t 8
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RegistryScalingBenchmark {
+
+	private static final Class<?>[] LOOKUPS = { String.class, int.class, Integer.class, long.class, Long.class,
+			double.class, Double.class, float.class, Float.class, byte.class };
+
+	private Registry registry;
+	private Serializer<Example> serializer;
+	private String data;
+	private final AtomicBoolean churn = new AtomicBoolean();
+	private Thread writer;
+
+	@Setup
+	public void setup() throws Exception {
+		registry = new Registry(LWProtoJson.registry());
+		serializer = new Serializer<>(Example.class, registry, true);
+		data = serializer.serialize(new Example());
+
+		AbstractSerializer<StringBuilder> codec = new AbstractSerializer<StringBuilder>(StringBuilder.class) {
+
+			@Override
+			public StringBuilder deserialize(String data) {
+				return new StringBuilder(data);
+			}
+
+			@Override
+			public String serialize(StringBuilder obj) {
+				return obj.toString();
+			}
+		};
+		churn.set(true);
+		writer = new Thread(() -> {
+			while (churn.get()) {
+				registry.register(StringBuilder.class, codec);
+				registry.remove(StringBuilder.class);
+				try {
+					Thread.sleep(1);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}, "registry-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		churn.set(false);
+		writer.join();
+	}
+
+	/**
+	 * The index of the next lookup, per benchmark thread.
+	 */
+	@State(Scope.Thread)
+	public static class Cursor {
+		int i;
+	}
+
+	@Benchmark
+	public Object retrieve(Cursor cursor) {
+		return registry.retrieve(LOOKUPS[cursor.i++ % LOOKUPS.length]);
+	}
+
+	@Benchmark
+	public Object roundTrip() throws Exception {
+		return serializer.deserialize(serializer.serialize(serializer.deserialize(data)));
+	}
+}
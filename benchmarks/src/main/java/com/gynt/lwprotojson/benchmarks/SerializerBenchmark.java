@@ -0,0 +1,195 @@
+package com.gynt.lwprotojson.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gynt.lwprotojson.LWProtoJson;
+import com.gynt.lwprotojson.LWProtoJson.Lwprotojson;
+import com.gynt.lwprotojson.LWProtoJson.Registry;
+import com.gynt.lwprotojson.LWProtoJson.Serializer;
+import com.gynt.lwprotojson.examples.Example;
+import com.gynt.lwprotojson.examples.Example.AnotherExample;
+
+/**
+ * Measures serialize and deserialize throughput for a set of representative
+ * message shapes. Run with -prof gc to see allocation per operation next to
+ * throughput:
+ *
+ * <pre>
+ * java -jar benchmarks/target/benchmarks.jar SerializerBenchmark -prof gc
+ * </pre>
+ *
+ * Pass -p generated=true,false to compare method-handle field access with
+ * plain reflection.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializerBenchmark {
+
+	public static class LargeCollections {
+		@Lwprotojson
+		public ArrayList<String> list = new ArrayList<>();
+
+		@Lwprotojson
+		public HashMap<String, Integer> map = new HashMap<>();
+
+		public LargeCollections() {
+		}
+
+		LargeCollections(int size) {
+			for (int i = 0; i < size; i++) {
+				list.add("item" + i);
+				map.put("key" + i, i);
+			}
+		}
+	}
+
+	public static class PrimitiveArrays {
+		@Lwprotojson
+		public int[] ints;
+
+		@Lwprotojson
+		public long[] longs;
+
+		@Lwprotojson
+		public double[] doubles;
+
+		@Lwprotojson
+		public byte[] bytes;
+
+		public PrimitiveArrays() {
+		}
+
+		PrimitiveArrays(int size) {
+			ints = new int[size];
+			longs = new long[size];
+			doubles = new double[size];
+			bytes = new byte[size];
+			for (int i = 0; i < size; i++) {
+				ints[i] = i * 31;
+				longs[i] = i * 1000003L;
+				doubles[i] = i / 7.0;
+				bytes[i] = (byte) i;
+			}
+		}
+	}
+
+	public static class Nested {
+		@Lwprotojson
+		public AnotherExample[] children;
+
+		public Nested() {
+		}
+
+		Nested(int size) {
+			children = new AnotherExample[size];
+			for (int i = 0; i < size; i++) {
+				children[i] = new AnotherExample();
+				children[i].age = i;
+			}
+		}
+	}
+
+	@Param({ "example", "another.v0", "another.v2", "another.v4", "collections.1000", "primitives.1000",
+			"nested.100" })
+	public String shape;
+
+	@Param({ "true" })
+	public boolean generated;
+
+	private Serializer<Object> serializer;
+	private Object value;
+	private String data;
+
+	@Setup
+	public void setup() throws Exception {
+		Registry registry = new Registry(LWProtoJson.registry());
+		registry.register(AnotherExample.class,
+				new Serializer<AnotherExample>(AnotherExample.class, registry, generated));
+		Class<?> type;
+		switch (shape) {
+		case "example":
+			type = Example.class;
+			value = new Example();
+			break;
+		case "collections.1000":
+			type = LargeCollections.class;
+			value = new LargeCollections(1000);
+			break;
+		case "primitives.1000":
+			type = PrimitiveArrays.class;
+			value = new PrimitiveArrays(1000);
+			break;
+		case "nested.100":
+			type = Nested.class;
+			value = new Nested(100);
+			break;
+		default:
+			AnotherExample a = new AnotherExample();
+			a.VERSION = Integer.parseInt(shape.substring("another.v".length()));
+			type = AnotherExample.class;
+			value = a;
+		}
+		serializer = new Serializer<>(type, registry, generated);
+		data = serializer.serialize(value);
+	}
+
+	@Benchmark
+	public String serialize() throws Exception {
+		return serializer.serialize(value);
+	}
+
+	@Benchmark
+	public Object deserialize() throws Exception {
+		return serializer.deserialize(data);
+	}
+
+	/**
+	 * serializeAll and deserializeAll over 1000 Example records, one per
+	 * line.
+	 */
+	@State(Scope.Benchmark)
+	public static class Batch {
+
+		Serializer<Example> example;
+		ArrayList<Example> records;
+		String lines;
+
+		@Setup
+		public void setup() throws Exception {
+			example = new Serializer<Example>(Example.class, new Registry(LWProtoJson.registry()), true);
+			records = new ArrayList<>();
+			for (int i = 0; i < 1000; i++) {
+				records.add(new Example());
+			}
+			lines = example.serializeAll(records, Serializer.Framing.LINES);
+		}
+	}
+
+	@Benchmark
+	public String serializeAll(Batch batch) throws Exception {
+		return batch.example.serializeAll(batch.records, Serializer.Framing.LINES);
+	}
+
+	@Benchmark
+	public Object deserializeAll(Batch batch) throws Exception {
+		return batch.example.deserializeAll(batch.lines, Serializer.Framing.LINES);
+	}
+}
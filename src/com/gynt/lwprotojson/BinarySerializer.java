@@ -0,0 +1,576 @@
+package com.gynt.lwprotojson;
+
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.gynt.lwprotojson.LWProtoJson.AbstractSerializer;
+import com.gynt.lwprotojson.LWProtoJson.Primitive;
+import com.gynt.lwprotojson.LWProtoJson.Registry;
+import com.gynt.lwprotojson.LWProtoJson.Serializer;
+import com.gynt.lwprotojson.LWProtoJson.Serializer.Layout;
+import com.gynt.lwprotojson.LWProtoJson.Serializer.Slot;
+
+/**
+ * Compact binary counterpart of {@link Serializer} for @Lwprotojson classes.
+ * It uses the same annotations, versions and codecs, but writes no field
+ * names: a message is the version followed by the fields of that version in
+ * declaration order.
+ * <p>
+ * int, short and long values are zigzag varints, double and float are fixed
+ * width little-endian whatever the order of the buffer, strings are a varint
+ * length followed by UTF-8, and arrays of primitives are packed after a
+ * varint count. Lengths and counts are stored plus one, so that 0 marks null.
+ * Nullable values of built-in codecs and nested @Lwprotojson classes are
+ * preceded by a presence byte. A nested class is written as a binary message
+ * of its own, also when its codec is a generated serializer. Values of other
+ * codecs are stored as their String form.
+ */
+public class BinarySerializer<T> {
+
+	private final Serializer<T> plan;
+	private final ConcurrentHashMap<Class<?>, BinarySerializer<?>> nested = new ConcurrentHashMap<>();
+
+	public BinarySerializer(Class<?> c) {
+		this(new Serializer<T>(c));
+	}
+
+	public BinarySerializer(Class<?> c, Registry registry) {
+		this(new Serializer<T>(c, registry));
+	}
+
+	/**
+	 * Shares the compiled plan of an existing serializer.
+	 */
+	public BinarySerializer(Serializer<T> plan) {
+		this.plan = plan;
+	}
+
+	public byte[] toBytes(T obj) throws ReflectiveOperationException {
+		ByteBuffer buf = serialize(obj, ByteBuffer.allocate(256));
+		buf.flip();
+		byte[] result = new byte[buf.remaining()];
+		buf.get(result);
+		return result;
+	}
+
+	/**
+	 * Writes obj at the position of out. If out runs out of room, writing
+	 * continues in a larger heap buffer holding a copy of out, and that buffer
+	 * is returned instead of out.
+	 */
+	public ByteBuffer serialize(T obj, ByteBuffer out) throws ReflectiveOperationException {
+		Output o = new Output(out);
+		write(obj, o);
+		return o.buf;
+	}
+
+	public T fromBytes(byte[] data) throws ReflectiveOperationException {
+		return deserialize(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Reads one message from the position of in.
+	 */
+	public T deserialize(ByteBuffer in) throws ReflectiveOperationException {
+		return read(in);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void write(T obj, Output out) throws ReflectiveOperationException {
+		if (plan.type.isArray()) {
+			writeArray(obj, plan.type.getComponentType(), plan.componentcodec, out);
+			return;
+		}
+		int version = plan.version == null ? 0 : plan.version.getInt(obj);
+		out.varint(version);
+		for (Slot s : plan.layout(version).slots) {
+			FieldAccessor a = s.accessor;
+			switch (s.kind) {
+			case INT:
+				out.varint(a.getInt(obj));
+				break;
+			case LONG:
+				out.varlong(a.getLong(obj));
+				break;
+			case DOUBLE:
+				out.fixed64(Double.doubleToRawLongBits(a.getDouble(obj)));
+				break;
+			case FLOAT:
+				out.fixed32(Float.floatToRawIntBits(a.getFloat(obj)));
+				break;
+			case BYTE:
+				out.ensure(1).put(a.getByte(obj));
+				break;
+			case SHORT:
+				out.varint(a.getShort(obj));
+				break;
+			case BOOLEAN:
+				out.ensure(1).put((byte) (a.getBoolean(obj) ? 1 : 0));
+				break;
+			case COLLECTION:
+				Collection<Object> c = (Collection<Object>) a.get(obj);
+				if (c == null) {
+					out.length(-1);
+					break;
+				}
+				out.length(c.size());
+				for (Object o : c) {
+					writeValue(o, s.codec, out);
+				}
+				break;
+			case MAP:
+				Map<Object, Object> m = (Map<Object, Object>) a.get(obj);
+				if (m == null) {
+					out.length(-1);
+					break;
+				}
+				out.length(m.size());
+				for (Entry<Object, Object> e : m.entrySet()) {
+					writeValue(e.getKey(), s.codec, out);
+					writeValue(e.getValue(), s.valuecodec, out);
+				}
+				break;
+			case ARRAY:
+				writeArray(a.get(obj), s.componenttype, s.codec, out);
+				break;
+			default:
+				writeValue(a.get(obj), s.codec, out);
+			}
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void writeValue(Object value, AbstractSerializer codec, Output out) throws ReflectiveOperationException {
+		if (codec instanceof Primitive || isNested(codec)) {
+			if (value == null) {
+				out.ensure(1).put((byte) 0);
+				return;
+			}
+			out.ensure(1).put((byte) 1);
+			if (!(codec instanceof Primitive))
+				nested(codec).write(value, out);
+			else
+				writePrimitive(value, codec.type, out);
+		} else if (codec == LWProtoJson.STRING) {
+			out.string((String) value);
+		} else {
+			out.string(value == null ? null : codec.serialize(value));
+		}
+	}
+
+	private static void writePrimitive(Object value, Class<?> type, Output out) {
+		if (type == int.class) {
+			out.varint((Integer) value);
+		} else if (type == long.class) {
+			out.varlong((Long) value);
+		} else if (type == double.class) {
+			out.fixed64(Double.doubleToRawLongBits((Double) value));
+		} else if (type == float.class) {
+			out.fixed32(Float.floatToRawIntBits((Float) value));
+		} else if (type == byte.class) {
+			out.ensure(1).put((Byte) value);
+		} else if (type == short.class) {
+			out.varint((Short) value);
+		} else {
+			out.ensure(1).put((byte) ((Boolean) value ? 1 : 0));
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private void writeArray(Object obj, Class<?> componenttype, AbstractSerializer codec, Output out)
+			throws ReflectiveOperationException {
+		if (obj == null) {
+			out.length(-1);
+			return;
+		}
+		int length = Array.getLength(obj);
+		out.length(length);
+		if (!(codec instanceof Primitive && componenttype == codec.type)) {
+			for (int i = 0; i < length; i++) {
+				writeValue(Array.get(obj, i), codec, out);
+			}
+		} else if (obj instanceof int[]) {
+			for (int v : (int[]) obj) {
+				out.varint(v);
+			}
+		} else if (obj instanceof long[]) {
+			for (long v : (long[]) obj) {
+				out.varlong(v);
+			}
+		} else if (obj instanceof double[]) {
+			out.ensure(length * 8).duplicate().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().put((double[]) obj);
+			out.buf.position(out.buf.position() + length * 8);
+		} else if (obj instanceof float[]) {
+			out.ensure(length * 4).duplicate().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().put((float[]) obj);
+			out.buf.position(out.buf.position() + length * 4);
+		} else if (obj instanceof short[]) {
+			for (short v : (short[]) obj) {
+				out.varint(v);
+			}
+		} else if (obj instanceof boolean[]) {
+			ByteBuffer buf = out.ensure(length);
+			for (boolean v : (boolean[]) obj) {
+				buf.put((byte) (v ? 1 : 0));
+			}
+		} else {
+			out.ensure(length).put((byte[]) obj);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private T read(ByteBuffer in) throws ReflectiveOperationException {
+		if (plan.type.isArray())
+			return (T) readArray(in, plan.type.getComponentType(), plan.componentcodec);
+
+		T t = (T) LWProtoJson.instantiate(plan.type);
+		int version = readVarint(in);
+		Layout layout = plan.layout(version);
+		for (Slot s : layout.slots) {
+			FieldAccessor a = s.accessor;
+			switch (s.kind) {
+			case INT:
+				a.setInt(t, readVarint(in));
+				break;
+			case LONG:
+				a.setLong(t, readVarlong(in));
+				break;
+			case DOUBLE:
+				a.setDouble(t, readDouble(in));
+				break;
+			case FLOAT:
+				a.setFloat(t, readFloat(in));
+				break;
+			case BYTE:
+				a.setByte(t, in.get());
+				break;
+			case SHORT:
+				a.setShort(t, (short) readVarint(in));
+				break;
+			case BOOLEAN:
+				a.setBoolean(t, in.get() != 0);
+				break;
+			case COLLECTION:
+				int size = readLength(in, 1);
+				if (size < 0) {
+					a.set(t, null);
+					break;
+				}
+				Collection<Object> c = (Collection<Object>) LWProtoJson.instantiate(s.type);
+				for (int i = 0; i < size; i++) {
+					c.add(readValue(in, s.codec));
+				}
+				a.set(t, c);
+				break;
+			case MAP:
+				size = readLength(in, 2);
+				if (size < 0) {
+					a.set(t, null);
+					break;
+				}
+				Map<Object, Object> m = (Map<Object, Object>) LWProtoJson.instantiate(s.type);
+				for (int i = 0; i < size; i++) {
+					Object k = readValue(in, s.codec);
+					m.put(k, readValue(in, s.valuecodec));
+				}
+				a.set(t, m);
+				break;
+			case ARRAY:
+				a.set(t, readArray(in, s.componenttype, s.codec));
+				break;
+			default:
+				a.set(t, readValue(in, s.codec));
+			}
+		}
+		return t;
+	}
+
+	@SuppressWarnings("rawtypes")
+	private Object readValue(ByteBuffer in, AbstractSerializer codec) throws ReflectiveOperationException {
+		if (codec instanceof Primitive || isNested(codec)) {
+			if (in.get() == 0)
+				return null;
+			if (!(codec instanceof Primitive))
+				return nested(codec).read(in);
+			return readPrimitive(in, codec.type);
+		}
+		String data = readString(in);
+		if (codec == LWProtoJson.STRING || data == null)
+			return data;
+		return codec.deserialize(data);
+	}
+
+	private static Object readPrimitive(ByteBuffer in, Class<?> type) {
+		if (type == int.class) {
+			return readVarint(in);
+		} else if (type == long.class) {
+			return readVarlong(in);
+		} else if (type == double.class) {
+			return readDouble(in);
+		} else if (type == float.class) {
+			return readFloat(in);
+		} else if (type == byte.class) {
+			return in.get();
+		} else if (type == short.class) {
+			return (short) readVarint(in);
+		} else {
+			return in.get() != 0;
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private Object readArray(ByteBuffer in, Class<?> componenttype, AbstractSerializer codec)
+			throws ReflectiveOperationException {
+		boolean packed = codec instanceof Primitive && componenttype == codec.type;
+		int length = readLength(in, !packed ? 1 : componenttype == double.class ? 8 : componenttype == float.class ? 4 : 1);
+		if (length < 0)
+			return null;
+		if (!packed) {
+			Object[] result = (Object[]) Array.newInstance(componenttype, length);
+			for (int i = 0; i < length; i++) {
+				result[i] = readValue(in, codec);
+			}
+			return result;
+		} else if (componenttype == int.class) {
+			int[] result = new int[length];
+			for (int i = 0; i < length; i++) {
+				result[i] = readVarint(in);
+			}
+			return result;
+		} else if (componenttype == long.class) {
+			long[] result = new long[length];
+			for (int i = 0; i < length; i++) {
+				result[i] = readVarlong(in);
+			}
+			return result;
+		} else if (componenttype == double.class) {
+			double[] result = new double[length];
+			in.duplicate().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer().get(result);
+			in.position(in.position() + length * 8);
+			return result;
+		} else if (componenttype == float.class) {
+			float[] result = new float[length];
+			in.duplicate().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(result);
+			in.position(in.position() + length * 4);
+			return result;
+		} else if (componenttype == short.class) {
+			short[] result = new short[length];
+			for (int i = 0; i < length; i++) {
+				result[i] = (short) readVarint(in);
+			}
+			return result;
+		} else if (componenttype == boolean.class) {
+			boolean[] result = new boolean[length];
+			for (int i = 0; i < length; i++) {
+				result[i] = in.get() != 0;
+			}
+			return result;
+		} else {
+			byte[] result = new byte[length];
+			in.get(result);
+			return result;
+		}
+	}
+
+	/**
+	 * Whether codec writes an @Lwprotojson class, which is then written as a
+	 * nested binary message rather than as its JSON text.
+	 */
+	@SuppressWarnings("rawtypes")
+	private static boolean isNested(AbstractSerializer codec) {
+		return codec instanceof Serializer || codec instanceof Serializer.Deferred
+				|| codec instanceof GeneratedSerializer;
+	}
+
+	/**
+	 * Returns the BinarySerializer of a codec for which
+	 * {@link #isNested(AbstractSerializer)} holds. A Serializer is used as
+	 * the plan; for a generated or deferred codec, the plan is the Serializer
+	 * of its class in the registry of this one.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private BinarySerializer<Object> nested(AbstractSerializer codec) {
+		BinarySerializer<?> result = nested.get(codec.type);
+		if (result == null) {
+			Serializer<?> serializer = codec instanceof Serializer ? (Serializer) codec
+					: plan.registry.serializer(codec.type);
+			result = new BinarySerializer<>(serializer);
+			BinarySerializer<?> previous = nested.putIfAbsent(codec.type, result);
+			if (previous != null)
+				result = previous;
+		}
+		return (BinarySerializer<Object>) result;
+	}
+
+	static double readDouble(ByteBuffer in) {
+		long bits = in.getLong();
+		return Double.longBitsToDouble(in.order() == ByteOrder.LITTLE_ENDIAN ? bits : Long.reverseBytes(bits));
+	}
+
+	static float readFloat(ByteBuffer in) {
+		int bits = in.getInt();
+		return Float.intBitsToFloat(in.order() == ByteOrder.LITTLE_ENDIAN ? bits : Integer.reverseBytes(bits));
+	}
+
+	static int readVarint(ByteBuffer in) {
+		int raw = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			byte b = in.get();
+			raw |= (b & 0x7f) << shift;
+			if (b >= 0)
+				return (raw >>> 1) ^ -(raw & 1);
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+
+	static long readVarlong(ByteBuffer in) {
+		long raw = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = in.get();
+			raw |= (long) (b & 0x7f) << shift;
+			if (b >= 0)
+				return (raw >>> 1) ^ -(raw & 1);
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+
+	/**
+	 * Returns -1 for null.
+	 */
+	static int readLength(ByteBuffer in) {
+		int raw = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			byte b = in.get();
+			raw |= (b & 0x7f) << shift;
+			if (b >= 0) {
+				if (raw < 0)
+					break;
+				return raw - 1;
+			}
+		}
+		throw new IllegalArgumentException("Malformed length");
+	}
+
+	/**
+	 * Reads a length like {@link #readLength(ByteBuffer)}, and rejects it before
+	 * anything is allocated if in cannot hold that many elements of at least
+	 * size bytes.
+	 */
+	static int readLength(ByteBuffer in, int size) {
+		int length = readLength(in);
+		if (length > in.remaining() / size)
+			throw new IllegalArgumentException("Length " + length + " exceeds the remaining " + in.remaining() + " bytes");
+		return length;
+	}
+
+	static String readString(ByteBuffer in) {
+		int length = readLength(in, 1);
+		if (length < 0)
+			return null;
+		if (in.hasArray()) {
+			String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+			in.position(in.position() + length);
+			return s;
+		}
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * A ByteBuffer that is replaced by a larger copy when it runs out of room.
+	 */
+	static final class Output {
+
+		ByteBuffer buf;
+
+		Output(ByteBuffer buf) {
+			this.buf = buf;
+		}
+
+		ByteBuffer ensure(int n) {
+			if (buf.remaining() < n) {
+				int capacity = Math.max(buf.capacity() * 2, buf.position() + n);
+				ByteBuffer grown = ByteBuffer.allocate(capacity).order(buf.order());
+				buf.flip();
+				grown.put(buf);
+				buf = grown;
+			}
+			return buf;
+		}
+
+		/**
+		 * Writes 8 bytes little-endian, whatever the order of the buffer.
+		 */
+		void fixed64(long bits) {
+			ByteBuffer b = ensure(8);
+			b.putLong(b.order() == ByteOrder.LITTLE_ENDIAN ? bits : Long.reverseBytes(bits));
+		}
+
+		/**
+		 * Writes 4 bytes little-endian, whatever the order of the buffer.
+		 */
+		void fixed32(int bits) {
+			ByteBuffer b = ensure(4);
+			b.putInt(b.order() == ByteOrder.LITTLE_ENDIAN ? bits : Integer.reverseBytes(bits));
+		}
+
+		void varint(int v) {
+			unsigned((v << 1) ^ (v >> 31));
+		}
+
+		void varlong(long v) {
+			long raw = (v << 1) ^ (v >> 63);
+			ByteBuffer b = ensure(10);
+			while ((raw & ~0x7fL) != 0) {
+				b.put((byte) ((raw & 0x7f) | 0x80));
+				raw >>>= 7;
+			}
+			b.put((byte) raw);
+		}
+
+		void unsigned(int raw) {
+			ByteBuffer b = ensure(5);
+			while ((raw & ~0x7f) != 0) {
+				b.put((byte) ((raw & 0x7f) | 0x80));
+				raw >>>= 7;
+			}
+			b.put((byte) raw);
+		}
+
+		/**
+		 * Writes a length or count, or -1 for null.
+		 */
+		void length(int n) {
+			unsigned(n + 1);
+		}
+
+		void string(String s) {
+			if (s == null) {
+				length(-1);
+				return;
+			}
+			int length = s.length();
+			for (int i = 0; i < length; i++) {
+				if (s.charAt(i) >= 0x80) {
+					// Encode once so that the prefix always matches the payload,
+					// also for lone surrogates, which the encoder replaces.
+					byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+					length(bytes.length);
+					ensure(bytes.length).put(bytes);
+					return;
+				}
+			}
+			length(length);
+			ByteBuffer b = ensure(length);
+			for (int i = 0; i < length; i++) {
+				b.put((byte) s.charAt(i));
+			}
+		}
+	}
+}
@@ -0,0 +1,503 @@
+package com.gynt.lwprotojson;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * Reads and writes a single field of an object. Primitive fields can be
+ * accessed through the typed getters and setters without boxing.
+ */
+public abstract class FieldAccessor {
+
+	protected final Field field;
+
+	protected FieldAccessor(Field field) {
+		this.field = field;
+	}
+
+	public Field getField() {
+		return field;
+	}
+
+	public abstract Object get(Object obj);
+
+	public abstract void set(Object obj, Object value);
+
+	public int getInt(Object obj) {
+		return ((Number) get(obj)).intValue();
+	}
+
+	public void setInt(Object obj, int value) {
+		set(obj, value);
+	}
+
+	public long getLong(Object obj) {
+		return ((Number) get(obj)).longValue();
+	}
+
+	public void setLong(Object obj, long value) {
+		set(obj, value);
+	}
+
+	public double getDouble(Object obj) {
+		return ((Number) get(obj)).doubleValue();
+	}
+
+	public void setDouble(Object obj, double value) {
+		set(obj, value);
+	}
+
+	public float getFloat(Object obj) {
+		return ((Number) get(obj)).floatValue();
+	}
+
+	public void setFloat(Object obj, float value) {
+		set(obj, value);
+	}
+
+	public byte getByte(Object obj) {
+		return ((Number) get(obj)).byteValue();
+	}
+
+	public void setByte(Object obj, byte value) {
+		set(obj, value);
+	}
+
+	public short getShort(Object obj) {
+		return ((Number) get(obj)).shortValue();
+	}
+
+	public void setShort(Object obj, short value) {
+		set(obj, value);
+	}
+
+	public boolean getBoolean(Object obj) {
+		return (Boolean) get(obj);
+	}
+
+	public void setBoolean(Object obj, boolean value) {
+		set(obj, value);
+	}
+
+	/**
+	 * Creates an accessor for f. When generated is true the accessor is backed
+	 * by method handles adapted to the field type, so primitive fields are
+	 * read and written without boxing and without the access checks of
+	 * {@link Field}. The handles are held in fields of the accessor rather than
+	 * in static final constants, so the JIT still calls through them instead
+	 * of inlining the field access; this is cheaper than reflection, not as
+	 * cheap as code that touches the field directly. When generated is false
+	 * the accessor goes through {@link Field#get(Object)} and
+	 * {@link Field#set(Object, Object)}.
+	 */
+	public static FieldAccessor of(Field f, boolean generated) {
+		f.setAccessible(true);
+		if (!generated)
+			return new Reflective(f);
+
+		Class<?> t = f.getType();
+		MethodHandle getter;
+		MethodHandle setter;
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			getter = lookup.unreflectGetter(f);
+			if (Modifier.isStatic(f.getModifiers()) && Modifier.isFinal(f.getModifiers())) {
+				setter = lookup.findStatic(FieldAccessor.class, "readOnly", MethodType.methodType(void.class, Field.class))
+						.bindTo(f);
+				setter = MethodHandles.dropArguments(setter, 0, t);
+			} else {
+				setter = lookup.unreflectSetter(f);
+			}
+			if (Modifier.isStatic(f.getModifiers())) {
+				// Static handles take no receiver; accept and ignore one.
+				getter = MethodHandles.dropArguments(getter, 0, Object.class);
+				setter = MethodHandles.dropArguments(setter, 0, Object.class);
+			}
+		} catch (IllegalAccessException | NoSuchMethodException e) {
+			throw new RuntimeException("Cannot access field: " + f, e);
+		}
+
+		if (t == int.class) {
+			return new IntHandle(f, getter.asType(MethodType.methodType(int.class, Object.class)),
+					setter.asType(MethodType.methodType(void.class, Object.class, int.class)));
+		} else if (t == long.class) {
+			return new LongHandle(f, getter.asType(MethodType.methodType(long.class, Object.class)),
+					setter.asType(MethodType.methodType(void.class, Object.class, long.class)));
+		} else if (t == double.class) {
+			return new DoubleHandle(f, getter.asType(MethodType.methodType(double.class, Object.class)),
+					setter.asType(MethodType.methodType(void.class, Object.class, double.class)));
+		} else if (t == float.class) {
+			return new FloatHandle(f, getter.asType(MethodType.methodType(float.class, Object.class)),
+					setter.asType(MethodType.methodType(void.class, Object.class, float.class)));
+		} else if (t == byte.class) {
+			return new ByteHandle(f, getter.asType(MethodType.methodType(byte.class, Object.class)),
+					setter.asType(MethodType.methodType(void.class, Object.class, byte.class)));
+		} else if (t == short.class) {
+			return new ShortHandle(f, getter.asType(MethodType.methodType(short.class, Object.class)),
+					setter.asType(MethodType.methodType(void.class, Object.class, short.class)));
+		} else if (t == boolean.class) {
+			return new BooleanHandle(f, getter.asType(MethodType.methodType(boolean.class, Object.class)),
+					setter.asType(MethodType.methodType(void.class, Object.class, boolean.class)));
+		}
+		return new ObjectHandle(f, getter.asType(MethodType.methodType(Object.class, Object.class)),
+				setter.asType(MethodType.methodType(void.class, Object.class, Object.class)));
+	}
+
+	/**
+	 * The setter of a static final field, which cannot be written.
+	 */
+	@SuppressWarnings("unused")
+	private static void readOnly(Field f) {
+		throw new UnsupportedOperationException("Cannot write static final field: " + f);
+	}
+
+	static RuntimeException rethrow(Throwable t) {
+		if (t instanceof RuntimeException)
+			return (RuntimeException) t;
+		if (t instanceof Error)
+			throw (Error) t;
+		return new RuntimeException(t);
+	}
+
+	/**
+	 * Goes through {@link Field#get(Object)} and
+	 * {@link Field#set(Object, Object)}, so primitive fields are boxed.
+	 */
+	private static final class Reflective extends FieldAccessor {
+
+		Reflective(Field f) {
+			super(f);
+		}
+
+		@Override
+		public Object get(Object obj) {
+			try {
+				return field.get(obj);
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		public void set(Object obj, Object value) {
+			try {
+				field.set(obj, value);
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	private static final class ObjectHandle extends FieldAccessor {
+
+		private final MethodHandle getter;
+		private final MethodHandle setter;
+
+		ObjectHandle(Field f, MethodHandle getter, MethodHandle setter) {
+			super(f);
+			this.getter = getter;
+			this.setter = setter;
+		}
+
+		@Override
+		public Object get(Object obj) {
+			try {
+				return (Object) getter.invokeExact(obj);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		@Override
+		public void set(Object obj, Object value) {
+			try {
+				setter.invokeExact(obj, value);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+	}
+
+	private static final class IntHandle extends FieldAccessor {
+
+		private final MethodHandle getter;
+		private final MethodHandle setter;
+
+		IntHandle(Field f, MethodHandle getter, MethodHandle setter) {
+			super(f);
+			this.getter = getter;
+			this.setter = setter;
+		}
+
+		@Override
+		public Object get(Object obj) {
+			return getInt(obj);
+		}
+
+		@Override
+		public void set(Object obj, Object value) {
+			setInt(obj, ((Number) value).intValue());
+		}
+
+		@Override
+		public int getInt(Object obj) {
+			try {
+				return (int) getter.invokeExact(obj);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		@Override
+		public void setInt(Object obj, int value) {
+			try {
+				setter.invokeExact(obj, value);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+	}
+
+	private static final class LongHandle extends FieldAccessor {
+
+		private final MethodHandle getter;
+		private final MethodHandle setter;
+
+		LongHandle(Field f, MethodHandle getter, MethodHandle setter) {
+			super(f);
+			this.getter = getter;
+			this.setter = setter;
+		}
+
+		@Override
+		public Object get(Object obj) {
+			return getLong(obj);
+		}
+
+		@Override
+		public void set(Object obj, Object value) {
+			setLong(obj, ((Number) value).longValue());
+		}
+
+		@Override
+		public long getLong(Object obj) {
+			try {
+				return (long) getter.invokeExact(obj);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		@Override
+		public void setLong(Object obj, long value) {
+			try {
+				setter.invokeExact(obj, value);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+	}
+
+	private static final class DoubleHandle extends FieldAccessor {
+
+		private final MethodHandle getter;
+		private final MethodHandle setter;
+
+		DoubleHandle(Field f, MethodHandle getter, MethodHandle setter) {
+			super(f);
+			this.getter = getter;
+			this.setter = setter;
+		}
+
+		@Override
+		public Object get(Object obj) {
+			return getDouble(obj);
+		}
+
+		@Override
+		public void set(Object obj, Object value) {
+			setDouble(obj, ((Number) value).doubleValue());
+		}
+
+		@Override
+		public double getDouble(Object obj) {
+			try {
+				return (double) getter.invokeExact(obj);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		@Override
+		public void setDouble(Object obj, double value) {
+			try {
+				setter.invokeExact(obj, value);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+	}
+
+	private static final class FloatHandle extends FieldAccessor {
+
+		private final MethodHandle getter;
+		private final MethodHandle setter;
+
+		FloatHandle(Field f, MethodHandle getter, MethodHandle setter) {
+			super(f);
+			this.getter = getter;
+			this.setter = setter;
+		}
+
+		@Override
+		public Object get(Object obj) {
+			return getFloat(obj);
+		}
+
+		@Override
+		public void set(Object obj, Object value) {
+			setFloat(obj, ((Number) value).floatValue());
+		}
+
+		@Override
+		public float getFloat(Object obj) {
+			try {
+				return (float) getter.invokeExact(obj);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		@Override
+		public void setFloat(Object obj, float value) {
+			try {
+				setter.invokeExact(obj, value);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+	}
+
+	private static final class ByteHandle extends FieldAccessor {
+
+		private final MethodHandle getter;
+		private final MethodHandle setter;
+
+		ByteHandle(Field f, MethodHandle getter, MethodHandle setter) {
+			super(f);
+			this.getter = getter;
+			this.setter = setter;
+		}
+
+		@Override
+		public Object get(Object obj) {
+			return getByte(obj);
+		}
+
+		@Override
+		public void set(Object obj, Object value) {
+			setByte(obj, ((Number) value).byteValue());
+		}
+
+		@Override
+		public byte getByte(Object obj) {
+			try {
+				return (byte) getter.invokeExact(obj);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		@Override
+		public void setByte(Object obj, byte value) {
+			try {
+				setter.invokeExact(obj, value);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+	}
+
+	private static final class ShortHandle extends FieldAccessor {
+
+		private final MethodHandle getter;
+		private final MethodHandle setter;
+
+		ShortHandle(Field f, MethodHandle getter, MethodHandle setter) {
+			super(f);
+			this.getter = getter;
+			this.setter = setter;
+		}
+
+		@Override
+		public Object get(Object obj) {
+			return getShort(obj);
+		}
+
+		@Override
+		public void set(Object obj, Object value) {
+			setShort(obj, ((Number) value).shortValue());
+		}
+
+		@Override
+		public short getShort(Object obj) {
+			try {
+				return (short) getter.invokeExact(obj);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		@Override
+		public void setShort(Object obj, short value) {
+			try {
+				setter.invokeExact(obj, value);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+	}
+
+	private static final class BooleanHandle extends FieldAccessor {
+
+		private final MethodHandle getter;
+		private final MethodHandle setter;
+
+		BooleanHandle(Field f, MethodHandle getter, MethodHandle setter) {
+			super(f);
+			this.getter = getter;
+			this.setter = setter;
+		}
+
+		@Override
+		public Object get(Object obj) {
+			return getBoolean(obj);
+		}
+
+		@Override
+		public void set(Object obj, Object value) {
+			setBoolean(obj, (Boolean) value);
+		}
+
+		@Override
+		public boolean getBoolean(Object obj) {
+			try {
+				return (boolean) getter.invokeExact(obj);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+
+		@Override
+		public void setBoolean(Object obj, boolean value) {
+			try {
+				setter.invokeExact(obj, value);
+			} catch (Throwable t) {
+				throw rethrow(t);
+			}
+		}
+	}
+}
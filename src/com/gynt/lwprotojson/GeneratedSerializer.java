@@ -0,0 +1,331 @@
+package com.gynt.lwprotojson;
+
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.json.JSONTokener;
+import org.json.PooledWriter;
+import org.json.Utf8Writer;
+
+import com.gynt.lwprotojson.LWProtoJson.AbstractSerializer;
+import com.gynt.lwprotojson.LWProtoJson.Registry;
+import com.gynt.lwprotojson.LWProtoJson.Serializer;
+
+/**
+ * Base class of the serializers written by
+ * {@link com.gynt.lwprotojson.processor.LwprotojsonProcessor}. Subclasses read
+ * and write the @Lwprotojson fields directly, with the version checks inlined,
+ * and produce the same JSON as {@link Serializer}. They are picked up by
+ * {@link Registry#retrieve} when no codec has been registered for their class.
+ */
+public abstract class GeneratedSerializer<T> extends AbstractSerializer<T> {
+
+	protected final Registry registry;
+	private final FieldReader<T> fields = this::readField;
+	private boolean quoted;
+	/** Set on the serializers that a {@link Registry} creates and shares. */
+	boolean shared;
+
+	protected GeneratedSerializer(Class<T> c, Registry registry) {
+		super(c);
+		this.registry = registry;
+	}
+
+	/**
+	 * See {@link Serializer#setQuotedPrimitives(boolean)}.
+	 */
+	public GeneratedSerializer<T> setQuotedPrimitives(boolean quoted) {
+		if (shared)
+			throw new UnsupportedOperationException(
+					"The serializer of " + type.getName() + " is shared by its registry; use withQuotedPrimitives instead");
+		this.quoted = quoted;
+		return this;
+	}
+
+	/**
+	 * See {@link Serializer#withQuotedPrimitives(boolean)}.
+	 */
+	@SuppressWarnings("unchecked")
+	public GeneratedSerializer<T> withQuotedPrimitives(boolean quoted) {
+		GeneratedSerializer<T> copy;
+		try {
+			copy = getClass().getConstructor(Registry.class).newInstance(registry);
+		} catch (ReflectiveOperationException e) {
+			throw new RuntimeException("Cannot copy " + getClass().getName(), e);
+		}
+		return copy.setQuotedPrimitives(quoted);
+	}
+
+	public boolean isQuotedPrimitives() {
+		return quoted;
+	}
+
+	protected abstract T newInstance();
+
+	protected abstract int version(T obj);
+
+	/**
+	 * Writes the key and value of every field included in version.
+	 */
+	protected abstract void writeFields(T obj, int version, JsonSink out)
+			throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException;
+
+	/**
+	 * Returns the names of all fields, in the order they are written.
+	 */
+	protected abstract String[] names();
+
+	/**
+	 * Reads the value of key into obj. Returns false if key is not a field of
+	 * version, in which case nothing has been read.
+	 */
+	protected abstract boolean readField(T obj, int version, String key, JSONTokener x)
+			throws InstantiationException, IllegalAccessException;
+
+	@Override
+	public String serialize(T obj)
+			throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
+		PooledWriter w = PooledWriter.acquire(type);
+		try {
+			serialize(obj, JsonSink.of(w));
+			return w.toString();
+		} finally {
+			w.release();
+		}
+	}
+
+	@Override
+	public void serialize(T obj, JsonSink out)
+			throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
+		if (obj == null) {
+			out.nullValue();
+			return;
+		}
+		int version = version(obj);
+		out.object();
+		out.key("version", VERSION_KEY).value(version);
+		writeFields(obj, version, out);
+		out.endObject();
+	}
+
+	private static final byte[] VERSION_KEY = JsonSink.encodeKey("version");
+
+	/**
+	 * See {@link Serializer#writeTo(Object, OutputStream)}.
+	 */
+	public void writeTo(T obj, OutputStream out)
+			throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
+		JsonSink.Utf8Sink sink = new JsonSink.Utf8Sink(new Utf8Writer(out));
+		serialize(obj, sink);
+		sink.close();
+	}
+
+	/**
+	 * See {@link Serializer#writeTo(Object, ByteBuffer)}.
+	 */
+	public void writeTo(T obj, ByteBuffer out)
+			throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
+		JsonSink.Utf8Sink sink = new JsonSink.Utf8Sink(new Utf8Writer(out));
+		serialize(obj, sink);
+		sink.close();
+	}
+
+	@Override
+	public T deserialize(String data) throws InstantiationException, IllegalAccessException {
+		return deserialize(new JSONTokener(data));
+	}
+
+	/**
+	 * Reads the next value from x like {@link Serializer#deserialize(JSONTokener)}.
+	 */
+	@Override
+	public T deserialize(JSONTokener x) throws InstantiationException, IllegalAccessException {
+		if (Serializer.readNull(x))
+			return null;
+		char c = x.nextClean();
+		if (c == '"' || c == '\'')
+			return deserialize(x.nextString(c));
+		x.back();
+
+		return readFields(x, newInstance(), names(), fields);
+	}
+
+	/**
+	 * Resolves the codec of a field type when the subclass is created, the
+	 * same way {@link Serializer} does: a registered or generated codec
+	 * first, then this serializer for its own class, then the shared
+	 * Serializer of an array or @Lwprotojson class.
+	 */
+	@SuppressWarnings("rawtypes")
+	protected AbstractSerializer codec(Class<?> c) {
+		return Serializer.resolve(registry, this, c);
+	}
+
+	/**
+	 * Encodes a field name once, for the static fields of subclasses that are
+	 * passed to {@link #key(String, byte[], JsonSink)}.
+	 */
+	protected static byte[] encodeKey(String name) {
+		return JsonSink.encodeKey(name);
+	}
+
+	/**
+	 * Writes a key encoded by {@link #encodeKey(String)}.
+	 */
+	protected static void key(String name, byte[] utf8, JsonSink out) {
+		out.key(name, utf8);
+	}
+
+	protected void writeInt(int v, JsonSink out) {
+		if (quoted)
+			out.value(Integer.toString(v));
+		else
+			out.value(v);
+	}
+
+	protected void writeLong(long v, JsonSink out) {
+		if (quoted)
+			out.value(Long.toString(v));
+		else
+			out.value(v);
+	}
+
+	protected void writeDouble(double v, JsonSink out) {
+		if (quoted)
+			out.value(Double.toString(v));
+		else
+			out.value(v);
+	}
+
+	protected void writeFloat(float v, JsonSink out) {
+		if (quoted)
+			out.value(Float.toString(v));
+		else
+			out.value(v);
+	}
+
+	protected void writeByte(byte v, JsonSink out) {
+		if (quoted)
+			out.value(Byte.toString(v));
+		else
+			out.value(v);
+	}
+
+	protected void writeShort(short v, JsonSink out) {
+		if (quoted)
+			out.value(Short.toString(v));
+		else
+			out.value(v);
+	}
+
+	protected void writeBoolean(boolean v, JsonSink out) {
+		if (quoted)
+			out.value(Boolean.toString(v));
+		else
+			out.value(v);
+	}
+
+	@SuppressWarnings("rawtypes")
+	protected void writeValue(Object value, AbstractSerializer codec, JsonSink out)
+			throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
+		Serializer.writeValue(value, codec, quoted, out);
+	}
+
+	@SuppressWarnings("rawtypes")
+	protected void writeCollection(Collection<?> c, AbstractSerializer codec, JsonSink out)
+			throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
+		if (c == null) {
+			out.nullValue();
+			return;
+		}
+		out.array();
+		for (Object o : c) {
+			Serializer.writeValue(o, codec, quoted, out);
+		}
+		out.endArray();
+	}
+
+	@SuppressWarnings("rawtypes")
+	protected void writeMap(Map<?, ?> m, AbstractSerializer keycodec, AbstractSerializer valuecodec, JsonSink out)
+			throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
+		Serializer.writeMap(m, keycodec, valuecodec, quoted, out);
+	}
+
+	@SuppressWarnings("rawtypes")
+	protected void writeArray(Object array, AbstractSerializer codec, JsonSink out)
+			throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
+		Serializer.writeArray(array, codec, quoted, out);
+	}
+
+	protected static int readInt(JSONTokener x) {
+		return LWProtoJson.Primitive.toInt(Serializer.readScalar(x));
+	}
+
+	protected static long readLong(JSONTokener x) {
+		return LWProtoJson.Primitive.toLong(Serializer.readScalar(x));
+	}
+
+	protected static double readDouble(JSONTokener x) {
+		return LWProtoJson.Primitive.toDouble(Serializer.readScalar(x));
+	}
+
+	protected static float readFloat(JSONTokener x) {
+		return LWProtoJson.Primitive.toFloat(Serializer.readScalar(x));
+	}
+
+	protected static byte readByte(JSONTokener x) {
+		return LWProtoJson.Primitive.toByte(Serializer.readScalar(x));
+	}
+
+	protected static short readShort(JSONTokener x) {
+		return LWProtoJson.Primitive.toShort(Serializer.readScalar(x));
+	}
+
+	protected static boolean readBoolean(JSONTokener x) {
+		return LWProtoJson.Primitive.toBoolean(Serializer.readScalar(x));
+	}
+
+	@SuppressWarnings("rawtypes")
+	protected static Object readValue(JSONTokener x, AbstractSerializer codec)
+			throws InstantiationException, IllegalAccessException {
+		return Serializer.readValue(x, codec);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	protected static <C extends Collection<?>> C readCollection(JSONTokener x, Supplier<C> factory,
+			AbstractSerializer codec) throws InstantiationException, IllegalAccessException {
+		if (Serializer.readNull(x))
+			return null;
+		C c = factory.get();
+		if (Serializer.beginArray(x)) {
+			do {
+				((Collection) c).add(Serializer.readValue(x, codec));
+			} while (Serializer.nextMember(x, ']'));
+		}
+		return c;
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	protected static <M extends Map<?, ?>> M readMap(JSONTokener x, Supplier<M> factory, AbstractSerializer keycodec,
+			AbstractSerializer valuecodec) throws InstantiationException, IllegalAccessException {
+		if (Serializer.readNull(x))
+			return null;
+		M m = factory.get();
+		if (Serializer.beginObject(x)) {
+			do {
+				Object k = keycodec.deserialize(Serializer.readKey(x));
+				((Map) m).put(k, Serializer.readValue(x, valuecodec));
+			} while (Serializer.nextMember(x, '}'));
+		}
+		return m;
+	}
+
+	@SuppressWarnings("rawtypes")
+	protected static Object readArray(JSONTokener x, Class<?> componenttype, AbstractSerializer codec)
+			throws InstantiationException, IllegalAccessException {
+		return Serializer.readArray(x, componenttype, codec);
+	}
+}
@@ -0,0 +1,310 @@
+package com.gynt.lwprotojson;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONWriter;
+import org.json.Utf8Writer;
+
+/**
+ * Receives JSON tokens from a {@link LWProtoJson.Serializer} and writes them
+ * straight to an output, without building JSONObjects or JSONArrays first.
+ * Commas and colons are added by the sink.
+ */
+public abstract class JsonSink {
+
+	public abstract JsonSink object();
+
+	public abstract JsonSink endObject();
+
+	public abstract JsonSink array();
+
+	public abstract JsonSink endArray();
+
+	public abstract JsonSink key(String name);
+
+	/**
+	 * Writes a key that has been encoded in advance. utf8 holds the quoted
+	 * name and the ':' that follows it, as UTF-8.
+	 */
+	JsonSink key(String name, byte[] utf8) {
+		return key(name);
+	}
+
+	/**
+	 * Encodes a key for {@link #key(String, byte[])}.
+	 */
+	static byte[] encodeKey(String name) {
+		return (JSONObject.quote(name) + ":").getBytes(StandardCharsets.UTF_8);
+	}
+
+	public abstract JsonSink value(String s);
+
+	public abstract JsonSink value(long l);
+
+	public abstract JsonSink value(double d);
+
+	public abstract JsonSink value(float f);
+
+	public abstract JsonSink value(boolean b);
+
+	public abstract JsonSink nullValue();
+
+	public static JsonSink of(Appendable out) {
+		return new AppendableSink(out);
+	}
+
+	public static JsonSink of(JSONWriter writer) {
+		return new WriterSink(writer);
+	}
+
+	static class AppendableSink extends JsonSink {
+
+		protected final Appendable out;
+		protected boolean comma;
+
+		AppendableSink(Appendable out) {
+			this.out = out;
+		}
+
+		protected void separate() throws IOException {
+			if (comma)
+				out.append(',');
+		}
+
+		@Override
+		public JsonSink object() {
+			try {
+				separate();
+				out.append('{');
+			} catch (IOException e) {
+				throw new JSONException(e);
+			}
+			comma = false;
+			return this;
+		}
+
+		@Override
+		public JsonSink endObject() {
+			try {
+				out.append('}');
+			} catch (IOException e) {
+				throw new JSONException(e);
+			}
+			comma = true;
+			return this;
+		}
+
+		@Override
+		public JsonSink array() {
+			try {
+				separate();
+				out.append('[');
+			} catch (IOException e) {
+				throw new JSONException(e);
+			}
+			comma = false;
+			return this;
+		}
+
+		@Override
+		public JsonSink endArray() {
+			try {
+				out.append(']');
+			} catch (IOException e) {
+				throw new JSONException(e);
+			}
+			comma = true;
+			return this;
+		}
+
+		@Override
+		public JsonSink key(String name) {
+			try {
+				separate();
+				JSONObject.quote(name, out);
+				out.append(':');
+			} catch (IOException e) {
+				throw new JSONException(e);
+			}
+			comma = false;
+			return this;
+		}
+
+		@Override
+		public JsonSink value(String s) {
+			if (s == null)
+				return nullValue();
+			try {
+				separate();
+				JSONObject.quote(s, out);
+			} catch (IOException e) {
+				throw new JSONException(e);
+			}
+			comma = true;
+			return this;
+		}
+
+		@Override
+		public JsonSink value(long l) {
+			return raw(Long.toString(l));
+		}
+
+		@Override
+		public JsonSink value(double d) {
+			if (Double.isInfinite(d) || Double.isNaN(d))
+				throw new JSONException("JSON does not allow non-finite numbers.");
+			return raw(JSONObject.doubleToString(d));
+		}
+
+		@Override
+		public JsonSink value(float f) {
+			if (Float.isInfinite(f) || Float.isNaN(f))
+				throw new JSONException("JSON does not allow non-finite numbers.");
+			return raw(Float.toString(f));
+		}
+
+		@Override
+		public JsonSink value(boolean b) {
+			return raw(b ? "true" : "false");
+		}
+
+		@Override
+		public JsonSink nullValue() {
+			return raw("null");
+		}
+
+		/**
+		 * Ends a top-level value with a line break, so that the next value
+		 * starts a new record instead of continuing a list.
+		 */
+		JsonSink newline() {
+			try {
+				out.append('\n');
+			} catch (IOException e) {
+				throw new JSONException(e);
+			}
+			comma = false;
+			return this;
+		}
+
+		protected JsonSink raw(String s) {
+			try {
+				separate();
+				out.append(s);
+			} catch (IOException e) {
+				throw new JSONException(e);
+			}
+			comma = true;
+			return this;
+		}
+	}
+
+	/**
+	 * Writes UTF-8 bytes straight to a stream or buffer. Pre-encoded keys are
+	 * copied as they are.
+	 */
+	static class Utf8Sink extends AppendableSink {
+
+		Utf8Sink(Utf8Writer out) {
+			super(out);
+		}
+
+		@Override
+		JsonSink key(String name, byte[] utf8) {
+			try {
+				separate();
+				((Utf8Writer) out).writeRaw(utf8);
+			} catch (IOException e) {
+				throw new JSONException(e);
+			}
+			comma = false;
+			return this;
+		}
+
+		void close() {
+			try {
+				((Utf8Writer) out).close();
+			} catch (IOException e) {
+				throw new JSONException(e);
+			}
+		}
+	}
+
+	static class WriterSink extends JsonSink {
+
+		private final JSONWriter writer;
+
+		WriterSink(JSONWriter writer) {
+			this.writer = writer;
+		}
+
+		@Override
+		public JsonSink object() {
+			writer.object();
+			return this;
+		}
+
+		@Override
+		public JsonSink endObject() {
+			writer.endObject();
+			return this;
+		}
+
+		@Override
+		public JsonSink array() {
+			writer.array();
+			return this;
+		}
+
+		@Override
+		public JsonSink endArray() {
+			writer.endArray();
+			return this;
+		}
+
+		@Override
+		public JsonSink key(String name) {
+			writer.key(name);
+			return this;
+		}
+
+		@Override
+		public JsonSink value(String s) {
+			writer.value((Object) s);
+			return this;
+		}
+
+		@Override
+		public JsonSink value(long l) {
+			writer.value(l);
+			return this;
+		}
+
+		@Override
+		public JsonSink value(double d) {
+			writer.value(d);
+			return this;
+		}
+
+		@Override
+		public JsonSink value(float f) {
+			writer.value((Object) Float.valueOf(f));
+			return this;
+		}
+
+		@Override
+		public JsonSink value(boolean b) {
+			writer.value(b);
+			return this;
+		}
+
+		@Override
+		public JsonSink nullValue() {
+			writer.value((Object) null);
+			return this;
+		}
+	}
+}
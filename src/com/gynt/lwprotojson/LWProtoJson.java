@@ -1,25 +1,39 @@
 package com.gynt.lwprotojson;
 
-import java.io.ByteArrayOutputStream;
-import java.io.StringWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
 import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.json.JSONWriter;
+import org.json.PooledWriter;
+import org.json.StringCache;
+import org.json.Utf8Tokener;
+import org.json.Utf8Writer;
 
 public abstract class LWProtoJson {
 
@@ -43,140 +57,1152 @@ public abstract class LWProtoJson {
 		public abstract String serialize(T obj)
 				throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException;
 
-	}
+		/**
+		 * Writes obj as the next value of out. By default this is the String
+		 * made by {@link #serialize(Object)}, written as a JSON string.
+		 */
+		public void serialize(T obj, JsonSink out)
+				throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
+			out.value(serialize(obj));
+		}
 
-	@SuppressWarnings("rawtypes")
-	private static final HashMap<Class<?>, AbstractSerializer> map = new HashMap<>();
+		/**
+		 * Reads the next value from x. By default this reads a JSON string, or
+		 * the text of an unquoted value, and passes it to
+		 * {@link #deserialize(String)}.
+		 */
+		public T deserialize(JSONTokener x) throws InstantiationException, IllegalAccessException {
+			String data = Serializer.readString(x);
+			return data == null ? null : deserialize(data);
+		}
 
-	static {
-		map.put(String.class, new AbstractSerializer<String>(String.class) {
+		/**
+		 * Binds the fields of a versioned object as {@link #readFields} reads
+		 * them.
+		 */
+		protected interface FieldReader<T> {
+
+			/**
+			 * Reads the value of key into obj. Returns false if key is not a
+			 * field of version, in which case nothing has been read.
+			 */
+			boolean readField(T obj, int version, String key, JSONTokener x)
+					throws InstantiationException, IllegalAccessException;
+		}
 
-			@Override
-			public String deserialize(String data) {
-				return data;
+		/**
+		 * Reads the next JSON object from x into obj, as written by a versioned
+		 * serializer. Fields are bound as their tokens are read, which requires
+		 * "version" to be the first key. Keys that arrive before "version" are
+		 * buffered as text, and once the version is known they are bound in
+		 * the order of names, the fields of the class in the order they are
+		 * written.
+		 * <p>
+		 * When a key appears more than once, the field is bound to its last
+		 * value, whether the repeats come before "version", after it, or on
+		 * both sides of it. "version" itself may appear only once.
+		 */
+		protected static <T> T readFields(JSONTokener x, T obj, String[] names, FieldReader<T> reader)
+				throws InstantiationException, IllegalAccessException {
+			if (x.nextClean() != '{') {
+				throw x.syntaxError("A JSONObject text must begin with '{'");
 			}
-
-			@Override
-			public String serialize(String obj) {
-				return obj;
+			boolean versioned = false;
+			int version = 0;
+			HashMap<String, String> pending = null;
+			if (x.nextClean() != '}') {
+				x.back();
+				do {
+					String key = Serializer.readKey(x);
+					if (versioned) {
+						if (key.equals("version"))
+							throw new JSONException("Duplicate key \"version\"");
+						if (!reader.readField(obj, version, key, x))
+							x.nextValue();
+					} else if (key.equals("version")) {
+						version = Primitive.toInt(Serializer.readScalar(x));
+						versioned = true;
+						if (pending != null) {
+							for (String name : names) {
+								String raw = pending.get(name);
+								if (raw != null) {
+									JSONTokener y = new JSONTokener(raw);
+									y.setStringCache(x.getStringCache());
+									reader.readField(obj, version, name, y);
+								}
+							}
+						}
+					} else {
+						if (pending == null)
+							pending = new HashMap<>();
+						pending.put(key, Serializer.readRaw(x));
+					}
+				} while (Serializer.nextMember(x, '}'));
 			}
-		});
-		map.put(int.class, new AbstractSerializer<Integer>(int.class) {
+			if (!versioned)
+				throw new JSONException("JSONObject[\"version\"] not found.");
+			return obj;
+		}
 
-			@Override
-			public Integer deserialize(String data) {
-				return Integer.parseInt(data);
-			}
+	}
 
-			@Override
-			public String serialize(Integer obj) {
-				return obj.toString();
-			}
+	/**
+	 * A set of codecs keyed by class. Lookups read an immutable snapshot and
+	 * never lock; register and remove publish a modified copy of it. Besides
+	 * the global registry used by the static methods, separate registries can
+	 * be created so that subsystems keep isolated codec sets.
+	 */
+	public static class Registry {
 
-		});
-		map.put(Integer.class, map.get(int.class));
-		LWProtoJson.register(long.class, new AbstractSerializer<Long>(long.class) {
+		@SuppressWarnings("rawtypes")
+		private volatile Map<Class<?>, AbstractSerializer> snapshot;
 
-			@Override
-			public Long deserialize(String data) {
-				return Long.parseLong(data);
-			}
+		public Registry() {
+			snapshot = Collections.emptyMap();
+		}
 
-			@Override
-			public String serialize(Long obj) {
-				return obj.toString();
-			}
+		/**
+		 * Creates a registry that starts out with the codecs currently in base.
+		 */
+		public Registry(Registry base) {
+			snapshot = base.snapshot;
+		}
 
-		});
-		LWProtoJson.register(Long.class, LWProtoJson.retrieve(long.class));
-		LWProtoJson.register(double.class, new AbstractSerializer<Double>(double.class) {
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		public synchronized <T> AbstractSerializer<T> register(Class<T> type, AbstractSerializer<T> a) {
+			HashMap<Class<?>, AbstractSerializer> copy = new HashMap<>(snapshot);
+			AbstractSerializer<T> previous = copy.put(type, a);
+			snapshot = Collections.unmodifiableMap(copy);
+			return previous;
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		public synchronized <T> AbstractSerializer<T> remove(Class<T> type) {
+			if (!snapshot.containsKey(type))
+				return null;
+			HashMap<Class<?>, AbstractSerializer> copy = new HashMap<>(snapshot);
+			AbstractSerializer<T> previous = copy.remove(type);
+			snapshot = Collections.unmodifiableMap(copy);
+			return previous;
+		}
+
+		/**
+		 * Returns the codec registered for type. If there is none but a
+		 * serializer was generated for type at compile time, that serializer
+		 * is created once for this registry and returned.
+		 */
+		@SuppressWarnings("unchecked")
+		public <T> AbstractSerializer<T> retrieve(Class<T> type) {
+			return codec(type);
+		}
+
+		public boolean contains(Class<?> type) {
+			return snapshot.containsKey(type) || GENERATED.get(type) != null;
+		}
+
+		@SuppressWarnings("rawtypes")
+		AbstractSerializer codec(Class<?> type) {
+			AbstractSerializer codec = snapshot.get(type);
+			if (codec == null && GENERATED.get(type) != null)
+				codec = BUILDING.get().contains(type) ? new Serializer.Deferred(this, type) : generated.get(type);
+			return codec;
+		}
+
+		/**
+		 * Returns the Serializer of type built against this registry. It is
+		 * created on first use and shared afterwards, so its setters throw;
+		 * the with methods, such as
+		 * {@link Serializer#withQuotedPrimitives(boolean)}, return configured
+		 * copies instead. Entries are held by the classes themselves and do
+		 * not keep their class loaders alive.
+		 */
+		@SuppressWarnings("unchecked")
+		public <T> Serializer<T> serializer(Class<T> type) {
+			return (Serializer<T>) serializers.get(type);
+		}
+
+		private final ClassValue<Serializer<?>> serializers = new ClassValue<Serializer<?>>() {
 
 			@Override
-			public Double deserialize(String data) throws InstantiationException, IllegalAccessException {
-				return Double.parseDouble(data);
+			protected Serializer<?> computeValue(Class<?> type) {
+				return new Serializer<>(type, Registry.this, true, true);
 			}
+		};
+
+		/**
+		 * The generated serializers created for this registry. Like
+		 * {@link #serializer(Class)}, they are held by their classes rather than
+		 * by the snapshot, so they do not keep class loaders alive.
+		 */
+		@SuppressWarnings("rawtypes")
+		private final ClassValue<AbstractSerializer> generated = new ClassValue<AbstractSerializer>() {
 
 			@Override
-			public String serialize(Double obj)
-					throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException {
-				return obj.toString();
+			protected AbstractSerializer computeValue(Class<?> type) {
+				HashSet<Class<?>> building = BUILDING.get();
+				boolean added = building.add(type);
+				try {
+					GeneratedSerializer codec = (GeneratedSerializer) GENERATED.get(type).newInstance(Registry.this);
+					codec.shared = true;
+					return codec;
+				} catch (ReflectiveOperationException e) {
+					throw new RuntimeException("Cannot create generated serializer for " + type.getName(), e);
+				} finally {
+					if (added)
+						building.remove(type);
+				}
 			}
+		};
 
-		});
-		LWProtoJson.register(Double.class, LWProtoJson.retrieve(double.class));
-		LWProtoJson.register(float.class, new AbstractSerializer<Float>(float.class) {
+	}
 
-			@Override
-			public Float deserialize(String data) throws InstantiationException, IllegalAccessException {
-				return Float.parseFloat(data);
+	private static final Registry map = new Registry();
+
+	/**
+	 * The classes whose Serializer is being built on this thread. Fields that
+	 * refer back to one of them get a {@link Serializer.Deferred} codec.
+	 */
+	private static final ThreadLocal<HashSet<Class<?>>> BUILDING = new ThreadLocal<HashSet<Class<?>>>() {
+
+		@Override
+		protected HashSet<Class<?>> initialValue() {
+			return new HashSet<>();
+		}
+	};
+
+	/**
+	 * Suffix of the serializers generated by the annotation processor. The
+	 * serializer of com.a.Outer.Inner is com.a.Outer_Inner_LwprotojsonSerializer.
+	 */
+	public static final String GENERATED_SUFFIX = "_LwprotojsonSerializer";
+
+	/**
+	 * The (Registry) constructor of the generated serializer of each class, or
+	 * null if it has none.
+	 */
+	private static final ClassValue<Constructor<?>> GENERATED = new ClassValue<Constructor<?>>() {
+
+		@Override
+		protected Constructor<?> computeValue(Class<?> type) {
+			if (type.isPrimitive() || type.isArray())
+				return null;
+			String name = type.getName();
+			int dot = name.lastIndexOf('.');
+			name = name.substring(0, dot + 1) + name.substring(dot + 1).replace('$', '_') + GENERATED_SUFFIX;
+			try {
+				Class<?> c = Class.forName(name, false, type.getClassLoader());
+				if (!AbstractSerializer.class.isAssignableFrom(c))
+					return null;
+				return c.getConstructor(Registry.class);
+			} catch (ClassNotFoundException | NoSuchMethodException e) {
+				return null;
 			}
+		}
+	};
 
-			@Override
-			public String serialize(Float obj)
-					throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException {
-				return obj.toString();
+	/**
+	 * The built-in codecs for primitives and their boxes. Besides the quoted
+	 * String form every codec has, they can write and read values as native
+	 * JSON numbers and booleans.
+	 */
+	static abstract class Primitive<T> extends AbstractSerializer<T> {
+
+		Primitive(Class<?> c) {
+			super(c);
+		}
+
+		abstract void write(T obj, JsonSink out);
+
+		/**
+		 * Converts a scalar token, either a String or a Number or Boolean read
+		 * from native JSON, into a value.
+		 */
+		abstract T read(Object token);
+
+		/*
+		 * The integral conversions are exact, like Number.intValueExact: a
+		 * value that is out of range or has a fraction is rejected instead of
+		 * being truncated. null, which only reaches these for primitive
+		 * fields, is rejected as well.
+		 */
+
+		static int toInt(Object token) {
+			long v = toLong(token, "an int");
+			if ((int) v != v)
+				throw invalid(token, "an int");
+			return (int) v;
+		}
+
+		static long toLong(Object token) {
+			return toLong(token, "a long");
+		}
+
+		private static long toLong(Object token, String expected) {
+			if (token instanceof Integer || token instanceof Long || token instanceof Short || token instanceof Byte)
+				return ((Number) token).longValue();
+			try {
+				if (token instanceof Number)
+					return new BigDecimal(token.toString()).longValueExact();
+				if (token != null)
+					return Long.parseLong(token.toString());
+			} catch (NumberFormatException | ArithmeticException e) {
+				throw invalid(token, expected);
 			}
+			throw invalid(token, expected);
+		}
 
-		});
-		LWProtoJson.register(Float.class, LWProtoJson.retrieve(float.class));
-		LWProtoJson.register(byte.class, new AbstractSerializer<Byte>(byte.class) {
+		static double toDouble(Object token) {
+			if (token instanceof Number)
+				return ((Number) token).doubleValue();
+			try {
+				if (token != null)
+					return Double.parseDouble(token.toString());
+			} catch (NumberFormatException e) {
+			}
+			throw invalid(token, "a double");
+		}
 
-			@Override
-			public Byte deserialize(String data) throws InstantiationException, IllegalAccessException {
-				return Byte.parseByte(data);
+		static float toFloat(Object token) {
+			if (token instanceof Number)
+				return ((Number) token).floatValue();
+			try {
+				if (token != null)
+					return Float.parseFloat(token.toString());
+			} catch (NumberFormatException e) {
 			}
+			throw invalid(token, "a float");
+		}
 
-			@Override
-			public String serialize(Byte obj)
-					throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException {
-				return obj.toString();
+		static byte toByte(Object token) {
+			long v = toLong(token, "a byte");
+			if ((byte) v != v)
+				throw invalid(token, "a byte");
+			return (byte) v;
+		}
+
+		static short toShort(Object token) {
+			long v = toLong(token, "a short");
+			if ((short) v != v)
+				throw invalid(token, "a short");
+			return (short) v;
+		}
+
+		static boolean toBoolean(Object token) {
+			if (token instanceof Boolean)
+				return (Boolean) token;
+			if (token != null) {
+				String s = token.toString();
+				if (s.equalsIgnoreCase("true"))
+					return true;
+				if (s.equalsIgnoreCase("false"))
+					return false;
 			}
+			throw invalid(token, "a boolean");
+		}
+
+		private static JSONException invalid(Object token, String expected) {
+			return new JSONException(
+					"Value " + (token instanceof String ? JSONObject.quote((String) token) : token) + " is not " + expected + ".");
+		}
+	}
+
+	static final AbstractSerializer<String> STRING = new AbstractSerializer<String>(String.class) {
+
+		@Override
+		public String deserialize(String data) {
+			return data;
+		}
+
+		@Override
+		public String serialize(String obj) {
+			return obj;
+		}
+	};
+
+	private static final Primitive<Integer> INT = new Primitive<Integer>(int.class) {
+
+		@Override
+		public Integer deserialize(String data) {
+			return Integer.parseInt(data);
+		}
+
+		@Override
+		public String serialize(Integer obj) {
+			return obj.toString();
+		}
+
+		@Override
+		void write(Integer obj, JsonSink out) {
+			out.value(obj.intValue());
+		}
+
+		@Override
+		Integer read(Object token) {
+			return toInt(token);
+		}
+
+	};
+
+	private static final Primitive<Long> LONG = new Primitive<Long>(long.class) {
+
+		@Override
+		public Long deserialize(String data) {
+			return Long.parseLong(data);
+		}
+
+		@Override
+		public String serialize(Long obj) {
+			return obj.toString();
+		}
+
+		@Override
+		void write(Long obj, JsonSink out) {
+			out.value(obj.longValue());
+		}
+
+		@Override
+		Long read(Object token) {
+			return toLong(token);
+		}
+
+	};
+
+	private static final Primitive<Double> DOUBLE = new Primitive<Double>(double.class) {
+
+		@Override
+		public Double deserialize(String data) {
+			return Double.parseDouble(data);
+		}
+
+		@Override
+		public String serialize(Double obj) {
+			return obj.toString();
+		}
 
-		});
+		@Override
+		void write(Double obj, JsonSink out) {
+			out.value(obj.doubleValue());
+		}
+
+		@Override
+		Double read(Object token) {
+			return toDouble(token);
+		}
+
+	};
+
+	private static final Primitive<Float> FLOAT = new Primitive<Float>(float.class) {
+
+		@Override
+		public Float deserialize(String data) {
+			return Float.parseFloat(data);
+		}
+
+		@Override
+		public String serialize(Float obj) {
+			return obj.toString();
+		}
+
+		@Override
+		void write(Float obj, JsonSink out) {
+			out.value(obj.floatValue());
+		}
+
+		@Override
+		Float read(Object token) {
+			return toFloat(token);
+		}
+
+	};
+
+	private static final Primitive<Byte> BYTE = new Primitive<Byte>(byte.class) {
+
+		@Override
+		public Byte deserialize(String data) {
+			return Byte.parseByte(data);
+		}
+
+		@Override
+		public String serialize(Byte obj) {
+			return obj.toString();
+		}
+
+		@Override
+		void write(Byte obj, JsonSink out) {
+			out.value(obj.byteValue());
+		}
+
+		@Override
+		Byte read(Object token) {
+			return toByte(token);
+		}
+
+	};
+
+	private static final Primitive<Short> SHORT = new Primitive<Short>(short.class) {
+
+		@Override
+		public Short deserialize(String data) {
+			return Short.parseShort(data);
+		}
+
+		@Override
+		public String serialize(Short obj) {
+			return obj.toString();
+		}
+
+		@Override
+		void write(Short obj, JsonSink out) {
+			out.value(obj.shortValue());
+		}
+
+		@Override
+		Short read(Object token) {
+			return toShort(token);
+		}
+
+	};
+
+	private static final Primitive<Boolean> BOOLEAN = new Primitive<Boolean>(boolean.class) {
+
+		@Override
+		public Boolean deserialize(String data) {
+			return Boolean.parseBoolean(data);
+		}
+
+		@Override
+		public String serialize(Boolean obj) {
+			return obj.toString();
+		}
+
+		@Override
+		void write(Boolean obj, JsonSink out) {
+			out.value(obj.booleanValue());
+		}
+
+		@Override
+		Boolean read(Object token) {
+			return toBoolean(token);
+		}
+
+	};
+
+	static {
+		map.register(String.class, STRING);
+		map.register(int.class, INT);
+		map.register(Integer.class, map.retrieve(int.class));
+		LWProtoJson.register(long.class, LONG);
+		LWProtoJson.register(Long.class, LWProtoJson.retrieve(long.class));
+		LWProtoJson.register(double.class, DOUBLE);
+		LWProtoJson.register(Double.class, LWProtoJson.retrieve(double.class));
+		LWProtoJson.register(float.class, FLOAT);
 		LWProtoJson.register(Float.class, LWProtoJson.retrieve(float.class));
+		LWProtoJson.register(byte.class, BYTE);
+		LWProtoJson.register(Byte.class, LWProtoJson.retrieve(byte.class));
+		LWProtoJson.register(short.class, SHORT);
+		LWProtoJson.register(Short.class, LWProtoJson.retrieve(short.class));
+		LWProtoJson.register(boolean.class, BOOLEAN);
+		LWProtoJson.register(Boolean.class, LWProtoJson.retrieve(boolean.class));
 	}
 
-	@SuppressWarnings("unchecked")
 	public static <T> AbstractSerializer<T> register(Class<T> type, AbstractSerializer<T> a) {
-		return map.put(type, a);
+		return map.register(type, a);
 	}
 
-	@SuppressWarnings("unchecked")
 	public static <T> AbstractSerializer<T> remove(Class<T> type) {
 		return map.remove(type);
 	}
 
-	@SuppressWarnings("unchecked")
 	public static <T> AbstractSerializer<T> retrieve(Class<T> type) {
-		return map.get(type);
+		return map.retrieve(type);
+	}
+
+	/**
+	 * The global registry used by {@link #register}, {@link #retrieve} and
+	 * serializers that are not given a registry of their own.
+	 */
+	public static Registry registry() {
+		return map;
+	}
+
+	/**
+	 * Returns the shared Serializer of c for the global registry, building it
+	 * once. See {@link Registry#serializer(Class)}.
+	 */
+	public static <T> Serializer<T> serializerFor(Class<T> c) {
+		return map.serializer(c);
+	}
+
+	/**
+	 * Calls the no-argument constructor of c. Unlike Class.newInstance, a
+	 * checked exception thrown by the constructor is wrapped instead of being
+	 * rethrown undeclared.
+	 */
+	static <T> T instantiate(Class<T> c) throws InstantiationException, IllegalAccessException {
+		try {
+			return c.getDeclaredConstructor().newInstance();
+		} catch (NoSuchMethodException | InvocationTargetException e) {
+			Throwable cause = e instanceof InvocationTargetException ? e.getCause() : e;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			InstantiationException wrapped = new InstantiationException(c.getName());
+			wrapped.initCause(cause);
+			throw wrapped;
+		}
 	}
 
 	public static class Serializer<T> extends AbstractSerializer<T> {
 
-		private boolean hasversion;
-		private Field[] fields;
+		enum Kind {
+			INT, LONG, DOUBLE, FLOAT, BYTE, SHORT, BOOLEAN, VALUE, COLLECTION, MAP, ARRAY
+		}
+
+		/**
+		 * A compiled @Lwprotojson field: its accessor, version range and the
+		 * codecs resolved for its type.
+		 */
+		static final class Slot {
+			final String name;
+			final byte[] utf8key;
+			final int from;
+			final int until;
+			final FieldAccessor accessor;
+			final Kind kind;
+			final Class<?> type;
+			final Class<?> componenttype;
+			final Class<?> valuetype;
+			@SuppressWarnings("rawtypes")
+			final AbstractSerializer codec;
+			@SuppressWarnings("rawtypes")
+			final AbstractSerializer valuecodec;
+
+			@SuppressWarnings("rawtypes")
+			Slot(Field f, Lwprotojson anno, FieldAccessor accessor, Serializer<?> owner) {
+				this.name = f.getName();
+				this.utf8key = JsonSink.encodeKey(name);
+				this.from = anno.from();
+				this.until = anno.until();
+				this.accessor = accessor;
+				this.type = f.getType();
+
+				Class<?> componenttype = null;
+				Class<?> valuetype = null;
+				AbstractSerializer codec = null;
+				AbstractSerializer valuecodec = null;
+				if (Collection.class.isAssignableFrom(type)) {
+					kind = Kind.COLLECTION;
+					componenttype = typeArgument(f, 0);
+					codec = resolve(owner.registry, owner, componenttype);
+				} else if (Map.class.isAssignableFrom(type)) {
+					kind = Kind.MAP;
+					componenttype = typeArgument(f, 0);
+					valuetype = typeArgument(f, 1);
+					codec = resolve(owner.registry, owner, componenttype);
+					valuecodec = resolve(owner.registry, owner, valuetype);
+				} else if (type.isArray()) {
+					kind = Kind.ARRAY;
+					componenttype = type.getComponentType();
+					codec = resolve(owner.registry, owner, componenttype);
+				} else {
+					codec = resolve(owner.registry, owner, type);
+					if (type == int.class && codec == INT) {
+						kind = Kind.INT;
+					} else if (type == long.class && codec == LONG) {
+						kind = Kind.LONG;
+					} else if (type == double.class && codec == DOUBLE) {
+						kind = Kind.DOUBLE;
+					} else if (type == float.class && codec == FLOAT) {
+						kind = Kind.FLOAT;
+					} else if (type == byte.class && codec == BYTE) {
+						kind = Kind.BYTE;
+					} else if (type == short.class && codec == SHORT) {
+						kind = Kind.SHORT;
+					} else if (type == boolean.class && codec == BOOLEAN) {
+						kind = Kind.BOOLEAN;
+					} else {
+						kind = Kind.VALUE;
+					}
+				}
+				this.componenttype = componenttype;
+				this.valuetype = valuetype;
+				this.codec = codec;
+				this.valuecodec = valuecodec;
+			}
+
+			boolean includes(int version) {
+				return version >= from && version <= until;
+			}
+
+			private static Class<?> typeArgument(Field f, int i) {
+				if (!(f.getGenericType() instanceof ParameterizedType))
+					throw new RuntimeException("Raw type not supported: " + f.getName());
+				Type t = ((ParameterizedType) f.getGenericType()).getActualTypeArguments()[i];
+				if (!(t instanceof Class))
+					throw new RuntimeException("Unsupported type argument: " + t.getTypeName());
+				return (Class<?>) t;
+			}
+		}
+
+		/**
+		 * Resolves the codec of c for a field of owner, which is a Serializer
+		 * or a generated serializer built against registry. A class that refers
+		 * to itself gets owner, and one whose serializer is still being built
+		 * further up a chain of references gets a {@link Deferred} codec.
+		 */
+		@SuppressWarnings("rawtypes")
+		static AbstractSerializer resolve(Registry registry, AbstractSerializer<?> owner, Class<?> c) {
+			AbstractSerializer codec = registry.codec(c);
+			if (codec == null && c == owner.type)
+				codec = owner;
+			if (codec == null && (c.isArray() || annotated(c)))
+				codec = BUILDING.get().contains(c) ? new Deferred(registry, c) : registry.serializer(c);
+			if (codec == null)
+				throw new RuntimeException("Unsupported class: " + c.getName());
+			return codec;
+		}
+
+		/**
+		 * The codec of a class whose Serializer was still being built when a
+		 * field referring to it was resolved. It looks the codec up on first
+		 * use.
+		 */
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		static final class Deferred extends AbstractSerializer<Object> {
+
+			private final Registry registry;
+			private volatile AbstractSerializer codec;
+
+			Deferred(Registry registry, Class<?> c) {
+				super(c);
+				this.registry = registry;
+			}
+
+			private AbstractSerializer codec() {
+				AbstractSerializer codec = this.codec;
+				if (codec == null) {
+					codec = registry.codec(type);
+					if (codec == null)
+						codec = registry.serializer(type);
+					this.codec = codec;
+				}
+				return codec;
+			}
+
+			@Override
+			public Object deserialize(String data) throws InstantiationException, IllegalAccessException {
+				return codec().deserialize(data);
+			}
+
+			@Override
+			public Object deserialize(JSONTokener x) throws InstantiationException, IllegalAccessException {
+				return codec().deserialize(x);
+			}
+
+			@Override
+			public String serialize(Object obj)
+					throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
+				return codec().serialize(obj);
+			}
+
+			@Override
+			public void serialize(Object obj, JsonSink out)
+					throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
+				codec().serialize(obj, out);
+			}
+		}
+
+		private static boolean annotated(Class<?> c) {
+			for (Field f : c.getDeclaredFields()) {
+				if (f.isAnnotationPresent(Lwprotojson.class))
+					return true;
+			}
+			return false;
+		}
+
+		final Registry registry;
+		final FieldAccessor version;
+		final Slot[] slots;
+		@SuppressWarnings("rawtypes")
+		final AbstractSerializer componentcodec;
+		/**
+		 * The versions at which the set of included fields changes, ascending
+		 * and starting at Integer.MIN_VALUE. layouts[i] holds the fields of
+		 * every version from bounds[i] up to, but not including, bounds[i + 1].
+		 */
+		private final int[] bounds;
+		private final Layout[] layouts;
+		/** The names of slots, for {@link AbstractSerializer#readFields}. */
+		private final String[] names;
+		private final FieldReader<T> fields = this::readField;
+		private boolean quoted;
+		private ForkJoinPool pool;
+		private int threshold;
+		private StringCache strings;
+		private final boolean generated;
+		/** Set on the Serializers that {@link Registry#serializer(Class)} shares. */
+		private final boolean shared;
 
 		public Serializer(Class<?> c) {
+			this(c, map, false);
+		}
+
+		public Serializer(Class<?> c, boolean generated) {
+			this(c, map, generated);
+		}
+
+		public Serializer(Class<?> c, Registry registry) {
+			this(c, registry, false);
+		}
+
+		/**
+		 * Compiles the serialization plan for c. Every @Lwprotojson field is
+		 * resolved to its codecs here, so an unsupported field type fails
+		 * immediately instead of on the first message.
+		 *
+		 * @param registry
+		 *            the registry codecs are resolved from.
+		 * @param generated
+		 *            when true, fields are accessed through method handles
+		 *            instead of {@link Field#get(Object)} and
+		 *            {@link Field#set(Object, Object)}, and primitive fields
+		 *            are read and written without boxing; see
+		 *            {@link FieldAccessor#of(Field, boolean)}.
+		 */
+		public Serializer(Class<?> c, Registry registry, boolean generated) {
+			this(c, registry, generated, false);
+		}
+
+		Serializer(Class<?> c, Registry registry, boolean generated, boolean shared) {
 			super(c);
+			this.registry = registry;
+			this.generated = generated;
+			this.shared = shared;
 
-			hasversion = false;
+			HashSet<Class<?>> building = BUILDING.get();
+			boolean added = building.add(c);
 			try {
-				c.getDeclaredField("VERSION");
-				hasversion = true;
-			} catch (NoSuchFieldException e) {
-				// e.printStackTrace();
-			} catch (SecurityException e) {
-				e.printStackTrace();
+				if (c.isArray()) {
+					version = null;
+					slots = new Slot[0];
+					componentcodec = resolve(registry, this, c.getComponentType());
+				} else {
+					componentcodec = null;
+
+					FieldAccessor v = null;
+					try {
+						v = FieldAccessor.of(c.getDeclaredField("VERSION"), generated);
+					} catch (NoSuchFieldException e) {
+						// e.printStackTrace();
+					} catch (SecurityException e) {
+						e.printStackTrace();
+					}
+					version = v;
+
+					ArrayList<Slot> temp = new ArrayList<>();
+					for (Field f : c.getDeclaredFields()) {
+						Lwprotojson anno = f.getDeclaredAnnotation(Lwprotojson.class);
+						if (anno == null)
+							continue;
+						temp.add(new Slot(f, anno, FieldAccessor.of(f, generated), this));
+					}
+					slots = temp.toArray(new Slot[0]);
+				}
+
+				bounds = bounds(slots);
+				layouts = new Layout[bounds.length];
+				for (int i = 0; i < bounds.length; i++) {
+					layouts[i] = new Layout(slots, bounds[i]);
+				}
+				names = new String[slots.length];
+				for (int i = 0; i < slots.length; i++) {
+					names[i] = slots[i].name;
+				}
+			} finally {
+				if (added)
+					building.remove(c);
 			}
+		}
 
-			ArrayList<Field> temp = new ArrayList<>();
-			for (Field f : c.getDeclaredFields()) {
-				if (f.getDeclaredAnnotation(Lwprotojson.class) == null)
-					continue;
-				f.setAccessible(true);
-				temp.add(f);
+		/**
+		 * When set, primitives and their boxes are written as quoted strings
+		 * ({"age":"100"}) for peers that expect the original format. By default
+		 * they are written as JSON numbers and booleans. Values of other codecs,
+		 * such as nested serializers, are then also written as JSON strings
+		 * instead of embedded JSON. Both forms are accepted when reading,
+		 * whatever this is set to.
+		 */
+		public Serializer<T> setQuotedPrimitives(boolean quoted) {
+			configurable("withQuotedPrimitives");
+			this.quoted = quoted;
+			return this;
+		}
+
+		/**
+		 * Returns a new Serializer with the settings of this one, except for
+		 * {@link #setQuotedPrimitives(boolean)}. This is how the Serializers
+		 * shared by a {@link Registry} are configured.
+		 */
+		public Serializer<T> withQuotedPrimitives(boolean quoted) {
+			return copy().setQuotedPrimitives(quoted);
+		}
+
+		public boolean isQuotedPrimitives() {
+			return quoted;
+		}
+
+		/**
+		 * Serializes object arrays and collections, both this Serializer's own
+		 * T[] and array or collection fields, in parallel on pool once they hold
+		 * at least threshold elements. Chunks of elements are written into
+		 * separate buffers which are appended in order, so the output is the same
+		 * as in sequential mode. Reading binds elements in place until an array
+		 * reaches threshold elements, then splits off the text of the remaining
+		 * elements and binds chunks of them in parallel. Splitting scans that
+		 * text once more than sequential reading does, so parallel reading is
+		 * slower unless binding the elements keeps several cores busy.
+		 * <p>
+		 * Pass a null pool to turn this off again, which is the default. Element
+		 * codecs must be safe to use from several threads. Output to a
+		 * {@link JSONWriter} is always sequential.
+		 */
+		public Serializer<T> setParallel(ForkJoinPool pool, int threshold) {
+			configurable("withParallel");
+			this.pool = pool;
+			this.threshold = Math.max(1, threshold);
+			return this;
+		}
+
+		/**
+		 * Returns a new Serializer with the settings of this one, except for
+		 * {@link #setParallel(ForkJoinPool, int)}.
+		 */
+		public Serializer<T> withParallel(ForkJoinPool pool, int threshold) {
+			return copy().setParallel(pool, threshold);
+		}
+
+		/**
+		 * Shares the keys and string values read by this Serializer through
+		 * cache, so that records with the same keys and repeated values do not
+		 * each hold their own copies. It applies to the tokeners this Serializer
+		 * creates; a JSONTokener passed in keeps its own setting. Pass null to
+		 * turn this off again, which is the default.
+		 */
+		public Serializer<T> setStringCache(StringCache cache) {
+			configurable("withStringCache");
+			this.strings = cache;
+			return this;
+		}
+
+		/**
+		 * Returns a new Serializer with the settings of this one, except for
+		 * {@link #setStringCache(StringCache)}.
+		 */
+		public Serializer<T> withStringCache(StringCache cache) {
+			return copy().setStringCache(cache);
+		}
+
+		/**
+		 * The settings are plain fields, so a Serializer is configured before
+		 * it is handed to other threads. One shared by a Registry already has
+		 * been.
+		 */
+		private void configurable(String with) {
+			if (shared)
+				throw new UnsupportedOperationException(
+						"The Serializer of " + type.getName() + " is shared by its registry; use " + with + " instead");
+		}
+
+		/**
+		 * Builds a Serializer of the same type against the same registry, so
+		 * that fields of type T refer to the copy rather than to this one.
+		 */
+		private Serializer<T> copy() {
+			Serializer<T> s = new Serializer<T>(type, registry, generated);
+			s.quoted = quoted;
+			s.pool = pool;
+			s.threshold = threshold;
+			s.strings = strings;
+			return s;
+		}
+
+		public StringCache getStringCache() {
+			return strings;
+		}
+
+		private JSONTokener tokener(JSONTokener x) {
+			if (strings != null)
+				x.setStringCache(strings);
+			return x;
+		}
+
+		private boolean parallel(int size, JsonSink out) {
+			return pool != null && size >= threshold && out instanceof JsonSink.AppendableSink;
+		}
+
+		/**
+		 * Writes elements as a JSON array, serializing chunks of it on the pool.
+		 */
+		@SuppressWarnings("rawtypes")
+		private void writeParallel(Object[] elements, AbstractSerializer codec, JsonSink out) {
+			int chunk = Math.max(1, elements.length / (pool.getParallelism() * 4) + 1);
+			ArrayList<ForkJoinTask<String>> tasks = new ArrayList<>();
+			for (int from = 0; from < elements.length; from += chunk) {
+				int start = from;
+				int end = Math.min(elements.length, from + chunk);
+				tasks.add(pool.submit(() -> {
+					PooledWriter w = PooledWriter.acquire(codec.type);
+					try {
+						JsonSink sink = JsonSink.of(w);
+						for (int i = start; i < end; i++) {
+							writeValue(elements[i], codec, quoted, sink);
+						}
+						return w.toString();
+					} finally {
+						w.release();
+					}
+				}));
+			}
+			out.array();
+			for (ForkJoinTask<String> task : tasks) {
+				((JsonSink.AppendableSink) out).raw(task.join());
+			}
+			out.endArray();
+		}
+
+		/**
+		 * Reads the elements of a JSON array. In parallel mode, once the array
+		 * turns out to hold at least threshold elements, the text of the
+		 * remaining elements is copied out, and chunks of it are bound on the
+		 * pool, each by a tokener of its own. Shorter arrays are bound in
+		 * place, as in sequential mode.
+		 * <p>
+		 * The reading thread still has to find where each element ends, so
+		 * those elements are scanned twice: once here to split them off, and
+		 * once by the tokener that binds them. The first scan creates no
+		 * values, but it reads every char through the tokener just like
+		 * binding does. On a single core, ParallelReadBenchmark in the
+		 * benchmarks module reads an array of 1000 Examples at a little over
+		 * half the rate of sequential mode. Parallel reading therefore only
+		 * pays off for large arrays of elements that are expensive to bind,
+		 * with cores to spare.
+		 */
+		@SuppressWarnings("rawtypes")
+		private Object[] readElements(JSONTokener x, AbstractSerializer codec) throws InstantiationException, IllegalAccessException {
+			ArrayList<Object> bound = new ArrayList<>();
+			StringBuilder raw = null;
+			int[] ends = null;
+			int n = 0;
+			if (beginArray(x)) {
+				do {
+					if (raw == null && pool != null && bound.size() == threshold - 1) {
+						raw = new StringBuilder();
+						ends = new int[16];
+					}
+					if (raw != null) {
+						readRaw(x, raw);
+						raw.append(',');
+						if (n == ends.length)
+							ends = Arrays.copyOf(ends, n * 2);
+						ends[n++] = raw.length();
+					} else {
+						bound.add(readValue(x, codec));
+					}
+				} while (nextMember(x, ']'));
+			}
+			if (raw == null)
+				return bound.toArray();
+
+			int offset = bound.size();
+			int count = n;
+			Object[] result = bound.toArray(new Object[offset + count]);
+			StringCache cache = x.getStringCache();
+			String text = raw.toString();
+			int[] limits = ends;
+			int chunk = Math.max(1, count / (pool.getParallelism() * 4) + 1);
+			ArrayList<ForkJoinTask<Object>> tasks = new ArrayList<>();
+			for (int from = 0; from < count; from += chunk) {
+				int start = from;
+				int end = Math.min(count, from + chunk);
+				tasks.add(pool.submit(() -> {
+					JSONTokener y = new JSONTokener(text.substring(start == 0 ? 0 : limits[start - 1], limits[end - 1]));
+					y.setStringCache(cache);
+					for (int i = start; i < end; i++) {
+						result[offset + i] = readValue(y, codec);
+						y.next(',');
+					}
+					return null;
+				}));
+			}
+			for (ForkJoinTask<Object> task : tasks) {
+				task.join();
+			}
+			return result;
+		}
+
+		/**
+		 * Reads an array field or T[]. Object arrays go through
+		 * {@link #readElements} so that they can be read in parallel.
+		 */
+		@SuppressWarnings("rawtypes")
+		private Object readObjectArray(JSONTokener x, Class<?> componenttype, AbstractSerializer codec)
+				throws InstantiationException, IllegalAccessException {
+			if (pool == null || componenttype.isPrimitive())
+				return readArray(x, componenttype, codec);
+			if (readNull(x))
+				return null;
+			Object[] elements = readElements(x, codec);
+			Object[] result = (Object[]) Array.newInstance(componenttype, elements.length);
+			System.arraycopy(elements, 0, result, 0, elements.length);
+			return result;
+		}
+
+		/**
+		 * The fields included in one version, in declaration order and by name.
+		 */
+		static final class Layout {
+			final Slot[] slots;
+			final HashMap<String, Slot> names = new HashMap<>();
+
+			Layout(Slot[] all, int version) {
+				ArrayList<Slot> temp = new ArrayList<>();
+				for (Slot s : all) {
+					if (!s.includes(version))
+						continue;
+					temp.add(s);
+					names.put(s.name, s);
+				}
+				slots = temp.toArray(new Slot[0]);
+			}
+		}
+
+		/**
+		 * Returns the fields included in version. Any int is accepted: the
+		 * layouts are fixed when the Serializer is created, one per interval
+		 * between the from and until bounds of the fields.
+		 */
+		Layout layout(int version) {
+			int i = Arrays.binarySearch(bounds, version);
+			return layouts[i >= 0 ? i : -i - 2];
+		}
+
+		private static int[] bounds(Slot[] slots) {
+			int[] result = new int[slots.length * 2 + 1];
+			int n = 0;
+			result[n++] = Integer.MIN_VALUE;
+			for (Slot s : slots) {
+				result[n++] = s.from;
+				if (s.until != Integer.MAX_VALUE)
+					result[n++] = s.until + 1;
+			}
+			Arrays.sort(result, 0, n);
+			int unique = 1;
+			for (int i = 1; i < n; i++) {
+				if (result[i] != result[unique - 1])
+					result[unique++] = result[i];
 			}
-			fields = temp.toArray(new Field[0]);
+			return Arrays.copyOf(result, unique);
 		}
 
 		public static <T> T[] toArray(Collection<T> list, Class<?> innertype) {
@@ -202,8 +1228,8 @@ public abstract class LWProtoJson {
 				result.put(f.getName(), serializeMap((Map) f.get(obj), (Class<?>) p.getActualTypeArguments()[0], (Class<?>) p.getActualTypeArguments()[1]));
 			} else if (f.getType().isArray()) {
 				result.put(f.getName(), serializeArray(f.get(obj), f.getType().getComponentType()));
-			} else if (map.containsKey(f.getType())) {
-				result.put(f.getName(), map.get(f.getType()).serialize(f.get(obj)));
+			} else if (registry.contains(f.getType())) {
+				result.put(f.getName(), registry.codec(f.getType()).serialize(f.get(obj)));
 			} else {
 				throw new RuntimeException("Unsupported class: " + f.getType().getName());
 			}
@@ -215,7 +1241,7 @@ public abstract class LWProtoJson {
 			if (Collection.class.isAssignableFrom(f.getType())) {
 				ParameterizedType p = (ParameterizedType) f.getGenericType();
 				Class<?> innertype = (Class<?>) p.getActualTypeArguments()[0];
-				Collection list = (Collection) f.getType().newInstance();
+				Collection list = (Collection) instantiate(f.getType());
 				for(Object o: (Object[]) deserializeArray(data.getJSONArray(f.getName()), innertype)) {
 					list.add(o);
 				}
@@ -225,9 +1251,9 @@ public abstract class LWProtoJson {
 				f.set(obj, deserializeMap(data.getJSONObject(f.getName()), (Class<Map>) f.getType(), (Class<?>) p.getActualTypeArguments()[0], (Class<?>) p.getActualTypeArguments()[1]));
 			} else if (f.getType().isArray()) {
 				f.set(obj, deserializeArray(data.getJSONArray(f.getName()), f.getType().getComponentType()));
-			} else if (map.containsKey(f.getType())) {
+			} else if (registry.contains(f.getType())) {
 
-				f.set(obj, map.get(f.getType()).deserialize(data.getString(f.getName())));
+				f.set(obj, registry.codec(f.getType()).deserialize(data.getString(f.getName())));
 				return;
 
 			} else {
@@ -235,85 +1261,687 @@ public abstract class LWProtoJson {
 			}
 		}
 
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private void writeField(Slot s, T obj, JsonSink out)
+				throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
+			FieldAccessor a = s.accessor;
+			switch (s.kind) {
+			case INT:
+				if (quoted)
+					out.value(Integer.toString(a.getInt(obj)));
+				else
+					out.value(a.getInt(obj));
+				break;
+			case LONG:
+				if (quoted)
+					out.value(Long.toString(a.getLong(obj)));
+				else
+					out.value(a.getLong(obj));
+				break;
+			case DOUBLE:
+				if (quoted)
+					out.value(Double.toString(a.getDouble(obj)));
+				else
+					out.value(a.getDouble(obj));
+				break;
+			case FLOAT:
+				if (quoted)
+					out.value(Float.toString(a.getFloat(obj)));
+				else
+					out.value(a.getFloat(obj));
+				break;
+			case BYTE:
+				if (quoted)
+					out.value(Byte.toString(a.getByte(obj)));
+				else
+					out.value(a.getByte(obj));
+				break;
+			case SHORT:
+				if (quoted)
+					out.value(Short.toString(a.getShort(obj)));
+				else
+					out.value(a.getShort(obj));
+				break;
+			case BOOLEAN:
+				if (quoted)
+					out.value(Boolean.toString(a.getBoolean(obj)));
+				else
+					out.value(a.getBoolean(obj));
+				break;
+			case COLLECTION:
+				Collection c = (Collection) a.get(obj);
+				if (c == null) {
+					out.nullValue();
+					break;
+				}
+				if (parallel(c.size(), out)) {
+					writeParallel(c.toArray(), s.codec, out);
+					break;
+				}
+				out.array();
+				for (Object o : c) {
+					writeValue(o, s.codec, quoted, out);
+				}
+				out.endArray();
+				break;
+			case MAP:
+				writeMap((Map) a.get(obj), s.codec, s.valuecodec, quoted, out);
+				break;
+			case ARRAY:
+				Object array = a.get(obj);
+				if (array instanceof Object[] && parallel(((Object[]) array).length, out))
+					writeParallel((Object[]) array, s.codec, out);
+				else
+					writeArray(array, s.codec, quoted, out);
+				break;
+			default:
+				writeValue(a.get(obj), s.codec, quoted, out);
+			}
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		static void writeValue(Object value, AbstractSerializer codec, boolean quoted, JsonSink out)
+				throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
+			if (value == null) {
+				out.nullValue();
+			} else if (quoted) {
+				out.value(codec.serialize(value));
+			} else if (codec instanceof Primitive) {
+				((Primitive) codec).write(value, out);
+			} else {
+				codec.serialize(value, out);
+			}
+		}
+
 		public String serialize(T obj) throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
-			StringWriter sw = new StringWriter();
+			PooledWriter w = PooledWriter.acquire(type);
+			try {
+				serialize(obj, JsonSink.of(w));
+				return w.toString();
+			} finally {
+				w.release();
+			}
+		}
+
+		/**
+		 * Writes obj as JSON text to out in a single pass. The "version" key is
+		 * always written first.
+		 */
+		public void serialize(T obj, Appendable out) throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
+			serialize(obj, JsonSink.of(out));
+		}
+
+		/**
+		 * Writes obj as the next value of writer.
+		 */
+		public void serialize(T obj, JSONWriter writer) throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
+			serialize(obj, JsonSink.of(writer));
+		}
+
+		@Override
+		public void serialize(T obj, JsonSink out) throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
+			if (obj == null) {
+				out.nullValue();
+				return;
+			}
 			if (type.isArray()) {
-				serializeArray(obj, type.getComponentType()).write(sw);
-				return sw.toString();
+				if (obj instanceof Object[] && parallel(((Object[]) obj).length, out))
+					writeParallel((Object[]) obj, componentcodec, out);
+				else
+					writeArray(obj, componentcodec, quoted, out);
+				return;
 			}
 
 			int version = 0;
-			if (hasversion) {
-				version = type.getDeclaredField("VERSION").getInt(obj);
+			if (this.version != null) {
+				version = this.version.getInt(obj);
 			}
 
-			JSONObject result = new JSONObject();
-			result.put("version", version);
+			out.object();
+			out.key("version", VERSION_KEY).value(version);
+			for (Slot s : layout(version).slots) {
+				out.key(s.name, s.utf8key);
+				writeField(s, obj, out);
+			}
+			out.endObject();
+		}
 
-			for (Field f : fields) {
-				Lwprotojson anno = f.getDeclaredAnnotation(Lwprotojson.class);
-				if (version < anno.from() || version > anno.until())
-					continue;
+		private static final byte[] VERSION_KEY = JsonSink.encodeKey("version");
+
+		/**
+		 * Writes obj to out as UTF-8 JSON in one pass, without building a
+		 * String. Field names are copied from bytes encoded when this
+		 * Serializer was created. The stream is flushed but not closed.
+		 */
+		public void writeTo(T obj, OutputStream out) throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
+			JsonSink.Utf8Sink sink = new JsonSink.Utf8Sink(new Utf8Writer(out));
+			serialize(obj, sink);
+			sink.close();
+		}
+
+		/**
+		 * Writes obj into out as UTF-8 JSON, starting at its position. Throws
+		 * BufferOverflowException if it does not fit.
+		 */
+		public void writeTo(T obj, ByteBuffer out) throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
+			JsonSink.Utf8Sink sink = new JsonSink.Utf8Sink(new Utf8Writer(out));
+			serialize(obj, sink);
+			sink.close();
+		}
+
+		/**
+		 * How the records of a batch are separated.
+		 */
+		public enum Framing {
+			/**
+			 * One JSON array holding all records.
+			 */
+			ARRAY,
+			/**
+			 * One record per line (newline-delimited JSON).
+			 */
+			LINES
+		}
+
+		public String serializeAll(Iterable<? extends T> objs, Framing framing)
+				throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
+			PooledWriter w = PooledWriter.acquire(type);
+			try {
+				serializeAll(objs, w, framing);
+				return w.toString();
+			} finally {
+				w.release();
+			}
+		}
 
-				JSONObject data = serializeField(f, obj);
+		/**
+		 * Writes all objs to out as a single JSON array.
+		 */
+		public void serializeAll(Iterable<? extends T> objs, Appendable out)
+				throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
+			serializeAll(objs, out, Framing.ARRAY);
+		}
 
-				result.put(f.getName(), data.get(f.getName()));
+		/**
+		 * Writes all objs to out through one sink, so the cost per record is
+		 * only that of its own tokens. Null elements are written as null.
+		 */
+		public void serializeAll(Iterable<? extends T> objs, Appendable out, Framing framing)
+				throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
+			JsonSink.AppendableSink sink = new JsonSink.AppendableSink(out);
+			if (framing == Framing.ARRAY) {
+				sink.array();
+				for (T obj : objs) {
+					writeRecord(obj, sink);
+				}
+				sink.endArray();
+				return;
+			}
+			for (T obj : objs) {
+				writeRecord(obj, sink);
+				sink.newline();
 			}
+		}
+
+		void writeRecord(T obj, JsonSink out)
+				throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
+			if (obj == null)
+				out.nullValue();
+			else
+				serialize(obj, out);
+		}
 
-			if (result.length() == 0)
-				throw new RuntimeException("Nothing has been serialized");
+		public ArrayList<T> deserializeAll(String data, Framing framing) throws InstantiationException, IllegalAccessException {
+			return deserializeAll(tokener(new JSONTokener(data)), framing);
+		}
 
-			result.write(sw);
-			return sw.toString();
+		public ArrayList<T> deserializeAll(Reader reader, Framing framing) throws InstantiationException, IllegalAccessException {
+			return deserializeAll(tokener(new JSONTokener(reader)), framing);
+		}
 
+		/**
+		 * Reads records from in, which is decoded as UTF-8.
+		 */
+		public ArrayList<T> deserializeAll(InputStream in, Framing framing) throws InstantiationException, IllegalAccessException {
+			return deserializeAll(tokener(new Utf8Tokener(in)), framing);
+		}
+
+		/**
+		 * Reads a batch written by {@link #serializeAll}: the elements of one
+		 * JSON array, or values up to the end of the input for
+		 * {@link Framing#LINES}. Blank lines are skipped.
+		 */
+		public ArrayList<T> deserializeAll(JSONTokener x, Framing framing) throws InstantiationException, IllegalAccessException {
+			ArrayList<T> result = new ArrayList<>();
+			if (framing == Framing.ARRAY) {
+				if (beginArray(x)) {
+					do {
+						result.add(deserialize(x));
+					} while (nextMember(x, ']'));
+				}
+				return result;
+			}
+			while (x.nextClean() != 0) {
+				x.back();
+				result.add(deserialize(x));
+			}
+			return result;
 		}
 
 		public T deserialize(String data) throws InstantiationException, IllegalAccessException {
+			return deserialize(tokener(new JSONTokener(data)));
+		}
+
+		public T deserialize(Reader reader) throws InstantiationException, IllegalAccessException {
+			return deserialize(tokener(new JSONTokener(reader)));
+		}
+
+		/**
+		 * Reads one value from in, which is decoded as UTF-8.
+		 */
+		public T deserialize(InputStream in) throws InstantiationException, IllegalAccessException {
+			return deserialize(tokener(new Utf8Tokener(in)));
+		}
+
+		/**
+		 * Reads one value from UTF-8 encoded bytes, without decoding them to a
+		 * String first.
+		 */
+		public T deserialize(byte[] data) throws InstantiationException, IllegalAccessException {
+			return deserialize(tokener(new Utf8Tokener(data)));
+		}
+
+		/**
+		 * Reads one value from the remaining UTF-8 encoded bytes of data. The
+		 * position of data is not changed.
+		 */
+		public T deserialize(ByteBuffer data) throws InstantiationException, IllegalAccessException {
+			return deserialize(tokener(new Utf8Tokener(data)));
+		}
+
+		/**
+		 * Reads the next value from x and binds it directly into a new T, see
+		 * {@link AbstractSerializer#readFields}.
+		 * <p>
+		 * A JSON string holding the whole document, as written for nested values
+		 * in the quoted format, is also accepted, except for byte[], where a
+		 * string is the base64 form written by {@link #serialize(Object)}.
+		 */
+		@SuppressWarnings("unchecked")
+		@Override
+		public T deserialize(JSONTokener x) throws InstantiationException, IllegalAccessException {
+			if (readNull(x))
+				return null;
+			if (type == byte[].class)
+				return (T) readObjectArray(x, byte.class, componentcodec);
+			char c = x.nextClean();
+			if (c == '"' || c == '\'')
+				return deserialize(x.nextString(c));
+			x.back();
 
 			if (type.isArray())
-				return (T) deserializeArray(new JSONArray(data), type.getComponentType());
-			@SuppressWarnings("unchecked")
-			T t = (T) type.newInstance();
+				return (T) readObjectArray(x, type.getComponentType(), componentcodec);
+
+			return readFields(x, (T) instantiate(type), names, fields);
+		}
+
+		private boolean readField(T obj, int version, String key, JSONTokener x)
+				throws InstantiationException, IllegalAccessException {
+			Slot s = layout(version).names.get(key);
+			if (s == null)
+				return false;
+			readField(s, obj, x);
+			return true;
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		private void readField(Slot s, T obj, JSONTokener x) throws InstantiationException, IllegalAccessException {
+			FieldAccessor a = s.accessor;
+			switch (s.kind) {
+			case INT:
+				a.setInt(obj, Primitive.toInt(readScalar(x)));
+				break;
+			case LONG:
+				a.setLong(obj, Primitive.toLong(readScalar(x)));
+				break;
+			case DOUBLE:
+				a.setDouble(obj, Primitive.toDouble(readScalar(x)));
+				break;
+			case FLOAT:
+				a.setFloat(obj, Primitive.toFloat(readScalar(x)));
+				break;
+			case BYTE:
+				a.setByte(obj, Primitive.toByte(readScalar(x)));
+				break;
+			case SHORT:
+				a.setShort(obj, Primitive.toShort(readScalar(x)));
+				break;
+			case BOOLEAN:
+				a.setBoolean(obj, Primitive.toBoolean(readScalar(x)));
+				break;
+			case COLLECTION:
+				if (readNull(x)) {
+					a.set(obj, null);
+					break;
+				}
+				Collection list = (Collection) instantiate(s.type);
+				if (pool != null) {
+					list.addAll(Arrays.asList(readElements(x, s.codec)));
+				} else if (beginArray(x)) {
+					do {
+						list.add(readValue(x, s.codec));
+					} while (nextMember(x, ']'));
+				}
+				a.set(obj, list);
+				break;
+			case MAP:
+				if (readNull(x)) {
+					a.set(obj, null);
+					break;
+				}
+				Map m = (Map) instantiate(s.type);
+				if (beginObject(x)) {
+					do {
+						Object k = s.codec.deserialize(readKey(x));
+						m.put(k, readValue(x, s.valuecodec));
+					} while (nextMember(x, '}'));
+				}
+				a.set(obj, m);
+				break;
+			case ARRAY:
+				a.set(obj, readObjectArray(x, s.componenttype, s.codec));
+				break;
+			default:
+				a.set(obj, readValue(x, s.codec));
+			}
+		}
 
-			Queue<byte[]> datas = new LinkedList<>();
+		@SuppressWarnings("rawtypes")
+		static Object readValue(JSONTokener x, AbstractSerializer codec) throws InstantiationException, IllegalAccessException {
+			if (codec instanceof Primitive) {
+				Object token = readScalar(x);
+				return token == null ? null : ((Primitive) codec).read(token);
+			}
+			return codec.deserialize(x);
+		}
 
-			JSONObject j = new JSONObject(data);
+		static Object readArray(JSONTokener x, Class<?> componenttype, @SuppressWarnings("rawtypes") AbstractSerializer codec)
+				throws InstantiationException, IllegalAccessException {
+			if (readNull(x))
+				return null;
+			if (codec instanceof Primitive && componenttype == codec.type)
+				return readPrimitiveArray(x, componenttype);
+			ArrayList<Object> temp = new ArrayList<>();
+			if (beginArray(x)) {
+				do {
+					temp.add(readValue(x, codec));
+				} while (nextMember(x, ']'));
+			}
+			return temp.toArray((Object[]) Array.newInstance(componenttype, temp.size()));
+		}
+
+		/**
+		 * Reads an array of a primitive type that uses the built-in codec
+		 * straight into a primitive array. byte[] may also be a base64 string.
+		 */
+		private static Object readPrimitiveArray(JSONTokener x, Class<?> componenttype) {
+			int n = 0;
+			if (componenttype == int.class) {
+				int[] a = new int[16];
+				if (beginArray(x)) {
+					do {
+						if (n == a.length)
+							a = Arrays.copyOf(a, n << 1);
+						a[n++] = Primitive.toInt(readScalar(x));
+					} while (nextMember(x, ']'));
+				}
+				return Arrays.copyOf(a, n);
+			} else if (componenttype == long.class) {
+				long[] a = new long[16];
+				if (beginArray(x)) {
+					do {
+						if (n == a.length)
+							a = Arrays.copyOf(a, n << 1);
+						a[n++] = Primitive.toLong(readScalar(x));
+					} while (nextMember(x, ']'));
+				}
+				return Arrays.copyOf(a, n);
+			} else if (componenttype == double.class) {
+				double[] a = new double[16];
+				if (beginArray(x)) {
+					do {
+						if (n == a.length)
+							a = Arrays.copyOf(a, n << 1);
+						a[n++] = Primitive.toDouble(readScalar(x));
+					} while (nextMember(x, ']'));
+				}
+				return Arrays.copyOf(a, n);
+			} else if (componenttype == float.class) {
+				float[] a = new float[16];
+				if (beginArray(x)) {
+					do {
+						if (n == a.length)
+							a = Arrays.copyOf(a, n << 1);
+						a[n++] = Primitive.toFloat(readScalar(x));
+					} while (nextMember(x, ']'));
+				}
+				return Arrays.copyOf(a, n);
+			} else if (componenttype == short.class) {
+				short[] a = new short[16];
+				if (beginArray(x)) {
+					do {
+						if (n == a.length)
+							a = Arrays.copyOf(a, n << 1);
+						a[n++] = Primitive.toShort(readScalar(x));
+					} while (nextMember(x, ']'));
+				}
+				return Arrays.copyOf(a, n);
+			} else if (componenttype == boolean.class) {
+				boolean[] a = new boolean[16];
+				if (beginArray(x)) {
+					do {
+						if (n == a.length)
+							a = Arrays.copyOf(a, n << 1);
+						a[n++] = Primitive.toBoolean(readScalar(x));
+					} while (nextMember(x, ']'));
+				}
+				return Arrays.copyOf(a, n);
+			} else {
+				char c = x.nextClean();
+				if (c == '"' || c == '\'')
+					return base64(x.nextString(c));
+				x.back();
+				byte[] a = new byte[16];
+				if (beginArray(x)) {
+					do {
+						if (n == a.length)
+							a = Arrays.copyOf(a, n << 1);
+						a[n++] = Primitive.toByte(readScalar(x));
+					} while (nextMember(x, ']'));
+				}
+				return Arrays.copyOf(a, n);
+			}
+		}
 
-			int version = j.getInt("version");
+		/**
+		 * Consumes a JSON null if it is the next value.
+		 */
+		static boolean readNull(JSONTokener x) {
+			char c = x.nextClean();
+			x.back();
+			if (c != 'n')
+				return false;
+			if (x.nextValue() != JSONObject.NULL)
+				throw x.syntaxError("Expected a value");
+			return true;
+		}
 
-			for (Field f : fields) {
-				Lwprotojson anno = f.getDeclaredAnnotation(Lwprotojson.class);
-				if (version < anno.from() || version > anno.until())
-					continue;
-				deserializeField(f, t, j);
+		/**
+		 * Consumes '[' and returns false if the array is empty.
+		 */
+		static boolean beginArray(JSONTokener x) {
+			if (x.nextClean() != '[') {
+				throw x.syntaxError("A JSONArray text must start with '['");
 			}
+			if (x.nextClean() == ']')
+				return false;
+			x.back();
+			return true;
+		}
 
-			return t;
+		/**
+		 * Consumes '{' and returns false if the object is empty.
+		 */
+		static boolean beginObject(JSONTokener x) {
+			if (x.nextClean() != '{') {
+				throw x.syntaxError("A JSONObject text must begin with '{'");
+			}
+			if (x.nextClean() == '}')
+				return false;
+			x.back();
+			return true;
+		}
 
+		/**
+		 * Consumes the separator after a member and returns false once the
+		 * closing character has been read.
+		 */
+		static boolean nextMember(JSONTokener x, char close) {
+			char c = x.nextClean();
+			if (c == ',' || (c == ';' && close == '}')) {
+				if (x.nextClean() == close)
+					return false;
+				x.back();
+				return true;
+			}
+			if (c == close)
+				return false;
+			throw x.syntaxError("Expected a ',' or '" + close + "'");
+		}
+
+		/**
+		 * Reads a key and the ':' that follows it.
+		 */
+		static String readKey(JSONTokener x) {
+			String key = readString(x);
+			if (key == null)
+				throw x.syntaxError("Null key");
+			if (x.nextClean() != ':') {
+				throw x.syntaxError("Expected a ':' after a key");
+			}
+			return key;
+		}
+
+		/**
+		 * Reads the next value from x without binding it and returns its text.
+		 */
+		static String readRaw(JSONTokener x) {
+			StringBuilder sb = new StringBuilder();
+			readRaw(x, sb);
+			return sb.toString();
+		}
+
+		/**
+		 * Appends the text of the next value from x to sb.
+		 */
+		static void readRaw(JSONTokener x, StringBuilder sb) {
+			int length = sb.length();
+			char c = x.nextClean();
+			if (c == '{' || c == '[') {
+				int depth = 0;
+				for (;;) {
+					if (c == '"' || c == '\'') {
+						readRawString(x, c, sb);
+					} else {
+						if (c == 0)
+							throw x.syntaxError("Unterminated value");
+						if (c == '{' || c == '[')
+							depth++;
+						else if (c == '}' || c == ']')
+							depth--;
+						sb.append(c);
+						if (depth == 0)
+							return;
+					}
+					c = x.next();
+				}
+			}
+			if (c == '"' || c == '\'') {
+				readRawString(x, c, sb);
+				return;
+			}
+			while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
+				sb.append(c);
+				c = x.next();
+			}
+			x.back();
+			if (sb.length() == length)
+				throw x.syntaxError("Missing value");
+		}
+
+		private static void readRawString(JSONTokener x, char quote, StringBuilder sb) {
+			sb.append(quote);
+			for (;;) {
+				char c = x.next();
+				if (c == 0 || c == '\n' || c == '\r')
+					throw x.syntaxError("Unterminated string");
+				sb.append(c);
+				if (c == '\\')
+					sb.append(x.next());
+				else if (c == quote)
+					return;
+			}
+		}
+
+		/**
+		 * Reads a string value, or the text of an unquoted value. Returns null
+		 * for a JSON null.
+		 */
+		static String readString(JSONTokener x) {
+			Object token = readScalar(x);
+			return token == null ? null : token.toString();
+		}
+
+		/**
+		 * Reads a scalar value: a String if it was quoted, otherwise the Number,
+		 * Boolean or String the tokener made of it. Returns null for a JSON null.
+		 */
+		static Object readScalar(JSONTokener x) {
+			char c = x.nextClean();
+			if (c == '"' || c == '\'') {
+				return x.nextString(c);
+			}
+			x.back();
+			Object o = x.nextValue();
+			if (o == JSONObject.NULL)
+				return null;
+			if (o instanceof JSONObject || o instanceof JSONArray)
+				throw x.syntaxError("Expected a string value");
+			return o;
 		}
 
 		public static <K,V> JSONObject serializeMap(Map<K,V> obj, Class<K> componenttype1, Class<V> componenttype2) throws InstantiationException, IllegalAccessException, IllegalArgumentException, NoSuchFieldException, SecurityException {
-			if (!map.containsKey(componenttype1)) {
+			if (!map.contains(componenttype1)) {
 				throw new RuntimeException("Unsupported class: " + componenttype1.getName());
-			} else if(!map.containsKey(componenttype2)) {
+			} else if(!map.contains(componenttype2)) {
 				throw new RuntimeException("Unsupported class: " + componenttype2.getName());
 			}
 			JSONObject result = new JSONObject();
 			ArrayList<byte[]> datas = new ArrayList<byte[]>();
 			for(Entry<K,V> entry : obj.entrySet()) {
 				@SuppressWarnings("unchecked")
-				String data1 = map.get(componenttype1).serialize(entry.getKey());
+				String data1 = map.codec(componenttype1).serialize(entry.getKey());
 				@SuppressWarnings("unchecked")
-				String data2 = map.get(componenttype2).serialize(entry.getValue());
+				String data2 = map.codec(componenttype2).serialize(entry.getValue());
 				result.put(data1, data2);
 			}
 			return result;
 		}
 
 		public static <K,V> Map<K, V> deserializeMap(JSONObject data, Class<Map> class1, Class<?> class2, Class<?> class3) throws InstantiationException, IllegalAccessException {
-			if (!map.containsKey(class2)) {
+			if (!map.contains(class2)) {
 				throw new RuntimeException("Unsupported class: " + class2.getName());
-			} else if(!map.containsKey(class3)) {
+			} else if(!map.contains(class3)) {
 				throw new RuntimeException("Unsupported class: " + class3.getName());
 			}
 			ArrayList<Entry<K,V>> entries = new ArrayList<>();
@@ -322,9 +1950,9 @@ public abstract class LWProtoJson {
 				entries.add(new Entry<K, V>() {
 
 					@SuppressWarnings("unchecked")
-					K key = (K) map.get(class2).deserialize(k);
+					K key = (K) map.codec(class2).deserialize(k);
 					@SuppressWarnings("unchecked")
-					V value = (V) map.get(class3).deserialize(data.getString(k));
+					V value = (V) map.codec(class3).deserialize(data.getString(k));
 
 					@Override
 					public K getKey() {
@@ -345,7 +1973,7 @@ public abstract class LWProtoJson {
 				i++;
 			}
 			@SuppressWarnings("unchecked")
-			Map<K,V> m = class1.newInstance();
+			Map<K,V> m = instantiate(class1);
 			for(Entry<K,V> entry : entries) {
 				m.put(entry.getKey(), entry.getValue());
 			}
@@ -361,9 +1989,9 @@ public abstract class LWProtoJson {
 
 			for (int i = 0; i < length; i++) {
 				Object arrayElement = Array.get(obj, i);
-				if (map.containsKey(componenttype)) {
+				if (map.contains(componenttype)) {
 					@SuppressWarnings("unchecked")
-					String data = map.get(componenttype).serialize(arrayElement);
+					String data = map.codec(componenttype).serialize(arrayElement);
 					array.put(data);
 				} else {
 					throw new RuntimeException("Unsupported class: " + componenttype.getName());
@@ -373,6 +2001,109 @@ public abstract class LWProtoJson {
 			return array;
 		}
 
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		static void writeMap(Map<?, ?> obj, AbstractSerializer keycodec, AbstractSerializer valuecodec, boolean quoted, JsonSink out)
+				throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
+			if (obj == null) {
+				out.nullValue();
+				return;
+			}
+			out.object();
+			for (Entry<?, ?> entry : obj.entrySet()) {
+				out.key(keycodec.serialize(entry.getKey()));
+				writeValue(entry.getValue(), valuecodec, quoted, out);
+			}
+			out.endObject();
+		}
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		static void writeArray(Object obj, AbstractSerializer codec, boolean quoted, JsonSink out)
+				throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
+			if (obj == null) {
+				out.nullValue();
+				return;
+			}
+			if (codec instanceof Primitive && obj.getClass().getComponentType() == codec.type) {
+				writePrimitiveArray(obj, quoted, out);
+				return;
+			}
+			if (obj instanceof Object[]) {
+				out.array();
+				for (Object o : (Object[]) obj) {
+					writeValue(o, codec, quoted, out);
+				}
+				out.endArray();
+				return;
+			}
+			int length = Array.getLength(obj);
+			out.array();
+			for (int i = 0; i < length; i++) {
+				writeValue(Array.get(obj, i), codec, quoted, out);
+			}
+			out.endArray();
+		}
+
+		/**
+		 * Writes an array of a primitive type that uses the built-in codec
+		 * without boxing its elements. byte[] is written as one base64 string
+		 * unless primitives are quoted.
+		 */
+		private static void writePrimitiveArray(Object obj, boolean quoted, JsonSink out) {
+			if (obj instanceof byte[] && !quoted) {
+				out.value(base64((byte[]) obj));
+				return;
+			}
+			out.array();
+			if (obj instanceof int[]) {
+				for (int v : (int[]) obj) {
+					if (quoted)
+						out.value(Integer.toString(v));
+					else
+						out.value(v);
+				}
+			} else if (obj instanceof long[]) {
+				for (long v : (long[]) obj) {
+					if (quoted)
+						out.value(Long.toString(v));
+					else
+						out.value(v);
+				}
+			} else if (obj instanceof double[]) {
+				for (double v : (double[]) obj) {
+					if (quoted)
+						out.value(Double.toString(v));
+					else
+						out.value(v);
+				}
+			} else if (obj instanceof float[]) {
+				for (float v : (float[]) obj) {
+					if (quoted)
+						out.value(Float.toString(v));
+					else
+						out.value(v);
+				}
+			} else if (obj instanceof short[]) {
+				for (short v : (short[]) obj) {
+					if (quoted)
+						out.value(Short.toString(v));
+					else
+						out.value(v);
+				}
+			} else if (obj instanceof boolean[]) {
+				for (boolean v : (boolean[]) obj) {
+					if (quoted)
+						out.value(Boolean.toString(v));
+					else
+						out.value(v);
+				}
+			} else if (obj instanceof byte[]) {
+				for (byte v : (byte[]) obj) {
+					out.value(Byte.toString(v));
+				}
+			}
+			out.endArray();
+		}
+
 //		protected byte[] serializeArray(T obj)
 //				throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
 //
@@ -387,8 +2118,8 @@ public abstract class LWProtoJson {
 
 			int i = 0;
 			while (i < data.length()) {
-				if (map.containsKey(componenttype)) {
-					Array.set(t, i, map.get(componenttype).deserialize(data.getString(i)));
+				if (map.contains(componenttype)) {
+					Array.set(t, i, map.codec(componenttype).deserialize(data.getString(i)));
 				} else {
 					throw new RuntimeException("Unsupported class: " + componenttype.getName());
 				}
@@ -0,0 +1,127 @@
+package com.gynt.lwprotojson;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.json.FileTokener;
+import org.json.JSONException;
+import org.json.JSONTokener;
+import org.json.Utf8Tokener;
+
+import com.gynt.lwprotojson.LWProtoJson.Serializer;
+import com.gynt.lwprotojson.LWProtoJson.Serializer.Framing;
+
+/**
+ * Reads newline-delimited records one at a time. Each record is bound
+ * straight from the input by {@link Serializer#deserialize(JSONTokener)}, so
+ * memory is bounded by the largest record and not by the size of the input.
+ * Blank lines are skipped.
+ * <p>
+ * Files can also be read as the elements of one top-level array, see
+ * {@link #RecordReader(Serializer, Path, Framing)}.
+ */
+public class RecordReader<T> implements Iterator<T>, Closeable {
+
+	private final Serializer<T> serializer;
+	private final Closeable source;
+	private final JSONTokener x;
+	private final Framing framing;
+
+	/**
+	 * For {@link Framing#ARRAY}: whether the '[' has been read, and whether
+	 * another element follows.
+	 */
+	private boolean started;
+	private boolean more;
+
+	/**
+	 * Reads from in, which is decoded as UTF-8 by a {@link Utf8Tokener}.
+	 */
+	public RecordReader(Serializer<T> serializer, InputStream in) {
+		this(serializer, in, new Utf8Tokener(in), Framing.LINES);
+	}
+
+	public RecordReader(Serializer<T> serializer, Reader reader) {
+		this(serializer, reader, new JSONTokener(reader), Framing.LINES);
+	}
+
+	/**
+	 * Reads a file in blocks with a {@link FileTokener}, so files over 2 GB
+	 * can be read without loading them onto the heap. With
+	 * {@link Framing#ARRAY} the records are the elements of the top-level
+	 * array, which are read one at a time.
+	 */
+	public RecordReader(Serializer<T> serializer, Path file, Framing framing) throws IOException {
+		this(serializer, new FileTokener(file), framing);
+	}
+
+	private RecordReader(Serializer<T> serializer, FileTokener x, Framing framing) {
+		this(serializer, x, x, framing);
+	}
+
+	private RecordReader(Serializer<T> serializer, Closeable source, JSONTokener x, Framing framing) {
+		this.serializer = serializer;
+		this.source = source;
+		this.x = x;
+		this.framing = framing;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (framing == Framing.ARRAY) {
+			if (!started) {
+				started = true;
+				more = Serializer.beginArray(x);
+			}
+			return more;
+		}
+		if (x.nextClean() == 0)
+			return false;
+		x.back();
+		return true;
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		T t;
+		try {
+			t = serializer.deserialize(x);
+		} catch (InstantiationException | IllegalAccessException e) {
+			throw new RuntimeException(e);
+		}
+		if (framing == Framing.ARRAY)
+			more = Serializer.nextMember(x, ']');
+		return t;
+	}
+
+	/**
+	 * Returns the remaining records as a sequential stream. Closing the stream
+	 * closes this reader.
+	 */
+	public Stream<T> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED), false)
+				.onClose(() -> {
+					try {
+						close();
+					} catch (IOException e) {
+						throw new JSONException(e);
+					}
+				});
+	}
+
+	@Override
+	public void close() throws IOException {
+		source.close();
+	}
+}
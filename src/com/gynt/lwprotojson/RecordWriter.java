@@ -0,0 +1,72 @@
+package com.gynt.lwprotojson;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+import org.json.Utf8Writer;
+
+import com.gynt.lwprotojson.LWProtoJson.Serializer;
+
+/**
+ * Appends records to an output, one per line. All records are written through
+ * the same buffer and sink; only the buffer is held between records.
+ */
+public class RecordWriter<T> implements Closeable, Flushable {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final Serializer<T> serializer;
+	private final Writer writer;
+	private final JsonSink.AppendableSink sink;
+	/** The stream under writer, which Utf8Writer does not close; null for a Writer. */
+	private final OutputStream out;
+
+	/**
+	 * Writes to out, encoded as UTF-8 by a {@link Utf8Writer} like
+	 * {@link Serializer#writeTo(Object, OutputStream)} does, so ASCII is
+	 * copied straight through and keys are written pre-encoded.
+	 */
+	public RecordWriter(Serializer<T> serializer, OutputStream out) {
+		Utf8Writer utf8 = new Utf8Writer(out);
+		this.serializer = serializer;
+		this.writer = utf8;
+		this.sink = new JsonSink.Utf8Sink(utf8);
+		this.out = out;
+	}
+
+	public RecordWriter(Serializer<T> serializer, Writer writer) {
+		this.serializer = serializer;
+		this.writer = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer, BUFFER_SIZE);
+		this.sink = new JsonSink.AppendableSink(this.writer);
+		this.out = null;
+	}
+
+	public void write(T obj)
+			throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
+		serializer.writeRecord(obj, sink);
+		sink.newline();
+	}
+
+	public void writeAll(Iterable<? extends T> objs)
+			throws IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {
+		for (T obj : objs) {
+			write(obj);
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		writer.close();
+		if (out != null)
+			out.close();
+	}
+}
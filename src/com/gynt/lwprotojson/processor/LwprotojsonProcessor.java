@@ -0,0 +1,427 @@
+package com.gynt.lwprotojson.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+import com.gynt.lwprotojson.LWProtoJson;
+import com.gynt.lwprotojson.LWProtoJson.Lwprotojson;
+
+/**
+ * Writes a {@link com.gynt.lwprotojson.GeneratedSerializer} for every class
+ * with @Lwprotojson fields, named after {@link LWProtoJson#GENERATED_SUFFIX}.
+ * The generated code reads and writes the fields directly, so the class is
+ * never scanned or accessed through reflection, and writes field names from
+ * keys encoded once per generated class.
+ * <p>
+ * A class is skipped with a warning, and keeps using
+ * {@link LWProtoJson.Serializer}, when the
+ * generated code could not reach it: private or final fields, a private
+ * class or constructor, a non-static inner class, or field types that the
+ * reflective serializer cannot handle either.
+ */
+@SupportedAnnotationTypes("com.gynt.lwprotojson.LWProtoJson.Lwprotojson")
+public class LwprotojsonProcessor extends AbstractProcessor {
+
+	private static final String BASE = "com.gynt.lwprotojson.GeneratedSerializer";
+	private static final String CODEC = "com.gynt.lwprotojson.LWProtoJson.AbstractSerializer";
+	private static final String REGISTRY = "com.gynt.lwprotojson.LWProtoJson.Registry";
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+		Map<TypeElement, List<VariableElement>> classes = new LinkedHashMap<>();
+		for (Element e : round.getElementsAnnotatedWith(Lwprotojson.class)) {
+			if (e.getKind() != ElementKind.FIELD)
+				continue;
+			TypeElement owner = (TypeElement) e.getEnclosingElement();
+			List<VariableElement> fields = classes.get(owner);
+			if (fields == null) {
+				fields = new ArrayList<>();
+				classes.put(owner, fields);
+			}
+			fields.add((VariableElement) e);
+		}
+		for (Map.Entry<TypeElement, List<VariableElement>> entry : classes.entrySet()) {
+			try {
+				generate(entry.getKey(), entry.getValue());
+			} catch (Unsupported e) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+						"No serializer generated, " + e.getMessage() + "; using reflection instead", e.element);
+			} catch (IOException e) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, e.toString(), entry.getKey());
+			}
+		}
+		return true;
+	}
+
+	private static class Unsupported extends Exception {
+		private static final long serialVersionUID = 1L;
+		final Element element;
+
+		Unsupported(String message, Element element) {
+			super(message);
+			this.element = element;
+		}
+	}
+
+	private enum Kind {
+		PRIMITIVE, VALUE, COLLECTION, MAP, ARRAY
+	}
+
+	/**
+	 * A field as the generated code sees it.
+	 */
+	private static class Member {
+		String name;
+		int from;
+		int until;
+		Kind kind;
+		String type;
+		String primitive;
+		String componenttype;
+		String keytype;
+		String valuetype;
+		String factory;
+	}
+
+	private void generate(TypeElement owner, List<VariableElement> fields) throws Unsupported, IOException {
+		check(owner);
+		String type = owner.getQualifiedName().toString();
+		PackageElement pkg = processingEnv.getElementUtils().getPackageOf(owner);
+		String packagename = pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+		String simplename = packagename.isEmpty() ? type : type.substring(packagename.length() + 1);
+		String name = simplename.replace('.', '_') + LWProtoJson.GENERATED_SUFFIX;
+
+		boolean versioned = false;
+		for (VariableElement v : ElementFilter.fieldsIn(owner.getEnclosedElements())) {
+			if (v.getSimpleName().contentEquals("VERSION")) {
+				if (v.getModifiers().contains(Modifier.PRIVATE))
+					throw new Unsupported("VERSION is private", v);
+				versioned = true;
+			}
+		}
+
+		List<Member> members = new ArrayList<>();
+		for (VariableElement f : fields) {
+			members.add(member(f));
+		}
+
+		StringBuilder sb = new StringBuilder();
+		if (!packagename.isEmpty())
+			sb.append("package ").append(packagename).append(";\n\n");
+		sb.append("/**\n * Generated by LwprotojsonProcessor from {@link ").append(type).append("}. Do not edit.\n */\n");
+		sb.append("@SuppressWarnings({ \"unchecked\", \"rawtypes\" })\n");
+		sb.append("public final class ").append(name).append(" extends ").append(BASE).append('<').append(type)
+				.append("> {\n\n");
+		for (Member m : members) {
+			sb.append("\tprivate static final byte[] KEY_").append(m.name).append(" = encodeKey(\"").append(m.name)
+					.append("\");\n");
+		}
+		sb.append("\tprivate static final String[] NAMES = {");
+		for (int i = 0; i < members.size(); i++) {
+			sb.append(i == 0 ? " \"" : ", \"").append(members.get(i).name).append('"');
+		}
+		sb.append(members.isEmpty() ? "};\n" : " };\n");
+		sb.append('\n');
+		for (Member m : members) {
+			if (m.kind == Kind.PRIMITIVE)
+				continue;
+			sb.append("\tprivate final ").append(CODEC).append(" codec_").append(m.name).append(";\n");
+			if (m.kind == Kind.MAP)
+				sb.append("\tprivate final ").append(CODEC).append(" valuecodec_").append(m.name).append(";\n");
+		}
+		sb.append('\n');
+		sb.append("\tpublic ").append(name).append("() {\n");
+		sb.append("\t\tthis(com.gynt.lwprotojson.LWProtoJson.registry());\n");
+		sb.append("\t}\n\n");
+		sb.append("\tpublic ").append(name).append('(').append(REGISTRY).append(" registry) {\n");
+		sb.append("\t\tsuper(").append(type).append(".class, registry);\n");
+		for (Member m : members) {
+			switch (m.kind) {
+			case VALUE:
+				codec(sb, "codec_" + m.name, m.type, type);
+				break;
+			case COLLECTION:
+			case ARRAY:
+				codec(sb, "codec_" + m.name, m.componenttype, type);
+				break;
+			case MAP:
+				codec(sb, "codec_" + m.name, m.keytype, type);
+				codec(sb, "valuecodec_" + m.name, m.valuetype, type);
+				break;
+			default:
+			}
+		}
+		sb.append("\t}\n\n");
+
+		sb.append("\t@Override\n");
+		sb.append("\tprotected ").append(type).append(" newInstance() {\n");
+		sb.append("\t\treturn new ").append(type).append("();\n");
+		sb.append("\t}\n\n");
+
+		sb.append("\t@Override\n");
+		sb.append("\tprotected int version(").append(type).append(" obj) {\n");
+		sb.append("\t\treturn ").append(versioned ? "obj.VERSION" : "0").append(";\n");
+		sb.append("\t}\n\n");
+
+		sb.append("\t@Override\n");
+		sb.append("\tprotected void writeFields(").append(type).append(" obj, int version, com.gynt.lwprotojson.JsonSink out)\n");
+		sb.append("\t\t\tthrows IllegalArgumentException, IllegalAccessException, NoSuchFieldException, SecurityException, InstantiationException {\n");
+		for (Member m : members) {
+			sb.append("\t\tif (").append(includes(m)).append(") {\n");
+			sb.append("\t\t\tkey(\"").append(m.name).append("\", KEY_").append(m.name).append(", out);\n");
+			sb.append("\t\t\t");
+			switch (m.kind) {
+			case PRIMITIVE:
+				sb.append("write").append(m.primitive).append("(obj.").append(m.name).append(", out);\n");
+				break;
+			case VALUE:
+				sb.append("writeValue(obj.").append(m.name).append(", codec_").append(m.name).append(", out);\n");
+				break;
+			case COLLECTION:
+				sb.append("writeCollection(obj.").append(m.name).append(", codec_").append(m.name).append(", out);\n");
+				break;
+			case MAP:
+				sb.append("writeMap(obj.").append(m.name).append(", codec_").append(m.name).append(", valuecodec_")
+						.append(m.name).append(", out);\n");
+				break;
+			case ARRAY:
+				sb.append("writeArray(obj.").append(m.name).append(", codec_").append(m.name).append(", out);\n");
+				break;
+			}
+			sb.append("\t\t}\n");
+		}
+		sb.append("\t}\n\n");
+
+		sb.append("\t@Override\n");
+		sb.append("\tprotected String[] names() {\n");
+		sb.append("\t\treturn NAMES;\n");
+		sb.append("\t}\n\n");
+
+		sb.append("\t@Override\n");
+		sb.append("\tprotected boolean readField(").append(type).append(" obj, int version, String key, org.json.JSONTokener x)\n");
+		sb.append("\t\t\tthrows InstantiationException, IllegalAccessException {\n");
+		sb.append("\t\tswitch (key) {\n");
+		for (Member m : members) {
+			sb.append("\t\tcase \"").append(m.name).append("\":\n");
+			sb.append("\t\t\tif (!(").append(includes(m)).append("))\n");
+			sb.append("\t\t\t\treturn false;\n");
+			sb.append("\t\t\tobj.").append(m.name).append(" = ");
+			switch (m.kind) {
+			case PRIMITIVE:
+				sb.append("read").append(m.primitive).append("(x);\n");
+				break;
+			case VALUE:
+				sb.append('(').append(m.type).append(") readValue(x, codec_").append(m.name).append(");\n");
+				break;
+			case COLLECTION:
+				sb.append("readCollection(x, ").append(m.factory).append("::new, codec_").append(m.name).append(");\n");
+				break;
+			case MAP:
+				sb.append("readMap(x, ").append(m.factory).append("::new, codec_").append(m.name).append(", valuecodec_")
+						.append(m.name).append(");\n");
+				break;
+			case ARRAY:
+				sb.append('(').append(m.type).append(") readArray(x, ").append(m.componenttype).append(".class, codec_")
+						.append(m.name).append(");\n");
+				break;
+			}
+			sb.append("\t\t\treturn true;\n");
+		}
+		sb.append("\t\tdefault:\n");
+		sb.append("\t\t\treturn false;\n");
+		sb.append("\t\t}\n");
+		sb.append("\t}\n");
+		sb.append("}\n");
+
+		String qualified = packagename.isEmpty() ? name : packagename + "." + name;
+		try (Writer w = processingEnv.getFiler().createSourceFile(qualified, owner).openWriter()) {
+			w.write(ascii(sb));
+		}
+	}
+
+	/**
+	 * Replaces non-ASCII characters with unicode escapes, so that the generated
+	 * source does not depend on the encoding the Filer writes it in.
+	 */
+	private static String ascii(CharSequence source) {
+		StringBuilder sb = new StringBuilder(source.length());
+		for (int i = 0; i < source.length(); i++) {
+			char c = source.charAt(i);
+			if (c < 0x80)
+				sb.append(c);
+			else
+				sb.append(String.format("\\u%04x", (int) c));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Fields of the class itself use the serializer being constructed, so that
+	 * recursive types do not look themselves up while being created.
+	 */
+	private static void codec(StringBuilder sb, String field, String type, String owner) {
+		sb.append("\t\t").append(field).append(" = ");
+		if (type.equals(owner))
+			sb.append("this;\n");
+		else
+			sb.append("codec(").append(type).append(".class);\n");
+	}
+
+	private static String includes(Member m) {
+		if (m.until == Integer.MAX_VALUE)
+			return "version >= " + m.from;
+		return "version >= " + m.from + " && version <= " + m.until;
+	}
+
+	private void check(TypeElement owner) throws Unsupported {
+		if (owner.getModifiers().contains(Modifier.ABSTRACT) || owner.getKind() != ElementKind.CLASS)
+			throw new Unsupported(owner + " is not a concrete class", owner);
+		if (!owner.getTypeParameters().isEmpty())
+			throw new Unsupported(owner + " is generic", owner);
+		for (Element e = owner; e instanceof TypeElement; e = e.getEnclosingElement()) {
+			if (e.getModifiers().contains(Modifier.PRIVATE))
+				throw new Unsupported(e + " is private", e);
+			if (e != owner && e.getKind() != ElementKind.CLASS && e.getKind() != ElementKind.INTERFACE)
+				throw new Unsupported(owner + " is a local class", owner);
+		}
+		if (owner.getNestingKind().isNested() && !owner.getModifiers().contains(Modifier.STATIC))
+			throw new Unsupported(owner + " is an inner class", owner);
+		if (!hasConstructor(owner))
+			throw new Unsupported(owner + " has no accessible no-arg constructor", owner);
+	}
+
+	private static boolean hasConstructor(TypeElement type) {
+		List<ExecutableElement> constructors = ElementFilter.constructorsIn(type.getEnclosedElements());
+		for (ExecutableElement c : constructors) {
+			if (c.getParameters().isEmpty() && !c.getModifiers().contains(Modifier.PRIVATE))
+				return true;
+		}
+		return false;
+	}
+
+	private Member member(VariableElement f) throws Unsupported {
+		if (f.getModifiers().contains(Modifier.PRIVATE))
+			throw new Unsupported(f.getSimpleName() + " is private", f);
+		if (f.getModifiers().contains(Modifier.FINAL))
+			throw new Unsupported(f.getSimpleName() + " is final", f);
+
+		Lwprotojson anno = f.getAnnotation(Lwprotojson.class);
+		Member m = new Member();
+		m.name = f.getSimpleName().toString();
+		m.from = anno.from();
+		m.until = anno.until();
+		TypeMirror t = f.asType();
+		m.type = t.toString();
+
+		switch (t.getKind()) {
+		case INT:
+			m.primitive = "Int";
+			break;
+		case LONG:
+			m.primitive = "Long";
+			break;
+		case DOUBLE:
+			m.primitive = "Double";
+			break;
+		case FLOAT:
+			m.primitive = "Float";
+			break;
+		case BYTE:
+			m.primitive = "Byte";
+			break;
+		case SHORT:
+			m.primitive = "Short";
+			break;
+		case BOOLEAN:
+			m.primitive = "Boolean";
+			break;
+		case ARRAY:
+			m.kind = Kind.ARRAY;
+			m.componenttype = componentType(((ArrayType) t).getComponentType(), f);
+			return m;
+		case DECLARED:
+			break;
+		default:
+			throw new Unsupported(m.name + " has unsupported type " + t, f);
+		}
+		if (m.primitive != null) {
+			m.kind = Kind.PRIMITIVE;
+			return m;
+		}
+
+		DeclaredType d = (DeclaredType) t;
+		if (isSubtype(t, "java.util.Collection")) {
+			m.kind = Kind.COLLECTION;
+			m.factory = factory(d, f);
+			m.componenttype = typeArgument(d, 0, f);
+		} else if (isSubtype(t, "java.util.Map")) {
+			m.kind = Kind.MAP;
+			m.factory = factory(d, f);
+			m.keytype = typeArgument(d, 0, f);
+			m.valuetype = typeArgument(d, 1, f);
+		} else {
+			m.kind = Kind.VALUE;
+			if (!d.getTypeArguments().isEmpty())
+				throw new Unsupported(m.name + " has generic type " + t, f);
+		}
+		return m;
+	}
+
+	private boolean isSubtype(TypeMirror t, String name) {
+		TypeElement e = processingEnv.getElementUtils().getTypeElement(name);
+		return processingEnv.getTypeUtils().isSubtype(processingEnv.getTypeUtils().erasure(t),
+				processingEnv.getTypeUtils().erasure(e.asType()));
+	}
+
+	private String factory(DeclaredType d, VariableElement f) throws Unsupported {
+		TypeElement e = (TypeElement) d.asElement();
+		if (e.getKind() != ElementKind.CLASS || e.getModifiers().contains(Modifier.ABSTRACT))
+			throw new Unsupported(f.getSimpleName() + " has abstract type " + e, f);
+		return e.getQualifiedName().toString();
+	}
+
+	private static String typeArgument(DeclaredType d, int i, VariableElement f) throws Unsupported {
+		if (d.getTypeArguments().size() <= i)
+			throw new Unsupported(f.getSimpleName() + " has a raw type", f);
+		TypeMirror t = d.getTypeArguments().get(i);
+		if (t.getKind() != TypeKind.DECLARED || !((DeclaredType) t).getTypeArguments().isEmpty())
+			throw new Unsupported(f.getSimpleName() + " has unsupported type argument " + t, f);
+		return t.toString();
+	}
+
+	private static String componentType(TypeMirror t, VariableElement f) throws Unsupported {
+		if (t.getKind().isPrimitive())
+			return t.toString();
+		if (t.getKind() != TypeKind.DECLARED || !((DeclaredType) t).getTypeArguments().isEmpty())
+			throw new Unsupported(f.getSimpleName() + " has unsupported component type " + t, f);
+		return t.toString();
+	}
+}
@@ -0,0 +1,118 @@
+package org.json;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+Copyright (c) 2002 JSON.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+The Software shall be used for Good, not Evil.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+/**
+ * A Utf8Tokener that reads a file in blocks with positional
+ * {@link FileChannel#read(ByteBuffer, long)} calls. Only one block is held at
+ * a time, so files of any size can be read, including files over 2 GB, without
+ * loading the file onto the heap.
+ * <p>
+ * The tokener scans a byte array, so each block is copied into it from the
+ * file. Mapping the file saves little when the mapped bytes have to be copied
+ * into that array anyway, and mapped windows are only unmapped once they are
+ * collected. Next to parsing it, copying a block of 64 KB costs little.
+ * <p>
+ * To read the elements of a large top-level array one at a time, read the
+ * '[' and then call {@link #nextValue()} between the commas, or hand the
+ * tokener to a reader of records such as
+ * <code>com.gynt.lwprotojson.RecordReader</code>.
+ */
+public class FileTokener extends Utf8Tokener implements Closeable {
+
+	private final FileChannel channel;
+	private final long size;
+	private final int blockSize;
+	private long position;
+
+	/**
+	 * Construct a FileTokener over a file.
+	 *
+	 * @param file
+	 *            A file of UTF-8 encoded JSON text.
+	 * @throws IOException
+	 *             If the file cannot be opened.
+	 */
+	public FileTokener(Path file) throws IOException {
+		this(FileChannel.open(file, StandardOpenOption.READ));
+	}
+
+	/**
+	 * Construct a FileTokener over the whole of a channel. The channel is
+	 * closed by {@link #close()}.
+	 *
+	 * @param channel
+	 *            A channel of UTF-8 encoded JSON text.
+	 * @throws IOException
+	 *             If the size of the channel cannot be read.
+	 */
+	public FileTokener(FileChannel channel) throws IOException {
+		this(channel, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Construct a FileTokener that reads at most blockSize bytes at a time,
+	 * so that tests can cross block boundaries with small files.
+	 */
+	FileTokener(FileChannel channel, int blockSize) throws IOException {
+		this.channel = channel;
+		this.size = channel.size();
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Read the next bytes of the file. The channel's own position is not
+	 * used, so other readers of the channel do not disturb this one.
+	 */
+	@Override
+	protected int read(byte[] b, int off, int len) throws IOException {
+		if (this.position >= this.size) {
+			return -1;
+		}
+		int n = this.channel.read(ByteBuffer.wrap(b, off, Math.min(len, this.blockSize)), this.position);
+		if (n > 0) {
+			this.position += n;
+		}
+		return n;
+	}
+
+	/**
+	 * Close the file.
+	 *
+	 * @throws IOException
+	 *             If the file cannot be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+}
@@ -25,11 +25,12 @@ package org.json;
  */
 
 import java.io.IOException;
-import java.io.StringWriter;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.lang.reflect.Array;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
@@ -83,9 +84,11 @@ import java.util.Map;
 public class JSONArray implements Iterable<Object> {
 
 	/**
-	 * The arrayList where the JSONArray's properties are kept.
+	 * The list where the JSONArray's properties are kept. This is a
+	 * NumericList when the array was parsed or made from numbers only, and an
+	 * ArrayList otherwise.
 	 */
-	private final ArrayList<Object> myArrayList;
+	private final List<Object> myArrayList;
 
 	/**
 	 * Construct an empty JSONArray.
@@ -103,34 +106,47 @@ public class JSONArray implements Iterable<Object> {
 	 *             If there is a syntax error.
 	 */
 	public JSONArray(JSONTokener x) throws JSONException {
-		this();
 		if (x.nextClean() != '[') {
 			throw x.syntaxError("A JSONArray text must start with '['");
 		}
-		if (x.nextClean() != ']') {
-			x.back();
-			for (;;) {
-				if (x.nextClean() == ',') {
-					x.back();
-					this.myArrayList.add(JSONObject.NULL);
-				} else {
-					x.back();
-					this.myArrayList.add(x.nextValue());
-				}
-				switch (x.nextClean()) {
-				case ',':
-					if (x.nextClean() == ']') {
-						return;
-					}
-					x.back();
-					break;
-				case ']':
-					return;
-				default:
-					throw x.syntaxError("Expected a ',' or ']'");
+		if (x.nextClean() == ']') {
+			this.myArrayList = new ArrayList<Object>();
+			return;
+		}
+		x.back();
+		NumericList list = NumericList.ofIntegers();
+		elements: for (;;) {
+			if (x.nextClean() == ',') {
+				x.back();
+				list.add(JSONObject.NULL);
+			} else {
+				x.back();
+				list.add(x.nextValue());
+			}
+			switch (x.nextClean()) {
+			case ',':
+				if (x.nextClean() == ']') {
+					break elements;
 				}
+				x.back();
+				break;
+			case ']':
+				break elements;
+			default:
+				throw x.syntaxError("Expected a ',' or ']'");
 			}
 		}
+		this.myArrayList = list.isNumeric() ? list : list.list();
+	}
+
+	/**
+	 * Construct a JSONArray that reads its elements from a JSONTape.
+	 *
+	 * @param list
+	 *            The lazy storage, which is used as it is.
+	 */
+	JSONArray(JSONTape.LazyArray list) {
+		this.myArrayList = list;
 	}
 
 	/**
@@ -163,14 +179,21 @@ public class JSONArray implements Iterable<Object> {
 	}
 
 	/**
-	 * Construct a JSONArray from an array
+	 * Construct a JSONArray from an array. An int[], long[] or double[] is
+	 * copied in one go and kept unboxed.
 	 *
 	 * @throws JSONException
 	 *             If not an array.
 	 */
 	public JSONArray(Object array) throws JSONException {
-		this();
-		if (array.getClass().isArray()) {
+		if (array instanceof int[]) {
+			this.myArrayList = NumericList.of((int[]) array);
+		} else if (array instanceof long[]) {
+			this.myArrayList = NumericList.of((long[]) array);
+		} else if (array instanceof double[]) {
+			this.myArrayList = NumericList.of((double[]) array);
+		} else if (array.getClass().isArray()) {
+			this.myArrayList = new ArrayList<Object>();
 			int length = Array.getLength(array);
 			for (int i = 0; i < length; i += 1) {
 				this.put(JSONObject.wrap(Array.get(array, i)));
@@ -185,6 +208,24 @@ public class JSONArray implements Iterable<Object> {
 		return myArrayList.iterator();
 	}
 
+	/**
+	 * Get the unboxed storage, if the elements are still kept as numbers and
+	 * index is one of them.
+	 *
+	 * @param index
+	 *            The index of the element that will be read.
+	 * @return The NumericList, or null.
+	 */
+	private NumericList numbers(int index) {
+		if (this.myArrayList instanceof NumericList) {
+			NumericList numbers = (NumericList) this.myArrayList;
+			if (numbers.isNumeric() && index >= 0 && index < numbers.size()) {
+				return numbers;
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * Get the object value associated with an index.
 	 *
@@ -235,6 +276,10 @@ public class JSONArray implements Iterable<Object> {
 	 *             to a number.
 	 */
 	public double getDouble(int index) throws JSONException {
+		NumericList numbers = this.numbers(index);
+		if (numbers != null) {
+			return numbers.getDouble(index);
+		}
 		Object object = this.get(index);
 		try {
 			return object instanceof Number ? ((Number) object).doubleValue() : Double.parseDouble((String) object);
@@ -315,6 +360,10 @@ public class JSONArray implements Iterable<Object> {
 	 *             If the key is not found or if the value is not a number.
 	 */
 	public int getInt(int index) throws JSONException {
+		NumericList numbers = this.numbers(index);
+		if (numbers != null) {
+			return numbers.getInt(index);
+		}
 		Object object = this.get(index);
 		try {
 			return object instanceof Number ? ((Number) object).intValue() : Integer.parseInt((String) object);
@@ -370,6 +419,10 @@ public class JSONArray implements Iterable<Object> {
 	 *             to a number.
 	 */
 	public long getLong(int index) throws JSONException {
+		NumericList numbers = this.numbers(index);
+		if (numbers != null) {
+			return numbers.getLong(index);
+		}
 		Object object = this.get(index);
 		try {
 			return object instanceof Number ? ((Number) object).longValue() : Long.parseLong((String) object);
@@ -1095,9 +1148,11 @@ public class JSONArray implements Iterable<Object> {
 	 * @throws JSONException
 	 */
 	public String toString(int indentFactor) throws JSONException {
-		StringWriter sw = new StringWriter();
-		synchronized (sw.getBuffer()) {
-			return this.write(sw, indentFactor, 0).toString();
+		PooledWriter w = PooledWriter.acquire(JSONArray.class);
+		try {
+			return this.write(w, indentFactor, 0).toString();
+		} finally {
+			w.release();
 		}
 	}
 
@@ -1114,6 +1169,53 @@ public class JSONArray implements Iterable<Object> {
 		return this.write(writer, 0, 0);
 	}
 
+	/**
+	 * Write the contents of the JSONArray as UTF-8 encoded JSON text to a stream,
+	 * without building the text as a String first. For compactness, no
+	 * whitespace is added. The stream is flushed but not closed.
+	 * <p>
+	 * Warning: This method assumes that the data structure is acyclical.
+	 *
+	 * @param out
+	 *            The stream.
+	 * @throws JSONException
+	 *             If the value is or contains an invalid number, or the stream
+	 *             fails.
+	 */
+	public void writeTo(OutputStream out) throws JSONException {
+		Utf8Writer w = new Utf8Writer(out);
+		this.write(w, 0, 0);
+		try {
+			w.close();
+		} catch (IOException e) {
+			throw new JSONException(e);
+		}
+	}
+
+	/**
+	 * Write the contents of the JSONArray as UTF-8 encoded JSON text into a
+	 * buffer, starting at its position. For compactness, no whitespace is
+	 * added.
+	 * <p>
+	 * Warning: This method assumes that the data structure is acyclical.
+	 *
+	 * @param out
+	 *            The buffer. Its position is advanced past the text.
+	 * @throws JSONException
+	 *             If the value is or contains an invalid number.
+	 * @throws java.nio.BufferOverflowException
+	 *             If the text does not fit in the buffer.
+	 */
+	public void writeTo(ByteBuffer out) throws JSONException {
+		Utf8Writer w = new Utf8Writer(out);
+		this.write(w, 0, 0);
+		try {
+			w.close();
+		} catch (IOException e) {
+			throw new JSONException(e);
+		}
+	}
+
 	/**
 	 * Write the contents of the JSONArray as JSON text to a writer. For
 	 * compactness, no whitespace is added.
@@ -1163,6 +1265,86 @@ public class JSONArray implements Iterable<Object> {
 		}
 	}
 
+	/**
+	 * Get the elements as ints, converted like {@link #getInt(int)}. An array
+	 * of numbers only is copied in one go.
+	 *
+	 * @return An int[] as long as this array.
+	 * @throws JSONException
+	 *             If an element is not a number.
+	 */
+	public int[] toIntArray() throws JSONException {
+		if (this.myArrayList instanceof NumericList && ((NumericList) this.myArrayList).isNumeric()) {
+			return ((NumericList) this.myArrayList).toIntArray();
+		}
+		int[] result = new int[this.length()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = this.getInt(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Get the elements as longs, converted like {@link #getLong(int)}. An
+	 * array of numbers only is copied in one go.
+	 *
+	 * @return A long[] as long as this array.
+	 * @throws JSONException
+	 *             If an element is not a number.
+	 */
+	public long[] toLongArray() throws JSONException {
+		if (this.myArrayList instanceof NumericList && ((NumericList) this.myArrayList).isNumeric()) {
+			return ((NumericList) this.myArrayList).toLongArray();
+		}
+		long[] result = new long[this.length()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = this.getLong(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Get the elements as doubles, converted like {@link #getDouble(int)}. An
+	 * array of numbers only is copied in one go.
+	 *
+	 * @return A double[] as long as this array.
+	 * @throws JSONException
+	 *             If an element is not a number.
+	 */
+	public double[] toDoubleArray() throws JSONException {
+		if (this.myArrayList instanceof NumericList && ((NumericList) this.myArrayList).isNumeric()) {
+			return ((NumericList) this.myArrayList).toDoubleArray();
+		}
+		double[] result = new double[this.length()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = this.getDouble(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Decode everything in this JSONArray that was parsed by {@link JSONTape}
+	 * and has not been read yet, down to the last nested value, so that none
+	 * of it refers to the JSON text any longer.
+	 * <p>
+	 * Warning: This method assumes that the data structure is acyclical.
+	 *
+	 * @return this.
+	 */
+	public JSONArray materialize() {
+		if (this.myArrayList instanceof JSONTape.LazyArray) {
+			((JSONTape.LazyArray) this.myArrayList).toGeneric();
+		}
+		for (Object value : this.myArrayList) {
+			if (value instanceof JSONObject) {
+				((JSONObject) value).materialize();
+			} else if (value instanceof JSONArray) {
+				((JSONArray) value).materialize();
+			}
+		}
+		return this;
+	}
+
 	/**
 	 * Returns a java.util.List containing all of the elements in this array. If
 	 * an element in the array is a JSONArray or JSONObject it will also be
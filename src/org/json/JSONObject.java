@@ -25,13 +25,14 @@ package org.json;
  */
 
 import java.io.IOException;
-import java.io.StringWriter;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -155,6 +156,51 @@ public class JSONObject {
 		this.map = new HashMap<String, Object>();
 	}
 
+	/**
+	 * Construct an empty JSONObject with room for a number of keys.
+	 *
+	 * @param initialCapacity
+	 *            The number of keys to make room for.
+	 */
+	public JSONObject(int initialCapacity) {
+		this(initialCapacity, false);
+	}
+
+	/**
+	 * Construct an empty JSONObject with room for a number of keys, which may
+	 * share its keys with other JSONObjects. A JSONObject with shared keys
+	 * only holds an array of values; its keys are kept in a shape that is
+	 * shared by every such JSONObject that was given the same keys in the
+	 * same order. Its keys are kept in the order they were put.
+	 * <p>
+	 * Only a limited number of shapes is kept: at most 64 keys each, 32
+	 * different keys following the same keys, and 65536 shapes in all. A
+	 * JSONObject whose keys go past these limits moves them into an ordinary
+	 * map of its own, and no longer shares them. Once the shapes in all, or
+	 * the 32 different first keys, are used up, JSONObjects made later start
+	 * sharing anew, without the shapes of earlier ones, which are dropped
+	 * along with them.
+	 *
+	 * @param initialCapacity
+	 *            The number of keys to make room for.
+	 * @param sharedKeys
+	 *            true to share keys with other JSONObjects.
+	 */
+	public JSONObject(int initialCapacity, boolean sharedKeys) {
+		this.map = sharedKeys ? new ShapedMap(ShapedMap.Shape.shared(), initialCapacity)
+				: new HashMap<String, Object>(initialCapacity);
+	}
+
+	/**
+	 * Construct a JSONObject that reads its properties from a JSONTape.
+	 *
+	 * @param map
+	 *            The lazy storage, which is used as it is.
+	 */
+	JSONObject(JSONTape.LazyObject map) {
+		this.map = map;
+	}
+
 	/**
 	 * Construct a JSONObject from a subset of another JSONObject. An array of
 	 * strings is used to identify the keys that should be copied. Missing keys
@@ -185,7 +231,7 @@ public class JSONObject {
 	 *             duplicated key.
 	 */
 	public JSONObject(JSONTokener x) throws JSONException {
-		this();
+		this.map = x.isSharedKeys() ? new ShapedMap(x.shapes(), 0) : new HashMap<String, Object>();
 		char c;
 		String key;
 
@@ -1374,20 +1420,38 @@ public class JSONObject {
 	 * @return A String correctly formatted for insertion in a JSON text.
 	 */
 	public static String quote(String string) {
-		StringWriter sw = new StringWriter();
-		synchronized (sw.getBuffer()) {
-			try {
-				return quote(string, sw).toString();
-			} catch (IOException ignored) {
-				// will never happen - we are writing to a string writer
-				return "";
-			}
+		PooledWriter w = PooledWriter.acquire(String.class);
+		try {
+			return quote(string, w).toString();
+		} catch (IOException ignored) {
+			// will never happen - we are writing to a buffer
+			return "";
+		} finally {
+			w.release();
 		}
 	}
 
 	public static Writer quote(String string, Writer w) throws IOException {
+		quote(string, (Appendable) w);
+		return w;
+	}
+
+	/**
+	 * Append a string in double quotes with backslash sequences in all the
+	 * right places to an Appendable, such as a StringBuilder, without creating
+	 * an intermediate String.
+	 *
+	 * @param string
+	 *            A String
+	 * @param w
+	 *            The Appendable to receive the quoted string.
+	 * @return The Appendable.
+	 * @throws IOException
+	 *             If the Appendable throws.
+	 */
+	public static Appendable quote(String string, Appendable w) throws IOException {
 		if (string == null || string.length() == 0) {
-			w.write("\"\"");
+			w.append("\"\"");
 			return w;
 		}
 
@@ -1397,49 +1461,49 @@ public class JSONObject {
 		int i;
 		int len = string.length();
 
-		w.write('"');
+		w.append('"');
 		for (i = 0; i < len; i += 1) {
 			b = c;
 			c = string.charAt(i);
 			switch (c) {
 			case '\\':
 			case '"':
-				w.write('\\');
-				w.write(c);
+				w.append('\\');
+				w.append(c);
 				break;
 			case '/':
 				if (b == '<') {
-					w.write('\\');
+					w.append('\\');
 				}
-				w.write(c);
+				w.append(c);
 				break;
 			case '\b':
-				w.write("\\b");
+				w.append("\\b");
 				break;
 			case '\t':
-				w.write("\\t");
+				w.append("\\t");
 				break;
 			case '\n':
-				w.write("\\n");
+				w.append("\\n");
 				break;
 			case '\f':
-				w.write("\\f");
+				w.append("\\f");
 				break;
 			case '\r':
-				w.write("\\r");
+				w.append("\\r");
 				break;
 			default:
 				if (c < ' ' || (c >= '\u0080' && c < '\u00a0') || (c >= '\u2000' && c < '\u2100')) {
-					w.write("\\u");
+					w.append("\\u");
 					hhhh = Integer.toHexString(c);
-					w.write("0000", 0, 4 - hhhh.length());
-					w.write(hhhh);
+					w.append("0000", 0, 4 - hhhh.length());
+					w.append(hhhh);
 				} else {
-					w.write(c);
+					w.append(c);
 				}
 			}
 		}
-		w.write('"');
+		w.append('"');
 		return w;
 	}
 
@@ -1497,53 +1561,17 @@ public class JSONObject {
 
 	/**
 	 * Try to convert a string into a number, boolean, or null. If the string
-	 * can't be converted, return the string.
+	 * can't be converted, return the string. Integers become Integer or Long,
+	 * and BigInteger if they do not fit in a long. Other numbers become
+	 * Double, and BigDecimal if they are too large for a double.
 	 *
 	 * @param string
 	 *            A String.
 	 * @return A simple JSON value.
 	 */
 	public static Object stringToValue(String string) {
-		if (string.equals("")) {
-			return string;
-		}
-		if (string.equalsIgnoreCase("true")) {
-			return Boolean.TRUE;
-		}
-		if (string.equalsIgnoreCase("false")) {
-			return Boolean.FALSE;
-		}
-		if (string.equalsIgnoreCase("null")) {
-			return JSONObject.NULL;
-		}
-
-		/*
-		 * If it might be a number, try converting it. If a number cannot be
-		 * produced, then the value will just be a string.
-		 */
-
-		char initial = string.charAt(0);
-		if ((initial >= '0' && initial <= '9') || initial == '-') {
-			try {
-				if (string.indexOf('.') > -1 || string.indexOf('e') > -1 || string.indexOf('E') > -1
-						|| "-0".equals(string)) {
-					Double d = Double.valueOf(string);
-					if (!d.isInfinite() && !d.isNaN()) {
-						return d;
-					}
-				} else {
-					Long myLong = new Long(string);
-					if (string.equals(myLong.toString())) {
-						if (myLong.longValue() == myLong.intValue()) {
-							return Integer.valueOf(myLong.intValue());
-						}
-						return myLong;
-					}
-				}
-			} catch (Exception ignore) {
-			}
-		}
-		return string;
+		Object value = NumberParser.parse(string, 0, string.length());
+		return value != null ? value : string;
 	}
 
 	/**
@@ -1626,9 +1654,11 @@ public class JSONObject {
 	 *             If the object contains an invalid number.
 	 */
 	public String toString(int indentFactor) throws JSONException {
-		StringWriter w = new StringWriter();
-		synchronized (w.getBuffer()) {
+		PooledWriter w = PooledWriter.acquire(JSONObject.class);
+		try {
 			return this.write(w, indentFactor, 0).toString();
+		} finally {
+			w.release();
 		}
 	}
 
@@ -1770,6 +1800,53 @@ public class JSONObject {
 		return this.write(writer, 0, 0);
 	}
 
+	/**
+	 * Write the contents of the JSONObject as UTF-8 encoded JSON text to a stream,
+	 * without building the text as a String first. For compactness, no
+	 * whitespace is added. The stream is flushed but not closed.
+	 * <p>
+	 * Warning: This method assumes that the data structure is acyclical.
+	 *
+	 * @param out
+	 *            The stream.
+	 * @throws JSONException
+	 *             If the value is or contains an invalid number, or the stream
+	 *             fails.
+	 */
+	public void writeTo(OutputStream out) throws JSONException {
+		Utf8Writer w = new Utf8Writer(out);
+		this.write(w, 0, 0);
+		try {
+			w.close();
+		} catch (IOException e) {
+			throw new JSONException(e);
+		}
+	}
+
+	/**
+	 * Write the contents of the JSONObject as UTF-8 encoded JSON text into a
+	 * buffer, starting at its position. For compactness, no whitespace is
+	 * added.
+	 * <p>
+	 * Warning: This method assumes that the data structure is acyclical.
+	 *
+	 * @param out
+	 *            The buffer. Its position is advanced past the text.
+	 * @throws JSONException
+	 *             If the value is or contains an invalid number.
+	 * @throws java.nio.BufferOverflowException
+	 *             If the text does not fit in the buffer.
+	 */
+	public void writeTo(ByteBuffer out) throws JSONException {
+		Utf8Writer w = new Utf8Writer(out);
+		this.write(w, 0, 0);
+		try {
+			w.close();
+		} catch (IOException e) {
+			throw new JSONException(e);
+		}
+	}
+
 	static final Writer writeValue(Writer writer, Object value, int indentFactor, int indent)
 			throws JSONException, IOException {
 		if (value == null || value.equals(null)) {
@@ -1887,6 +1964,29 @@ public class JSONObject {
 		}
 	}
 
+	/**
+	 * Decode everything in this JSONObject that was parsed by {@link JSONTape}
+	 * and has not been read yet, down to the last nested value, so that none
+	 * of it refers to the JSON text any longer.
+	 * <p>
+	 * Warning: This method assumes that the data structure is acyclical.
+	 *
+	 * @return this.
+	 */
+	public JSONObject materialize() {
+		if (this.map instanceof JSONTape.LazyObject) {
+			((JSONTape.LazyObject) this.map).toGeneric();
+		}
+		for (Object value : this.map.values()) {
+			if (value instanceof JSONObject) {
+				((JSONObject) value).materialize();
+			} else if (value instanceof JSONArray) {
+				((JSONArray) value).materialize();
+			}
+		}
+		return this;
+	}
+
 	/**
 	 * Returns a java.util.Map containing all of the entries in this object. If
 	 * an entry in the object is a JSONArray or JSONObject it will also be
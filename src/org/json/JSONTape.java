@@ -0,0 +1,762 @@
+package org.json;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/*
+Copyright (c) 2002 JSON.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+The Software shall be used for Good, not Evil.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+/**
+ * Parses JSON text lazily. A single pass over the text checks its structure
+ * and records every value in a tape: an int[] of the kind of each value and
+ * where it lies in the text. The JSONObjects and JSONArrays that are returned
+ * read from the tape, and only make the keys, strings, numbers and nested
+ * objects that are actually asked for. This is much cheaper than
+ * {@link JSONObject#JSONObject(String)} when only a few values of a large
+ * text are read.
+ * <p>
+ * The objects behave like parsed ones, and may be changed. Changing a
+ * JSONObject or the length of a JSONArray makes it decode its own values, but
+ * not the objects nested in it. {@link JSONObject#materialize()} and
+ * {@link JSONArray#materialize()} decode a whole subtree, after which it no
+ * longer refers to the text.
+ * <p>
+ * A duplicated key is reported when its object is first read, rather than by
+ * parse. Text that is not plain JSON, such as the trailing commas and
+ * unquoted strings that JSONTokener allows, is parsed the ordinary way, and
+ * so are texts with syntax errors, which then fail with the same exception
+ * as JSONTokener would throw. Reading a lazy object decodes into it, so it
+ * must not be read from several threads at once without synchronization.
+ */
+public final class JSONTape {
+
+	private static final int OBJECT = 0;
+	private static final int ARRAY = 1;
+	/** A quoted string without escapes. */
+	private static final int STRING = 2;
+	/** A quoted string with escapes. */
+	private static final int ESCAPED = 3;
+	/** An unquoted token: a number, true, false, null or other text. */
+	private static final int TEXT = 4;
+
+	/**
+	 * Every node takes three ints: its kind, then the start and end of its
+	 * characters for a string or token, or the number of members and the
+	 * index of the next node for an object or array. The members follow the
+	 * node, an object's as key then value.
+	 */
+	private static final int NODE = 3;
+
+	private final String source;
+	private final int[] nodes;
+
+	private JSONTape(String source, int[] nodes) {
+		this.source = source;
+		this.nodes = nodes;
+	}
+
+	/**
+	 * Parse a JSON text lazily.
+	 *
+	 * @param source
+	 *            A string that begins with <code>{</code> or <code>[</code>.
+	 * @return A JSONObject or JSONArray.
+	 * @throws JSONException
+	 *             If there is a syntax error.
+	 */
+	public static Object parse(String source) throws JSONException {
+		int pos = skip(source, 0);
+		if (pos < source.length() && source.charAt(pos) == '[') {
+			return parseArray(source);
+		}
+		return parseObject(source);
+	}
+
+	/**
+	 * Parse a JSON object text lazily.
+	 *
+	 * @param source
+	 *            A string that begins with <code>{</code>.
+	 * @return A JSONObject.
+	 * @throws JSONException
+	 *             If there is a syntax error.
+	 */
+	public static JSONObject parseObject(String source) throws JSONException {
+		int[] nodes = scan(source, '{');
+		if (nodes == null) {
+			return new JSONObject(source);
+		}
+		return new JSONObject(new LazyObject(new JSONTape(source, nodes), 0));
+	}
+
+	/**
+	 * Parse a JSON array text lazily.
+	 *
+	 * @param source
+	 *            A string that begins with <code>[</code>.
+	 * @return A JSONArray.
+	 * @throws JSONException
+	 *             If there is a syntax error.
+	 */
+	public static JSONArray parseArray(String source) throws JSONException {
+		int[] nodes = scan(source, '[');
+		if (nodes == null) {
+			return new JSONArray(source);
+		}
+		return new JSONArray(new LazyArray(new JSONTape(source, nodes), 0));
+	}
+
+	/**
+	 * Skip whitespace, the way JSONTokener.nextClean does.
+	 */
+	private static int skip(String s, int pos) {
+		int length = s.length();
+		while (pos < length) {
+			char c = s.charAt(pos);
+			if (c > ' ' || c == 0) {
+				break;
+			}
+			pos++;
+		}
+		return pos;
+	}
+
+	/**
+	 * Build the tape of the value at the start of s, which must begin with
+	 * first. Text after that value is ignored, as JSONTokener does.
+	 *
+	 * @return The nodes, or null if the text is not plain JSON.
+	 */
+	private static int[] scan(String s, char first) {
+		int length = s.length();
+		int pos = skip(s, 0);
+		if (pos >= length || s.charAt(pos) != first) {
+			return null;
+		}
+		int[] nodes = new int[Math.max(16 * NODE, length / 4)];
+		int n = 0;
+		int[] open = new int[16];
+		int depth = 0;
+		boolean key = false;
+		for (;;) {
+			// A value, or an object's key when key is set.
+			pos = skip(s, pos);
+			if (pos >= length) {
+				return null;
+			}
+			if (depth > 0) {
+				nodes[open[depth - 1] + 1]++;
+			}
+			if (n + NODE > nodes.length) {
+				nodes = Arrays.copyOf(nodes, nodes.length * 2);
+			}
+			char c = s.charAt(pos);
+			if (!key && (c == '{' || c == '[')) {
+				if (depth == open.length) {
+					open = Arrays.copyOf(open, depth * 2);
+				}
+				open[depth++] = n;
+				nodes[n] = c == '{' ? OBJECT : ARRAY;
+				nodes[n + 1] = 0;
+				n += NODE;
+				pos = skip(s, pos + 1);
+				if (pos >= length) {
+					return null;
+				}
+				if (s.charAt(pos) != (c == '{' ? '}' : ']')) {
+					key = c == '{';
+					continue;
+				}
+				// An empty object or array.
+				nodes[open[--depth] + 2] = n;
+				pos++;
+			} else if (c == '"' || c == '\'') {
+				int start = ++pos;
+				int kind = STRING;
+				for (;;) {
+					if (pos >= length) {
+						return null;
+					}
+					char d = s.charAt(pos++);
+					if (d == c) {
+						break;
+					}
+					if (d == '\\') {
+						kind = ESCAPED;
+						if (pos >= length) {
+							return null;
+						}
+						switch (s.charAt(pos++)) {
+						case 'b':
+						case 't':
+						case 'n':
+						case 'f':
+						case 'r':
+						case '"':
+						case '\'':
+						case '\\':
+						case '/':
+							break;
+						case 'u':
+							if (pos + 4 > length) {
+								return null;
+							}
+							for (int i = 0; i < 4; i++) {
+								if (Character.digit(s.charAt(pos++), 16) < 0) {
+									return null;
+								}
+							}
+							break;
+						default:
+							return null;
+						}
+					} else if (d == '\n' || d == '\r' || d == 0) {
+						return null;
+					}
+				}
+				nodes[n] = kind;
+				nodes[n + 1] = start;
+				nodes[n + 2] = pos - 1;
+				n += NODE;
+			} else if (c >= ' ' && (c >= 128 || !JSONTokener.DELIMITER[c])) {
+				int start = pos;
+				while (pos < length) {
+					char d = s.charAt(pos);
+					if (d < ' ' || (d < 128 && JSONTokener.DELIMITER[d])) {
+						break;
+					}
+					pos++;
+				}
+				int end = pos;
+				while (s.charAt(end - 1) <= ' ') {
+					end--;
+				}
+				nodes[n] = TEXT;
+				nodes[n + 1] = start;
+				nodes[n + 2] = end;
+				n += NODE;
+			} else {
+				return null;
+			}
+			if (key) {
+				// The key is followed by ':' and its value.
+				pos = skip(s, pos);
+				if (pos >= length || s.charAt(pos) != ':') {
+					return null;
+				}
+				pos++;
+				key = false;
+				nodes[open[depth - 1] + 1]--;
+				continue;
+			}
+			// Members are separated by ',', and the last closes its parents.
+			for (;;) {
+				if (depth == 0) {
+					return Arrays.copyOf(nodes, n);
+				}
+				pos = skip(s, pos);
+				if (pos >= length) {
+					return null;
+				}
+				int parent = open[depth - 1];
+				char d = s.charAt(pos++);
+				if (d == ',') {
+					key = nodes[parent] == OBJECT;
+					break;
+				}
+				if (d != (nodes[parent] == OBJECT ? '}' : ']')) {
+					return null;
+				}
+				nodes[parent + 2] = n;
+				depth--;
+			}
+		}
+	}
+
+	/**
+	 * Get the index of the node after node and its members.
+	 */
+	private int next(int node) {
+		return this.nodes[node] <= ARRAY ? this.nodes[node + 2] : node + NODE;
+	}
+
+	/**
+	 * Decode the value of a node.
+	 *
+	 * @return A Boolean, Number, String, JSONObject, JSONArray or
+	 *         JSONObject.NULL.
+	 */
+	private Object value(int node) {
+		int start = this.nodes[node + 1];
+		int end = this.nodes[node + 2];
+		switch (this.nodes[node]) {
+		case OBJECT:
+			return new JSONObject(new LazyObject(this, node));
+		case ARRAY:
+			return new JSONArray(new LazyArray(this, node));
+		case STRING:
+			return this.source.substring(start, end);
+		case ESCAPED:
+			return this.unescape(start, end);
+		default:
+			Object value = NumberParser.parse(this.source, start, end);
+			return value != null ? value : this.source.substring(start, end);
+		}
+	}
+
+	/**
+	 * Decode a string with escapes, which scan has checked.
+	 */
+	private String unescape(int start, int end) {
+		String s = this.source;
+		StringBuilder sb = new StringBuilder(end - start);
+		for (int pos = start; pos < end; pos++) {
+			char c = s.charAt(pos);
+			if (c != '\\') {
+				sb.append(c);
+				continue;
+			}
+			c = s.charAt(++pos);
+			switch (c) {
+			case 'b':
+				sb.append('\b');
+				break;
+			case 't':
+				sb.append('\t');
+				break;
+			case 'n':
+				sb.append('\n');
+				break;
+			case 'f':
+				sb.append('\f');
+				break;
+			case 'r':
+				sb.append('\r');
+				break;
+			case 'u':
+				int code = 0;
+				for (int i = 0; i < 4; i++) {
+					code = code << 4 | Character.digit(s.charAt(++pos), 16);
+				}
+				sb.append((char) code);
+				break;
+			default:
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * The storage of a lazily parsed JSONObject. Keys are found by comparing
+	 * the text where they lie, and their values are decoded when first read.
+	 * Changing the map moves everything into a LinkedHashMap.
+	 */
+	static final class LazyObject extends AbstractMap<String, Object> {
+
+		private JSONTape tape;
+		private final int node;
+		private int size;
+		/** The node of each key, and their values follow. */
+		private int[] keyNodes;
+		/** Open addressing table of index + 1, by the hash of the key. */
+		private int[] table;
+		private String[] keys;
+		private Object[] values;
+		/** Set once the map has been changed. */
+		private LinkedHashMap<String, Object> generic;
+		private Set<Map.Entry<String, Object>> entrySet;
+
+		LazyObject(JSONTape tape, int node) {
+			this.tape = tape;
+			this.node = node;
+			this.size = tape.nodes[node + 1];
+		}
+
+		/**
+		 * Find the keys in the tape, and index them.
+		 *
+		 * @throws JSONException
+		 *             If a key is duplicated.
+		 */
+		private void index() {
+			int[] nodes = this.tape.nodes;
+			int size = this.size;
+			this.keyNodes = new int[size];
+			this.keys = new String[size];
+			this.values = new Object[size];
+			this.table = new int[Integer.highestOneBit(Math.max(2, size) * 2 - 1) << 1];
+			int child = this.node + NODE;
+			for (int i = 0; i < size; i++) {
+				this.keyNodes[i] = child;
+				if (nodes[child] != STRING) {
+					this.keys[i] = String.valueOf(this.tape.value(child));
+				}
+				int slot = this.hash(i) & (this.table.length - 1);
+				while (this.table[slot] != 0) {
+					if (this.same(this.table[slot] - 1, i)) {
+						throw new JSONException("Duplicate key \"" + this.key(i) + "\"");
+					}
+					slot = (slot + 1) & (this.table.length - 1);
+				}
+				this.table[slot] = i + 1;
+				child = this.tape.next(child + NODE);
+			}
+		}
+
+		/**
+		 * Hash a key like String.hashCode, without making it.
+		 */
+		private int hash(int i) {
+			if (this.keys[i] != null) {
+				return this.keys[i].hashCode();
+			}
+			String s = this.tape.source;
+			int node = this.keyNodes[i];
+			int end = this.tape.nodes[node + 2];
+			int h = 0;
+			for (int pos = this.tape.nodes[node + 1]; pos < end; pos++) {
+				h = 31 * h + s.charAt(pos);
+			}
+			return h;
+		}
+
+		private boolean matches(int i, String key) {
+			if (this.keys[i] != null) {
+				return this.keys[i].equals(key);
+			}
+			int node = this.keyNodes[i];
+			int start = this.tape.nodes[node + 1];
+			int length = this.tape.nodes[node + 2] - start;
+			return key.length() == length && this.tape.source.regionMatches(start, key, 0, length);
+		}
+
+		private boolean same(int i, int j) {
+			if (this.keys[i] != null || this.keys[j] != null) {
+				return this.key(i).equals(this.key(j));
+			}
+			int[] nodes = this.tape.nodes;
+			int start = nodes[this.keyNodes[i] + 1];
+			int length = nodes[this.keyNodes[i] + 2] - start;
+			int other = nodes[this.keyNodes[j] + 1];
+			return length == nodes[this.keyNodes[j] + 2] - other
+					&& this.tape.source.regionMatches(start, this.tape.source, other, length);
+		}
+
+		private int find(Object key) {
+			if (!(key instanceof String)) {
+				return -1;
+			}
+			if (this.keyNodes == null) {
+				this.index();
+			}
+			int mask = this.table.length - 1;
+			for (int slot = key.hashCode() & mask;; slot = (slot + 1) & mask) {
+				int i = this.table[slot] - 1;
+				if (i < 0) {
+					return -1;
+				}
+				if (this.matches(i, (String) key)) {
+					return i;
+				}
+			}
+		}
+
+		private String key(int i) {
+			if (this.keys[i] == null) {
+				int node = this.keyNodes[i];
+				this.keys[i] = this.tape.source.substring(this.tape.nodes[node + 1], this.tape.nodes[node + 2]);
+			}
+			return this.keys[i];
+		}
+
+		private Object value(int i) {
+			Object value = this.values[i];
+			if (value == null) {
+				value = this.tape.value(this.keyNodes[i] + NODE);
+				this.values[i] = value;
+			}
+			return value;
+		}
+
+		/**
+		 * Decode every key and value into a LinkedHashMap, which is used from
+		 * then on.
+		 */
+		void toGeneric() {
+			if (this.generic != null) {
+				return;
+			}
+			if (this.keyNodes == null) {
+				this.index();
+			}
+			LinkedHashMap<String, Object> map = new LinkedHashMap<String, Object>(Math.max(16, this.size * 2));
+			for (int i = 0; i < this.size; i++) {
+				map.put(this.key(i), this.value(i));
+			}
+			this.generic = map;
+			this.tape = null;
+			this.keyNodes = null;
+			this.table = null;
+			this.keys = null;
+			this.values = null;
+		}
+
+		@Override
+		public int size() {
+			return this.generic != null ? this.generic.size() : this.size;
+		}
+
+		@Override
+		public boolean containsKey(Object key) {
+			return this.generic != null ? this.generic.containsKey(key) : this.find(key) >= 0;
+		}
+
+		@Override
+		public Object get(Object key) {
+			if (this.generic != null) {
+				return this.generic.get(key);
+			}
+			int i = this.find(key);
+			return i < 0 ? null : this.value(i);
+		}
+
+		@Override
+		public Object put(String key, Object value) {
+			this.toGeneric();
+			return this.generic.put(key, value);
+		}
+
+		@Override
+		public Object remove(Object key) {
+			this.toGeneric();
+			return this.generic.remove(key);
+		}
+
+		@Override
+		public void clear() {
+			this.toGeneric();
+			this.generic.clear();
+		}
+
+		@Override
+		public Set<Map.Entry<String, Object>> entrySet() {
+			if (this.generic != null) {
+				return this.generic.entrySet();
+			}
+			if (this.entrySet == null) {
+				this.entrySet = new AbstractSet<Map.Entry<String, Object>>() {
+
+					@Override
+					public int size() {
+						return LazyObject.this.size();
+					}
+
+					@Override
+					public Iterator<Map.Entry<String, Object>> iterator() {
+						return LazyObject.this.generic != null ? LazyObject.this.generic.entrySet().iterator()
+								: new Entries();
+					}
+				};
+			}
+			return this.entrySet;
+		}
+
+		/**
+		 * The entries of the tape. Removing one moves the map into its
+		 * LinkedHashMap; the iteration then goes on over the keys and values
+		 * that were decoded for it.
+		 */
+		private final class Entries implements Iterator<Map.Entry<String, Object>> {
+
+			private final String[] keys;
+			private final Object[] values;
+			private int next;
+			private boolean removable;
+
+			Entries() {
+				if (LazyObject.this.keyNodes == null) {
+					LazyObject.this.index();
+				}
+				this.keys = LazyObject.this.keys;
+				this.values = LazyObject.this.values;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return this.next < this.keys.length;
+			}
+
+			@Override
+			public Map.Entry<String, Object> next() {
+				if (this.next >= this.keys.length) {
+					throw new NoSuchElementException();
+				}
+				final int i = this.next++;
+				this.removable = true;
+				if (LazyObject.this.generic == null) {
+					LazyObject.this.key(i);
+					LazyObject.this.value(i);
+				}
+				return new AbstractMap.SimpleEntry<String, Object>(this.keys[i], this.values[i]) {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					public Object setValue(Object value) {
+						if (value == null) {
+							throw new NullPointerException();
+						}
+						if (LazyObject.this.generic == null) {
+							Entries.this.values[i] = value;
+						} else {
+							LazyObject.this.generic.put(this.getKey(), value);
+						}
+						return super.setValue(value);
+					}
+				};
+			}
+
+			@Override
+			public void remove() {
+				if (!this.removable) {
+					throw new IllegalStateException();
+				}
+				this.removable = false;
+				LazyObject.this.remove(this.keys[this.next - 1]);
+			}
+		}
+	}
+
+	/**
+	 * The storage of a lazily parsed JSONArray. Elements are decoded when
+	 * first read. Adding or removing an element moves everything into an
+	 * ArrayList.
+	 */
+	static final class LazyArray extends AbstractList<Object> implements RandomAccess {
+
+		private JSONTape tape;
+		private final int node;
+		private final int size;
+		/** The node of each element. */
+		private int[] elementNodes;
+		private Object[] values;
+		/** Set once the length has been changed. */
+		private ArrayList<Object> generic;
+
+		LazyArray(JSONTape tape, int node) {
+			this.tape = tape;
+			this.node = node;
+			this.size = tape.nodes[node + 1];
+		}
+
+		private void index() {
+			this.elementNodes = new int[this.size];
+			this.values = new Object[this.size];
+			int child = this.node + NODE;
+			for (int i = 0; i < this.size; i++) {
+				this.elementNodes[i] = child;
+				child = this.tape.next(child);
+			}
+		}
+
+		private void check(int index) {
+			if (index < 0 || index >= this.size) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+			}
+		}
+
+		/**
+		 * Decode every element into an ArrayList, which is used from then on.
+		 */
+		void toGeneric() {
+			if (this.generic != null) {
+				return;
+			}
+			ArrayList<Object> list = new ArrayList<Object>(Math.max(10, this.size + this.size / 2));
+			for (int i = 0; i < this.size; i++) {
+				list.add(this.get(i));
+			}
+			this.generic = list;
+			this.tape = null;
+			this.elementNodes = null;
+			this.values = null;
+		}
+
+		@Override
+		public int size() {
+			return this.generic != null ? this.generic.size() : this.size;
+		}
+
+		@Override
+		public Object get(int index) {
+			if (this.generic != null) {
+				return this.generic.get(index);
+			}
+			this.check(index);
+			if (this.elementNodes == null) {
+				this.index();
+			}
+			Object value = this.values[index];
+			if (value == null) {
+				value = this.tape.value(this.elementNodes[index]);
+				this.values[index] = value;
+			}
+			return value;
+		}
+
+		@Override
+		public Object set(int index, Object element) {
+			if (this.generic != null || element == null) {
+				this.toGeneric();
+				return this.generic.set(index, element);
+			}
+			Object old = this.get(index);
+			this.values[index] = element;
+			return old;
+		}
+
+		@Override
+		public void add(int index, Object element) {
+			this.toGeneric();
+			this.generic.add(index, element);
+			this.modCount++;
+		}
+
+		@Override
+		public Object remove(int index) {
+			this.toGeneric();
+			this.modCount++;
+			return this.generic.remove(index);
+		}
+	}
+}
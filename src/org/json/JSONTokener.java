@@ -1,11 +1,10 @@
 package org.json;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 
 /*
 Copyright (c) 2002 JSON.org
@@ -35,20 +34,64 @@ SOFTWARE.
  * A JSONTokener takes a source string and extracts characters and tokens from
  * it. It is used by the JSONObject and JSONArray constructors to parse JSON
  * source strings.
+ * <p>
+ * The source is read into a window of chars that is refilled as it is used
+ * up. Whitespace, strings and unquoted values are scanned within the window
+ * and copied a span at a time. The line and character reported in syntax
+ * errors are only worked out when an error message is made.
  * 
  * @author JSON.org
  * @version 2014-05-03
  */
 public class JSONTokener {
 
-	private long character;
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * The characters that end an unquoted value.
+	 */
+	static final boolean[] DELIMITER = new boolean[128];
+	static {
+		for (char c : ",:]}/\\\"[{;=#".toCharArray()) {
+			DELIMITER[c] = true;
+		}
+	}
+
 	private boolean eof;
-	private long index;
-	private long line;
 	private char previous;
-	private Reader reader;
 	private boolean usePrevious;
 
+	/** The source, either a Reader or a String, or neither for a subclass. */
+	private Reader reader;
+	private String string;
+	private int stringOffset;
+
+	private char[] buf;
+	private int pos;
+	private int limit;
+	/** The index in the source of buf[0]. */
+	private long base;
+	/** The start of the chars that must survive a refill, or -1. */
+	private int mark = -1;
+	/** The number of times next() has been called at the end of the source. */
+	private long eofReads;
+
+	/** Line and character of the chars up to countedTo, see position(). */
+	private long countedTo;
+	private long line = 1;
+	private long character = 1;
+	private boolean afterReturn;
+	/** Line and character before the char at countedTo - 1. */
+	private long lastLine = 1;
+	private long lastCharacter = 1;
+	private boolean lastAfterReturn;
+
+	private final StringBuilder token = new StringBuilder();
+	private StringCache stringCache;
+	private boolean sharedKeys;
+	/** The root of the shapes of the JSONObjects read, while keys are shared. */
+	private ShapedMap.Shape shapes;
+
 	/**
 	 * Construct a JSONTokener from a Reader.
 	 *
@@ -56,23 +99,27 @@ public class JSONTokener {
 	 *            A reader.
 	 */
 	public JSONTokener(Reader reader) {
-		this.reader = reader.markSupported() ? reader : new BufferedReader(reader);
-		this.eof = false;
-		this.usePrevious = false;
-		this.previous = 0;
-		this.index = 0;
-		this.character = 1;
-		this.line = 1;
+		this.reader = reader;
+		this.buf = new char[BUFFER_SIZE];
 	}
 
 	/**
-	 * Construct a JSONTokener from an InputStream.
+	 * Construct a JSONTokener from an InputStream. The stream is decoded as
+	 * UTF-8, which is the encoding JSON text is exchanged in.
 	 * 
 	 * @param inputStream
 	 *            The source.
 	 */
 	public JSONTokener(InputStream inputStream) {
-		this(new InputStreamReader(inputStream));
+		this(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Construct a JSONTokener for a subclass that reads its source itself and
+	 * overrides every method that reads characters.
+	 */
+	protected JSONTokener() {
+		this.buf = new char[0];
 	}
 
 	/**
@@ -82,7 +129,142 @@ public class JSONTokener {
 	 *            A source string.
 	 */
 	public JSONTokener(String s) {
-		this(new StringReader(s));
+		this.string = s;
+		this.buf = new char[Math.max(16, Math.min(s.length(), BUFFER_SIZE))];
+	}
+
+	/**
+	 * Share the strings read by nextString, and so the keys and string values
+	 * of JSONObjects and JSONArrays, through a cache. By default every string
+	 * is made anew.
+	 *
+	 * @param cache
+	 *            A StringCache, or null to stop using one.
+	 */
+	public void setStringCache(StringCache cache) {
+		this.stringCache = cache;
+	}
+
+	/**
+	 * Get the cache set with {@link #setStringCache(StringCache)}.
+	 *
+	 * @return A StringCache, or null.
+	 */
+	public StringCache getStringCache() {
+		return this.stringCache;
+	}
+
+	/**
+	 * Make the JSONObjects read by this tokener share their keys with other
+	 * JSONObjects that have the same keys, see
+	 * {@link JSONObject#JSONObject(int, boolean)}. This saves much memory
+	 * when many objects of the same kind are read. The keys are shared among
+	 * the objects read by this tokener only, and are dropped along with them.
+	 *
+	 * @param sharedKeys
+	 *            true to share keys.
+	 */
+	public void setSharedKeys(boolean sharedKeys) {
+		this.sharedKeys = sharedKeys;
+		if (!sharedKeys) {
+			this.shapes = null;
+		}
+	}
+
+	/**
+	 * Get whether the JSONObjects read by this tokener share their keys.
+	 *
+	 * @return true if keys are shared.
+	 */
+	public boolean isSharedKeys() {
+		return this.sharedKeys;
+	}
+
+	/**
+	 * Get the root of the shapes of the JSONObjects read with shared keys,
+	 * making it on first use.
+	 */
+	ShapedMap.Shape shapes() {
+		if (this.shapes == null) {
+			this.shapes = ShapedMap.Shape.root(ShapedMap.Shape.MAX_SHAPES);
+		}
+		return this.shapes;
+	}
+
+	/**
+	 * Refill the window with the next chars of the source, keeping the chars
+	 * from mark on.
+	 *
+	 * @return false at the end of the source.
+	 */
+	private boolean fill() throws JSONException {
+		if (this.reader == null && this.string == null) {
+			return false;
+		}
+		int from = this.mark >= 0 ? this.mark : this.limit;
+		this.count(from);
+		int keep = this.limit - from;
+		if (keep == this.buf.length) {
+			char[] grown = new char[this.buf.length * 2];
+			System.arraycopy(this.buf, 0, grown, 0, keep);
+			this.buf = grown;
+		} else if (from > 0) {
+			System.arraycopy(this.buf, from, this.buf, 0, keep);
+		}
+		this.base += from;
+		this.pos -= from;
+		this.limit = keep;
+		if (this.mark >= 0) {
+			this.mark = 0;
+		}
+
+		int n;
+		if (this.string != null) {
+			n = Math.min(this.buf.length - this.limit, this.string.length() - this.stringOffset);
+			if (n <= 0) {
+				return false;
+			}
+			this.string.getChars(this.stringOffset, this.stringOffset + n, this.buf, this.limit);
+			this.stringOffset += n;
+		} else {
+			try {
+				do {
+					n = this.reader.read(this.buf, this.limit, this.buf.length - this.limit);
+				} while (n == 0);
+			} catch (IOException exception) {
+				throw new JSONException(exception);
+			}
+			if (n < 0) {
+				return false;
+			}
+		}
+		this.limit += n;
+		return true;
+	}
+
+	/**
+	 * Bring the line and character up to date with the chars before buf[to].
+	 */
+	private void count(int to) {
+		for (int i = (int) (this.countedTo - this.base); i < to; i++) {
+			char c = this.buf[i];
+			this.lastLine = this.line;
+			this.lastCharacter = this.character;
+			this.lastAfterReturn = this.afterReturn;
+			if (this.afterReturn) {
+				this.line += 1;
+				this.character = c == '\n' ? 0 : 1;
+			} else if (c == '\n') {
+				this.line += 1;
+				this.character = 0;
+			} else {
+				this.character += 1;
+			}
+			this.afterReturn = c == '\r';
+		}
+		if (this.base + to > this.countedTo) {
+			this.countedTo = this.base + to;
+		}
 	}
 
 	/**
@@ -95,11 +277,9 @@ public class JSONTokener {
 	 *             at the start of the string
 	 */
 	public void back() throws JSONException {
-		if (this.usePrevious || this.index <= 0) {
+		if (this.usePrevious || this.base + this.pos + this.eofReads <= 0) {
 			throw new JSONException("Stepping back two steps is not supported");
 		}
-		this.index -= 1;
-		this.character -= 1;
 		this.usePrevious = true;
 		this.eof = false;
 	}
@@ -158,34 +338,23 @@ public class JSONTokener {
 	 *             Thrown if there is an error reading the source string.
 	 */
 	public char next() throws JSONException {
-		int c;
 		if (this.usePrevious) {
 			this.usePrevious = false;
-			c = this.previous;
-		} else {
-			try {
-				c = this.reader.read();
-			} catch (IOException exception) {
-				throw new JSONException(exception);
-			}
-
-			if (c <= 0) { // End of stream
+			return this.previous;
+		}
+		char c;
+		if (this.pos < this.limit || this.fill()) {
+			c = this.buf[this.pos++];
+			if (c == 0) {
 				this.eof = true;
-				c = 0;
 			}
-		}
-		this.index += 1;
-		if (this.previous == '\r') {
-			this.line += 1;
-			this.character = c == '\n' ? 0 : 1;
-		} else if (c == '\n') {
-			this.line += 1;
-			this.character = 0;
 		} else {
-			this.character += 1;
+			this.eof = true;
+			this.eofReads += 1;
+			c = 0;
 		}
-		this.previous = (char) c;
-		return this.previous;
+		this.previous = c;
+		return c;
 	}
 
 	/**
@@ -242,6 +411,25 @@ public class JSONTokener {
 	 * @return A character, or 0 if there are no more characters.
 	 */
 	public char nextClean() throws JSONException {
+		if (!this.usePrevious) {
+			do {
+				char[] buf = this.buf;
+				int limit = this.limit;
+				for (int pos = this.pos; pos < limit; pos++) {
+					char c = buf[pos];
+					if (c > ' ') {
+						this.pos = pos + 1;
+						this.previous = c;
+						return c;
+					}
+					if (c == 0) {
+						this.pos = pos;
+						return this.next();
+					}
+				}
+				this.pos = limit;
+			} while (this.fill());
+		}
 		for (;;) {
 			char c = this.next();
 			if (c == 0 || c > ' ') {
@@ -265,9 +453,30 @@ public class JSONTokener {
 	 */
 	public String nextString(char quote) throws JSONException {
 		char c;
-		StringBuilder sb = new StringBuilder();
+		StringBuilder sb = null;
 		for (;;) {
+			if (!this.usePrevious) {
+				int start = this.pos;
+				int end = this.scan(quote, '\\');
+				if (end > start) {
+					if (sb == null && end < this.limit && this.buf[end] == quote) {
+						this.pos = end + 1;
+						this.previous = quote;
+						return this.stringCache != null ? this.stringCache.get(this.buf, start, end - start)
+								: new String(this.buf, start, end - start);
+					}
+					if (sb == null) {
+						sb = this.token;
+						sb.setLength(0);
+					}
+					sb.append(this.buf, start, end - start);
+				}
+			}
 			c = this.next();
+			if (sb == null && c != quote) {
+				sb = this.token;
+				sb.setLength(0);
+			}
 			switch (c) {
 			case 0:
 			case '\n':
@@ -310,13 +519,35 @@ public class JSONTokener {
 				break;
 			default:
 				if (c == quote) {
-					return sb.toString();
+					if (sb == null) {
+						return "";
+					}
+					return this.stringCache != null ? this.stringCache.get(sb) : sb.toString();
 				}
 				sb.append(c);
 			}
 		}
 	}
 
+	/**
+	 * Move pos over the chars in the window that are not a or b, a line
+	 * break or 0, and return the index of the first one that is, or limit.
+	 */
+	private int scan(char a, char b) {
+		char[] buf = this.buf;
+		int limit = this.limit;
+		int pos = this.pos;
+		while (pos < limit) {
+			char c = buf[pos];
+			if (c == a || c == b || c == '\n' || c == '\r' || c == 0) {
+				break;
+			}
+			pos++;
+		}
+		this.pos = pos;
+		return pos;
+	}
+
 	/**
 	 * Get the text up but not including the specified character or the end of
 	 * line, whichever comes first.
@@ -328,8 +559,14 @@ public class JSONTokener {
 	 *             Thrown if there is an error while searching for the delimiter
 	 */
 	public String nextTo(char delimiter) throws JSONException {
-		StringBuilder sb = new StringBuilder();
+		StringBuilder sb = this.token;
+		sb.setLength(0);
 		for (;;) {
+			if (!this.usePrevious) {
+				int start = this.pos;
+				int end = this.scan(delimiter, delimiter);
+				sb.append(this.buf, start, end - start);
+			}
 			char c = this.next();
 			if (c == delimiter || c == 0 || c == '\n' || c == '\r') {
 				if (c != 0) {
@@ -353,7 +590,8 @@ public class JSONTokener {
 	 */
 	public String nextTo(String delimiters) throws JSONException {
 		char c;
-		StringBuilder sb = new StringBuilder();
+		StringBuilder sb = this.token;
+		sb.setLength(0);
 		for (;;) {
 			c = this.next();
 			if (delimiters.indexOf(c) >= 0 || c == 0 || c == '\n' || c == '\r') {
@@ -377,7 +615,6 @@ public class JSONTokener {
 	 */
 	public Object nextValue() throws JSONException {
 		char c = this.nextClean();
-		String string;
 
 		switch (c) {
 		case '"':
@@ -400,18 +637,58 @@ public class JSONTokener {
 		 * formatting character.
 		 */
 
-		StringBuilder sb = new StringBuilder();
-		while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
+		StringBuilder sb = this.token;
+		sb.setLength(0);
+		while (c >= ' ' && (c >= 128 || !DELIMITER[c])) {
 			sb.append(c);
+			if (!this.usePrevious) {
+				char[] buf = this.buf;
+				int start = this.pos;
+				int end = start;
+				while (end < this.limit) {
+					char d = buf[end];
+					if (d < ' ' || (d < 128 && DELIMITER[d])) {
+						break;
+					}
+					end++;
+				}
+				sb.append(buf, start, end - start);
+				this.pos = end;
+			}
 			c = this.next();
 		}
 		this.back();
 
-		string = sb.toString().trim();
-		if ("".equals(string)) {
+		return tokenToValue(sb, 0, sb.length());
+	}
+
+	/**
+	 * Convert the unquoted token in s from start to end into a value, after
+	 * trimming it. Numbers, booleans and null are recognized from the
+	 * characters themselves; a String is only made for other text.
+	 *
+	 * @param s
+	 *            The characters of the token.
+	 * @param start
+	 *            The index of the first character.
+	 * @param end
+	 *            The index after the last character.
+	 * @return A Boolean, Number, String, or JSONObject.NULL.
+	 * @throws JSONException
+	 *             If the token is empty.
+	 */
+	protected Object tokenToValue(CharSequence s, int start, int end) throws JSONException {
+		while (start < end && s.charAt(start) <= ' ') {
+			start++;
+		}
+		while (end > start && s.charAt(end - 1) <= ' ') {
+			end--;
+		}
+		if (start == end) {
 			throw this.syntaxError("Missing value");
 		}
-		return JSONObject.stringToValue(string);
+		Object value = NumberParser.parse(s, start, end);
+		return value != null ? value : s.subSequence(start, end).toString();
 	}
 
 	/**
@@ -428,24 +705,23 @@ public class JSONTokener {
 	 */
 	public char skipTo(char to) throws JSONException {
 		char c;
-		try {
-			long startIndex = this.index;
-			long startCharacter = this.character;
-			long startLine = this.line;
-			this.reader.mark(1000000);
-			do {
-				c = this.next();
-				if (c == 0) {
-					this.reader.reset();
-					this.index = startIndex;
-					this.character = startCharacter;
-					this.line = startLine;
-					return c;
-				}
-			} while (c != to);
-		} catch (IOException exception) {
-			throw new JSONException(exception);
-		}
+		boolean startUsePrevious = this.usePrevious;
+		char startPrevious = this.previous;
+		long startEofReads = this.eofReads;
+		this.mark = this.pos;
+		do {
+			c = this.next();
+			if (c == 0) {
+				this.pos = this.mark;
+				this.mark = -1;
+				this.usePrevious = startUsePrevious;
+				this.previous = startPrevious;
+				this.eofReads = startEofReads;
+				this.eof = false;
+				return c;
+			}
+		} while (c != to);
+		this.mark = -1;
 		this.back();
 		return c;
 	}
@@ -481,6 +757,39 @@ public class JSONTokener {
 	 */
 	@Override
 	public String toString() {
-		return " at " + this.index + " [character " + this.character + " line " + this.line + "]";
+		long index = this.base + this.pos + this.eofReads;
+		int to = this.pos;
+		long eofReads = this.eofReads;
+		if (this.usePrevious) {
+			index -= 1;
+			if (eofReads > 0) {
+				eofReads -= 1;
+			} else {
+				to -= 1;
+			}
+		}
+		long line;
+		long character;
+		boolean afterReturn;
+		if (this.base + to < this.countedTo) {
+			// The char stepped back over has already been counted.
+			line = this.lastLine;
+			character = this.lastCharacter;
+			afterReturn = this.lastAfterReturn;
+		} else {
+			this.count(to);
+			line = this.line;
+			character = this.character;
+			afterReturn = this.afterReturn;
+		}
+		if (eofReads > 0) {
+			if (afterReturn) {
+				line += 1;
+				character = eofReads;
+			} else {
+				character += eofReads;
+			}
+		}
+		return " at " + index + " [character " + character + " line " + line + "]";
 	}
 }
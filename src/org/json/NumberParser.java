@@ -0,0 +1,257 @@
+package org.json;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/*
+Copyright (c) 2002 JSON.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+The Software shall be used for Good, not Evil.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+/**
+ * Converts unquoted tokens into values straight from the characters of the
+ * input. Booleans, null and numbers are recognized without building a String
+ * and without using exceptions for control flow. Numbers become Integer, Long
+ * or Double, and BigInteger or BigDecimal only when they do not fit.
+ * <p>
+ * Tokens that look numeric but are not plain decimal numbers, such as
+ * <code>1.5f</code> or <code>0x1.8p1</code>, are handed to the slower
+ * conversion that {@link JSONObject#stringToValue(String)} has always
+ * used, so the results do not change.
+ */
+final class NumberParser {
+
+	/**
+	 * Powers of ten that are exact in a double.
+	 */
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private NumberParser() {
+	}
+
+	/**
+	 * Convert the token in s from start to end into a boolean, null or number.
+	 *
+	 * @param s
+	 *            The characters of the token.
+	 * @param start
+	 *            The index of the first character.
+	 * @param end
+	 *            The index after the last character.
+	 * @return Boolean, JSONObject.NULL, a Number, or null if the token is
+	 *         text.
+	 */
+	static Object parse(CharSequence s, int start, int end) {
+		int length = end - start;
+		if (length == 0) {
+			return null;
+		}
+		char initial = s.charAt(start);
+		if ((initial >= '0' && initial <= '9') || initial == '-') {
+			return number(s, start, end);
+		}
+		if (length == 4) {
+			if (matches(s, start, "true")) {
+				return Boolean.TRUE;
+			}
+			if (matches(s, start, "null")) {
+				return JSONObject.NULL;
+			}
+		} else if (length == 5 && matches(s, start, "false")) {
+			return Boolean.FALSE;
+		}
+		return null;
+	}
+
+	/**
+	 * Compare s with a lower case word, ignoring case like
+	 * {@link String#equalsIgnoreCase(String)}.
+	 */
+	private static boolean matches(CharSequence s, int start, String word) {
+		for (int i = 0; i < word.length(); i++) {
+			char c = s.charAt(start + i);
+			char w = word.charAt(i);
+			if (c != w && Character.toUpperCase(c) != Character.toUpperCase(w)
+					&& Character.toLowerCase(Character.toUpperCase(c)) != w) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static Object number(CharSequence s, int start, int end) {
+		int i = start;
+		boolean negative = s.charAt(i) == '-';
+		if (negative) {
+			i++;
+		}
+
+		// Up to 19 significant digits are kept in mantissa; scale is the
+		// power of ten it has to be multiplied with.
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		int intDigits = 0;
+		for (; i < end; i++) {
+			char c = s.charAt(i);
+			if (c < '0' || c > '9') {
+				break;
+			}
+			if (c != '0' || digits > 0) {
+				if (digits < 19) {
+					mantissa = mantissa * 10 + (c - '0');
+				} else {
+					scale++;
+				}
+				digits++;
+			}
+			intDigits++;
+		}
+
+		if (i == end) {
+			if (intDigits == 0 || (intDigits > 1 && s.charAt(end - intDigits) == '0')) {
+				return null;
+			}
+			if (negative && digits == 0) {
+				return Double.valueOf(-0.0);
+			}
+			if (digits <= 18) {
+				long value = negative ? -mantissa : mantissa;
+				if (value == (int) value) {
+					return Integer.valueOf((int) value);
+				}
+				return Long.valueOf(value);
+			}
+			BigInteger big = new BigInteger(s.subSequence(start, end).toString());
+			if (big.bitLength() < 64) {
+				return Long.valueOf(big.longValue());
+			}
+			return big;
+		}
+
+		int fractionDigits = 0;
+		if (s.charAt(i) == '.') {
+			for (i++; i < end; i++) {
+				char c = s.charAt(i);
+				if (c < '0' || c > '9') {
+					break;
+				}
+				if (c != '0' || digits > 0) {
+					if (digits < 19) {
+						mantissa = mantissa * 10 + (c - '0');
+						scale--;
+					}
+					digits++;
+				} else {
+					scale--;
+				}
+				fractionDigits++;
+			}
+		}
+
+		int exponent = 0;
+		boolean hugeExponent = false;
+		if (i < end && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+				negativeExponent = s.charAt(i) == '-';
+				i++;
+			}
+			int exponentDigits = 0;
+			for (; i < end; i++) {
+				char c = s.charAt(i);
+				if (c < '0' || c > '9') {
+					break;
+				}
+				if (exponent < 100000000) {
+					exponent = exponent * 10 + (c - '0');
+				} else {
+					hugeExponent = true;
+				}
+				exponentDigits++;
+			}
+			if (exponentDigits == 0) {
+				return other(s, start, end);
+			}
+			if (negativeExponent) {
+				exponent = -exponent;
+			}
+		}
+		if (i < end || intDigits + fractionDigits == 0) {
+			return other(s, start, end);
+		}
+
+		double value;
+		int power = scale + exponent;
+		if (digits == 0) {
+			value = 0;
+		} else if (digits <= 15 && power >= -22 && power <= 22) {
+			value = mantissa;
+			if (power < 0) {
+				value /= POWERS_OF_TEN[-power];
+			} else {
+				value *= POWERS_OF_TEN[power];
+			}
+		} else {
+			String string = s.subSequence(start, end).toString();
+			value = Double.parseDouble(string);
+			if (Double.isInfinite(value)) {
+				return hugeExponent ? null : new BigDecimal(string);
+			}
+			return Double.valueOf(value);
+		}
+		return Double.valueOf(negative ? -value : value);
+	}
+
+	/**
+	 * Convert a token that starts like a number but is not a plain decimal
+	 * number, the way JSONObject.stringToValue always has: Double.valueOf
+	 * when it has a '.', 'e' or 'E', otherwise a Long that must print back
+	 * as the same text. Only forms Double.valueOf might accept are tried;
+	 * anything else is text.
+	 */
+	private static Object other(CharSequence s, int start, int end) {
+		boolean decimal = false;
+		boolean suffix = false;
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (c == '.' || c == 'e' || c == 'E') {
+				decimal = true;
+			} else if (c <= ' ' || c == 'x' || c == 'X' || c == 'f' || c == 'F' || c == 'd' || c == 'D') {
+				suffix = true;
+			}
+		}
+		if (!decimal || !suffix) {
+			return null;
+		}
+		try {
+			Double d = Double.valueOf(s.subSequence(start, end).toString());
+			if (!d.isInfinite() && !d.isNaN()) {
+				return d;
+			}
+		} catch (NumberFormatException ignore) {
+		}
+		return null;
+	}
+}
@@ -0,0 +1,380 @@
+package org.json;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/*
+Copyright (c) 2002 JSON.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+The Software shall be used for Good, not Evil.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+/**
+ * The storage of a JSONArray whose elements are all numbers of one kind,
+ * kept in an int[], long[] or double[] instead of as boxed objects. get
+ * returns the same boxed type that was added, so the array behaves as if it
+ * held the boxes; {@link #getInt(int)}, {@link #getLong(int)} and
+ * {@link #getDouble(int)} read the values without boxing.
+ * <p>
+ * The first element that does not fit moves every element into an ArrayList,
+ * which is then used for everything. {@link #list()} hands out that list, so
+ * that a JSONArray can drop this wrapper.
+ */
+final class NumericList extends AbstractList<Object> implements RandomAccess {
+
+	/** Integers. */
+	private static final int INT = 0;
+	/** Integers, and Longs that do not fit in an int. */
+	private static final int LONG = 1;
+	/** Longs only, as made from a long[]. */
+	private static final int LONG_ONLY = 2;
+	/** Doubles. */
+	private static final int DOUBLE = 3;
+
+	private int kind;
+	private int size;
+	private int[] ints;
+	private long[] longs;
+	private double[] doubles;
+	/** Set once an element did not fit. */
+	private ArrayList<Object> generic;
+
+	private NumericList(int kind) {
+		this.kind = kind;
+	}
+
+	/**
+	 * Make an empty list that takes Integers and Longs, or Doubles if the
+	 * first element is one, until something else is added.
+	 */
+	static NumericList ofIntegers() {
+		NumericList list = new NumericList(INT);
+		list.ints = new int[8];
+		return list;
+	}
+
+	static NumericList of(int[] values) {
+		NumericList list = new NumericList(INT);
+		list.ints = values.clone();
+		list.size = values.length;
+		return list;
+	}
+
+	static NumericList of(long[] values) {
+		NumericList list = new NumericList(LONG_ONLY);
+		list.longs = values.clone();
+		list.size = values.length;
+		return list;
+	}
+
+	static NumericList of(double[] values) {
+		NumericList list = new NumericList(DOUBLE);
+		list.doubles = values.clone();
+		list.size = values.length;
+		return list;
+	}
+
+	/**
+	 * Get the ArrayList the elements were moved to, or null if they are all
+	 * still numbers.
+	 */
+	ArrayList<Object> list() {
+		return this.generic;
+	}
+
+	/**
+	 * Whether the elements are still kept as numbers.
+	 */
+	boolean isNumeric() {
+		return this.generic == null;
+	}
+
+	@Override
+	public int size() {
+		return this.generic != null ? this.generic.size() : this.size;
+	}
+
+	@Override
+	public Object get(int index) {
+		if (this.generic != null) {
+			return this.generic.get(index);
+		}
+		this.check(index);
+		switch (this.kind) {
+		case INT:
+			return Integer.valueOf(this.ints[index]);
+		case LONG:
+			long l = this.longs[index];
+			return l == (int) l ? (Object) Integer.valueOf((int) l) : (Object) Long.valueOf(l);
+		case LONG_ONLY:
+			return Long.valueOf(this.longs[index]);
+		default:
+			return Double.valueOf(this.doubles[index]);
+		}
+	}
+
+	/**
+	 * Get an element as an int, like Number.intValue. Only valid while
+	 * {@link #isNumeric()}.
+	 */
+	int getInt(int index) {
+		this.check(index);
+		switch (this.kind) {
+		case INT:
+			return this.ints[index];
+		case DOUBLE:
+			return (int) this.doubles[index];
+		default:
+			return (int) this.longs[index];
+		}
+	}
+
+	/**
+	 * Get an element as a long, like Number.longValue. Only valid while
+	 * {@link #isNumeric()}.
+	 */
+	long getLong(int index) {
+		this.check(index);
+		switch (this.kind) {
+		case INT:
+			return this.ints[index];
+		case DOUBLE:
+			return (long) this.doubles[index];
+		default:
+			return this.longs[index];
+		}
+	}
+
+	/**
+	 * Get an element as a double, like Number.doubleValue. Only valid while
+	 * {@link #isNumeric()}.
+	 */
+	double getDouble(int index) {
+		this.check(index);
+		switch (this.kind) {
+		case INT:
+			return this.ints[index];
+		case DOUBLE:
+			return this.doubles[index];
+		default:
+			return this.longs[index];
+		}
+	}
+
+	/**
+	 * Copy the elements into an int[]. Only valid while {@link #isNumeric()}.
+	 */
+	int[] toIntArray() {
+		if (this.kind == INT) {
+			return Arrays.copyOf(this.ints, this.size);
+		}
+		int[] result = new int[this.size];
+		for (int i = 0; i < this.size; i++) {
+			result[i] = this.getInt(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Copy the elements into a long[]. Only valid while {@link #isNumeric()}.
+	 */
+	long[] toLongArray() {
+		if (this.kind == LONG || this.kind == LONG_ONLY) {
+			return Arrays.copyOf(this.longs, this.size);
+		}
+		long[] result = new long[this.size];
+		for (int i = 0; i < this.size; i++) {
+			result[i] = this.getLong(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Copy the elements into a double[]. Only valid while
+	 * {@link #isNumeric()}.
+	 */
+	double[] toDoubleArray() {
+		if (this.kind == DOUBLE) {
+			return Arrays.copyOf(this.doubles, this.size);
+		}
+		double[] result = new double[this.size];
+		for (int i = 0; i < this.size; i++) {
+			result[i] = this.getDouble(i);
+		}
+		return result;
+	}
+
+	private void check(int index) {
+		if (index < 0 || index >= this.size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+		}
+	}
+
+	@Override
+	public Object set(int index, Object element) {
+		if (this.generic == null) {
+			Object old = this.get(index);
+			if (this.store(index, element)) {
+				return old;
+			}
+			this.toGeneric();
+		}
+		return this.generic.set(index, element);
+	}
+
+	@Override
+	public void add(int index, Object element) {
+		if (this.generic == null) {
+			if (index == this.size) {
+				this.grow();
+				if (this.store(index, element)) {
+					this.size++;
+					this.modCount++;
+					return;
+				}
+			}
+			this.toGeneric();
+		}
+		this.generic.add(index, element);
+		this.modCount++;
+	}
+
+	@Override
+	public Object remove(int index) {
+		if (this.generic != null) {
+			this.modCount++;
+			return this.generic.remove(index);
+		}
+		Object old = this.get(index);
+		int tail = this.size - index - 1;
+		if (this.ints != null) {
+			System.arraycopy(this.ints, index + 1, this.ints, index, tail);
+		} else if (this.longs != null) {
+			System.arraycopy(this.longs, index + 1, this.longs, index, tail);
+		} else {
+			System.arraycopy(this.doubles, index + 1, this.doubles, index, tail);
+		}
+		this.size--;
+		this.modCount++;
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		if (this.generic != null) {
+			this.generic.clear();
+		} else {
+			this.size = 0;
+		}
+		this.modCount++;
+	}
+
+	/**
+	 * Store element at index if it is a number of the kind kept, moving from
+	 * ints to longs for a Long that needs it, or to doubles if the first
+	 * element is a Double.
+	 *
+	 * @return false if the element does not fit.
+	 */
+	private boolean store(int index, Object element) {
+		Class<?> type = element == null ? null : element.getClass();
+		switch (this.kind) {
+		case INT:
+			if (type == Integer.class) {
+				this.ints[index] = (Integer) element;
+				return true;
+			}
+			if (type == Double.class && this.size == 0) {
+				this.doubles = new double[this.ints.length];
+				this.ints = null;
+				this.kind = DOUBLE;
+				this.doubles[index] = (Double) element;
+				return true;
+			}
+			if (type == Long.class) {
+				long l = (Long) element;
+				if (l != (int) l) {
+					this.longs = new long[this.ints.length];
+					for (int i = 0; i < this.size; i++) {
+						this.longs[i] = this.ints[i];
+					}
+					this.ints = null;
+					this.kind = LONG;
+					this.longs[index] = l;
+					return true;
+				}
+			}
+			return false;
+		case LONG:
+			if (type == Integer.class) {
+				this.longs[index] = (Integer) element;
+				return true;
+			}
+			if (type == Long.class) {
+				long l = (Long) element;
+				if (l != (int) l) {
+					this.longs[index] = l;
+					return true;
+				}
+			}
+			return false;
+		case LONG_ONLY:
+			if (type == Long.class) {
+				this.longs[index] = (Long) element;
+				return true;
+			}
+			return false;
+		default:
+			if (type == Double.class) {
+				this.doubles[index] = (Double) element;
+				return true;
+			}
+			return false;
+		}
+	}
+
+	private void grow() {
+		if (this.ints != null) {
+			if (this.size == this.ints.length) {
+				this.ints = Arrays.copyOf(this.ints, Math.max(8, this.size * 2));
+			}
+		} else if (this.longs != null) {
+			if (this.size == this.longs.length) {
+				this.longs = Arrays.copyOf(this.longs, Math.max(8, this.size * 2));
+			}
+		} else if (this.size == this.doubles.length) {
+			this.doubles = Arrays.copyOf(this.doubles, Math.max(8, this.size * 2));
+		}
+	}
+
+	private void toGeneric() {
+		ArrayList<Object> list = new ArrayList<Object>(Math.max(10, this.size + this.size / 2));
+		for (int i = 0; i < this.size; i++) {
+			list.add(this.get(i));
+		}
+		this.generic = list;
+		this.ints = null;
+		this.longs = null;
+		this.doubles = null;
+	}
+}
@@ -0,0 +1,232 @@
+package org.json;
+
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/*
+Copyright (c) 2002 JSON.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+The Software shall be used for Good, not Evil.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+/**
+ * An unsynchronized, growable char buffer used in place of
+ * {@link java.io.StringWriter} when a JSON text is built in memory. Idle
+ * buffers are kept in a small pool shared by all threads:
+ * {@link #acquire(Class)} takes one out, and {@link #release()} puts it back.
+ * Unlike a pool per thread, this keeps reusing buffers when every text is
+ * built on a new or virtual thread, and it holds at most sixteen
+ * idle buffers however many threads there are. When the pool is empty a new
+ * buffer is made, and when it is full a released buffer is dropped.
+ * <p>
+ * The initial capacity is taken from a running average of the lengths
+ * recently produced for the same owner class, and a pooled buffer that grew far
+ * beyond that average is replaced by a smaller one on release, so one very
+ * large text does not keep its memory in the pool.
+ * <p>
+ * A PooledWriter must be used by one thread only, and not after it has been
+ * released.
+ */
+public final class PooledWriter extends Writer {
+
+	private static final int MIN_CAPACITY = 64;
+
+	/**
+	 * Buffers larger than this are kept only while the average calls for them.
+	 */
+	private static final int RETAINED_CAPACITY = 1 << 16;
+
+	/**
+	 * The number of idle buffers kept. A power of two.
+	 */
+	static final int POOL_SIZE = 16;
+
+	/**
+	 * Each slot holds an idle buffer or null. A buffer is taken out and put
+	 * back with a compare-and-set, so no two threads ever hold the same one.
+	 * Threads start probing at different slots to spread contention.
+	 */
+	private static final AtomicReferenceArray<PooledWriter> POOL = new AtomicReferenceArray<>(POOL_SIZE);
+
+	private static final ClassValue<AtomicInteger> AVERAGE = new ClassValue<AtomicInteger>() {
+		@Override
+		protected AtomicInteger computeValue(Class<?> type) {
+			return new AtomicInteger(MIN_CAPACITY);
+		}
+	};
+
+	private char[] buf;
+	private int count;
+	private boolean inUse;
+	private AtomicInteger average;
+
+	private PooledWriter(int capacity) {
+		this.buf = new char[Math.max(MIN_CAPACITY, capacity)];
+	}
+
+	/**
+	 * Get an empty buffer for building a text.
+	 *
+	 * @param owner
+	 *            The class producing the text. Capacity is estimated from the
+	 *            lengths recently produced for it.
+	 * @return An empty PooledWriter, to be released with {@link #release()}.
+	 */
+	public static PooledWriter acquire(Class<?> owner) {
+		AtomicInteger average = AVERAGE.get(owner);
+		int hint = average.get() + (average.get() >> 1);
+		PooledWriter w = null;
+		int start = start();
+		for (int i = 0; i < POOL_SIZE && w == null; i++) {
+			int slot = (start + i) & (POOL_SIZE - 1);
+			PooledWriter idle = POOL.get(slot);
+			if (idle != null && POOL.compareAndSet(slot, idle, null)) {
+				w = idle;
+				if (w.buf.length < hint) {
+					w.buf = new char[hint];
+				}
+			}
+		}
+		if (w == null) {
+			w = new PooledWriter(hint);
+		}
+		w.inUse = true;
+		w.average = average;
+		return w;
+	}
+
+	/**
+	 * Give this buffer back to the pool. The length of the text is added to
+	 * the owner's average and the buffer is emptied, so call
+	 * {@link #toString()} before releasing it. Another thread may acquire it
+	 * right away. Releasing a buffer more than once has no effect.
+	 */
+	public void release() {
+		if (!this.inUse) {
+			return;
+		}
+		int average = this.average.get();
+		average += (this.count - average) >> 3;
+		this.average.set(Math.max(MIN_CAPACITY, average));
+		if (this.buf.length > RETAINED_CAPACITY && this.buf.length > 4 * average) {
+			this.buf = new char[Math.max(MIN_CAPACITY, average * 2)];
+		}
+		this.count = 0;
+		this.inUse = false;
+		int start = start();
+		for (int i = 0; i < POOL_SIZE; i++) {
+			int slot = (start + i) & (POOL_SIZE - 1);
+			if (POOL.get(slot) == null && POOL.compareAndSet(slot, null, this)) {
+				return;
+			}
+		}
+	}
+
+	private static int start() {
+		return (int) Thread.currentThread().getId() * 7;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > this.buf.length) {
+			char[] grown = new char[Math.max(capacity, this.buf.length << 1)];
+			System.arraycopy(this.buf, 0, grown, 0, this.count);
+			this.buf = grown;
+		}
+	}
+
+	/**
+	 * @return The number of chars written so far.
+	 */
+	public int length() {
+		return this.count;
+	}
+
+	@Override
+	public void write(int c) {
+		ensureCapacity(this.count + 1);
+		this.buf[this.count++] = (char) c;
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) {
+		ensureCapacity(this.count + len);
+		System.arraycopy(cbuf, off, this.buf, this.count, len);
+		this.count += len;
+	}
+
+	@Override
+	public void write(String str) {
+		write(str, 0, str.length());
+	}
+
+	@Override
+	public void write(String str, int off, int len) {
+		ensureCapacity(this.count + len);
+		str.getChars(off, off + len, this.buf, this.count);
+		this.count += len;
+	}
+
+	@Override
+	public PooledWriter append(CharSequence csq) {
+		String s = String.valueOf(csq);
+		write(s, 0, s.length());
+		return this;
+	}
+
+	@Override
+	public PooledWriter append(CharSequence csq, int start, int end) {
+		if (csq == null) {
+			csq = "null";
+		}
+		if (csq instanceof String) {
+			write((String) csq, start, end - start);
+			return this;
+		}
+		ensureCapacity(this.count + end - start);
+		for (int i = start; i < end; i++) {
+			this.buf[this.count++] = csq.charAt(i);
+		}
+		return this;
+	}
+
+	@Override
+	public PooledWriter append(char c) {
+		write(c);
+		return this;
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void close() {
+	}
+
+	/**
+	 * @return The text written so far.
+	 */
+	@Override
+	public String toString() {
+		return new String(this.buf, 0, this.count);
+	}
+}
@@ -0,0 +1,453 @@
+package org.json;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+Copyright (c) 2002 JSON.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+The Software shall be used for Good, not Evil.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+/**
+ * The storage of a JSONObject whose keys are shared with other objects that
+ * have the same keys. The keys live in an immutable {@link Shape}, and the
+ * map itself only holds an array of values in the order of the shape's keys.
+ * Adding a key moves the map to the next shape, and objects that get the same
+ * keys in the same order end up with the same shape.
+ * <p>
+ * Shapes grow from a root, and only maps that start from the same root share
+ * them. A JSONTokener that shares keys has a root of its own, so its shapes
+ * are dropped along with the objects it read. Each root may make a limited
+ * number of shapes. Objects with very many keys, or keys that hardly repeat,
+ * fall back to a LinkedHashMap, so that the shapes stay few.
+ */
+final class ShapedMap extends AbstractMap<String, Object> {
+
+	/**
+	 * An ordered list of keys, with the shapes that follow from it by adding
+	 * one more key.
+	 */
+	static final class Shape {
+
+		/** Shapes with more keys than this are not made. */
+		static final int MAX_KEYS = 64;
+
+		/** The number of different keys that may follow one shape. */
+		static final int MAX_TRANSITIONS = 32;
+
+		/** The number of shapes that may grow from one root. */
+		static final int MAX_SHAPES = 1 << 16;
+
+		/** The root used by {@link JSONObject#JSONObject(int, boolean)}. */
+		private static final AtomicReference<Shape> SHARED = new AtomicReference<Shape>(root(MAX_SHAPES));
+
+		final Shape parent;
+		/** The number of shapes that may still be made from this shape's root. */
+		private final AtomicInteger budget;
+		final String[] keys;
+		/** Open addressing table of index + 1 for shapes of more than 8 keys. */
+		private final int[] table;
+		private volatile ConcurrentHashMap<String, Shape> transitions;
+		/** The most keys of any shape reached from this one. */
+		volatile int maxSize;
+
+		private Shape(Shape parent, String[] keys, AtomicInteger budget) {
+			this.parent = parent;
+			this.keys = keys;
+			this.budget = budget;
+			this.maxSize = keys.length;
+			if (keys.length > 8) {
+				this.table = new int[Integer.highestOneBit(keys.length) << 2];
+				int mask = this.table.length - 1;
+				for (int i = 0; i < keys.length; i++) {
+					int slot = spread(keys[i].hashCode()) & mask;
+					while (this.table[slot] != 0) {
+						slot = (slot + 1) & mask;
+					}
+					this.table[slot] = i + 1;
+				}
+			} else {
+				this.table = null;
+			}
+		}
+
+		/**
+		 * Make a new root, the shape without keys, from which at most
+		 * maxShapes other shapes may grow.
+		 */
+		static Shape root(int maxShapes) {
+			return new Shape(null, new String[0], new AtomicInteger(maxShapes));
+		}
+
+		/**
+		 * Get the root shared by JSONObjects that are not read by a tokener.
+		 * Once it can make no more shapes, or no more different first keys, a
+		 * new root takes its place, and the old one is dropped along with the
+		 * objects that use it.
+		 */
+		static Shape shared() {
+			Shape root = SHARED.get();
+			ConcurrentHashMap<String, Shape> transitions = root.transitions;
+			if (root.budget.get() > 0 && (transitions == null || transitions.size() < MAX_TRANSITIONS)) {
+				return root;
+			}
+			Shape fresh = root(MAX_SHAPES);
+			return SHARED.compareAndSet(root, fresh) ? fresh : SHARED.get();
+		}
+
+		int indexOf(Object key) {
+			String[] keys = this.keys;
+			if (this.table == null) {
+				for (int i = 0; i < keys.length; i++) {
+					if (keys[i] == key) {
+						return i;
+					}
+				}
+				for (int i = 0; i < keys.length; i++) {
+					if (keys[i].equals(key)) {
+						return i;
+					}
+				}
+				return -1;
+			}
+			int mask = this.table.length - 1;
+			int slot = spread(key.hashCode()) & mask;
+			for (;;) {
+				int i = this.table[slot] - 1;
+				if (i < 0) {
+					return -1;
+				}
+				if (keys[i].equals(key)) {
+					return i;
+				}
+				slot = (slot + 1) & mask;
+			}
+		}
+
+		/**
+		 * Get the shape with key added at the end, or null if no more shapes
+		 * should be made.
+		 */
+		Shape with(String key) {
+			ConcurrentHashMap<String, Shape> transitions = this.transitions;
+			if (transitions != null) {
+				Shape next = transitions.get(key);
+				if (next != null) {
+					return next;
+				}
+			} else {
+				synchronized (this) {
+					if (this.transitions == null) {
+						this.transitions = new ConcurrentHashMap<String, Shape>(4);
+					}
+					transitions = this.transitions;
+				}
+			}
+			if (this.keys.length >= MAX_KEYS || transitions.size() >= MAX_TRANSITIONS || !this.reserve()) {
+				return null;
+			}
+			String[] keys = Arrays.copyOf(this.keys, this.keys.length + 1);
+			keys[this.keys.length] = key;
+			Shape next = new Shape(this, keys, this.budget);
+			Shape existing = transitions.putIfAbsent(key, next);
+			if (existing != null) {
+				this.budget.incrementAndGet();
+				return existing;
+			}
+			for (Shape s = this; s != null && s.maxSize < keys.length; s = s.parent) {
+				s.maxSize = keys.length;
+			}
+			return next;
+		}
+
+		/**
+		 * Take one shape from the budget of the root.
+		 *
+		 * @return false if there is none left.
+		 */
+		private boolean reserve() {
+			for (;;) {
+				int left = this.budget.get();
+				if (left <= 0) {
+					return false;
+				}
+				if (this.budget.compareAndSet(left, left - 1)) {
+					return true;
+				}
+			}
+		}
+
+		private static int spread(int h) {
+			return h ^ (h >>> 16);
+		}
+	}
+
+	private static final Object[] NO_VALUES = new Object[0];
+
+	/** The shape without keys that this map starts from. */
+	private final Shape root;
+	private Shape shape;
+	private Object[] values;
+	/** Set once the keys no longer fit in a shape. */
+	private LinkedHashMap<String, Object> fallback;
+
+	/**
+	 * Construct an empty ShapedMap.
+	 *
+	 * @param root
+	 *            The root its shapes grow from.
+	 * @param initialCapacity
+	 *            The number of values to make room for. With 0 the room is
+	 *            taken from the largest object seen with the same first key.
+	 */
+	ShapedMap(Shape root, int initialCapacity) {
+		this.root = root;
+		this.shape = root;
+		this.values = initialCapacity > 0 ? new Object[initialCapacity] : NO_VALUES;
+	}
+
+	/**
+	 * Get the shape of the keys, or null once they have moved to a
+	 * LinkedHashMap.
+	 */
+	Shape shape() {
+		return this.fallback != null ? null : this.shape;
+	}
+
+	@Override
+	public int size() {
+		if (this.fallback != null) {
+			return this.fallback.size();
+		}
+		return this.shape.keys.length;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		if (this.fallback != null) {
+			return this.fallback.containsKey(key);
+		}
+		return key != null && this.shape.indexOf(key) >= 0;
+	}
+
+	@Override
+	public Object get(Object key) {
+		if (this.fallback != null) {
+			return this.fallback.get(key);
+		}
+		if (key == null) {
+			return null;
+		}
+		int i = this.shape.indexOf(key);
+		return i < 0 ? null : this.values[i];
+	}
+
+	@Override
+	public Object put(String key, Object value) {
+		if (this.fallback != null) {
+			return this.fallback.put(key, value);
+		}
+		int i = this.shape.indexOf(key);
+		if (i >= 0) {
+			Object old = this.values[i];
+			this.values[i] = value;
+			return old;
+		}
+		Shape next = this.shape.with(key);
+		if (next == null) {
+			return this.toFallback().put(key, value);
+		}
+		int n = this.shape.keys.length;
+		if (n == this.values.length) {
+			this.values = Arrays.copyOf(this.values, Math.max(next.maxSize, Math.max(4, n * 2)));
+		}
+		this.values[n] = value;
+		this.shape = next;
+		return null;
+	}
+
+	@Override
+	public Object remove(Object key) {
+		if (this.fallback != null) {
+			return this.fallback.remove(key);
+		}
+		if (key == null) {
+			return null;
+		}
+		int i = this.shape.indexOf(key);
+		if (i < 0) {
+			return null;
+		}
+		Object old = this.values[i];
+		this.removeAt(i);
+		return old;
+	}
+
+	/**
+	 * Remove the key at index i by walking to the shape of the other keys.
+	 */
+	private void removeAt(int i) {
+		String[] keys = this.shape.keys;
+		Shape s = this.root;
+		for (int k = 0; k < keys.length && s != null; k++) {
+			if (k != i) {
+				s = s.with(keys[k]);
+			}
+		}
+		if (s == null) {
+			this.toFallback().remove(keys[i]);
+			return;
+		}
+		System.arraycopy(this.values, i + 1, this.values, i, keys.length - i - 1);
+		this.values[keys.length - 1] = null;
+		this.shape = s;
+	}
+
+	@Override
+	public void clear() {
+		if (this.fallback != null) {
+			this.fallback = null;
+			this.values = NO_VALUES;
+		} else {
+			Arrays.fill(this.values, null);
+		}
+		this.shape = this.root;
+	}
+
+	private LinkedHashMap<String, Object> toFallback() {
+		String[] keys = this.shape.keys;
+		LinkedHashMap<String, Object> map = new LinkedHashMap<String, Object>(keys.length * 2);
+		for (int i = 0; i < keys.length; i++) {
+			map.put(keys[i], this.values[i]);
+		}
+		this.fallback = map;
+		this.shape = this.root;
+		this.values = NO_VALUES;
+		return map;
+	}
+
+	@Override
+	public Set<Map.Entry<String, Object>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Object>>() {
+
+			@Override
+			public int size() {
+				return ShapedMap.this.size();
+			}
+
+			@Override
+			public Iterator<Map.Entry<String, Object>> iterator() {
+				if (ShapedMap.this.fallback != null) {
+					return ShapedMap.this.fallback.entrySet().iterator();
+				}
+				return new EntryIterator();
+			}
+		};
+	}
+
+	private final class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+
+		private final Shape shape = ShapedMap.this.shape;
+		private int next;
+		private int last = -1;
+
+		@Override
+		public boolean hasNext() {
+			return this.next < this.shape.keys.length;
+		}
+
+		@Override
+		public Map.Entry<String, Object> next() {
+			if (this.next >= this.shape.keys.length) {
+				throw new NoSuchElementException();
+			}
+			this.last = this.next++;
+			return new Entry(this.shape, this.last);
+		}
+
+		@Override
+		public void remove() {
+			if (this.last < 0) {
+				throw new IllegalStateException();
+			}
+			ShapedMap.this.remove(this.shape.keys[this.last]);
+			this.last = -1;
+		}
+	}
+
+	private final class Entry implements Map.Entry<String, Object> {
+
+		private final Shape shape;
+		private final int index;
+
+		Entry(Shape shape, int index) {
+			this.shape = shape;
+			this.index = index;
+		}
+
+		@Override
+		public String getKey() {
+			return this.shape.keys[this.index];
+		}
+
+		@Override
+		public Object getValue() {
+			return ShapedMap.this.shape == this.shape ? ShapedMap.this.values[this.index]
+					: ShapedMap.this.get(this.getKey());
+		}
+
+		@Override
+		public Object setValue(Object value) {
+			return ShapedMap.this.put(this.getKey(), value);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry)) {
+				return false;
+			}
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			Object value = this.getValue();
+			return this.getKey().equals(e.getKey()) && (value == null ? e.getValue() == null : value.equals(e.getValue()));
+		}
+
+		@Override
+		public int hashCode() {
+			Object value = this.getValue();
+			return this.getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return this.getKey() + "=" + this.getValue();
+		}
+	}
+}
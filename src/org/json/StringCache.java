@@ -0,0 +1,185 @@
+package org.json;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*
+Copyright (c) 2002 JSON.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+The Software shall be used for Good, not Evil.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+/**
+ * A bounded cache of the strings read by a JSONTokener, so that keys and
+ * frequently repeated values are allocated once and shared. The characters
+ * are hashed where they lie in the tokener's buffer, and a String is only
+ * made when the cache does not already hold an equal one.
+ * <p>
+ * The cache is a fixed table indexed by hash. A new string replaces whatever
+ * was in its slot, so strings that keep coming back stay and others are
+ * evicted as the table fills. It takes no locks: the table holds immutable
+ * Strings, and a lost update only means a string is made twice. One cache
+ * can be shared by many tokeners on many threads.
+ * <p>
+ * Enable it with {@link JSONTokener#setStringCache(StringCache)}.
+ */
+public class StringCache {
+
+	private final String[] table;
+	private final int mask;
+	private final int maxLength;
+
+	/**
+	 * Construct a StringCache of 4096 entries for strings of up to 64 chars.
+	 */
+	public StringCache() {
+		this(4096, 64);
+	}
+
+	/**
+	 * Construct a StringCache.
+	 *
+	 * @param size
+	 *            The number of entries, rounded up to a power of two.
+	 * @param maxLength
+	 *            The longest string that is cached. Longer strings are
+	 *            always made anew.
+	 */
+	public StringCache(int size, int maxLength) {
+		int n = size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+		this.table = new String[n];
+		this.mask = n - 1;
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * Get the string of the chars from offset to offset + length.
+	 *
+	 * @param chars
+	 *            A buffer.
+	 * @param offset
+	 *            The index of the first char.
+	 * @param length
+	 *            The number of chars.
+	 * @return A String equal to the chars, shared if it was seen before.
+	 */
+	public String get(char[] chars, int offset, int length) {
+		if (length > this.maxLength) {
+			return new String(chars, offset, length);
+		}
+		int h = 0;
+		for (int i = 0; i < length; i++) {
+			h = 31 * h + chars[offset + i];
+		}
+		int slot = spread(h) & this.mask;
+		String s = this.table[slot];
+		if (s != null && s.length() == length) {
+			int i = 0;
+			while (i < length && s.charAt(i) == chars[offset + i]) {
+				i++;
+			}
+			if (i == length) {
+				return s;
+			}
+		}
+		s = new String(chars, offset, length);
+		this.table[slot] = s;
+		return s;
+	}
+
+	/**
+	 * Get the string of the ASCII bytes from offset to offset + length.
+	 *
+	 * @param bytes
+	 *            A buffer of bytes below 0x80.
+	 * @param offset
+	 *            The index of the first byte.
+	 * @param length
+	 *            The number of bytes.
+	 * @return A String equal to the bytes, shared if it was seen before.
+	 */
+	public String get(byte[] bytes, int offset, int length) {
+		if (length > this.maxLength) {
+			return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+		}
+		int h = 0;
+		for (int i = 0; i < length; i++) {
+			h = 31 * h + bytes[offset + i];
+		}
+		int slot = spread(h) & this.mask;
+		String s = this.table[slot];
+		if (s != null && s.length() == length) {
+			int i = 0;
+			while (i < length && s.charAt(i) == bytes[offset + i]) {
+				i++;
+			}
+			if (i == length) {
+				return s;
+			}
+		}
+		s = new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+		this.table[slot] = s;
+		return s;
+	}
+
+	/**
+	 * Get the string of a sequence of chars.
+	 *
+	 * @param chars
+	 *            The chars, such as a StringBuilder.
+	 * @return A String equal to the chars, shared if it was seen before.
+	 */
+	public String get(CharSequence chars) {
+		int length = chars.length();
+		if (length > this.maxLength) {
+			return chars.toString();
+		}
+		int h = 0;
+		for (int i = 0; i < length; i++) {
+			h = 31 * h + chars.charAt(i);
+		}
+		int slot = spread(h) & this.mask;
+		String s = this.table[slot];
+		if (s != null && s.length() == length) {
+			int i = 0;
+			while (i < length && s.charAt(i) == chars.charAt(i)) {
+				i++;
+			}
+			if (i == length) {
+				return s;
+			}
+		}
+		s = chars.toString();
+		this.table[slot] = s;
+		return s;
+	}
+
+	/**
+	 * Remove every string from the cache.
+	 */
+	public void clear() {
+		Arrays.fill(this.table, null);
+	}
+
+	private static int spread(int h) {
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,527 @@
+package org.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*
+Copyright (c) 2002 JSON.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+The Software shall be used for Good, not Evil.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+/**
+ * A JSONTokener that reads UTF-8 encoded bytes directly, from a byte array, a
+ * ByteBuffer or an InputStream. Bytes are only decoded to chars inside string
+ * values and other non-ASCII text; whitespace, punctuation and unquoted values
+ * are scanned as bytes, and strings without escapes or non-ASCII characters are
+ * made from their bytes in one step. Malformed input is read as U+FFFD.
+ * <p>
+ * It can be used wherever a JSONTokener is accepted, such as
+ * <code>new JSONObject(new Utf8Tokener(bytes))</code>. Positions in error
+ * messages are byte offsets, and the line is only worked out when an error
+ * message is made.
+ * <p>
+ * Subclasses can read from other sources by overriding
+ * {@link #read(byte[], int, int)}.
+ */
+public class Utf8Tokener extends JSONTokener {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final char REPLACEMENT = '\ufffd';
+
+	private final InputStream in;
+	private final ByteBuffer source;
+
+	private byte[] buf;
+	private int pos;
+	private int limit;
+	/** Offset in the input of buf[0]. */
+	private long base;
+	/** Whether buf may be compacted and reused; it is not when it was given by the caller. */
+	private boolean owned;
+	/** Set once the source has no more bytes. */
+	private boolean exhausted;
+	/** Start of the bytes that must survive a refill, or -1. */
+	private int mark = -1;
+
+	private boolean eof;
+	private boolean usePrevious;
+	private boolean hasPrevious;
+	private char previous;
+	/** The second half of a supplementary character whose first half was returned. */
+	private char pendingLow;
+
+	private long line = 1;
+	private long lineStart;
+	private long countedTo;
+
+	private char[] scratch = new char[64];
+	private final StringBuilder token = new StringBuilder();
+
+	/**
+	 * Construct a Utf8Tokener over a byte array.
+	 *
+	 * @param data
+	 *            UTF-8 encoded JSON text. It is read in place and not copied.
+	 */
+	public Utf8Tokener(byte[] data) {
+		this(data, 0, data.length);
+	}
+
+	/**
+	 * Construct a Utf8Tokener over part of a byte array.
+	 *
+	 * @param data
+	 *            UTF-8 encoded JSON text. It is read in place and not copied.
+	 * @param offset
+	 *            The index of the first byte.
+	 * @param length
+	 *            The number of bytes.
+	 */
+	public Utf8Tokener(byte[] data, int offset, int length) {
+		this.in = null;
+		this.source = null;
+		this.buf = data;
+		this.pos = offset;
+		this.limit = offset + length;
+		this.base = -offset;
+		this.exhausted = true;
+	}
+
+	/**
+	 * Construct a Utf8Tokener over the remaining bytes of a buffer. The
+	 * position of data is not changed.
+	 *
+	 * @param data
+	 *            UTF-8 encoded JSON text.
+	 */
+	public Utf8Tokener(ByteBuffer data) {
+		this.in = null;
+		if (data.hasArray()) {
+			this.source = null;
+			this.buf = data.array();
+			this.pos = data.arrayOffset() + data.position();
+			this.limit = data.arrayOffset() + data.limit();
+			this.base = -this.pos;
+			this.exhausted = true;
+		} else {
+			this.source = data.duplicate();
+			this.buf = new byte[BUFFER_SIZE];
+			this.owned = true;
+		}
+	}
+
+	/**
+	 * Construct a Utf8Tokener that reads a stream in blocks.
+	 *
+	 * @param in
+	 *            A stream of UTF-8 encoded JSON text.
+	 */
+	public Utf8Tokener(InputStream in) {
+		this.in = in;
+		this.source = null;
+		this.buf = new byte[BUFFER_SIZE];
+		this.owned = true;
+	}
+
+	/**
+	 * Construct a Utf8Tokener for a subclass that supplies its bytes through
+	 * {@link #read(byte[], int, int)}.
+	 */
+	protected Utf8Tokener() {
+		this.in = null;
+		this.source = null;
+		this.buf = new byte[BUFFER_SIZE];
+		this.owned = true;
+	}
+
+	/**
+	 * Read the next bytes of the source.
+	 *
+	 * @param b
+	 *            The buffer to read into.
+	 * @param off
+	 *            The index to start at.
+	 * @param len
+	 *            The maximum number of bytes.
+	 * @return The number of bytes read, or -1 at the end of the source.
+	 * @throws IOException
+	 *             If the source fails.
+	 */
+	protected int read(byte[] b, int off, int len) throws IOException {
+		if (this.in != null) {
+			return this.in.read(b, off, len);
+		}
+		if (this.source != null && this.source.hasRemaining()) {
+			int n = Math.min(len, this.source.remaining());
+			this.source.get(b, off, n);
+			return n;
+		}
+		return -1;
+	}
+
+	/**
+	 * Refill buf with the next block of the source, keeping the bytes from
+	 * mark on.
+	 *
+	 * @return false at the end of the source.
+	 */
+	private boolean fill() {
+		if (this.exhausted) {
+			return false;
+		}
+		int from = this.mark >= 0 ? this.mark : this.limit;
+		int keep = this.limit - from;
+		countLines(Math.min(from, this.pos));
+		if (!this.owned || keep > this.buf.length / 2) {
+			byte[] grown = new byte[Math.max(BUFFER_SIZE, keep * 2)];
+			System.arraycopy(this.buf, from, grown, 0, keep);
+			this.buf = grown;
+			this.owned = true;
+		} else {
+			System.arraycopy(this.buf, from, this.buf, 0, keep);
+		}
+		this.base += from;
+		this.pos -= from;
+		this.limit = keep;
+		if (this.mark >= 0) {
+			this.mark = 0;
+		}
+		int n;
+		do {
+			try {
+				n = read(this.buf, this.limit, this.buf.length - this.limit);
+			} catch (IOException e) {
+				throw new JSONException(e);
+			}
+		} while (n == 0);
+		if (n < 0) {
+			this.exhausted = true;
+			return false;
+		}
+		this.limit += n;
+		return true;
+	}
+
+	/**
+	 * Count the line breaks before buf[to] that have not been counted yet.
+	 */
+	private void countLines(int to) {
+		for (int i = (int) (this.countedTo - this.base); i < to; i++) {
+			if (this.buf[i] == '\n') {
+				this.line += 1;
+				this.lineStart = this.base + i + 1;
+			}
+		}
+		if (this.base + to > this.countedTo) {
+			this.countedTo = this.base + to;
+		}
+	}
+
+	@Override
+	public void back() throws JSONException {
+		if (this.usePrevious || !this.hasPrevious) {
+			throw new JSONException("Stepping back two steps is not supported");
+		}
+		this.usePrevious = true;
+		this.eof = false;
+	}
+
+	@Override
+	public boolean end() {
+		return this.eof && !this.usePrevious;
+	}
+
+	@Override
+	public char next() throws JSONException {
+		if (this.usePrevious) {
+			this.usePrevious = false;
+			return this.previous;
+		}
+		char c;
+		if (this.pendingLow != 0) {
+			c = this.pendingLow;
+			this.pendingLow = 0;
+		} else if (this.pos == this.limit && !fill()) {
+			this.eof = true;
+			c = 0;
+		} else {
+			int b = this.buf[this.pos++];
+			if (b > 0) {
+				c = (char) b;
+			} else if (b == 0) {
+				this.eof = true;
+				c = 0;
+			} else {
+				c = decode(b & 0xff);
+			}
+		}
+		this.previous = c;
+		this.hasPrevious = true;
+		return c;
+	}
+
+	/**
+	 * Decode the rest of a multi-byte sequence that starts with b. For a
+	 * supplementary character the high surrogate is returned and the low
+	 * surrogate is kept for the next call of next().
+	 */
+	private char decode(int b) {
+		int n;
+		int cp;
+		if (b >= 0xc2 && b <= 0xdf) {
+			n = 1;
+			cp = b & 0x1f;
+		} else if (b >= 0xe0 && b <= 0xef) {
+			n = 2;
+			cp = b & 0x0f;
+		} else if (b >= 0xf0 && b <= 0xf4) {
+			n = 3;
+			cp = b & 0x07;
+		} else {
+			return REPLACEMENT;
+		}
+		for (int i = 0; i < n; i++) {
+			if (this.pos == this.limit && !fill()) {
+				return REPLACEMENT;
+			}
+			int c = this.buf[this.pos];
+			if ((c & 0xc0) != 0x80) {
+				return REPLACEMENT;
+			}
+			this.pos++;
+			cp = (cp << 6) | (c & 0x3f);
+		}
+		if (n == 2 && (cp < 0x800 || (cp >= 0xd800 && cp <= 0xdfff))) {
+			return REPLACEMENT;
+		}
+		if (n == 3) {
+			if (cp < 0x10000 || cp > 0x10ffff) {
+				return REPLACEMENT;
+			}
+			this.pendingLow = Character.lowSurrogate(cp);
+			return Character.highSurrogate(cp);
+		}
+		return (char) cp;
+	}
+
+	@Override
+	public char nextClean() throws JSONException {
+		if (!this.usePrevious && this.pendingLow == 0) {
+			for (;;) {
+				if (this.pos == this.limit && !fill()) {
+					break;
+				}
+				byte b = this.buf[this.pos];
+				if (b > ' ' || b <= 0) {
+					break;
+				}
+				this.pos++;
+			}
+		}
+		for (;;) {
+			char c = this.next();
+			if (c == 0 || c > ' ') {
+				return c;
+			}
+		}
+	}
+
+	private char[] scratch(int n) {
+		if (this.scratch.length < n) {
+			this.scratch = new char[Math.max(n, this.scratch.length * 2)];
+		}
+		return this.scratch;
+	}
+
+	/**
+	 * Return the characters up to the next close quote character, like
+	 * {@link JSONTokener#nextString(char)}. A run of ASCII without escapes
+	 * that ends in the quote is made into a String straight from the bytes.
+	 */
+	@Override
+	public String nextString(char quote) throws JSONException {
+		if (this.usePrevious || this.pendingLow != 0) {
+			return super.nextString(quote);
+		}
+		int start = this.pos;
+		while (this.pos < this.limit) {
+			byte b = this.buf[this.pos];
+			if (b == quote) {
+				StringCache cache = this.getStringCache();
+				String s = cache != null ? cache.get(this.buf, start, this.pos - start)
+						: new String(this.buf, start, this.pos - start, StandardCharsets.ISO_8859_1);
+				this.pos++;
+				this.previous = quote;
+				this.hasPrevious = true;
+				return s;
+			}
+			if (b == '\\' || b <= 0 || b == '\n' || b == '\r') {
+				break;
+			}
+			this.pos++;
+		}
+
+		int n = this.pos - start;
+		char[] chars = scratch(n + 16);
+		for (int i = 0; i < n; i++) {
+			chars[i] = (char) this.buf[start + i];
+		}
+		for (;;) {
+			char c = this.next();
+			switch (c) {
+			case 0:
+			case '\n':
+			case '\r':
+				throw this.syntaxError("Unterminated string");
+			case '\\':
+				c = this.next();
+				switch (c) {
+				case 'b':
+					c = '\b';
+					break;
+				case 't':
+					c = '\t';
+					break;
+				case 'n':
+					c = '\n';
+					break;
+				case 'f':
+					c = '\f';
+					break;
+				case 'r':
+					c = '\r';
+					break;
+				case 'u':
+					int h = 0;
+					for (int i = 0; i < 4; i++) {
+						int d = dehexchar(this.next());
+						if (d < 0) {
+							throw this.syntaxError("Illegal escape.");
+						}
+						h = (h << 4) | d;
+					}
+					c = (char) h;
+					break;
+				case '"':
+				case '\'':
+				case '\\':
+				case '/':
+					break;
+				default:
+					throw this.syntaxError("Illegal escape.");
+				}
+				break;
+			default:
+				if (c == quote) {
+					StringCache cache = this.getStringCache();
+					return cache != null ? cache.get(chars, 0, n) : new String(chars, 0, n);
+				}
+			}
+			if (n == chars.length) {
+				chars = Arrays.copyOf(chars, n * 2);
+				this.scratch = chars;
+			}
+			chars[n++] = c;
+		}
+	}
+
+	@Override
+	public Object nextValue() throws JSONException {
+		char c = this.nextClean();
+
+		switch (c) {
+		case '"':
+		case '\'':
+			return this.nextString(c);
+		case '{':
+			this.back();
+			return new JSONObject(this);
+		case '[':
+			this.back();
+			return new JSONArray(this);
+		}
+
+		StringBuilder sb = this.token;
+		sb.setLength(0);
+		while (c >= ' ' && (c >= 128 || !DELIMITER[c])) {
+			sb.append(c);
+			if (!this.usePrevious && this.pendingLow == 0 && this.pos < this.limit && this.buf[this.pos] > 0) {
+				c = (char) this.buf[this.pos++];
+				this.previous = c;
+				this.hasPrevious = true;
+			} else {
+				c = this.next();
+			}
+		}
+		this.back();
+
+		return tokenToValue(sb, 0, sb.length());
+	}
+
+	@Override
+	public char skipTo(char to) throws JSONException {
+		boolean usePrevious = this.usePrevious;
+		boolean hasPrevious = this.hasPrevious;
+		char previous = this.previous;
+		char pendingLow = this.pendingLow;
+		countLines(this.pos);
+		long line = this.line;
+		long lineStart = this.lineStart;
+		this.mark = this.pos;
+		char c;
+		do {
+			c = this.next();
+			if (c == 0) {
+				this.pos = this.mark;
+				this.mark = -1;
+				this.usePrevious = usePrevious;
+				this.hasPrevious = hasPrevious;
+				this.previous = previous;
+				this.pendingLow = pendingLow;
+				this.eof = false;
+				this.line = line;
+				this.lineStart = lineStart;
+				this.countedTo = this.base + this.pos;
+				return c;
+			}
+		} while (c != to);
+		this.mark = -1;
+		this.back();
+		return c;
+	}
+
+	/**
+	 * Make a printable string of this Utf8Tokener.
+	 *
+	 * @return " at {byte offset} [character {column} line {line}]"
+	 */
+	@Override
+	public String toString() {
+		countLines(this.pos);
+		long offset = this.base + this.pos;
+		return " at " + offset + " [character " + (offset - this.lineStart + 1) + " line " + this.line + "]";
+	}
+}
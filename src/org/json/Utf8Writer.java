@@ -0,0 +1,267 @@
+package org.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+
+/*
+Copyright (c) 2002 JSON.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+The Software shall be used for Good, not Evil.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+/**
+ * A Writer that encodes chars to UTF-8 itself and passes the bytes on to an
+ * OutputStream or a ByteBuffer, so that JSON text can be produced as bytes in
+ * one pass without building a String first. Runs of ASCII are copied one byte
+ * per char, and bytes that were encoded in advance, such as quoted keys, can be
+ * written with {@link #writeRaw(byte[])}.
+ * <p>
+ * Bytes are collected in an internal buffer and passed on when it is full and
+ * on {@link #flush()}. An unpaired surrogate is written as '?', as
+ * {@link String#getBytes(java.nio.charset.Charset)} does. A Utf8Writer is not
+ * synchronized.
+ */
+public final class Utf8Writer extends Writer {
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final OutputStream out;
+	private final ByteBuffer target;
+	private final byte[] buf = new byte[BUFFER_SIZE];
+	private int count;
+	private char high;
+
+	/**
+	 * Make a Utf8Writer that writes to a stream.
+	 *
+	 * @param out
+	 *            The stream. It is flushed, but not closed, by
+	 *            {@link #flush()} and {@link #close()}.
+	 */
+	public Utf8Writer(OutputStream out) {
+		this.out = out;
+		this.target = null;
+	}
+
+	/**
+	 * Make a Utf8Writer that writes to a buffer, starting at its position.
+	 *
+	 * @param target
+	 *            The buffer.
+	 * @throws java.nio.BufferOverflowException
+	 *             on write or flush if the text does not fit in target.
+	 */
+	public Utf8Writer(ByteBuffer target) {
+		this.out = null;
+		this.target = target;
+	}
+
+	private void drain() throws IOException {
+		if (this.count == 0) {
+			return;
+		}
+		if (this.target != null) {
+			this.target.put(this.buf, 0, this.count);
+		} else {
+			this.out.write(this.buf, 0, this.count);
+		}
+		this.count = 0;
+	}
+
+	private void ensure(int n) throws IOException {
+		if (this.count + n > BUFFER_SIZE) {
+			drain();
+		}
+	}
+
+	/**
+	 * Write bytes that are already UTF-8 encoded.
+	 *
+	 * @param bytes
+	 *            The bytes.
+	 * @throws IOException
+	 *             If the underlying stream fails.
+	 */
+	public void writeRaw(byte[] bytes) throws IOException {
+		if (bytes.length > BUFFER_SIZE - this.count) {
+			drain();
+			if (bytes.length > BUFFER_SIZE) {
+				if (this.target != null) {
+					this.target.put(bytes);
+				} else {
+					this.out.write(bytes);
+				}
+				return;
+			}
+		}
+		System.arraycopy(bytes, 0, this.buf, this.count, bytes.length);
+		this.count += bytes.length;
+	}
+
+	private void encode(char c) throws IOException {
+		if (this.high != 0) {
+			char h = this.high;
+			this.high = 0;
+			if (Character.isLowSurrogate(c)) {
+				int cp = Character.toCodePoint(h, c);
+				ensure(4);
+				this.buf[this.count++] = (byte) (0xf0 | (cp >> 18));
+				this.buf[this.count++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+				this.buf[this.count++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+				this.buf[this.count++] = (byte) (0x80 | (cp & 0x3f));
+				return;
+			}
+			ensure(1);
+			this.buf[this.count++] = '?';
+		}
+		if (c < 0x80) {
+			ensure(1);
+			this.buf[this.count++] = (byte) c;
+		} else if (c < 0x800) {
+			ensure(2);
+			this.buf[this.count++] = (byte) (0xc0 | (c >> 6));
+			this.buf[this.count++] = (byte) (0x80 | (c & 0x3f));
+		} else if (Character.isHighSurrogate(c)) {
+			this.high = c;
+		} else if (Character.isLowSurrogate(c)) {
+			ensure(1);
+			this.buf[this.count++] = '?';
+		} else {
+			ensure(3);
+			this.buf[this.count++] = (byte) (0xe0 | (c >> 12));
+			this.buf[this.count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+			this.buf[this.count++] = (byte) (0x80 | (c & 0x3f));
+		}
+	}
+
+	@Override
+	public void write(int c) throws IOException {
+		if (c < 0x80 && this.high == 0 && this.count < BUFFER_SIZE) {
+			this.buf[this.count++] = (byte) c;
+		} else {
+			encode((char) c);
+		}
+	}
+
+	@Override
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		int end = off + len;
+		int i = off;
+		while (i < end) {
+			if (this.high == 0) {
+				int n = Math.min(end - i, BUFFER_SIZE - this.count);
+				int stop = i + n;
+				while (i < stop && cbuf[i] < 0x80) {
+					this.buf[this.count++] = (byte) cbuf[i++];
+				}
+				if (i == end) {
+					break;
+				}
+			}
+			encode(cbuf[i++]);
+		}
+	}
+
+	@Override
+	public void write(String str) throws IOException {
+		write(str, 0, str.length());
+	}
+
+	@Override
+	public void write(String str, int off, int len) throws IOException {
+		int end = off + len;
+		int i = off;
+		while (i < end) {
+			if (this.high == 0) {
+				int n = Math.min(end - i, BUFFER_SIZE - this.count);
+				int stop = i + n;
+				char c;
+				while (i < stop && (c = str.charAt(i)) < 0x80) {
+					this.buf[this.count++] = (byte) c;
+					i++;
+				}
+				if (i == end) {
+					break;
+				}
+			}
+			encode(str.charAt(i++));
+		}
+	}
+
+	@Override
+	public Utf8Writer append(CharSequence csq) throws IOException {
+		if (csq instanceof String) {
+			write((String) csq);
+		} else {
+			write(String.valueOf(csq));
+		}
+		return this;
+	}
+
+	@Override
+	public Utf8Writer append(CharSequence csq, int start, int end) throws IOException {
+		if (csq == null) {
+			csq = "null";
+		}
+		if (csq instanceof String) {
+			write((String) csq, start, end - start);
+		} else {
+			for (int i = start; i < end; i++) {
+				write(csq.charAt(i));
+			}
+		}
+		return this;
+	}
+
+	@Override
+	public Utf8Writer append(char c) throws IOException {
+		write(c);
+		return this;
+	}
+
+	/**
+	 * Pass the buffered bytes on, and flush the stream if there is one. A high
+	 * surrogate at the very end stays pending until the next char.
+	 */
+	@Override
+	public void flush() throws IOException {
+		drain();
+		if (this.out != null) {
+			this.out.flush();
+		}
+	}
+
+	/**
+	 * Flush, writing a pending unpaired surrogate as '?'. The stream is not
+	 * closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.high != 0) {
+			this.high = 0;
+			ensure(1);
+			this.buf[this.count++] = '?';
+		}
+		flush();
+	}
+}
@@ -0,0 +1,138 @@
+package com.gynt.lwprotojson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONTokener;
+import org.junit.Test;
+
+import com.gynt.lwprotojson.LWProtoJson.Registry;
+import com.gynt.lwprotojson.LWProtoJson.Serializer;
+import com.gynt.lwprotojson.LWProtoJson.Serializer.Framing;
+import com.gynt.lwprotojson.examples.Example;
+
+public class BatchTest {
+
+	private static List<Example> records(int n) {
+		List<Example> records = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			Example e = new Example();
+			e.age = i;
+			e.list.add("line\nbreak \u00e9 " + i);
+			records.add(i % 7 == 3 ? null : e);
+		}
+		return records;
+	}
+
+	private static void assertRecords(List<Example> expected, List<Example> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			if (expected.get(i) == null) {
+				assertNull(actual.get(i));
+			} else {
+				assertEquals(expected.get(i).age, actual.get(i).age);
+				assertEquals(expected.get(i).list, actual.get(i).list);
+			}
+		}
+	}
+
+	/**
+	 * The batch as written by serializing each record on its own.
+	 */
+	private static String expected(Serializer<Example> s, List<Example> records, Framing framing) throws Exception {
+		StringBuilder b = new StringBuilder();
+		for (Example e : records) {
+			if (framing == Framing.ARRAY && b.length() > 0)
+				b.append(',');
+			b.append(e == null ? "null" : s.serialize(e));
+			if (framing == Framing.LINES)
+				b.append('\n');
+		}
+		return framing == Framing.ARRAY ? "[" + b + "]" : b.toString();
+	}
+
+	@Test
+	public void roundTrip() throws Exception {
+		for (boolean generated : new boolean[] { false, true }) {
+			Serializer<Example> s = new Serializer<Example>(Example.class, new Registry(LWProtoJson.registry()), generated);
+			for (Framing framing : Framing.values()) {
+				for (int n : new int[] { 0, 1, 2, 1000 }) {
+					List<Example> records = records(n);
+					String text = s.serializeAll(records, framing);
+					assertEquals(expected(s, records, framing), text);
+					StringBuilder appended = new StringBuilder();
+					s.serializeAll(records, appended, framing);
+					assertEquals(text, appended.toString());
+
+					byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+					assertRecords(records, s.deserializeAll(text, framing));
+					assertRecords(records, s.deserializeAll(new StringReader(text), framing));
+					assertRecords(records, s.deserializeAll(new ByteArrayInputStream(utf8), framing));
+					assertRecords(records, s.deserializeAll(new JSONTokener(text), framing));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void arrayIsOneJsonDocument() throws Exception {
+		Serializer<Example> s = new Serializer<Example>(Example.class);
+		StringBuilder out = new StringBuilder();
+		s.serializeAll(records(10), out);
+		JSONArray array = new JSONArray(out.toString());
+		assertEquals(10, array.length());
+		assertEquals(5, array.getJSONObject(5).getInt("age"));
+		assertTrue(array.isNull(3));
+	}
+
+	@Test
+	public void linesHoldOneRecordEach() throws Exception {
+		Serializer<Example> s = new Serializer<Example>(Example.class);
+		String text = s.serializeAll(records(10), Framing.LINES);
+		String[] lines = text.split("\n", -1);
+		assertEquals(11, lines.length);
+		assertEquals("", lines[10]);
+		for (int i = 0; i < 10; i++)
+			assertEquals(lines[i], i == 3 ? "null" : s.serialize(s.deserialize(lines[i])));
+	}
+
+	@Test
+	public void readsLooselyFramedLines() throws Exception {
+		Serializer<Example> s = new Serializer<Example>(Example.class);
+		String one = s.serialize(records(2).get(1));
+		List<Example> read = s.deserializeAll("\n\r\n" + one + "\r\n\n  " + one + "   " + one, Framing.LINES);
+		assertEquals(3, read.size());
+		assertEquals(1, read.get(2).age);
+		assertEquals(Collections.emptyList(), s.deserializeAll(" \n ", Framing.LINES));
+		assertEquals(Collections.emptyList(), s.deserializeAll(" [ ] ", Framing.ARRAY));
+	}
+
+	@Test
+	public void rejectsMalformedBatches() throws Exception {
+		Serializer<Example> s = new Serializer<Example>(Example.class);
+		String one = s.serialize(new Example());
+		List<String[]> cases = Arrays.asList(new String[] { "[" + one, "ARRAY" }, new String[] { "[" + one + ",", "ARRAY" },
+				new String[] { one, "ARRAY" }, new String[] { "[" + one + " " + one + "]", "ARRAY" },
+				new String[] { one + "\n{\"version\":0,", "LINES" }, new String[] { one + "\n[1]", "LINES" },
+				new String[] { one + "\nnot json", "LINES" });
+		for (String[] c : cases) {
+			try {
+				s.deserializeAll(c[0], Framing.valueOf(c[1]));
+				fail(c[1] + ": " + c[0]);
+			} catch (JSONException expected) {
+			}
+		}
+	}
+}
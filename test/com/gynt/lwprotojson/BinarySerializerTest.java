@@ -0,0 +1,287 @@
+package com.gynt.lwprotojson;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.gynt.lwprotojson.LWProtoJson.Lwprotojson;
+import com.gynt.lwprotojson.LWProtoJson.Registry;
+import com.gynt.lwprotojson.examples.Example.AnotherExample;
+
+public class BinarySerializerTest {
+
+	public static class Everything {
+		@Lwprotojson
+		public int i = -7;
+		@Lwprotojson
+		public long l = Long.MIN_VALUE;
+		@Lwprotojson
+		public double d = 1.5;
+		@Lwprotojson
+		public float f = -2.5f;
+		@Lwprotojson
+		public byte b = -1;
+		@Lwprotojson
+		public short s = 300;
+		@Lwprotojson
+		public boolean z = true;
+		@Lwprotojson
+		public String text = "café 😀";
+		@Lwprotojson
+		public String missing;
+		@Lwprotojson
+		public Integer boxed = 42;
+		@Lwprotojson
+		public int[] ints = { 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE };
+		@Lwprotojson
+		public double[] doubles = { 0.1, 0.2 };
+		@Lwprotojson
+		public float[] floats = { 3f };
+		@Lwprotojson
+		public byte[] bytes = { 1, 2, 3 };
+		@Lwprotojson
+		public boolean[] booleans = { true, false };
+		@Lwprotojson
+		public long[] nothing;
+		@Lwprotojson
+		public String[] strings = { "a", null, "c" };
+		@Lwprotojson
+		public ArrayList<String> list = new ArrayList<>(Arrays.asList("x", "y"));
+		@Lwprotojson
+		public HashMap<String, Integer> map = new HashMap<>();
+		@Lwprotojson
+		public ArrayList<Double> ratios = new ArrayList<>(Arrays.asList(0.25, -1e300));
+		@Lwprotojson
+		public Float single = 0.5f;
+		@Lwprotojson
+		public AnotherExample nested = new AnotherExample();
+		@Lwprotojson
+		public String after = "after";
+
+		{
+			map.put("k", 1);
+		}
+	}
+
+	@Test
+	public void roundTrip() throws Exception {
+		BinarySerializer<Everything> s = new BinarySerializer<>(Everything.class);
+		Everything e = new Everything();
+		e.nested.age = 5;
+		Everything back = s.fromBytes(s.toBytes(e));
+		assertEquals(e.i, back.i);
+		assertEquals(e.l, back.l);
+		assertEquals(e.d, back.d, 0);
+		assertEquals(e.f, back.f, 0);
+		assertEquals(e.b, back.b);
+		assertEquals(e.s, back.s);
+		assertEquals(e.z, back.z);
+		assertEquals(e.text, back.text);
+		assertNull(back.missing);
+		assertEquals(e.boxed, back.boxed);
+		assertArrayEquals(e.ints, back.ints);
+		assertArrayEquals(e.doubles, back.doubles, 0);
+		assertArrayEquals(e.floats, back.floats, 0);
+		assertArrayEquals(e.bytes, back.bytes);
+		assertArrayEquals(e.booleans, back.booleans);
+		assertNull(back.nothing);
+		assertArrayEquals(e.strings, back.strings);
+		assertEquals(e.list, back.list);
+		assertEquals(e.map, back.map);
+		assertEquals(e.ratios, back.ratios);
+		assertEquals(e.single, back.single);
+		assertEquals(5, back.nested.age);
+		assertEquals("after", back.after);
+	}
+
+	@Test
+	public void versions() throws Exception {
+		BinarySerializer<AnotherExample> s = new BinarySerializer<>(AnotherExample.class);
+		for (int version = 0; version <= 5; version++) {
+			AnotherExample a = new AnotherExample();
+			a.VERSION = version;
+			a.name = "v" + version;
+			a.age = version * 10;
+			AnotherExample back = s.fromBytes(s.toBytes(a));
+			assertEquals(version * 10, back.age);
+			assertEquals(version >= 1 && version <= 4 ? a.name : "Bye world!", back.name);
+		}
+	}
+
+	/**
+	 * The bytes are the same whatever the order of the buffers written to and
+	 * read from.
+	 */
+	@Test
+	public void byteOrders() throws Exception {
+		BinarySerializer<Everything> s = new BinarySerializer<>(Everything.class);
+		Everything e = new Everything();
+		byte[] expected = s.toBytes(e);
+		for (ByteOrder order : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+			for (ByteBuffer out : new ByteBuffer[] { ByteBuffer.allocate(1024), ByteBuffer.allocateDirect(1024),
+					ByteBuffer.allocate(1) }) {
+				out = s.serialize(e, out.order(order));
+				out.flip();
+				byte[] bytes = new byte[out.remaining()];
+				out.duplicate().get(bytes);
+				assertArrayEquals(order + " " + out, expected, bytes);
+				for (ByteOrder read : new ByteOrder[] { ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+					Everything back = s.deserialize(out.duplicate().order(read));
+					assertEquals(e.d, back.d, 0);
+					assertEquals(e.f, back.f, 0);
+					assertArrayEquals(e.doubles, back.doubles, 0);
+					assertArrayEquals(e.floats, back.floats, 0);
+					assertEquals(e.ratios, back.ratios);
+					assertEquals(e.single, back.single);
+				}
+			}
+		}
+		// A count of one, stored plus one, and 1.5 little-endian.
+		ByteBuffer one = ByteBuffer.allocate(9).order(ByteOrder.LITTLE_ENDIAN).put((byte) 2).putDouble(1.5);
+		assertArrayEquals(one.array(), new BinarySerializer<double[]>(double[].class).toBytes(new double[] { 1.5 }));
+	}
+
+	@Test
+	public void growsSmallBuffer() throws Exception {
+		BinarySerializer<Everything> s = new BinarySerializer<>(Everything.class);
+		ByteBuffer out = s.serialize(new Everything(), ByteBuffer.allocate(1));
+		out.flip();
+		assertEquals("after", s.deserialize(out).after);
+		assertEquals(0, out.remaining());
+	}
+
+	@Test
+	public void loneSurrogates() throws Exception {
+		BinarySerializer<Everything> s = new BinarySerializer<>(Everything.class);
+		for (String text : new String[] { "\ud800", "a\udc00b", "\ud83d", "é\ud800\ud800x" }) {
+			Everything e = new Everything();
+			e.text = text;
+			Everything back = s.fromBytes(s.toBytes(e));
+			assertEquals(new String(text.getBytes("UTF-8"), "UTF-8"), back.text);
+			assertEquals("after", back.after);
+			assertEquals(e.nested.age, back.nested.age);
+		}
+	}
+
+	private static void assertRejected(BinarySerializer<?> s, byte[] data) throws ReflectiveOperationException {
+		try {
+			s.fromBytes(data);
+			fail(Arrays.toString(data));
+		} catch (IllegalArgumentException | BufferUnderflowException expected) {
+		}
+	}
+
+	public static class Parent {
+		@Lwprotojson
+		public String name;
+		@Lwprotojson
+		public Child child;
+	}
+
+	public static class Child {
+		@Lwprotojson
+		public double weight;
+		@Lwprotojson
+		public Parent parent;
+		@Lwprotojson
+		public ArrayList<Parent> parents = new ArrayList<>();
+	}
+
+	/**
+	 * Parent and Child refer to each other, so one of them is resolved
+	 * through a deferred codec. Both are still written as binary.
+	 */
+	@Test
+	public void mutuallyRecursive() throws Exception {
+		Parent p = new Parent();
+		p.name = "p";
+		p.child = new Child();
+		p.child.weight = 2.5;
+		p.child.parent = new Parent();
+		p.child.parent.name = "q";
+		p.child.parents.add(new Parent());
+		p.child.parents.add(null);
+		Registry registry = new Registry(LWProtoJson.registry());
+		BinarySerializer<Parent> s = new BinarySerializer<>(Parent.class, registry);
+		byte[] bytes = s.toBytes(p);
+		assertEquals(-1, new String(bytes, "ISO-8859-1").indexOf("version"));
+		Parent back = s.fromBytes(bytes);
+		assertEquals("p", back.name);
+		assertEquals(2.5, back.child.weight, 0);
+		assertEquals("q", back.child.parent.name);
+		assertNull(back.child.parent.child);
+		assertEquals(2, back.child.parents.size());
+		assertNull(back.child.parents.get(0).name);
+		assertNull(back.child.parents.get(1));
+
+		BinarySerializer<Child> c = new BinarySerializer<>(Child.class, registry);
+		bytes = c.toBytes(p.child);
+		assertEquals(-1, new String(bytes, "ISO-8859-1").indexOf("version"));
+		assertEquals("q", c.fromBytes(bytes).parent.name);
+	}
+
+	@Test
+	public void hostileLengths() throws Exception {
+		BinarySerializer<Everything> s = new BinarySerializer<>(Everything.class);
+		byte[] huge = { (byte) 0xfe, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07 };
+		byte[] valid = s.toBytes(new Everything());
+		// Replace the length of the ints array, after version, the fixed
+		// width fields, the strings and the boxed integer.
+		Everything prefix = new Everything();
+		prefix.ints = null;
+		int offset = indexOfNull(s, prefix, valid);
+		byte[] data = new byte[offset + huge.length + 3];
+		System.arraycopy(valid, 0, data, 0, offset);
+		System.arraycopy(huge, 0, data, offset, huge.length);
+		assertRejected(s, data);
+
+		for (Class<?> c : new Class<?>[] { int[].class, long[].class, double[].class, float[].class, short[].class,
+				boolean[].class, byte[].class, String[].class, AnotherExample[].class }) {
+			BinarySerializer<?> array = new BinarySerializer<>(c);
+			assertRejected(array, huge);
+			assertRejected(array, new byte[] { (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0, 0, 0 });
+			assertRejected(array, new byte[] { 9, 0, 0, 0, 0, 0, 0, 0 });
+		}
+	}
+
+	/**
+	 * The position of the first byte where an encoding with prefix.ints == null
+	 * differs from valid, which is where the length of ints is stored.
+	 */
+	private static int indexOfNull(BinarySerializer<Everything> s, Everything prefix, byte[] valid)
+			throws ReflectiveOperationException {
+		byte[] other = s.toBytes(prefix);
+		int i = 0;
+		while (other[i] == valid[i])
+			i++;
+		return i;
+	}
+
+	@Test
+	public void randomCorruption() throws Exception {
+		BinarySerializer<Everything> s = new BinarySerializer<>(Everything.class);
+		byte[] valid = s.toBytes(new Everything());
+		Random random = new Random(9);
+		for (int n = 0; n < 2000; n++) {
+			byte[] data = Arrays.copyOf(valid, random.nextInt(valid.length + 1));
+			for (int k = random.nextInt(4); k > 0 && data.length > 0; k--) {
+				data[random.nextInt(data.length)] = (byte) random.nextInt();
+			}
+			try {
+				s.fromBytes(data);
+			} catch (IllegalArgumentException | BufferUnderflowException expected) {
+			}
+		}
+	}
+}
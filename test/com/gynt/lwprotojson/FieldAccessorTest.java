@@ -0,0 +1,104 @@
+package com.gynt.lwprotojson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Field;
+
+import org.junit.Test;
+
+import com.gynt.lwprotojson.LWProtoJson.Lwprotojson;
+import com.gynt.lwprotojson.LWProtoJson.Registry;
+import com.gynt.lwprotojson.LWProtoJson.Serializer;
+
+public class FieldAccessorTest {
+
+	public static class Fields {
+		public static final int VERSION = 3;
+		static long counter = 5;
+
+		@Lwprotojson
+		private int i = 1;
+		@Lwprotojson
+		long l = 2;
+		@Lwprotojson
+		double d = 3.5;
+		@Lwprotojson
+		float f = 4.5f;
+		@Lwprotojson
+		byte b = 6;
+		@Lwprotojson
+		short s = 7;
+		@Lwprotojson
+		boolean z = true;
+		@Lwprotojson
+		String text = "text";
+	}
+
+	private static FieldAccessor accessor(String name, boolean generated) throws NoSuchFieldException {
+		return FieldAccessor.of(Fields.class.getDeclaredField(name), generated);
+	}
+
+	@Test
+	public void instanceFields() throws Exception {
+		for (boolean generated : new boolean[] { false, true }) {
+			Fields o = new Fields();
+			accessor("i", generated).setInt(o, 10);
+			accessor("l", generated).setLong(o, 20);
+			accessor("d", generated).setDouble(o, 30.5);
+			accessor("f", generated).setFloat(o, 40.5f);
+			accessor("b", generated).setByte(o, (byte) 60);
+			accessor("s", generated).setShort(o, (short) 70);
+			accessor("z", generated).setBoolean(o, false);
+			accessor("text", generated).set(o, "other");
+			assertEquals(10, accessor("i", generated).getInt(o));
+			assertEquals(20L, accessor("l", generated).getLong(o));
+			assertEquals(30.5, accessor("d", generated).getDouble(o), 0);
+			assertEquals(40.5f, accessor("f", generated).getFloat(o), 0);
+			assertEquals(60, accessor("b", generated).getByte(o));
+			assertEquals(70, accessor("s", generated).getShort(o));
+			assertEquals(false, accessor("z", generated).getBoolean(o));
+			assertEquals("other", accessor("text", generated).get(o));
+			assertEquals(10, accessor("i", generated).get(o));
+			accessor("i", generated).set(o, 11);
+			assertEquals(11, o.i);
+		}
+	}
+
+	@Test
+	public void staticFields() throws Exception {
+		for (boolean generated : new boolean[] { false, true }) {
+			Fields o = new Fields();
+			assertEquals(3, accessor("VERSION", generated).getInt(o));
+			assertEquals(3, accessor("VERSION", generated).getInt(null));
+			FieldAccessor counter = accessor("counter", generated);
+			counter.setLong(o, 9);
+			assertEquals(9, counter.getLong(null));
+			assertEquals(9L, Fields.counter);
+		}
+		try {
+			accessor("VERSION", true).setInt(new Fields(), 4);
+			fail();
+		} catch (UnsupportedOperationException expected) {
+		}
+	}
+
+	@Test
+	public void serializerWithStaticFinalVersion() throws Exception {
+		Field version = Fields.class.getDeclaredField("VERSION");
+		assertTrue(java.lang.reflect.Modifier.isStatic(version.getModifiers()));
+		Fields o = new Fields();
+		o.i = 42;
+		o.text = "round trip";
+		for (Serializer<Fields> s : new Serializer[] { new Serializer<>(Fields.class, new Registry(LWProtoJson.registry()), true),
+				new Serializer<>(Fields.class), LWProtoJson.serializerFor(Fields.class) }) {
+			String json = s.serialize(o);
+			assertTrue(json, json.startsWith("{\"version\":3,"));
+			Fields back = s.deserialize(json);
+			assertEquals(42, back.i);
+			assertEquals("round trip", back.text);
+			assertEquals(6, back.b);
+		}
+	}
+}
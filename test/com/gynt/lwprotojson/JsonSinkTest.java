@@ -0,0 +1,170 @@
+package com.gynt.lwprotojson;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.json.JSONWriter;
+import org.junit.Test;
+
+import com.gynt.lwprotojson.LWProtoJson.Serializer;
+import com.gynt.lwprotojson.examples.Example;
+import com.gynt.lwprotojson.examples.Example.AnotherExample;
+
+public class JsonSinkTest {
+
+	private static final String AWKWARD = "quote\" backslash\\ slash/ tab\t nl\n ctl\u0001 ls  </script> é😀";
+
+	private static void tokens(JsonSink out) {
+		out.array();
+		out.object().key("a").value(1L).key(AWKWARD).value(AWKWARD).key("n").nullValue().endObject();
+		out.array().endArray();
+		out.object().endObject();
+		out.value(2.5).value(1.5f).value(true).value(false).value(Long.MIN_VALUE).value((String) null);
+		out.array().array().value("x").endArray().object().key("k").array().endArray().endObject().endArray();
+		out.endArray();
+	}
+
+	@Test
+	public void appendableAndWriterAgree() {
+		StringBuilder sb = new StringBuilder();
+		tokens(JsonSink.of(sb));
+		StringWriter sw = new StringWriter();
+		tokens(JsonSink.of(new JSONWriter(sw)));
+		JSONArray expected = new JSONArray(sw.toString());
+		JSONArray actual = new JSONArray(sb.toString());
+		assertTrue(sb + " vs " + sw, expected.similar(actual));
+		assertEquals(AWKWARD, actual.getJSONObject(0).getString(AWKWARD));
+		assertEquals("[{\"a\":1,", sb.substring(0, 8));
+	}
+
+	@Test
+	public void rejectsNonFiniteNumbers() {
+		for (double d : new double[] { Double.NaN, Double.POSITIVE_INFINITY }) {
+			try {
+				JsonSink.of(new StringBuilder()).value(d);
+				fail();
+			} catch (JSONException expected) {
+			}
+			try {
+				JsonSink.of(new StringBuilder()).value((float) d);
+				fail();
+			} catch (JSONException expected) {
+			}
+		}
+	}
+
+	@Test
+	public void wrapsIOExceptions() {
+		Appendable broken = new Appendable() {
+
+			@Override
+			public Appendable append(CharSequence csq) throws IOException {
+				throw new IOException("broken");
+			}
+
+			@Override
+			public Appendable append(CharSequence csq, int start, int end) throws IOException {
+				throw new IOException("broken");
+			}
+
+			@Override
+			public Appendable append(char c) throws IOException {
+				throw new IOException("broken");
+			}
+		};
+		try {
+			new Serializer<Example>(Example.class).serialize(new Example(), broken);
+			fail();
+		} catch (JSONException expected) {
+			assertEquals("broken", expected.getCause().getMessage());
+		} catch (Exception e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	@Test
+	public void serializerStreamsIntoExistingOutput() throws Exception {
+		Serializer<AnotherExample> s = new Serializer<>(AnotherExample.class);
+		AnotherExample a = new AnotherExample();
+		a.name = AWKWARD;
+		a.VERSION = 2;
+		String text = s.serialize(a);
+		assertTrue(text, text.startsWith("{\"version\":2,"));
+
+		StringBuilder sb = new StringBuilder("prefix ");
+		s.serialize(a, sb);
+		assertEquals("prefix " + text, sb.toString());
+
+		StringWriter sw = new StringWriter();
+		JSONWriter writer = new JSONWriter(sw);
+		writer.object().key("first");
+		s.serialize(a, writer);
+		writer.key("list").array();
+		s.serialize(a, writer);
+		s.serialize(null, writer);
+		writer.endArray().endObject();
+		JSONObject outer = new JSONObject(sw.toString());
+		assertTrue(outer.getJSONObject("first").similar(new JSONObject(text)));
+		assertTrue(outer.getJSONArray("list").getJSONObject(0).similar(new JSONObject(text)));
+		assertTrue(outer.getJSONArray("list").isNull(1));
+
+		AnotherExample back = s.deserialize(new JSONTokener(text));
+		assertEquals(AWKWARD, back.name);
+		assertEquals("null", s.serialize(null));
+		assertEquals(null, s.deserialize("null"));
+	}
+
+	@Test
+	public void sameContentAsTreeSerialization() throws Exception {
+		Serializer<Example> s = new Serializer<>(Example.class);
+		Example e = new Example();
+		JSONObject streamed = new JSONObject(s.serialize(e));
+		assertEquals(0, streamed.getInt("version"));
+		assertEquals("Hello world!", streamed.getString("name"));
+		assertEquals(100, streamed.getInt("age"));
+		assertEquals(new JSONArray("[\"a\",\"b\",\"c\"]").toString(), streamed.getJSONArray("list").toString());
+		assertEquals(1, streamed.getJSONObject("map").getInt("example1"));
+		assertEquals(2, streamed.getJSONObject("map").getInt("example2"));
+	}
+
+	@Test
+	public void writeToMatchesSerialize() throws Exception {
+		StringBuilder big = new StringBuilder();
+		while (big.length() < 20000)
+			big.append(AWKWARD);
+		for (boolean generated : new boolean[] { false, true }) {
+			Serializer<AnotherExample> s = new Serializer<>(AnotherExample.class, generated);
+			for (String name : new String[] { "", AWKWARD, big.toString() }) {
+				AnotherExample a = new AnotherExample();
+				a.name = name;
+				byte[] expected = s.serialize(a).getBytes(StandardCharsets.UTF_8);
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				s.writeTo(a, out);
+				assertArrayEquals(expected, out.toByteArray());
+				ByteBuffer buffer = ByteBuffer.allocate(expected.length + 1);
+				s.writeTo(a, buffer);
+				assertEquals(expected.length, buffer.position());
+				assertArrayEquals(expected, Arrays.copyOf(buffer.array(), expected.length));
+				try {
+					s.writeTo(a, ByteBuffer.allocate(expected.length - 1));
+					fail();
+				} catch (BufferOverflowException e) {
+				}
+			}
+		}
+	}
+}
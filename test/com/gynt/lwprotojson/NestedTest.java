@@ -0,0 +1,140 @@
+package com.gynt.lwprotojson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import com.gynt.lwprotojson.LWProtoJson.Lwprotojson;
+import com.gynt.lwprotojson.LWProtoJson.Registry;
+import com.gynt.lwprotojson.LWProtoJson.Serializer;
+import com.gynt.lwprotojson.examples.Example;
+
+public class NestedTest {
+
+	public static class Holder {
+		@Lwprotojson
+		public Example one;
+		@Lwprotojson
+		public Example[] array;
+		@Lwprotojson
+		public ArrayList<Example> list;
+		@Lwprotojson
+		public HashMap<String, Example> map;
+	}
+
+	public static class Chain {
+		@Lwprotojson
+		public int depth;
+		@Lwprotojson
+		public Chain next;
+	}
+
+	private static Example example(int age) {
+		Example e = new Example();
+		e.age = age;
+		e.list.add("\"quoted\\\"");
+		return e;
+	}
+
+	private static Holder holder() {
+		Holder h = new Holder();
+		h.one = example(1);
+		h.array = new Example[] { example(2), null, example(3) };
+		h.list = new ArrayList<>();
+		h.list.add(example(4));
+		h.map = new HashMap<>();
+		h.map.put("five", example(5));
+		return h;
+	}
+
+	private static void assertHolder(Holder h) {
+		assertEquals(1, h.one.age);
+		assertEquals(3, h.array.length);
+		assertEquals(2, h.array[0].age);
+		assertNull(h.array[1]);
+		assertEquals(3, h.array[2].age);
+		assertEquals("\"quoted\\\"", h.array[2].list.get(3));
+		assertEquals(4, h.list.get(0).age);
+		assertEquals(5, h.map.get("five").age);
+		assertEquals(Integer.valueOf(2), h.map.get("five").map.get("example2"));
+	}
+
+	private static Registry registry() {
+		Registry registry = new Registry(LWProtoJson.registry());
+		registry.register(Example.class, new Serializer<Example>(Example.class, registry));
+		return registry;
+	}
+
+	@Test
+	public void embedsObjects() throws Exception {
+		for (boolean generated : new boolean[] { false, true }) {
+			Serializer<Holder> s = new Serializer<Holder>(Holder.class, registry(), generated);
+			String json = s.serialize(holder());
+			JSONObject o = new JSONObject(json);
+			assertEquals(1, o.getJSONObject("one").getInt("age"));
+			assertEquals(3, o.getJSONArray("array").getJSONObject(2).getInt("age"));
+			assertTrue(o.getJSONArray("array").isNull(1));
+			assertEquals(4, o.getJSONArray("list").getJSONObject(0).getInt("age"));
+			assertEquals(5, o.getJSONObject("map").getJSONObject("five").getInt("age"));
+			assertFalse(json, json.contains("\"{"));
+			assertHolder(s.deserialize(json));
+		}
+	}
+
+	@Test
+	public void readsStringEmbeddedObjects() throws Exception {
+		Registry registry = registry();
+		Serializer<Example> child = registry.serializer(Example.class);
+		JSONObject o = new JSONObject();
+		o.put("version", 0);
+		o.put("one", child.serialize(example(1)));
+		o.put("array", new JSONArray().put(child.serialize(example(2))).put(JSONObject.NULL)
+				.put(child.serialize(example(3))));
+		o.put("list", new JSONArray().put(child.serialize(example(4))));
+		o.put("map", new JSONObject().put("five", child.serialize(example(5))));
+		String legacy = o.toString();
+		assertTrue(legacy, legacy.contains("\"{\\\""));
+		assertHolder(new Serializer<Holder>(Holder.class, registry).deserialize(legacy));
+	}
+
+	@Test
+	public void quotedWritesStrings() throws Exception {
+		Registry registry = registry();
+		Serializer<Holder> s = new Serializer<Holder>(Holder.class, registry).setQuotedPrimitives(true);
+		String json = s.serialize(holder());
+		JSONObject o = new JSONObject(json);
+		assertEquals(1, new JSONObject(o.getString("one")).getInt("age"));
+		assertHolder(s.deserialize(json));
+		assertHolder(new Serializer<Holder>(Holder.class, registry).deserialize(json));
+	}
+
+	@Test
+	public void deepNesting() throws Exception {
+		Chain head = new Chain();
+		Chain c = head;
+		for (int i = 1; i < 200; i++) {
+			c.next = new Chain();
+			c.next.depth = i;
+			c = c.next;
+		}
+		for (boolean generated : new boolean[] { false, true }) {
+			Serializer<Chain> s = new Serializer<Chain>(Chain.class, new Registry(LWProtoJson.registry()), generated);
+			String json = s.serialize(head);
+			assertFalse(json.contains("\\"));
+			Chain back = s.deserialize(json);
+			for (int i = 0; i < 200; i++) {
+				assertEquals(i, back.depth);
+				back = back.next;
+			}
+			assertNull(back);
+		}
+	}
+}
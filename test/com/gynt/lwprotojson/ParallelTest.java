@@ -0,0 +1,147 @@
+package com.gynt.lwprotojson;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.json.JSONTokener;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import com.gynt.lwprotojson.LWProtoJson.AbstractSerializer;
+import com.gynt.lwprotojson.LWProtoJson.Lwprotojson;
+import com.gynt.lwprotojson.LWProtoJson.Registry;
+import com.gynt.lwprotojson.LWProtoJson.Serializer;
+
+public class ParallelTest {
+
+	private static final int THRESHOLD = 8;
+	private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+	@AfterClass
+	public static void shutdown() {
+		POOL.shutdown();
+	}
+
+	public static class Item {
+		@Lwprotojson
+		public String name;
+		@Lwprotojson
+		public int n;
+	}
+
+	public static class Tag {
+		final String text;
+
+		Tag(String text) {
+			this.text = text;
+		}
+	}
+
+	public static class Holder {
+		@Lwprotojson
+		public Item[] items;
+		@Lwprotojson
+		public ArrayList<Item> list;
+		@Lwprotojson
+		public Tag[] tags;
+	}
+
+	/**
+	 * Records the tokeners that elements are read from.
+	 */
+	private static final Map<JSONTokener, Boolean> TOKENERS = Collections.synchronizedMap(new IdentityHashMap<>());
+
+	private static Registry registry() {
+		Registry registry = new Registry(LWProtoJson.registry());
+		registry.register(Tag.class, new AbstractSerializer<Tag>(Tag.class) {
+
+			@Override
+			public Tag deserialize(String data) {
+				return new Tag(data);
+			}
+
+			@Override
+			public Tag deserialize(JSONTokener x) throws InstantiationException, IllegalAccessException {
+				TOKENERS.put(x, true);
+				return super.deserialize(x);
+			}
+
+			@Override
+			public String serialize(Tag obj) {
+				return obj.text;
+			}
+		});
+		return registry;
+	}
+
+	private static Holder holder(int size) {
+		Holder h = new Holder();
+		h.items = new Item[size];
+		h.list = new ArrayList<>();
+		h.tags = new Tag[size];
+		for (int i = 0; i < size; i++) {
+			h.items[i] = new Item();
+			h.items[i].name = "item" + i;
+			h.items[i].n = i;
+			h.list.add(i % 3 == 0 ? null : h.items[i]);
+			h.tags[i] = new Tag("tag" + i);
+		}
+		return h;
+	}
+
+	@Test
+	public void matchesSequentialMode() throws Exception {
+		Serializer<Holder> sequential = new Serializer<>(Holder.class, registry());
+		Serializer<Holder> parallel = new Serializer<Holder>(Holder.class, registry()).setParallel(POOL, THRESHOLD);
+		for (int size : new int[] { 0, 1, THRESHOLD - 1, THRESHOLD, THRESHOLD + 1, 1000 }) {
+			String json = sequential.serialize(holder(size));
+			assertEquals(json, parallel.serialize(holder(size)));
+			Holder back = parallel.deserialize(json);
+			assertEquals(size, back.items.length);
+			assertEquals(size, back.list.size());
+			for (int i = 0; i < size; i++) {
+				assertEquals("item" + i, back.items[i].name);
+				assertEquals(i, back.items[i].n);
+				assertEquals(i % 3 == 0 ? null : "item" + i, back.list.get(i) == null ? null : back.list.get(i).name);
+				assertEquals("tag" + i, back.tags[i].text);
+			}
+			assertEquals(json, sequential.serialize(back));
+		}
+		Serializer<Item[]> array = new Serializer<Item[]>(Item[].class, registry()).setParallel(POOL, THRESHOLD);
+		Item[] items = holder(100).items;
+		String json = array.serialize(items);
+		Item[] back = array.deserialize(json);
+		assertEquals(100, back.length);
+		assertEquals("item99", back[99].name);
+		assertEquals(json, array.serialize(back));
+
+		// Numbers and literals split off next to each other stay apart.
+		Serializer<Integer[]> numbers = new Serializer<Integer[]>(Integer[].class, registry()).setParallel(POOL,
+				THRESHOLD);
+		Integer[] ints = new Integer[100];
+		for (int i = 0; i < ints.length; i++)
+			ints[i] = i % 5 == 0 ? null : i * 11;
+		assertArrayEquals(ints, numbers.deserialize(numbers.serialize(ints)));
+	}
+
+	@Test
+	public void splitsOnlyArraysThatReachTheThreshold() throws Exception {
+		Serializer<Holder> parallel = new Serializer<Holder>(Holder.class, registry()).setParallel(POOL, THRESHOLD);
+		for (int size : new int[] { 1, THRESHOLD - 1, THRESHOLD, 50 }) {
+			String json = parallel.serialize(holder(size));
+			TOKENERS.clear();
+			parallel.deserialize(json);
+			// One tokener for the text itself, and one more for each chunk of
+			// the elements whose text was split off.
+			int split = size < THRESHOLD ? 0 : size - (THRESHOLD - 1);
+			int chunk = split / (POOL.getParallelism() * 4) + 1;
+			assertEquals("size " + size, 1 + (split + chunk - 1) / chunk, TOKENERS.size());
+		}
+	}
+}
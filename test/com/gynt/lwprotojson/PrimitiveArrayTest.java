@@ -0,0 +1,168 @@
+package com.gynt.lwprotojson;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.junit.Test;
+
+import com.gynt.lwprotojson.LWProtoJson.Lwprotojson;
+import com.gynt.lwprotojson.LWProtoJson.Serializer;
+
+public class PrimitiveArrayTest {
+
+	public static class Arrays {
+		@Lwprotojson
+		public int[] ints;
+		@Lwprotojson
+		public long[] longs;
+		@Lwprotojson
+		public double[] doubles;
+		@Lwprotojson
+		public float[] floats;
+		@Lwprotojson
+		public short[] shorts;
+		@Lwprotojson
+		public boolean[] booleans;
+		@Lwprotojson
+		public byte[] bytes;
+		@Lwprotojson
+		public Integer[] boxed;
+	}
+
+	private static Arrays random(Random r, int n) {
+		Arrays a = new Arrays();
+		a.ints = new int[n];
+		a.longs = new long[n];
+		a.doubles = new double[n];
+		a.floats = new float[n];
+		a.shorts = new short[n];
+		a.booleans = new boolean[n];
+		a.bytes = new byte[n];
+		a.boxed = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			a.ints[i] = r.nextInt();
+			a.longs[i] = r.nextLong();
+			a.doubles[i] = r.nextGaussian() * Math.pow(10, r.nextInt(40) - 20);
+			a.floats[i] = (float) r.nextGaussian();
+			a.shorts[i] = (short) r.nextInt();
+			a.booleans[i] = r.nextBoolean();
+			a.bytes[i] = (byte) r.nextInt();
+			a.boxed[i] = i % 5 == 0 ? null : r.nextInt();
+		}
+		if (n > 3) {
+			a.ints[0] = Integer.MIN_VALUE;
+			a.longs[0] = Long.MIN_VALUE;
+			a.longs[1] = Long.MAX_VALUE;
+			a.doubles[0] = Double.MIN_VALUE;
+			a.doubles[1] = Double.MAX_VALUE;
+			a.doubles[2] = -0.0;
+			a.floats[0] = Float.MIN_VALUE;
+			a.floats[1] = Float.MAX_VALUE;
+			a.floats[2] = 0.1f;
+		}
+		return a;
+	}
+
+	private static void assertSameArrays(Arrays expected, Arrays actual) {
+		assertArrayEquals(expected.ints, actual.ints);
+		assertArrayEquals(expected.longs, actual.longs);
+		assertArrayEquals(expected.doubles, actual.doubles, 0);
+		assertArrayEquals(expected.floats, actual.floats, 0);
+		assertArrayEquals(expected.shorts, actual.shorts);
+		assertArrayEquals(expected.booleans, actual.booleans);
+		assertArrayEquals(expected.bytes, actual.bytes);
+		assertArrayEquals(expected.boxed, actual.boxed);
+	}
+
+	@Test
+	public void roundTrip() throws Exception {
+		Random r = new Random(7);
+		for (boolean quoted : new boolean[] { false, true }) {
+			for (boolean generated : new boolean[] { false, true }) {
+				Serializer<Arrays> s = new Serializer<Arrays>(Arrays.class, generated).setQuotedPrimitives(quoted);
+				for (int n : new int[] { 0, 1, 4, 16, 17, 1000 }) {
+					Arrays a = random(r, n);
+					assertSameArrays(a, s.deserialize(s.serialize(a)));
+				}
+				Arrays empty = s.deserialize(s.serialize(new Arrays()));
+				assertNull(empty.ints);
+				assertNull(empty.bytes);
+				assertNull(empty.boxed);
+			}
+		}
+	}
+
+	@Test
+	public void nativeNumbers() throws Exception {
+		Arrays a = random(new Random(1), 2);
+		String json = new Serializer<Arrays>(Arrays.class).serialize(a);
+		assertTrue(json, json.contains("\"ints\":[" + a.ints[0] + "," + a.ints[1] + "]"));
+		assertTrue(json, json.contains("\"booleans\":[" + a.booleans[0] + "," + a.booleans[1] + "]"));
+	}
+
+	@Test
+	public void topLevelArrays() throws Exception {
+		Serializer<int[]> ints = new Serializer<int[]>(int[].class);
+		assertEquals("[1,-2,3]", ints.serialize(new int[] { 1, -2, 3 }));
+		assertArrayEquals(new int[] { 1, -2, 3 }, ints.deserialize("[1, \"-2\" ,3.0]"));
+		assertArrayEquals(new int[0], ints.deserialize("[]"));
+		assertNull(ints.deserialize("null"));
+		Serializer<double[]> doubles = new Serializer<double[]>(double[].class);
+		assertArrayEquals(new double[] { 0.5, 1e300 }, doubles.deserialize(doubles.serialize(new double[] { 0.5, 1e300 })),
+				0);
+	}
+
+	@Test
+	public void bytesAsBase64() throws Exception {
+		Serializer<byte[]> s = new Serializer<byte[]>(byte[].class);
+		byte[] data = { 0, -1, 127, -128, 42 };
+		assertArrayEquals(data, s.deserialize("\"" + LWProtoJson.base64(data) + "\""));
+		assertArrayEquals(data, s.deserialize(s.serialize(data)));
+	}
+
+	@Test
+	public void readsLegacyQuotedArrays() throws Exception {
+		int[] ints = { 5, -6, Integer.MAX_VALUE };
+		JSONArray legacy = Serializer.serializeArray(ints, int.class);
+		assertEquals("[\"5\",\"-6\",\"2147483647\"]", legacy.toString());
+		assertArrayEquals(ints, new Serializer<int[]>(int[].class).deserialize(legacy.toString()));
+		@SuppressWarnings("unchecked")
+		Object back = Serializer.deserializeArray(legacy,
+				(Class<Object>) (Class<?>) int.class);
+		assertArrayEquals(ints, (int[]) back);
+	}
+
+	@Test
+	public void acceptsWhatJSONArrayAccepts() throws Exception {
+		Serializer<long[]> s = new Serializer<long[]>(long[].class);
+		for (String text : new String[] { "[1,]", " [ 1 , 2 ] ", "['3', \"4\"]", "[]" }) {
+			JSONArray expected = new JSONArray(text);
+			long[] actual = s.deserialize(text);
+			assertEquals(text, expected.length(), actual.length);
+			for (int i = 0; i < actual.length; i++)
+				assertEquals(text, expected.getLong(i), actual[i]);
+		}
+	}
+
+	@Test
+	public void rejectsBadElements() throws Exception {
+		String[][] cases = { { "ints", "[1,2.5]" }, { "ints", "[1 2]" }, { "bytes", "[256]" },
+				{ "shorts", "[40000]" }, { "booleans", "[1]" }, { "doubles", "[\"x\"]" }, { "longs", "[[1]]" },
+				{ "ints", "{}" }, { "bytes", "\"***\"" } };
+		Serializer<Arrays> s = new Serializer<Arrays>(Arrays.class);
+		for (String[] c : cases) {
+			try {
+				s.deserialize("{\"version\":0,\"" + c[0] + "\":" + c[1] + "}");
+				fail(c[0] + "=" + c[1]);
+			} catch (JSONException | IllegalArgumentException expected) {
+			}
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package com.gynt.lwprotojson;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import com.gynt.lwprotojson.LWProtoJson.Lwprotojson;
+import com.gynt.lwprotojson.LWProtoJson.Registry;
+import com.gynt.lwprotojson.LWProtoJson.Serializer;
+
+public class PrimitiveTest {
+
+	public static class Values {
+		@Lwprotojson
+		public int i;
+		@Lwprotojson
+		public long l;
+		@Lwprotojson
+		public double d;
+		@Lwprotojson
+		public float f;
+		@Lwprotojson
+		public byte b;
+		@Lwprotojson
+		public short s;
+		@Lwprotojson
+		public boolean z;
+		@Lwprotojson
+		public Integer boxed;
+		@Lwprotojson
+		public int[] ints;
+	}
+
+	private static Serializer<Values> serializer(boolean generated) {
+		return new Serializer<>(Values.class, new Registry(LWProtoJson.registry()), generated);
+	}
+
+	private static Values read(boolean generated, String field, String value) throws Exception {
+		return serializer(generated).deserialize("{\"version\":0,\"" + field + "\":" + value + "}");
+	}
+
+	@Test
+	public void nativeRoundTrip() throws Exception {
+		Values v = new Values();
+		v.i = Integer.MIN_VALUE;
+		v.l = Long.MAX_VALUE;
+		v.d = 0.1;
+		v.f = 1.1f;
+		v.b = Byte.MIN_VALUE;
+		v.s = Short.MAX_VALUE;
+		v.z = true;
+		v.boxed = 3;
+		v.ints = new int[] { 1, -2 };
+		for (boolean quoted : new boolean[] { false, true }) {
+			Serializer<Values> s = serializer(true);
+			s.setQuotedPrimitives(quoted);
+			String json = s.serialize(v);
+			Values back = s.deserialize(json);
+			assertEquals(v.i, back.i);
+			assertEquals(v.l, back.l);
+			assertEquals(v.d, back.d, 0);
+			assertEquals(v.f, back.f, 0);
+			assertEquals(v.b, back.b);
+			assertEquals(v.s, back.s);
+			assertEquals(v.z, back.z);
+			assertEquals(v.boxed, back.boxed);
+			assertArrayEquals(v.ints, back.ints);
+		}
+	}
+
+	@Test
+	public void exactConversions() throws Exception {
+		for (boolean generated : new boolean[] { false, true }) {
+			assertEquals(2147483647, read(generated, "i", "2147483647").i);
+			assertEquals(100, read(generated, "i", "1e2").i);
+			assertEquals(3, read(generated, "i", "3.0").i);
+			assertEquals(-128, read(generated, "b", "-128").b);
+			assertEquals(-32768, read(generated, "s", "\"-32768\"").s);
+			assertEquals(Long.MIN_VALUE, read(generated, "l", "-9223372036854775808").l);
+			assertEquals(4294967296L, read(generated, "l", "4294967296").l);
+			assertEquals(1.9, read(generated, "d", "1.9").d, 0);
+			assertEquals(true, read(generated, "z", "\"true\"").z);
+			assertNull(read(generated, "boxed", "null").boxed);
+		}
+	}
+
+	@Test
+	public void rejectsLossyConversions() throws Exception {
+		String[][] cases = { { "i", "4294967296" }, { "i", "2147483648" }, { "i", "1.9" }, { "i", "\"1.9\"" },
+				{ "i", "null" }, { "i", "\"x\"" }, { "b", "300" }, { "b", "128" }, { "s", "32768" },
+				{ "l", "9223372036854775808" }, { "l", "1.5" }, { "l", "1e30" }, { "d", "null" }, { "f", "\"x\"" },
+				{ "z", "null" }, { "z", "\"yes\"" }, { "boxed", "1.5" }, { "ints", "[1,2.5]" }, { "ints", "[null]" } };
+		for (boolean generated : new boolean[] { false, true }) {
+			for (String[] c : cases) {
+				try {
+					read(generated, c[0], c[1]);
+					fail(c[0] + "=" + c[1]);
+				} catch (JSONException expected) {
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package com.gynt.lwprotojson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.json.JSONException;
+import org.junit.Test;
+
+import com.gynt.lwprotojson.LWProtoJson.Serializer;
+import com.gynt.lwprotojson.LWProtoJson.Serializer.Framing;
+import com.gynt.lwprotojson.examples.Example.AnotherExample;
+
+public class RecordTest {
+
+	private static final Serializer<AnotherExample> S = new Serializer<AnotherExample>(AnotherExample.class);
+
+	private static List<AnotherExample> records(int n) {
+		List<AnotherExample> records = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			AnotherExample a = new AnotherExample();
+			a.age = i;
+			a.name = "r\u00e9cord\n" + i;
+			records.add(a);
+		}
+		return records;
+	}
+
+	private static List<Integer> ages(Stream<AnotherExample> records) {
+		return records.map(a -> a.age).collect(Collectors.toList());
+	}
+
+	/**
+	 * An endless input of the same record, which counts the bytes handed out.
+	 */
+	private static final class Repeating extends InputStream {
+
+		final byte[] record;
+		long read;
+		boolean closed;
+
+		Repeating(String record) {
+			this.record = (record + "\n").getBytes(StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public int read() {
+			return record[(int) (read++ % record.length)] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			for (int i = 0; i < len; i++)
+				b[off + i] = (byte) read();
+			return len;
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+		}
+	}
+
+	@Test
+	public void roundTrip() throws Exception {
+		List<AnotherExample> records = records(1000);
+		boolean[] closed = new boolean[1];
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream() {
+
+			@Override
+			public void close() {
+				closed[0] = true;
+			}
+		};
+		try (RecordWriter<AnotherExample> w = new RecordWriter<>(S, bytes)) {
+			w.writeAll(records.subList(0, 500));
+			for (AnotherExample a : records.subList(500, 1000))
+				w.write(a);
+		}
+		assertTrue(closed[0]);
+		String text = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+		assertEquals(S.serializeAll(records, Framing.LINES), text);
+
+		try (RecordReader<AnotherExample> r = new RecordReader<>(S, new ByteArrayInputStream(bytes.toByteArray()))) {
+			List<AnotherExample> back = new ArrayList<>();
+			r.forEachRemaining(back::add);
+			assertEquals(1000, back.size());
+			assertEquals(999, back.get(999).age);
+			assertEquals("r\u00e9cord\n999", back.get(999).name);
+			assertFalse(r.hasNext());
+		}
+		StringWriter chars = new StringWriter();
+		try (RecordWriter<AnotherExample> w = new RecordWriter<>(S, chars)) {
+			w.writeAll(records);
+		}
+		assertEquals(text, chars.toString());
+		try (Stream<AnotherExample> s = new RecordReader<>(S, new StringReader(text)).stream()) {
+			assertEquals(ages(records.stream()), ages(s));
+		}
+	}
+
+	@Test
+	public void readsFiles() throws Exception {
+		List<AnotherExample> records = records(300);
+		Path file = Files.createTempFile("records", ".json");
+		try {
+			for (Framing framing : Framing.values()) {
+				Files.write(file, S.serializeAll(records, framing).getBytes(StandardCharsets.UTF_8));
+				try (Stream<AnotherExample> s = new RecordReader<>(S, file, framing).stream()) {
+					assertEquals(ages(records.stream()), ages(s));
+				}
+			}
+			Files.write(file, "[]".getBytes(StandardCharsets.UTF_8));
+			try (RecordReader<AnotherExample> r = new RecordReader<>(S, file, Framing.ARRAY)) {
+				assertFalse(r.hasNext());
+			}
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	@Test
+	public void readsIncrementally() throws Exception {
+		Repeating in = new Repeating(S.serialize(records(1).get(0)));
+		try (Stream<AnotherExample> s = new RecordReader<>(S, in).stream()) {
+			assertEquals(100000, s.limit(100000).count());
+		}
+		assertTrue(in.closed);
+		// The reader only ever holds one buffer ahead of the record it is on.
+		assertTrue(String.valueOf(in.read), in.read <= 100000L * in.record.length + (1 << 16));
+	}
+
+	@Test
+	public void iteratorContract() throws Exception {
+		RecordReader<AnotherExample> r = new RecordReader<>(S, new StringReader("\n\n" + S.serialize(new AnotherExample())
+				+ "\r\n\r\n"));
+		assertTrue(r.hasNext());
+		assertTrue(r.hasNext());
+		r.next();
+		assertFalse(r.hasNext());
+		try {
+			r.next();
+			fail();
+		} catch (NoSuchElementException expected) {
+		}
+	}
+
+	@Test
+	public void stopsAtMalformedRecords() throws Exception {
+		String good = S.serialize(new AnotherExample());
+		RecordReader<AnotherExample> r = new RecordReader<>(S, new StringReader(good + "\n{\"version\":4,\"age\":\n" + good));
+		r.next();
+		try {
+			r.next();
+			fail();
+		} catch (JSONException expected) {
+		}
+	}
+}
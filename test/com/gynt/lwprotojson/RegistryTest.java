@@ -0,0 +1,148 @@
+package com.gynt.lwprotojson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.gynt.lwprotojson.LWProtoJson.AbstractSerializer;
+import com.gynt.lwprotojson.LWProtoJson.Lwprotojson;
+import com.gynt.lwprotojson.LWProtoJson.Registry;
+import com.gynt.lwprotojson.LWProtoJson.Serializer;
+
+public class RegistryTest {
+
+	public static class Point {
+		final int x;
+		final int y;
+
+		Point(int x, int y) {
+			this.x = x;
+			this.y = y;
+		}
+	}
+
+	public static class Shape {
+		@Lwprotojson
+		public Point origin;
+	}
+
+	/**
+	 * Writes a Point as "x,y", or as "y;x" when swapped, so that tests can
+	 * tell which codec was used.
+	 */
+	private static AbstractSerializer<Point> points(boolean swapped) {
+		return new AbstractSerializer<Point>(Point.class) {
+
+			@Override
+			public Point deserialize(String data) {
+				String[] parts = data.split(swapped ? ";" : ",");
+				return swapped ? new Point(Integer.parseInt(parts[1]), Integer.parseInt(parts[0]))
+						: new Point(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+			}
+
+			@Override
+			public String serialize(Point obj) {
+				return swapped ? obj.y + ";" + obj.x : obj.x + "," + obj.y;
+			}
+		};
+	}
+
+	@Test
+	public void registerRetrieveRemove() {
+		Registry registry = new Registry();
+		assertFalse(registry.contains(Point.class));
+		assertNull(registry.retrieve(Point.class));
+		AbstractSerializer<Point> codec = points(false);
+		assertNull(registry.register(Point.class, codec));
+		assertTrue(registry.contains(Point.class));
+		assertSame(codec, registry.retrieve(Point.class));
+		AbstractSerializer<Point> other = points(true);
+		assertSame(codec, registry.register(Point.class, other));
+		assertSame(other, registry.remove(Point.class));
+		assertNull(registry.remove(Point.class));
+		assertFalse(registry.contains(Point.class));
+	}
+
+	@Test
+	public void scopedRegistriesAreIsolated() throws Exception {
+		Registry a = new Registry(LWProtoJson.registry());
+		Registry b = new Registry(LWProtoJson.registry());
+		a.register(Point.class, points(false));
+		b.register(Point.class, points(true));
+		assertNotNull(a.retrieve(String.class));
+		assertNull(LWProtoJson.retrieve(Point.class));
+
+		Shape shape = new Shape();
+		shape.origin = new Point(1, 2);
+		Serializer<Shape> sa = new Serializer<>(Shape.class, a);
+		Serializer<Shape> sb = new Serializer<>(Shape.class, b);
+		assertEquals("{\"version\":0,\"origin\":\"1,2\"}", sa.serialize(shape));
+		assertEquals("{\"version\":0,\"origin\":\"2;1\"}", sb.serialize(shape));
+		assertEquals(2, sb.deserialize(sb.serialize(shape)).origin.y);
+
+		// A copy holds the codecs of its base at the time it was made.
+		Registry c = new Registry(a);
+		a.remove(Point.class);
+		assertNotNull(c.retrieve(Point.class));
+		assertNull(a.retrieve(Point.class));
+	}
+
+	@Test
+	public void concurrentReadersSeeConsistentSnapshots() throws Exception {
+		Registry registry = new Registry(LWProtoJson.registry());
+		AbstractSerializer<Point> codec = points(false);
+		AtomicBoolean stop = new AtomicBoolean();
+		List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> readers = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			readers.add(new Thread(() -> {
+				try {
+					while (!stop.get()) {
+						assertNotNull(registry.retrieve(int.class));
+						assertNotNull(registry.retrieve(String.class));
+						AbstractSerializer<Point> p = registry.retrieve(Point.class);
+						assertTrue(p == null || p == codec);
+					}
+				} catch (Throwable e) {
+					failures.add(e);
+				}
+			}));
+		}
+		for (Thread t : readers) {
+			t.start();
+		}
+		for (int i = 0; i < 20000; i++) {
+			registry.register(Point.class, codec);
+			registry.remove(Point.class);
+		}
+		stop.set(true);
+		for (Thread t : readers) {
+			t.join();
+		}
+		assertTrue(failures.toString(), failures.isEmpty());
+	}
+
+	@Test
+	public void sharedSerializers() throws Exception {
+		Registry registry = new Registry(LWProtoJson.registry());
+		registry.register(Point.class, points(false));
+		Serializer<Shape> s = registry.serializer(Shape.class);
+		assertSame(s, registry.serializer(Shape.class));
+		Shape shape = new Shape();
+		shape.origin = new Point(3, 4);
+		assertEquals("{\"version\":0,\"origin\":\"3,4\"}", s.serialize(shape));
+		Registry other = new Registry(LWProtoJson.registry());
+		other.register(Point.class, points(true));
+		assertEquals("{\"version\":0,\"origin\":\"4;3\"}", other.serializer(Shape.class).serialize(shape));
+	}
+}
@@ -0,0 +1,174 @@
+package com.gynt.lwprotojson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.json.StringCache;
+import org.junit.Test;
+
+import com.gynt.lwprotojson.LWProtoJson.Lwprotojson;
+import com.gynt.lwprotojson.LWProtoJson.Registry;
+import com.gynt.lwprotojson.LWProtoJson.Serializer;
+
+public class SerializerForTest {
+
+	public static class Item {
+		@Lwprotojson
+		public int id;
+	}
+
+	public static class Order {
+		@Lwprotojson
+		public Item item;
+		@Lwprotojson
+		public Item[] items;
+	}
+
+	public static class Raced {
+		@Lwprotojson
+		public String name;
+	}
+
+	public static class Unloadable {
+		@Lwprotojson
+		public int value;
+	}
+
+	/**
+	 * Defines one class itself instead of delegating, so that the class and
+	 * the loader can be collected once nothing else refers to them.
+	 */
+	private static final class IsolatingLoader extends ClassLoader {
+
+		private final String name;
+
+		IsolatingLoader(String name) {
+			super(SerializerForTest.class.getClassLoader());
+			this.name = name;
+		}
+
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			if (!name.equals(this.name))
+				return super.loadClass(name, resolve);
+			try (InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+				byte[] bytes = new byte[8192];
+				int n = 0;
+				for (int r; (r = in.read(bytes, n, bytes.length - n)) > 0;)
+					n += r;
+				return defineClass(name, bytes, 0, n);
+			} catch (IOException e) {
+				throw new ClassNotFoundException(name, e);
+			}
+		}
+	}
+
+	@Test
+	public void buildsEachSerializerOnce() {
+		assertSame(LWProtoJson.serializerFor(Item.class), LWProtoJson.serializerFor(Item.class));
+		assertNotSame(LWProtoJson.serializerFor(Item.class), new Registry(LWProtoJson.registry()).serializer(Item.class));
+	}
+
+	@Test
+	public void sharesNestedAndComponentSerializers() throws Exception {
+		Serializer<Item> item = LWProtoJson.serializerFor(Item.class);
+		Serializer<Order> order = LWProtoJson.serializerFor(Order.class);
+		assertSame(item, order.slots[0].codec);
+		assertSame(item, order.slots[1].codec);
+		assertSame(item, LWProtoJson.serializerFor(Item[].class).componentcodec);
+
+		Order o = new Order();
+		o.item = new Item();
+		o.item.id = 3;
+		o.items = new Item[] { new Item() };
+		o.items[0].id = 4;
+		Order back = order.deserialize(order.serialize(o));
+		assertEquals(3, back.item.id);
+		assertEquals(4, back.items[0].id);
+	}
+
+	@Test
+	public void configuresCopiesOfSharedSerializers() throws Exception {
+		Serializer<Item> shared = LWProtoJson.serializerFor(Item.class);
+		try {
+			shared.setQuotedPrimitives(true);
+			fail();
+		} catch (UnsupportedOperationException expected) {
+		}
+		try {
+			shared.setParallel(ForkJoinPool.commonPool(), 2);
+			fail();
+		} catch (UnsupportedOperationException expected) {
+		}
+		try {
+			shared.setStringCache(new StringCache());
+			fail();
+		} catch (UnsupportedOperationException expected) {
+		}
+
+		StringCache cache = new StringCache();
+		Serializer<Item> quoted = shared.withQuotedPrimitives(true).withStringCache(cache);
+		assertNotSame(shared, quoted);
+		assertTrue(quoted.isQuotedPrimitives());
+		assertSame(cache, quoted.getStringCache());
+		assertFalse(shared.isQuotedPrimitives());
+		assertNull(shared.getStringCache());
+		Item item = new Item();
+		item.id = 7;
+		assertEquals("{\"version\":0,\"id\":\"7\"}", quoted.serialize(item));
+		assertEquals("{\"version\":0,\"id\":7}", shared.serialize(item));
+		// Copies are not shared, so they can be set up further.
+		assertFalse(quoted.setQuotedPrimitives(false).isQuotedPrimitives());
+	}
+
+	@Test
+	public void racingCallersGetTheSameSerializer() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Callable<Serializer<Raced>>> tasks = new ArrayList<>();
+			for (int i = 0; i < 64; i++)
+				tasks.add(() -> LWProtoJson.serializerFor(Raced.class));
+			Serializer<Raced> first = LWProtoJson.serializerFor(Raced.class);
+			for (Future<Serializer<Raced>> f : executor.invokeAll(tasks))
+				assertSame(first, f.get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void doesNotRetainClassLoaders() throws Exception {
+		WeakReference<ClassLoader> ref = load();
+		for (int i = 0; i < 50 && ref.get() != null; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		assertNull(ref.get());
+	}
+
+	private WeakReference<ClassLoader> load() throws Exception {
+		ClassLoader loader = new IsolatingLoader(Unloadable.class.getName());
+		Class<?> type = loader.loadClass(Unloadable.class.getName());
+		assertNotSame(Unloadable.class, type);
+		@SuppressWarnings("unchecked")
+		Serializer<Object> s = LWProtoJson.serializerFor((Class<Object>) type);
+		assertEquals("{\"version\":0,\"value\":0}", s.serialize(type.getDeclaredConstructor().newInstance()));
+		return new WeakReference<>(loader);
+	}
+}
@@ -0,0 +1,281 @@
+package com.gynt.lwprotojson;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.JSONException;
+import org.json.JSONTokener;
+import org.json.StringCache;
+import org.json.Utf8Tokener;
+import org.junit.Test;
+
+import com.gynt.lwprotojson.LWProtoJson.Lwprotojson;
+import com.gynt.lwprotojson.LWProtoJson.Registry;
+import com.gynt.lwprotojson.LWProtoJson.Serializer;
+import com.gynt.lwprotojson.examples.Example;
+import com.gynt.lwprotojson.examples.Example.AnotherExample;
+
+public class SerializerTest {
+
+	public static class Node {
+		@Lwprotojson
+		public String name;
+
+		@Lwprotojson
+		public Node[] kids;
+
+		@Lwprotojson
+		public Node next;
+
+		public Node() {
+		}
+
+		Node(String name, Node... kids) {
+			this.name = name;
+			this.kids = kids;
+		}
+	}
+
+	public static class Parent {
+		@Lwprotojson
+		public Child child;
+	}
+
+	public static class Child {
+		@Lwprotojson
+		public int age;
+
+		@Lwprotojson
+		public Parent parent;
+	}
+
+	public static class Failing {
+		@Lwprotojson
+		public int age;
+
+		public Failing() throws Exception {
+			throw new java.io.IOException("constructor");
+		}
+	}
+
+	public static class NoDefaultConstructor {
+		@Lwprotojson
+		public int age;
+
+		public NoDefaultConstructor(int age) {
+			this.age = age;
+		}
+	}
+
+	public static class Versioned {
+		public int VERSION;
+		@Lwprotojson
+		public int always;
+		@Lwprotojson(from = 2, until = 5)
+		public int middle;
+		@Lwprotojson(from = 4)
+		public int late;
+		@Lwprotojson(from = -3, until = 2)
+		public int early;
+		@Lwprotojson(from = 7, until = 7)
+		public int once;
+	}
+
+	private static Node tree() {
+		Node root = new Node("root", new Node("a"), new Node("b", new Node("c")));
+		root.next = new Node("next");
+		return root;
+	}
+
+	private static void assertTree(Node root) {
+		assertEquals("root", root.name);
+		assertEquals(2, root.kids.length);
+		assertEquals("b", root.kids[1].name);
+		assertEquals("c", root.kids[1].kids[0].name);
+		assertEquals(0, root.kids[1].kids[0].kids.length);
+		assertEquals("next", root.next.name);
+		assertNull(root.next.next);
+	}
+
+	@Test
+	public void selfReferentialType() throws Exception {
+		for (boolean generated : new boolean[] { false, true }) {
+			Serializer<Node> s = new Serializer<>(Node.class, new Registry(LWProtoJson.registry()), generated);
+			assertTree(s.deserialize(s.serialize(tree())));
+		}
+		Serializer<Node> shared = LWProtoJson.serializerFor(Node.class);
+		assertTree(shared.deserialize(shared.serialize(tree())));
+	}
+
+	@Test
+	public void mutuallyReferentialTypes() throws Exception {
+		Parent p = new Parent();
+		p.child = new Child();
+		p.child.age = 7;
+		p.child.parent = new Parent();
+		Registry registry = new Registry(LWProtoJson.registry());
+		for (Serializer<Parent> s : new Serializer[] { new Serializer<>(Parent.class, registry),
+				registry.serializer(Parent.class) }) {
+			Parent q = s.deserialize(s.serialize(p));
+			assertEquals(7, q.child.age);
+			assertNull(q.child.parent.child);
+		}
+	}
+
+	@Test
+	public void constructorFailures() throws Exception {
+		try {
+			new Serializer<>(Failing.class).deserialize("{\"version\":0,\"age\":1}");
+			fail();
+		} catch (InstantiationException expected) {
+			assertTrue(expected.getCause() instanceof java.io.IOException);
+		}
+		try {
+			new Serializer<>(NoDefaultConstructor.class).deserialize("{\"version\":0,\"age\":1}");
+			fail();
+		} catch (InstantiationException expected) {
+			assertTrue(expected.getCause() instanceof NoSuchMethodException);
+		}
+	}
+
+	@Test
+	public void layoutsCoverEveryVersion() throws Exception {
+		Serializer<Versioned> s = new Serializer<>(Versioned.class);
+		int[] versions = { Integer.MIN_VALUE, -4, -3, -2, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 1000, Integer.MAX_VALUE };
+		for (int version : versions) {
+			StringBuilder expected = new StringBuilder();
+			for (Serializer.Slot slot : s.slots) {
+				if (slot.includes(version))
+					expected.append(slot.name).append(',');
+			}
+			StringBuilder actual = new StringBuilder();
+			for (Serializer.Slot slot : s.layout(version).slots) {
+				actual.append(slot.name).append(',');
+			}
+			assertEquals("version " + version, expected.toString(), actual.toString());
+			Versioned v = new Versioned();
+			v.VERSION = version;
+			v.always = 1;
+			v.middle = 2;
+			v.late = 3;
+			v.early = 4;
+			v.once = 5;
+			Versioned back = s.deserialize(s.serialize(v));
+			assertEquals(version >= 0 ? 1 : 0, back.always);
+			assertEquals(version >= 2 && version <= 5 ? 2 : 0, back.middle);
+			assertEquals(version >= 4 ? 3 : 0, back.late);
+			assertEquals(version >= -3 && version <= 2 ? 4 : 0, back.early);
+			assertEquals(version == 7 ? 5 : 0, back.once);
+		}
+		// Versions come from the input, so they must not each get a layout.
+		for (int version = 8; version < 100000; version++) {
+			assertSame(s.layout(8), s.layout(version));
+		}
+		assertSame(s.layout(Integer.MIN_VALUE), s.layout(-4));
+	}
+
+	@Test
+	public void readsEveryInputForm() throws Exception {
+		Serializer<Example> s = new Serializer<>(Example.class);
+		Example e = new Example();
+		e.age = 7;
+		e.list.add("\u00e9\ud83d\ude00");
+		String text = s.serialize(e);
+		byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+		List<Example> read = Arrays.asList(s.deserialize(text), s.deserialize(new StringReader(text)),
+				s.deserialize(new ByteArrayInputStream(utf8)), s.deserialize(utf8), s.deserialize(ByteBuffer.wrap(utf8)),
+				s.deserialize(new JSONTokener(text)));
+		for (Example back : read) {
+			assertEquals(text, s.serialize(back));
+		}
+	}
+
+	@Test
+	public void readsKeysInAnyOrder() throws Exception {
+		Serializer<AnotherExample> s = new Serializer<>(AnotherExample.class);
+		AnotherExample a = s.deserialize("{\"age\":5,\"name\":\"early\",\"extra\":{\"x\":[1,{}]},\"version\":2}");
+		assertEquals(5, a.age);
+		assertEquals("early", a.name);
+		a = s.deserialize("{\"name\":\"dropped\",\"version\":5,\"age\":6,\"extra\":[[],\"]\"]}");
+		assertEquals(6, a.age);
+		assertEquals("Bye world!", a.name);
+		a = s.deserialize("\"{\\\"version\\\":0,\\\"age\\\":8}\"");
+		assertEquals(8, a.age);
+	}
+
+	@Test
+	public void bindsTheLastOfRepeatedKeys() throws Exception {
+		Serializer<AnotherExample> s = new Serializer<>(AnotherExample.class);
+		for (String json : new String[] { "{\"age\":1,\"age\":2,\"version\":0}",
+				"{\"version\":0,\"age\":1,\"age\":2}", "{\"age\":1,\"version\":0,\"age\":2}" }) {
+			assertEquals(json, 2, s.deserialize(json).age);
+		}
+		AnotherExample a = s.deserialize("{\"name\":\"a\",\"name\":\"b,\\\"}\",\"version\":2}");
+		assertEquals("b,\"}", a.name);
+		try {
+			s.deserialize("{\"version\":0,\"age\":1,\"version\":2}");
+			fail();
+		} catch (JSONException expected) {
+		}
+	}
+
+	@Test
+	public void readsConsecutiveValuesFromOneTokener() throws Exception {
+		Serializer<AnotherExample> s = new Serializer<>(AnotherExample.class);
+		JSONTokener x = new JSONTokener("{\"version\":0,\"age\":1} {\"version\":0,\"age\":2}\nnull");
+		assertEquals(1, s.deserialize(x).age);
+		assertEquals(2, s.deserialize(x).age);
+		assertNull(s.deserialize(x));
+	}
+
+	@Test
+	public void rejectsMalformedInput() throws Exception {
+		Serializer<Example> s = new Serializer<>(Example.class);
+		for (String json : new String[] { "{\"age\":1}", "{\"version\":0,\"age\":1", "{\"version\":0,,\"age\":1}",
+				"[1]", "{\"version\":0,\"list\":{}}", "{\"version\":0,\"map\":[]}", "{\"version\":[],\"age\":1}",
+				"{\"version\":0 \"age\":1}", "{\"version\":0,\"name\":\"unterminated}", "" }) {
+			try {
+				s.deserialize(json);
+				fail(json);
+			} catch (JSONException expected) {
+			}
+		}
+	}
+
+	@Test
+	public void sharesStringsThroughCache() throws Exception {
+		Serializer<Example> s = new Serializer<Example>(Example.class).setStringCache(new StringCache());
+		String text = s.serialize(new Example());
+		// A tokener passed in keeps its own setting.
+		Utf8Tokener own = new Utf8Tokener(text.getBytes(StandardCharsets.UTF_8));
+		own.setStringCache(s.getStringCache());
+		for (JSONTokener x : new JSONTokener[] { null, own }) {
+			Example a = x == null ? s.deserialize(text) : s.deserialize(x);
+			Example b = s.deserialize(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+			assertSame(a.list.get(1), b.list.get(1));
+			assertSame(key(a.map, "example1"), key(b.map, "example1"));
+			assertEquals(text, s.serialize(b));
+		}
+		Example c = new Serializer<Example>(Example.class).deserialize(text);
+		assertNotSame(c.list.get(1), s.deserialize(text).list.get(1));
+	}
+
+	private static String key(java.util.Map<String, ?> map, String key) {
+		for (String k : map.keySet()) {
+			if (k.equals(key))
+				return k;
+		}
+		throw new AssertionError(key);
+	}
+}
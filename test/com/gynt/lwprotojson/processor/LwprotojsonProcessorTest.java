@@ -0,0 +1,416 @@
+package com.gynt.lwprotojson.processor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.gynt.lwprotojson.BinarySerializer;
+import com.gynt.lwprotojson.GeneratedSerializer;
+import com.gynt.lwprotojson.LWProtoJson;
+import com.gynt.lwprotojson.LWProtoJson.AbstractSerializer;
+import com.gynt.lwprotojson.LWProtoJson.Registry;
+import com.gynt.lwprotojson.LWProtoJson.Serializer;
+
+/**
+ * Compiles small sources with the processor and runs the serializers it
+ * generates. The classes are loaded by a class loader of their own, which is
+ * how {@link Registry} finds generated serializers.
+ */
+public class LwprotojsonProcessorTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final List<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<>();
+
+	/**
+	 * Compiles the sources, each given as its package-qualified class name
+	 * followed by its text, and returns a loader for the output.
+	 */
+	private URLClassLoader compile(String... sources) throws IOException {
+		File src = folder.newFolder();
+		File out = folder.newFolder();
+		List<File> files = new ArrayList<>();
+		for (int i = 0; i < sources.length; i += 2) {
+			Path p = src.toPath().resolve(sources[i].replace('.', '/') + ".java");
+			Files.createDirectories(p.getParent());
+			Files.write(p, sources[i + 1].getBytes(StandardCharsets.UTF_8));
+			files.add(p.toFile());
+		}
+		JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+		DiagnosticCollector<JavaFileObject> collector = new DiagnosticCollector<>();
+		String classpath = new File(LWProtoJson.class.getProtectionDomain().getCodeSource().getLocation().getPath())
+				.getPath();
+		try (StandardJavaFileManager fm = javac.getStandardFileManager(collector, null, StandardCharsets.UTF_8)) {
+			boolean ok = javac.getTask(null, fm, collector,
+					Arrays.asList("-classpath", classpath, "-d", out.getPath(), "-processor",
+							LwprotojsonProcessor.class.getName()),
+					null, fm.getJavaFileObjectsFromFiles(files)).call();
+			diagnostics.addAll(collector.getDiagnostics());
+			assertTrue(collector.getDiagnostics().toString(), ok);
+		}
+		return new URLClassLoader(new URL[] { out.toURI().toURL() }, LWProtoJson.class.getClassLoader());
+	}
+
+	private static final String NODE = "package p;\n"
+			+ "import com.gynt.lwprotojson.LWProtoJson.Lwprotojson;\n"
+			+ "public class Node {\n"
+			+ "	@Lwprotojson public String name;\n"
+			+ "	@Lwprotojson public Node next;\n"
+			+ "	@Lwprotojson public Node[] kids;\n"
+			+ "	@Lwprotojson public Leaf leaf;\n"
+			+ "}\n";
+
+	private static final String LEAF = "package p;\n"
+			+ "import com.gynt.lwprotojson.LWProtoJson.Lwprotojson;\n"
+			+ "public class Leaf {\n"
+			+ "	@Lwprotojson public int age;\n"
+			+ "	@Lwprotojson public Node back;\n"
+			+ "}\n";
+
+	@Test
+	public void generatesSerializersForCycles() throws Exception {
+		try (URLClassLoader loader = compile("p.Node", NODE, "p.Leaf", LEAF)) {
+			Class<?> node = loader.loadClass("p.Node");
+			Registry registry = new Registry(LWProtoJson.registry());
+			AbstractSerializer<Object> generated = codec(registry, node);
+			assertTrue(generated instanceof GeneratedSerializer);
+			assertTrue(codec(registry, loader.loadClass("p.Leaf")) instanceof GeneratedSerializer);
+
+			String json = "{\"version\":0,\"name\":\"root\",\"next\":{\"version\":0,\"name\":\"next\",\"next\":null,"
+					+ "\"kids\":null,\"leaf\":null},\"kids\":[{\"version\":0,\"name\":\"kid\",\"next\":null,\"kids\":[],"
+					+ "\"leaf\":null}],\"leaf\":{\"version\":0,\"age\":3,\"back\":{\"version\":0,\"name\":\"back\","
+					+ "\"next\":null,\"kids\":null,\"leaf\":null}}}";
+			Object value = generated.deserialize(json);
+			assertEquals(json, generated.serialize(value));
+			GeneratedSerializer<Object> quoted = ((GeneratedSerializer<Object>) generated).withQuotedPrimitives(true);
+			String text = quoted.serialize(value);
+			assertTrue(text, text.contains("\"leaf\":\"{"));
+			assertEquals(json, generated.serialize(quoted.deserialize(text)));
+			assertEquals(json, generated.serialize(value));
+			try {
+				((GeneratedSerializer<Object>) generated).setQuotedPrimitives(true);
+				fail();
+			} catch (UnsupportedOperationException expected) {
+			}
+			Serializer<Object> reflective = new Serializer<>(node, new Registry(LWProtoJson.registry()));
+			assertEquals(json, reflective.serialize(reflective.deserialize(json)));
+
+			// Fields of generated classes are nested binary messages, not JSON.
+			BinarySerializer<Object> binary = new BinarySerializer<>(node, registry);
+			byte[] bytes = binary.toBytes(value);
+			assertEquals(-1, new String(bytes, StandardCharsets.ISO_8859_1).indexOf("version"));
+			assertEquals(json, generated.serialize(binary.fromBytes(bytes)));
+		}
+	}
+
+	private static final String ORDERED = "package p;\n"
+			+ "import com.gynt.lwprotojson.LWProtoJson.Lwprotojson;\n"
+			+ "public class Ordered {\n"
+			+ "	@Lwprotojson public String first;\n"
+			+ "	@Lwprotojson public String second;\n"
+			+ "	@Lwprotojson public String third;\n"
+			+ "}\n";
+
+	/**
+	 * Keys that come before "version" are bound in the order of the fields,
+	 * by generated serializers and Serializer alike.
+	 */
+	@Test
+	public void bindsKeysBeforeVersionInFieldOrder() throws Exception {
+		try (URLClassLoader loader = compile("p.Ordered", ORDERED)) {
+			Class<?> ordered = loader.loadClass("p.Ordered");
+			List<String> bound = new ArrayList<>();
+			Registry registry = new Registry(LWProtoJson.registry());
+			registry.register(String.class, new AbstractSerializer<String>(String.class) {
+
+				@Override
+				public String deserialize(String data) {
+					bound.add(data);
+					return data;
+				}
+
+				@Override
+				public String serialize(String obj) {
+					return obj;
+				}
+			});
+			String json = "{\"third\":\"c\",\"first\":\"a\",\"second\":\"b\",\"version\":0}";
+			AbstractSerializer<Object> generated = codec(registry, ordered);
+			assertTrue(generated instanceof GeneratedSerializer);
+			generated.deserialize(json);
+			assertEquals(Arrays.asList("a", "b", "c"), bound);
+
+			bound.clear();
+			new Serializer<Object>(ordered, registry).deserialize(json);
+			assertEquals(Arrays.asList("a", "b", "c"), bound);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static AbstractSerializer<Object> codec(Registry registry, Class<?> type) {
+		return registry.retrieve((Class<Object>) type);
+	}
+
+	@Test
+	public void fallsBackToReflectionForFieldTypes() throws Exception {
+		String a = "package p;\n"
+				+ "import com.gynt.lwprotojson.LWProtoJson.Lwprotojson;\n"
+				+ "public class A {\n"
+				+ "	@Lwprotojson public B b;\n"
+				+ "	@Lwprotojson public B[] bs;\n"
+				+ "}\n";
+		// B has a private field, so no serializer is generated for it.
+		String b = "package p;\n"
+				+ "import com.gynt.lwprotojson.LWProtoJson.Lwprotojson;\n"
+				+ "public class B {\n"
+				+ "	@Lwprotojson private int age;\n"
+				+ "}\n";
+		try (URLClassLoader loader = compile("p.A", a, "p.B", b)) {
+			Registry registry = new Registry(LWProtoJson.registry());
+			assertNull(registry.retrieve(loader.loadClass("p.B")));
+			AbstractSerializer<Object> codec = codec(registry, loader.loadClass("p.A"));
+			assertTrue(codec instanceof GeneratedSerializer);
+			String json = "{\"version\":0,\"b\":{\"version\":0,\"age\":4},\"bs\":[{\"version\":0,\"age\":5}]}";
+			assertEquals(json, codec.serialize(codec.deserialize(json)));
+		}
+	}
+
+	@Test
+	public void doesNotRetainClassLoaders() throws Exception {
+		Registry registry = new Registry(LWProtoJson.registry());
+		WeakReference<ClassLoader> ref = load(registry);
+		for (int i = 0; i < 50 && ref.get() != null; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		assertNull(ref.get());
+		assertNotNull(registry.retrieve(String.class));
+	}
+
+	private WeakReference<ClassLoader> load(Registry registry) throws Exception {
+		try (URLClassLoader loader = compile("p.Leaf", LEAF, "p.Node", NODE)) {
+			Class<?> node = loader.loadClass("p.Node");
+			assertTrue(codec(registry, node) instanceof GeneratedSerializer);
+			return new WeakReference<ClassLoader>(loader);
+		}
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void writesPreEncodedKeys() throws Exception {
+		String c = "package p;\n"
+				+ "import com.gynt.lwprotojson.LWProtoJson.Lwprotojson;\n"
+				+ "public class C {\n"
+				+ "	public int VERSION = 2;\n"
+				+ "	@Lwprotojson public String caf\u00e9 = \"\u00e9t\u00e9\";\n"
+				+ "	@Lwprotojson(from = 1, until = 1) public long old = 7;\n"
+				+ "	@Lwprotojson(from = 2) public double[] values = { 1.5 };\n"
+				+ "	@Lwprotojson public java.util.ArrayList<Integer> list = new java.util.ArrayList<>();\n"
+				+ "}\n";
+		try (URLClassLoader loader = compile("p.C", c)) {
+			Class<?> type = loader.loadClass("p.C");
+			Field key = loader.loadClass("p.C" + LWProtoJson.GENERATED_SUFFIX).getDeclaredField("KEY_caf\u00e9");
+			assertTrue(Modifier.isStatic(key.getModifiers()));
+			Registry registry = new Registry(LWProtoJson.registry());
+			GeneratedSerializer<Object> codec = (GeneratedSerializer<Object>) codec(registry, type);
+			Serializer<Object> reflective = new Serializer<>(type, new Registry(LWProtoJson.registry()));
+			Object value = type.getDeclaredConstructor().newInstance();
+			String expected = reflective.serialize(value);
+			assertEquals("{\"version\":2,\"caf\u00e9\":\"\u00e9t\u00e9\",\"values\":[1.5],\"list\":[]}", expected);
+			assertEquals(expected, codec.serialize(value));
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			codec.writeTo(value, bytes);
+			assertEquals(expected, new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+			ByteBuffer buffer = ByteBuffer.allocate(256);
+			codec.writeTo(value, buffer);
+			assertEquals(expected, new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8));
+			assertEquals(expected, codec.serialize(codec.deserialize(expected)));
+		}
+	}
+
+	private static final String E = "package p;\n"
+			+ "import com.gynt.lwprotojson.LWProtoJson.Lwprotojson;\n"
+			+ "import java.util.*;\n"
+			+ "public class E {\n"
+			+ "	public int VERSION = 1;\n"
+			+ "	@Lwprotojson public int i;\n"
+			+ "	@Lwprotojson public long l;\n"
+			+ "	@Lwprotojson public double d;\n"
+			+ "	@Lwprotojson public float f;\n"
+			+ "	@Lwprotojson public short s;\n"
+			+ "	@Lwprotojson public byte b;\n"
+			+ "	@Lwprotojson public boolean z;\n"
+			+ "	@Lwprotojson public Integer boxed;\n"
+			+ "	@Lwprotojson public String text;\n"
+			+ "	@Lwprotojson(until = 0) public String gone;\n"
+			+ "	@Lwprotojson(from = 1) public long added;\n"
+			+ "	@Lwprotojson public int[] ints;\n"
+			+ "	@Lwprotojson public byte[] bytes;\n"
+			+ "	@Lwprotojson public String[] texts;\n"
+			+ "	@Lwprotojson public ArrayList<String> list;\n"
+			+ "	@Lwprotojson public HashMap<String, Integer> map;\n"
+			+ "	@Lwprotojson public E child;\n"
+			+ "}\n";
+
+	private static final String[] TEXTS = { "", "a", "\"", "\\", "\n\t\u0000\u001f", "\u00e9\u4e2d\uD83D\uDE00",
+			"null", "{\"x\":1}", "</script>" };
+
+	/**
+	 * Fill the fields of a fresh E with random values, and nulls.
+	 */
+	private static Object random(Random r, Class<?> type, int depth) throws Exception {
+		Object value = type.getDeclaredConstructor().newInstance();
+		type.getField("VERSION").setInt(value, r.nextInt(2));
+		type.getField("i").setInt(value, r.nextInt());
+		type.getField("l").setLong(value, r.nextLong());
+		type.getField("d").setDouble(value, r.nextInt(3) == 0 ? r.nextInt() : r.nextDouble() * 1e10);
+		type.getField("f").setFloat(value, r.nextFloat());
+		type.getField("s").setShort(value, (short) r.nextInt());
+		type.getField("b").setByte(value, (byte) r.nextInt());
+		type.getField("z").setBoolean(value, r.nextBoolean());
+		type.getField("boxed").set(value, r.nextBoolean() ? null : r.nextInt());
+		type.getField("text").set(value, r.nextInt(4) == 0 ? null : TEXTS[r.nextInt(TEXTS.length)]);
+		type.getField("gone").set(value, TEXTS[r.nextInt(TEXTS.length)]);
+		type.getField("added").setLong(value, r.nextLong());
+		if (r.nextBoolean()) {
+			int[] ints = new int[r.nextInt(5)];
+			for (int k = 0; k < ints.length; k++)
+				ints[k] = r.nextInt();
+			type.getField("ints").set(value, ints);
+		}
+		if (r.nextBoolean()) {
+			byte[] bytes = new byte[r.nextInt(7)];
+			r.nextBytes(bytes);
+			type.getField("bytes").set(value, bytes);
+		}
+		if (r.nextBoolean()) {
+			String[] texts = new String[r.nextInt(4)];
+			for (int k = 0; k < texts.length; k++)
+				texts[k] = TEXTS[r.nextInt(TEXTS.length)];
+			type.getField("texts").set(value, texts);
+		}
+		if (r.nextBoolean()) {
+			ArrayList<String> list = new ArrayList<>();
+			for (int k = r.nextInt(4); k > 0; k--)
+				list.add(TEXTS[r.nextInt(TEXTS.length)]);
+			type.getField("list").set(value, list);
+		}
+		if (r.nextBoolean()) {
+			HashMap<String, Integer> map = new HashMap<>();
+			for (int k = r.nextInt(4); k > 0; k--)
+				map.put(TEXTS[r.nextInt(TEXTS.length)], r.nextInt());
+			type.getField("map").set(value, map);
+		}
+		if (depth < 2 && r.nextBoolean())
+			type.getField("child").set(value, random(r, type, depth + 1));
+		return value;
+	}
+
+	/**
+	 * The text a codec writes for data, or the class of the exception it
+	 * throws while reading it.
+	 */
+	private static Object outcome(AbstractSerializer<Object> codec, String data) {
+		try {
+			return codec.serialize(codec.deserialize(data));
+		} catch (Exception e) {
+			return e.getClass();
+		}
+	}
+
+	@Test
+	public void behavesLikeSerializer() throws Exception {
+		try (URLClassLoader loader = compile("p.E", E)) {
+			Class<?> type = loader.loadClass("p.E");
+			AbstractSerializer<Object> generated = codec(new Registry(LWProtoJson.registry()), type);
+			assertTrue(generated instanceof GeneratedSerializer);
+			Serializer<Object> reflective = new Serializer<>(type, new Registry(LWProtoJson.registry()));
+			Random r = new Random(1);
+			String damage = "{}[]\",:\\ 0-.x";
+			for (int n = 0; n < 500; n++) {
+				Object value = random(r, type, 0);
+				String expected = reflective.serialize(value);
+				assertEquals(expected, generated.serialize(value));
+				// Reading does not set VERSION, so only the current version reads
+				// back as it was written.
+				String read = reflective.serialize(reflective.deserialize(expected));
+				if (!expected.contains("\"version\":0"))
+					assertEquals(expected, read);
+				assertEquals(read, generated.serialize(generated.deserialize(expected)));
+				assertEquals(read, generated.serialize(reflective.deserialize(expected)));
+				assertEquals(read, reflective.serialize(generated.deserialize(expected)));
+
+				StringBuilder sb = new StringBuilder(expected);
+				int at = r.nextInt(sb.length());
+				switch (r.nextInt(3)) {
+				case 0:
+					sb.deleteCharAt(at);
+					break;
+				case 1:
+					sb.insert(at, damage.charAt(r.nextInt(damage.length())));
+					break;
+				default:
+					sb.setCharAt(at, damage.charAt(r.nextInt(damage.length())));
+				}
+				String damaged = sb.toString();
+				assertEquals(damaged, outcome(reflective, damaged), outcome(generated, damaged));
+			}
+		}
+	}
+
+	@Test
+	public void warnsWhenAClassIsSkipped() throws Exception {
+		String d = "package p;\n"
+				+ "import com.gynt.lwprotojson.LWProtoJson.Lwprotojson;\n"
+				+ "public class D {\n"
+				+ "	@Lwprotojson public int age;\n"
+				+ "	@Lwprotojson final String name = \"d\";\n"
+				+ "}\n";
+		try (URLClassLoader loader = compile("p.D", d)) {
+			boolean warned = false;
+			for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics) {
+				if (diagnostic.getKind() == Diagnostic.Kind.WARNING
+						&& diagnostic.getMessage(null).contains("name is final"))
+					warned = true;
+			}
+			assertTrue(diagnostics.toString(), warned);
+			Class<?> type = loader.loadClass("p.D");
+			assertNull(new Registry(LWProtoJson.registry()).retrieve(type));
+			Serializer<Object> reflective = new Serializer<>(type);
+			assertEquals("{\"version\":0,\"age\":0,\"name\":\"d\"}",
+					reflective.serialize(type.getDeclaredConstructor().newInstance()));
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package org.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileTokenerTest {
+
+	private static final String[] PIECES = { "a", " ", "\\n", "\\\"", "\\u20ac", "é", "€", "😀",
+			"中文" };
+
+	private Path file;
+
+	@Before
+	public void createFile() throws IOException {
+		file = Files.createTempFile("file", ".json");
+	}
+
+	@After
+	public void deleteFile() throws IOException {
+		Files.deleteIfExists(file);
+	}
+
+	private static String document(Random r, int elements) {
+		JSONArray a = new JSONArray();
+		for (int i = 0; i < elements; i++) {
+			StringBuilder sb = new StringBuilder();
+			for (int n = r.nextInt(40); n > 0; n--)
+				sb.append(PIECES[r.nextInt(PIECES.length)]);
+			a.put(new JSONObject().put("s", sb.toString()).put("n", r.nextInt()).put("d", r.nextDouble())
+					.put("a", new JSONArray().put(true).put(JSONObject.NULL)));
+		}
+		return a.toString(r.nextInt(3));
+	}
+
+	private FileTokener open(int blockSize) throws IOException {
+		return new FileTokener(FileChannel.open(file, StandardOpenOption.READ), blockSize);
+	}
+
+	@Test
+	public void readsLikeJSONTokener() throws IOException {
+		Random r = new Random(11);
+		for (int i = 0; i < 10; i++) {
+			String json = document(r, 10);
+			Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+			String expected = new JSONArray(new JSONTokener(json)).toString();
+			for (int block : new int[] { 3, 7, 1000, 1 << 28 }) {
+				try (FileTokener x = open(block)) {
+					assertEquals(expected, new JSONArray(x).toString());
+					assertEquals(0, x.nextClean());
+				}
+			}
+			try (FileTokener x = new FileTokener(file)) {
+				assertEquals(expected, new JSONArray(x).toString());
+			}
+		}
+	}
+
+	@Test
+	public void readsTopLevelElementsOneAtATime() throws IOException {
+		String json = document(new Random(12), 200);
+		Files.write(file, json.getBytes(StandardCharsets.UTF_8));
+		JSONArray expected = new JSONArray(json);
+		try (FileTokener x = open(4096)) {
+			assertEquals('[', x.nextClean());
+			int i = 0;
+			do {
+				Object element = x.nextValue();
+				assertEquals(expected.get(i++).toString(), element.toString());
+			} while (x.nextClean() == ',');
+			assertEquals(200, i);
+		}
+	}
+
+	@Test
+	public void emptyAndTruncatedFiles() throws IOException {
+		try (FileTokener x = open(4)) {
+			assertEquals(0, x.nextClean());
+		}
+		Files.write(file, "[\"ééé".getBytes(StandardCharsets.UTF_8));
+		try (FileTokener x = open(3)) {
+			new JSONArray(x);
+			fail();
+		} catch (JSONException expected) {
+		}
+	}
+
+	@Test
+	public void closesTheFile() throws IOException {
+		Files.write(file, "[]".getBytes(StandardCharsets.UTF_8));
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		new FileTokener(channel).close();
+		assertFalse(channel.isOpen());
+	}
+}
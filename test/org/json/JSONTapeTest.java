@@ -0,0 +1,477 @@
+package org.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class JSONTapeTest {
+
+	private static final String[] TOKENS = { "0", "-1", "42", "2147483647", "-2147483649", "12345678901",
+			"9223372036854775807", "99999999999999999999", "1.5", "-0.0", "1e5", "1E-3", "2.5e+3", "1e400", "007",
+			"0x1F", "-", "1.", ".5", "true", "false", "null", "TRUE", "Null", "abc", "a b", "-Infinity", "NaN",
+			"\u00e9t\u00e9" };
+
+	private static final String[] STRINGS = { "", "a", "hello world", "\\\"", "\\\\", "\\/", "\\b\\f\\n\\r\\t",
+			"\\u0041\\u00e9", "\\uD83D\\uDE00", "it's", "\u00e9\u4e2d", "12", "true", "null" };
+
+	private static void space(Random r, StringBuilder sb) {
+		switch (r.nextInt(6)) {
+		case 0:
+			sb.append(' ');
+			break;
+		case 1:
+			sb.append("\n\t");
+			break;
+		case 2:
+			sb.append("\r\n ");
+			break;
+		default:
+		}
+	}
+
+	private static void string(Random r, StringBuilder sb, String s) {
+		char quote = r.nextInt(6) == 0 ? '\'' : '"';
+		sb.append(quote).append(quote == '\'' ? s.replace("'", "\\'") : s).append(quote);
+	}
+
+	/**
+	 * Write a random value. Objects mostly have distinct keys, and lenient
+	 * documents sometimes use the syntax only JSONTokener accepts.
+	 */
+	private static void value(Random r, StringBuilder sb, int depth, boolean lenient) {
+		int kind = r.nextInt(depth < 5 ? 10 : 6);
+		if (kind < 3) {
+			sb.append(TOKENS[r.nextInt(TOKENS.length)]);
+		} else if (kind < 6) {
+			string(r, sb, STRINGS[r.nextInt(STRINGS.length)]);
+		} else if (kind < 8) {
+			sb.append('{');
+			space(r, sb);
+			Set<String> used = new HashSet<>();
+			int members = r.nextInt(8);
+			for (int i = 0; i < members; i++) {
+				if (i > 0) {
+					sb.append(lenient && r.nextInt(10) == 0 ? ';' : ',');
+					space(r, sb);
+				}
+				String key = "k" + r.nextInt(30);
+				if (!used.add(key) && r.nextInt(20) != 0) {
+					continue;
+				}
+				switch (r.nextInt(8)) {
+				case 0:
+					sb.append(key);
+					break;
+				case 1:
+					sb.append("\"\\u006b").append(key.substring(1)).append('"');
+					break;
+				default:
+					string(r, sb, key);
+				}
+				space(r, sb);
+				sb.append(lenient && r.nextInt(10) == 0 ? "=>" : ":");
+				space(r, sb);
+				value(r, sb, depth + 1, lenient);
+				space(r, sb);
+			}
+			if (lenient && members > 0 && r.nextInt(5) == 0) {
+				sb.append(',');
+			}
+			sb.append('}');
+		} else {
+			sb.append('[');
+			space(r, sb);
+			int elements = r.nextInt(8);
+			for (int i = 0; i < elements; i++) {
+				if (i > 0) {
+					sb.append(',');
+					space(r, sb);
+				}
+				if (!lenient || r.nextInt(10) != 0) {
+					value(r, sb, depth + 1, lenient);
+				}
+				space(r, sb);
+			}
+			if (lenient && elements > 0 && r.nextInt(5) == 0) {
+				sb.append(',');
+			}
+			sb.append(']');
+		}
+	}
+
+	private static String document(Random r, boolean lenient) {
+		StringBuilder sb = new StringBuilder();
+		space(r, sb);
+		if (r.nextBoolean()) {
+			sb.append('{');
+			sb.append("\"id\":").append(r.nextInt(100)).append(',');
+			space(r, sb);
+			sb.append("\"body\":");
+			value(r, sb, 0, lenient);
+			sb.append('}');
+		} else {
+			sb.append('[');
+			value(r, sb, 0, lenient);
+			sb.append(']');
+		}
+		space(r, sb);
+		return sb.toString();
+	}
+
+	/**
+	 * Assert that a lazily parsed value holds the same keys and values, of
+	 * the same classes, as an eagerly parsed one.
+	 */
+	private static void assertSameValue(String where, Object expected, Object actual) {
+		if (expected instanceof JSONObject) {
+			assertTrue(where, actual instanceof JSONObject);
+			JSONObject e = (JSONObject) expected;
+			JSONObject a = (JSONObject) actual;
+			assertEquals(where, e.length(), a.length());
+			assertEquals(where, e.keySet(), a.keySet());
+			for (String key : e.keySet()) {
+				assertTrue(where, a.has(key));
+				assertSameValue(where + "." + key, e.get(key), a.get(key));
+			}
+		} else if (expected instanceof JSONArray) {
+			assertTrue(where, actual instanceof JSONArray);
+			JSONArray e = (JSONArray) expected;
+			JSONArray a = (JSONArray) actual;
+			assertEquals(where, e.length(), a.length());
+			for (int i = 0; i < e.length(); i++) {
+				assertSameValue(where + "[" + i + "]", e.get(i), a.get(i));
+			}
+		} else {
+			assertEquals(where, expected, actual);
+			assertEquals(where, expected.getClass(), actual.getClass());
+		}
+	}
+
+	/**
+	 * Parse eagerly, the way JSONTape.parse chooses between an object and
+	 * an array.
+	 */
+	private static Object eager(String text) {
+		JSONTokener x = new JSONTokener(text);
+		return x.nextClean() == '[' ? new JSONArray(text) : new JSONObject(text);
+	}
+
+	/**
+	 * Read every key and value of a lazy value, in random order, so that a
+	 * duplicated key is found.
+	 */
+	private static void readAll(Random r, Object value) {
+		if (value instanceof JSONObject) {
+			JSONObject o = (JSONObject) value;
+			List<String> keys = new ArrayList<>();
+			for (int i = 0; i < 40; i++) {
+				keys.add("k" + i);
+			}
+			keys.add("id");
+			keys.add("body");
+			for (int i = 0; i < 5; i++) {
+				readAll(r, o.opt(keys.get(r.nextInt(keys.size()))));
+			}
+			for (String key : o.keySet()) {
+				readAll(r, o.get(key));
+			}
+		} else if (value instanceof JSONArray) {
+			JSONArray a = (JSONArray) value;
+			for (int i = a.length() - 1; i >= 0; i--) {
+				readAll(r, a.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Parse text both ways and check that they agree: on the values, or on
+	 * the exception thrown.
+	 */
+	private static void assertParsesLikeJSONTokener(Random r, String text) {
+		Object expected;
+		try {
+			expected = eager(text);
+		} catch (JSONException e) {
+			expected = e;
+		}
+		Object actual;
+		try {
+			actual = JSONTape.parse(text);
+			readAll(r, actual);
+		} catch (JSONException e) {
+			actual = e;
+		}
+		if (expected instanceof JSONException || actual instanceof JSONException) {
+			assertTrue(text + " gave " + actual, actual instanceof JSONException);
+			assertTrue(text + " expected " + expected, expected instanceof JSONException);
+			String e = ((JSONException) expected).getMessage();
+			String a = ((JSONException) actual).getMessage();
+			if (!e.startsWith("Duplicate key") || !a.startsWith("Duplicate key")) {
+				assertEquals(text, e, a);
+			}
+			return;
+		}
+		assertSameValue(text, expected, actual);
+		assertSameValue(text, eager(expected.toString()), eager(actual.toString()));
+
+		Object materialized = JSONTape.parse(text);
+		if (materialized instanceof JSONObject) {
+			assertSame(materialized, ((JSONObject) materialized).materialize());
+		} else {
+			assertSame(materialized, ((JSONArray) materialized).materialize());
+		}
+		assertSameValue(text, expected, materialized);
+	}
+
+	@Test
+	public void parsesLikeJSONTokener() {
+		Random r = new Random(1);
+		for (int i = 0; i < 3000; i++) {
+			assertParsesLikeJSONTokener(r, document(r, false));
+		}
+	}
+
+	@Test
+	public void parsesLenientTextLikeJSONTokener() {
+		Random r = new Random(2);
+		for (int i = 0; i < 3000; i++) {
+			assertParsesLikeJSONTokener(r, document(r, true));
+		}
+	}
+
+	/**
+	 * Damage documents by deleting, doubling or replacing a character.
+	 */
+	@Test
+	public void rejectsMalformedTextLikeJSONTokener() {
+		Random r = new Random(3);
+		String damage = "{}[]\"',:\\ \n\0u/#;=x1-.e";
+		for (int i = 0; i < 10000; i++) {
+			StringBuilder sb = new StringBuilder(document(r, r.nextBoolean()));
+			for (int n = 1 + r.nextInt(2); n > 0; n--) {
+				int at = r.nextInt(sb.length());
+				switch (r.nextInt(3)) {
+				case 0:
+					sb.deleteCharAt(at);
+					break;
+				case 1:
+					sb.insert(at, sb.charAt(at));
+					break;
+				default:
+					sb.setCharAt(at, damage.charAt(r.nextInt(damage.length())));
+				}
+				if (sb.length() == 0) {
+					break;
+				}
+			}
+			assertParsesLikeJSONTokener(r, sb.toString());
+		}
+	}
+
+	@Test
+	public void parsesEdgeCasesLikeJSONTokener() {
+		String[] texts = { "", " ", "{", "[", "}", "]", "{}", "[]", " {} ", "[] trailing", "{}}", "{\"a\":1}x",
+				"{\"a\"}", "{\"a\":}", "{:1}", "{\"a\" 1}", "{\"a\":1,}", "{\"a\":1;\"b\":2}", "{\"a\"=1}",
+				"{\"a\"=>1}", "{a:1}", "{'a':'b'}", "{\"a\":1 \"b\":2}", "[1,]", "[,]", "[,1]", "[1,,2]", "[1 2]",
+				"[1;2]", "[\"a\"", "[\"a]", "[\"a\nb\"]", "[\"a\rb\"]", "[\"a\0b\"]", "[\"\\x\"]", "[\"\\u12\"]",
+				"[\"\\u12g4\"]", "[\"\\u+123\"]", "[\"\\u-123\"]", "[\"\\u\u0661\u0662\u0663\u0664\"]", "[\"\\",
+				"[1/2]", "[1#2]", "[/*c*/1]", "\0[]", "[\0]", "[1\0]", "[{\"a\":[{}]}]", "{\"a\":{\"a\":{\"a\":{}}}}",
+				"[\"\"]", "{\"\":\"\"}", "[\"\t\"]", "[\u00a0]", "[ 1 , 2 ]", "[1 ]", "[a b ]", "{1:2}", "{1.0:2}",
+				"{true:1}", "{null:1}", "{\"a\":1,\"a\":2}", "{\"a\":1,\"\\u0061\":2}", "{a:1,\"a\":2}",
+				"{\"a\":1,\"b\":{\"a\":1,\"a\":2}}", "[{\"a\":1,\"a\":2}]", "{\"Aa\":1,\"BB\":2}" };
+		Random r = new Random(4);
+		for (String text : texts) {
+			assertParsesLikeJSONTokener(r, text);
+		}
+	}
+
+	@Test
+	public void reportsDuplicateKeysWhenRead() {
+		for (String text : new String[] { "{\"a\":1,\"a\":2}", "{\"a\":1,\"\\u0061\":2}", "{a:1,'a':2}",
+				"{\"b\":0,\"a\":[],\"a\":{}}" }) {
+			JSONObject o = JSONTape.parseObject(text);
+			try {
+				o.get("a");
+				fail(text);
+			} catch (JSONException e) {
+				assertEquals("Duplicate key \"a\"", e.getMessage());
+			}
+		}
+		JSONObject o = JSONTape.parseObject("{\"a\":{\"b\":1,\"b\":2},\"c\":3}");
+		assertEquals(3, o.getInt("c"));
+		try {
+			o.getJSONObject("a").get("b");
+			fail();
+		} catch (JSONException e) {
+			assertEquals("Duplicate key \"b\"", e.getMessage());
+		}
+	}
+
+	@Test
+	public void findsKeysWithTheSameHash() {
+		assertEquals("Aa".hashCode(), "BB".hashCode());
+		JSONObject o = JSONTape.parseObject("{\"Aa\":1,\"BB\":2,\"AaAa\":3,\"BBBB\":4,\"AaBB\":5,\"B\\u0042Aa\":6}");
+		assertEquals(1, o.get("Aa"));
+		assertEquals(2, o.get("BB"));
+		assertEquals(3, o.get("AaAa"));
+		assertEquals(4, o.get("BBBB"));
+		assertEquals(5, o.get("AaBB"));
+		assertEquals(6, o.get("BBAa"));
+		assertNull(o.opt("AaBBx"));
+		assertFalse(o.has("Ab"));
+		assertFalse(o.has("BBA"));
+		try {
+			JSONTape.parseObject("{\"Aa\":1,\"BB\":2,\"\\u0041a\":3}").get("BB");
+			fail();
+		} catch (JSONException e) {
+			assertEquals("Duplicate key \"Aa\"", e.getMessage());
+		}
+	}
+
+	/**
+	 * A document nested far deeper than JSONTokener can recurse is scanned
+	 * without recursion, and can be read one level at a time.
+	 */
+	@Test
+	public void scansDeepNestingWithoutRecursion() {
+		int depth = 200000;
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < depth; i++) {
+			sb.append("[{\"a\":");
+		}
+		sb.append("7");
+		for (int i = 0; i < depth; i++) {
+			sb.append("}]");
+		}
+		JSONArray array = JSONTape.parseArray(sb.toString());
+		for (int i = 0; i < depth - 1; i++) {
+			array = array.getJSONObject(0).getJSONArray("a");
+		}
+		assertEquals(7, array.getJSONObject(0).getInt("a"));
+	}
+
+	/**
+	 * Applies the same random changes to a lazily and an eagerly parsed
+	 * document, at random places in it.
+	 */
+	@Test
+	public void changesLikeEagerObjects() {
+		Random r = new Random(5);
+		for (int i = 0; i < 1000; i++) {
+			String text = document(r, false);
+			Object expected;
+			try {
+				expected = eager(text);
+			} catch (JSONException e) {
+				continue;
+			}
+			Object actual = JSONTape.parse(text);
+			for (int op = 0; op < 30; op++) {
+				List<Object> path = new ArrayList<>();
+				Object e = expected;
+				Object a = actual;
+				while (r.nextInt(3) != 0) {
+					Object next = null;
+					if (e instanceof JSONObject && ((JSONObject) e).length() > 0) {
+						List<String> keys = new ArrayList<>(((JSONObject) e).keySet());
+						next = keys.get(r.nextInt(keys.size()));
+						e = ((JSONObject) e).get((String) next);
+						a = ((JSONObject) a).get((String) next);
+					} else if (e instanceof JSONArray && ((JSONArray) e).length() > 0) {
+						next = r.nextInt(((JSONArray) e).length());
+						e = ((JSONArray) e).get((Integer) next);
+						a = ((JSONArray) a).get((Integer) next);
+					}
+					if (next == null) {
+						break;
+					}
+					path.add(next);
+				}
+				change(r, e, a);
+				assertSameValue(text + " " + path, expected, actual);
+			}
+			assertSameValue(text, eager(expected.toString()), eager(actual.toString()));
+		}
+	}
+
+	private static void change(Random r, Object expected, Object actual) {
+		if (expected instanceof JSONObject) {
+			JSONObject e = (JSONObject) expected;
+			JSONObject a = (JSONObject) actual;
+			String key = "k" + r.nextInt(30);
+			switch (r.nextInt(5)) {
+			case 0: {
+				int value = r.nextInt(10);
+				e.put(key, value);
+				a.put(key, value);
+				break;
+			}
+			case 1:
+				assertEquals(e.remove(key) != null, a.remove(key) != null);
+				break;
+			case 2: {
+				Iterator<String> ei = e.keySet().iterator();
+				Set<String> removed = new HashSet<>();
+				while (ei.hasNext()) {
+					String k = ei.next();
+					if (r.nextInt(3) == 0) {
+						removed.add(k);
+						ei.remove();
+					}
+				}
+				Set<String> seen = new HashSet<>();
+				Iterator<String> ai = a.keySet().iterator();
+				while (ai.hasNext()) {
+					String k = ai.next();
+					assertTrue(k, seen.add(k));
+					if (removed.contains(k)) {
+						ai.remove();
+					}
+				}
+				break;
+			}
+			case 3:
+				e.put(key, "v");
+				a.put(key, "v");
+				break;
+			default:
+				e.putOpt(key, null);
+				a.putOpt(key, null);
+			}
+		} else if (expected instanceof JSONArray) {
+			JSONArray e = (JSONArray) expected;
+			JSONArray a = (JSONArray) actual;
+			int index = e.length() == 0 ? 0 : r.nextInt(e.length());
+			switch (r.nextInt(4)) {
+			case 0:
+				e.put("x");
+				a.put("x");
+				break;
+			case 1:
+				e.put(index, 1.5);
+				a.put(index, 1.5);
+				break;
+			case 2:
+				if (e.length() > 0) {
+					assertSameValue("remove", e.remove(index), a.remove(index));
+				}
+				break;
+			default:
+				e.put(index + 3, true);
+				a.put(index + 3, true);
+			}
+		}
+	}
+}
@@ -0,0 +1,479 @@
+package org.json;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class JSONTokenerTest {
+
+	/**
+	 * The character-at-a-time JSONTokener that the buffered one replaced,
+	 * without nextValue for objects and arrays. Positions and error messages
+	 * of the buffered tokener are checked against it. Unlike the original,
+	 * back() restores the position from before the last char, so a line
+	 * break that is read again is not counted twice, and skipTo keeps a
+	 * char that was stepped back over when it does not find its target.
+	 */
+	static final class Reference {
+
+		private long character = 1;
+		private boolean eof;
+		private long index;
+		private long line = 1;
+		private char previous;
+		private boolean afterReturn;
+		private long lastCharacter;
+		private long lastLine;
+		private boolean lastAfterReturn;
+		private final Reader reader;
+		private boolean usePrevious;
+
+		Reference(String s) {
+			this.reader = new BufferedReader(new StringReader(s));
+		}
+
+		void back() {
+			if (this.usePrevious || this.index <= 0) {
+				throw new JSONException("Stepping back two steps is not supported");
+			}
+			this.index -= 1;
+			this.character = this.lastCharacter;
+			this.line = this.lastLine;
+			this.afterReturn = this.lastAfterReturn;
+			this.usePrevious = true;
+			this.eof = false;
+		}
+
+		boolean end() {
+			return this.eof && !this.usePrevious;
+		}
+
+		boolean more() {
+			this.next();
+			if (this.end()) {
+				return false;
+			}
+			this.back();
+			return true;
+		}
+
+		char next() {
+			int c;
+			if (this.usePrevious) {
+				this.usePrevious = false;
+				c = this.previous;
+			} else {
+				try {
+					c = this.reader.read();
+				} catch (IOException exception) {
+					throw new JSONException(exception);
+				}
+				if (c <= 0) {
+					this.eof = true;
+					c = 0;
+				}
+			}
+			this.index += 1;
+			this.lastCharacter = this.character;
+			this.lastLine = this.line;
+			this.lastAfterReturn = this.afterReturn;
+			this.afterReturn = c == '\r';
+			if (this.lastAfterReturn) {
+				this.line += 1;
+				this.character = c == '\n' ? 0 : 1;
+			} else if (c == '\n') {
+				this.line += 1;
+				this.character = 0;
+			} else {
+				this.character += 1;
+			}
+			this.previous = (char) c;
+			return this.previous;
+		}
+
+		char next(char c) {
+			char n = this.next();
+			if (n != c) {
+				throw this.syntaxError("Expected '" + c + "' and instead saw '" + n + "'");
+			}
+			return n;
+		}
+
+		String next(int n) {
+			if (n == 0) {
+				return "";
+			}
+			char[] chars = new char[n];
+			int pos = 0;
+			while (pos < n) {
+				chars[pos] = this.next();
+				if (this.end()) {
+					throw this.syntaxError("Substring bounds error");
+				}
+				pos += 1;
+			}
+			return new String(chars);
+		}
+
+		char nextClean() {
+			for (;;) {
+				char c = this.next();
+				if (c == 0 || c > ' ') {
+					return c;
+				}
+			}
+		}
+
+		String nextString(char quote) {
+			char c;
+			StringBuilder sb = new StringBuilder();
+			for (;;) {
+				c = this.next();
+				switch (c) {
+				case 0:
+				case '\n':
+				case '\r':
+					throw this.syntaxError("Unterminated string");
+				case '\\':
+					c = this.next();
+					switch (c) {
+					case 'b':
+						sb.append('\b');
+						break;
+					case 't':
+						sb.append('\t');
+						break;
+					case 'n':
+						sb.append('\n');
+						break;
+					case 'f':
+						sb.append('\f');
+						break;
+					case 'r':
+						sb.append('\r');
+						break;
+					case 'u':
+						try {
+							sb.append((char) Integer.parseInt(this.next(4), 16));
+						} catch (NumberFormatException e) {
+							throw this.syntaxError("Illegal escape.", e);
+						}
+						break;
+					case '"':
+					case '\'':
+					case '\\':
+					case '/':
+						sb.append(c);
+						break;
+					default:
+						throw this.syntaxError("Illegal escape.");
+					}
+					break;
+				default:
+					if (c == quote) {
+						return sb.toString();
+					}
+					sb.append(c);
+				}
+			}
+		}
+
+		String nextTo(String delimiters) {
+			char c;
+			StringBuilder sb = new StringBuilder();
+			for (;;) {
+				c = this.next();
+				if (delimiters.indexOf(c) >= 0 || c == 0 || c == '\n' || c == '\r') {
+					if (c != 0) {
+						this.back();
+					}
+					return sb.toString().trim();
+				}
+				sb.append(c);
+			}
+		}
+
+		Object nextValue() {
+			char c = this.nextClean();
+			if (c == '"' || c == '\'') {
+				return this.nextString(c);
+			}
+			if (c == '{' || c == '[') {
+				throw new UnsupportedOperationException();
+			}
+			StringBuilder sb = new StringBuilder();
+			while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
+				sb.append(c);
+				c = this.next();
+			}
+			this.back();
+			String string = sb.toString().trim();
+			if ("".equals(string)) {
+				throw this.syntaxError("Missing value");
+			}
+			return JSONObject.stringToValue(string);
+		}
+
+		char skipTo(char to) {
+			char c;
+			try {
+				long startIndex = this.index;
+				long startCharacter = this.character;
+				long startLine = this.line;
+				boolean startAfterReturn = this.afterReturn;
+				boolean startUsePrevious = this.usePrevious;
+				char startPrevious = this.previous;
+				long startLastCharacter = this.lastCharacter;
+				long startLastLine = this.lastLine;
+				boolean startLastAfterReturn = this.lastAfterReturn;
+				this.reader.mark(1000000);
+				do {
+					c = this.next();
+					if (c == 0) {
+						this.reader.reset();
+						this.index = startIndex;
+						this.character = startCharacter;
+						this.line = startLine;
+						this.afterReturn = startAfterReturn;
+						this.usePrevious = startUsePrevious;
+						this.previous = startPrevious;
+						this.lastCharacter = startLastCharacter;
+						this.lastLine = startLastLine;
+						this.lastAfterReturn = startLastAfterReturn;
+						this.eof = false;
+						return c;
+					}
+				} while (c != to);
+			} catch (IOException exception) {
+				throw new JSONException(exception);
+			}
+			this.back();
+			return c;
+		}
+
+		JSONException syntaxError(String message) {
+			return new JSONException(message + this.toString());
+		}
+
+		JSONException syntaxError(String message, Throwable causedBy) {
+			return new JSONException(message + this.toString(), causedBy);
+		}
+
+		@Override
+		public String toString() {
+			return " at " + this.index + " [character " + this.character + " line " + this.line + "]";
+		}
+	}
+
+	private static final String[] PIECES = { "a", "b", " ", "  \t", "\n", "\r", "\r\n", "\"", "'", "\\", "\\n",
+			"\\u00e9", "\\u12", "\\x", ",", ":", "{", "}", "[", "]", "/", ";", "=", "#", "12", "-3.5e2", "true",
+			"null", "\u00e9", "\ud83d\ude00" };
+
+	private static String text(Random r, int length) {
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < length) {
+			sb.append(PIECES[r.nextInt(PIECES.length)]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Reads a few chars at a time, so that tokens straddle refills.
+	 */
+	private static Reader trickle(String s) {
+		return new FilterReader(new StringReader(s)) {
+			@Override
+			public int read(char[] cbuf, int off, int len) throws IOException {
+				return super.read(cbuf, off, Math.min(len, 5));
+			}
+
+			@Override
+			public boolean markSupported() {
+				return false;
+			}
+		};
+	}
+
+	private static String op(Random r, JSONTokener x, Reference ref, char delimiter) {
+		int op = r.nextInt(14);
+		String expected;
+		String actual;
+		try {
+			expected = op(op, ref, delimiter);
+		} catch (UnsupportedOperationException e) {
+			throw e;
+		} catch (JSONException e) {
+			expected = "error: " + e.getMessage();
+		}
+		try {
+			actual = op(op, x, delimiter);
+		} catch (JSONException e) {
+			actual = "error: " + e.getMessage();
+		}
+		assertEquals("op " + op, expected, actual);
+		assertEquals("op " + op, ref.toString(), x.toString());
+		return actual;
+	}
+
+	private static String op(int op, Reference x, char d) {
+		switch (op) {
+		case 0:
+		case 1:
+			return String.valueOf(x.next());
+		case 2:
+			return x.next(3);
+		case 3:
+			return String.valueOf(x.next(d));
+		case 4:
+		case 5:
+			return String.valueOf(x.nextClean());
+		case 6:
+			return x.nextString(d == '\'' ? '\'' : '"');
+		case 7:
+			return x.nextTo(String.valueOf(d));
+		case 8:
+			return x.nextTo(d + ":\"");
+		case 9:
+			return String.valueOf(x.skipTo(d));
+		case 10:
+			x.back();
+			return "back";
+		case 11:
+			return x.more() + " " + x.end();
+		case 12:
+			return String.valueOf(x.nextValue());
+		default:
+			return x.toString();
+		}
+	}
+
+	private static String op(int op, JSONTokener x, char d) {
+		switch (op) {
+		case 0:
+		case 1:
+			return String.valueOf(x.next());
+		case 2:
+			return x.next(3);
+		case 3:
+			return String.valueOf(x.next(d));
+		case 4:
+		case 5:
+			return String.valueOf(x.nextClean());
+		case 6:
+			return x.nextString(d == '\'' ? '\'' : '"');
+		case 7:
+			return x.nextTo(d);
+		case 8:
+			return x.nextTo(d + ":\"");
+		case 9:
+			return String.valueOf(x.skipTo(d));
+		case 10:
+			x.back();
+			return "back";
+		case 11:
+			return x.more() + " " + x.end();
+		case 12:
+			return String.valueOf(x.nextValue());
+		default:
+			return x.toString();
+		}
+	}
+
+	@Test
+	public void behavesLikeTheCharacterTokener() {
+		Random r = new Random(21);
+		String delimiters = "\",:}]\n'a#";
+		for (int i = 0; i < 3000; i++) {
+			String s = text(r, i % 100 == 0 ? 20000 : r.nextInt(200));
+			JSONTokener[] tokeners = { new JSONTokener(s), new JSONTokener(trickle(s)) };
+			for (JSONTokener x : tokeners) {
+				Reference ref = new Reference(s);
+				Random ops = new Random(i);
+				for (int n = 0; n < 400 && !ref.end(); n++) {
+					char d = delimiters.charAt(ops.nextInt(delimiters.length()));
+					try {
+						op(ops, x, ref, d);
+					} catch (UnsupportedOperationException e) {
+						break;
+					}
+				}
+			}
+		}
+	}
+
+	private static String parse(String text, boolean trickle) {
+		try {
+			return String.valueOf(new JSONTokener(trickle ? trickle(text) : new StringReader(text)).nextValue());
+		} catch (JSONException e) {
+			return "! " + e.getMessage();
+		}
+	}
+
+	/**
+	 * The expected results are those of the character tokener, except that
+	 * it counted some line breaks twice.
+	 */
+	@Test
+	public void parsesDocumentsLikeBefore() {
+		String[][] cases = { { "{\"a\":1,\r\n\"b\":}", "! Missing value at 13 [character 4 line 2]" },
+				{ "[1,\n2,\r3\n", "! Expected a ',' or ']' at 10 [character 1 line 4]" },
+				{ "{\"a\"\n\n:\"unterminated\n\"}", "! Unterminated string at 21 [character 0 line 4]" },
+				{ "\r\n\r\n  {\"a\" 1}", "! Expected a ':' after a key at 12 [character 8 line 3]" },
+				{ "[\"\\q\"]", "! Illegal escape. at 4 [character 5 line 1]" },
+				{ "{\"k\":\"\\u12x4\"}", "! Illegal escape. at 12 [character 13 line 1]" },
+				{ "{\"a\":1,\"a\":2}", "! Duplicate key \"a\"" }, { "[1,,2,]", "[1,null,2]" },
+				{ "{a:b;c=d}", "! Expected a ':' after a key at 7 [character 8 line 1]" }, { "[1 2]", "[\"1 2\"]" },
+				{ "{\"x\":[{\"y\":\r\n\r\n}]}", "! Missing value at 15 [character 0 line 3]" },
+				{ "", "! Missing value at 0 [character 1 line 1]" } };
+		for (String[] c : cases) {
+			assertEquals(c[0], c[1], parse(c[0], false));
+			assertEquals(c[0], c[1], parse(c[0], true));
+		}
+	}
+
+	private static String run(java.util.concurrent.Callable<Object> f) {
+		try {
+			return String.valueOf(f.call());
+		} catch (Exception e) {
+			return "! " + e.getMessage();
+		}
+	}
+
+	@Test
+	public void subclassesParseLikeBefore() {
+		assertEquals("[{\"a\":\"1\",\"b\":\"2\",\"c\":\"3\"},{\"a\":\"x, y\",\"b\":\"q\",\"c\":\"\"}]",
+				run(() -> CDL.toJSONArray("a,b,c\n1,2,3\n\"x, y\",'q',\n")));
+		assertEquals("null", run(() -> CDL.toJSONArray("name, age\r\n\"Bob \"\"B\"\"\",7\r\n\r\n,\n")));
+		assertEquals("! Missing close quote '\"'. at 16 [character 0 line 3]",
+				run(() -> CDL.toJSONArray("a\n\"unterminated\n")));
+		assertEquals("[{\"h1\":\"1\"},{\"h1\":\"1\",\"h2\":\"2\"}]", run(() -> CDL.toJSONArray("h1,h2\n1\n1,2,3\n")));
+
+		String xml = "<a><b>1</b><b>two</b><c x=\"y\">t</c><!-- c --><![CDATA[<raw>]]></a>";
+		assertEquals("{\"a\":{\"b\":[1,\"two\"],\"c\":{\"x\":\"y\",\"content\":\"t\"},\"content\":\"<raw>\"}}",
+				run(() -> XML.toJSONObject(xml)));
+		assertEquals("[\"a\",[\"b\",1],[\"b\",\"two\"],[\"c\",{\"x\":\"y\"},\"t\"],\"<raw>\"]",
+				run(() -> JSONML.toJSONArray(xml)));
+		String entities = "<?xml version=\"1.0\"?><r a='1' b=\"&amp;&lt;&#65;&#x42;\"><e/>text&gt;</r>";
+		assertEquals("{\"r\":{\"a\":1,\"b\":\"&<&#65;&#x42;\",\"e\":\"\",\"content\":\"text>\"}}",
+				run(() -> XML.toJSONObject(entities)));
+		assertEquals("[\"r\",{\"a\":1,\"b\":\"&<&#65;&#x42;\"},[\"e\"],\"text>\"]",
+				run(() -> JSONML.toJSONArray(entities)));
+		assertEquals("! Mismatched b and a at 9 [character 10 line 1]", run(() -> XML.toJSONObject("<a><b></a>")));
+		assertEquals("! Mismatched 'b' and 'a' at 10 [character 11 line 1]",
+				run(() -> JSONML.toJSONArray("<a><b></a>")));
+		assertEquals("! Unclosed tag a at 8 [character 9 line 1]", run(() -> XML.toJSONObject("<a x=1>")));
+		assertEquals("{\"r\":\"&e;\"}", run(() -> XML.toJSONObject("<!DOCTYPE r [<!ENTITY e \"v\">]><r>&e;</r>")));
+
+		assertEquals("! Expected ':' and instead saw '\n' at 17 [character 0 line 2]",
+				run(() -> HTTP.toJSONObject("GET /x HTTP/1.1\r\nHost: a.b\r\nX-Y: 1 2\r\n\r\n")));
+		assertEquals("! Expected '=' and instead saw '\u0000' at 18 [character 19 line 1]",
+				run(() -> CookieList.toJSONObject("a=1; b=%41%2b; c")));
+	}
+}
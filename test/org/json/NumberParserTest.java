@@ -0,0 +1,181 @@
+package org.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class NumberParserTest {
+
+	/**
+	 * JSONObject.stringToValue as it was before NumberParser.
+	 */
+	@SuppressWarnings("deprecation")
+	private static Object legacy(String string) {
+		if (string.equals("")) {
+			return string;
+		}
+		if (string.equalsIgnoreCase("true")) {
+			return Boolean.TRUE;
+		}
+		if (string.equalsIgnoreCase("false")) {
+			return Boolean.FALSE;
+		}
+		if (string.equalsIgnoreCase("null")) {
+			return JSONObject.NULL;
+		}
+		char initial = string.charAt(0);
+		if ((initial >= '0' && initial <= '9') || initial == '-') {
+			try {
+				if (string.indexOf('.') > -1 || string.indexOf('e') > -1 || string.indexOf('E') > -1
+						|| "-0".equals(string)) {
+					Double d = Double.valueOf(string);
+					if (!d.isInfinite() && !d.isNaN()) {
+						return d;
+					}
+				} else {
+					Long myLong = new Long(string);
+					if (string.equals(myLong.toString())) {
+						if (myLong.longValue() == myLong.intValue()) {
+							return Integer.valueOf(myLong.intValue());
+						}
+						return myLong;
+					}
+				}
+			} catch (Exception ignore) {
+			}
+		}
+		return string;
+	}
+
+	/**
+	 * Compares stringToValue with the legacy conversion. The only accepted
+	 * difference is that numbers the legacy code left as text because they
+	 * overflowed are now BigInteger or BigDecimal of the same value.
+	 */
+	private static void assertLegacy(String token) {
+		Object expected = legacy(token);
+		Object actual = JSONObject.stringToValue(token);
+		if (actual instanceof BigInteger) {
+			assertEquals(token, token, expected);
+			assertEquals(token, new BigInteger(token), actual);
+			assertTrue(token, ((BigInteger) actual).bitLength() >= 64);
+		} else if (actual instanceof BigDecimal) {
+			assertEquals(token, token, expected);
+			assertEquals(token, 0, new BigDecimal(token).compareTo((BigDecimal) actual));
+			assertTrue(token, Double.isInfinite(Double.parseDouble(token)));
+		} else {
+			assertEquals(token, expected.getClass(), actual.getClass());
+			assertEquals(token, expected, actual);
+		}
+	}
+
+	private static final String[] EDGES = { "", "0", "-0", "00", "-00", "01", "-01", "0.0", "-0.0", "1.", "-1.", ".5",
+			"-.5", "1e", "1e+", "1e-", "1e5", "1E5", "1e+5", "1e-5", "1.5e308", "1e309", "-1e309", "1e-400",
+			"1e999999999999", "1e-999999999999", "4.9e-324", "2.2250738585072014E-308", "1.7976931348623157e308",
+			"2147483647", "2147483648", "-2147483648", "-2147483649", "9223372036854775807", "9223372036854775808",
+			"-9223372036854775808", "-9223372036854775809", "99999999999999999999", "000000000000000000001",
+			"123456789012345678", "1234567890123456789", "12345678901234567890", "0.1", "0.30000000000000004",
+			"9007199254740993", "9007199254740993.0", "123456789012345.6", "1234567890123456.7",
+			"0.000000000000000000000000001", "1.5f", "1.5d", "1.5F", "0x1.8p1", "-0x1p-2", "0x10", "1_000", "-",
+			"--1", "+1", "1-", "1.2.3", "1e2e3", "NaN", "-NaN", "Infinity", "-Infinity", "true", "TRUE", "tRuE",
+			"false", "False", "null", "NULL", "nul", "truee", "trye", " 1", "1 ", "1 2", "ı", "İ" };
+
+	@Test
+	public void matchesLegacyOnEdgeCases() {
+		for (String token : EDGES) {
+			assertLegacy(token);
+		}
+	}
+
+	@Test
+	public void matchesLegacyOnRandomTokens() {
+		Random r = new Random(20);
+		String alphabet = "0123456789000-+.eE .xfdpa";
+		for (int i = 0; i < 100000; i++) {
+			char[] token = new char[1 + r.nextInt(i % 2 == 0 ? 6 : 25)];
+			for (int j = 0; j < token.length; j++) {
+				token[j] = alphabet.charAt(r.nextInt(j == 0 ? 14 : alphabet.length()));
+			}
+			assertLegacy(new String(token));
+		}
+	}
+
+	@Test
+	public void parsesDoublesExactly() {
+		Random r = new Random(21);
+		for (int i = 0; i < 20000; i++) {
+			double d;
+			switch (i % 4) {
+			case 0:
+				d = Double.longBitsToDouble(r.nextLong());
+				break;
+			case 1:
+				d = r.nextInt(1000000) / 1000.0;
+				break;
+			case 2:
+				d = r.nextDouble() * Math.pow(10, r.nextInt(44) - 22);
+				break;
+			default:
+				d = r.nextGaussian();
+			}
+			if (Double.isNaN(d) || Double.isInfinite(d)) {
+				continue;
+			}
+			for (String token : new String[] { Double.toString(d), new BigDecimal(d).toPlainString(),
+					String.format("%.15e", d), String.format("%.3f", d) }) {
+				Object value = JSONObject.stringToValue(token);
+				assertEquals(token, Double.parseDouble(token), ((Number) value).doubleValue(), 0);
+				if (token.indexOf('.') >= 0 || token.indexOf('e') >= 0 || token.indexOf('E') >= 0)
+					assertEquals(token, Double.class, value.getClass());
+			}
+		}
+	}
+
+	@Test
+	public void parsesIntegersExactly() {
+		Random r = new Random(22);
+		for (int i = 0; i < 100000; i++) {
+			long l = i % 2 == 0 ? r.nextLong() : r.nextInt();
+			Object value = JSONObject.stringToValue(Long.toString(l));
+			assertEquals(l == (int) l ? Integer.class : Long.class, value.getClass());
+			assertEquals(l, ((Number) value).longValue());
+		}
+	}
+
+	/**
+	 * The tokeners read unquoted values the same way as stringToValue.
+	 */
+	@Test
+	public void tokenersAgreeWithStringToValue() {
+		Random r = new Random(23);
+		String alphabet = "0123456789-.eExfdpa";
+		for (int i = 0; i < 10000; i++) {
+			char[] token = new char[1 + r.nextInt(22)];
+			for (int j = 0; j < token.length; j++) {
+				token[j] = alphabet.charAt(r.nextInt(j == 0 ? 11 : alphabet.length()));
+			}
+			String t = new String(token);
+			String json = "[ " + t + " ,{\"k\":" + t + "}]";
+			Object expected = JSONObject.stringToValue(t);
+			JSONArray chars = new JSONArray(new JSONTokener(json));
+			JSONArray bytes = new JSONArray(new Utf8Tokener(json.getBytes(StandardCharsets.UTF_8)));
+			for (JSONArray a : new JSONArray[] { chars, bytes }) {
+				assertEquals(t, expected, a.get(0));
+				assertEquals(t, expected, a.getJSONObject(1).get("k"));
+			}
+		}
+		assertEquals(Boolean.TRUE, new JSONTokener(" True ").nextValue());
+		assertEquals(12, new JSONTokener("12]").nextValue());
+	}
+
+	@Test(expected = JSONException.class)
+	public void rejectsMissingValues() {
+		new JSONTokener("  ").nextValue();
+	}
+}
@@ -0,0 +1,408 @@
+package org.json;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class NumericListTest {
+
+	private static Object randomValue(Random r) {
+		switch (r.nextInt(12)) {
+		case 0:
+			return "s" + r.nextInt(10);
+		case 1:
+			return JSONObject.NULL;
+		case 2:
+		case 3:
+			return Long.valueOf(r.nextInt(100));
+		case 4:
+			return Long.valueOf(r.nextLong());
+		case 5:
+		case 6:
+			return Double.valueOf(r.nextInt(100) / 4.0);
+		default:
+			return Integer.valueOf(r.nextInt(200) - 100);
+		}
+	}
+
+	private static void assertSameList(List<Object> expected, List<Object> actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i), actual.get(i));
+			assertEquals(expected.get(i).getClass(), actual.get(i).getClass());
+		}
+		assertEquals(expected, actual);
+		assertEquals(actual, expected);
+		assertEquals(expected.hashCode(), actual.hashCode());
+		assertEquals(expected.toString(), actual.toString());
+	}
+
+	/**
+	 * Applies the same random operations to a NumericList and an ArrayList.
+	 * Mostly numbers of the kind kept are added, so the list stays numeric
+	 * for a while before something makes it fall back.
+	 */
+	private static void randomOperations(long seed, NumericList actual, List<Object> expected) {
+		Random r = new Random(seed);
+		for (int i = 0; i < 500; i++) {
+			Object value = r.nextInt(4) == 0 ? randomValue(r) : expected.isEmpty() ? Integer.valueOf(i) : expected.get(0);
+			switch (r.nextInt(9)) {
+			case 0:
+			case 1:
+			case 2:
+				assertEquals(expected.add(value), actual.add(value));
+				break;
+			case 3:
+				if (!expected.isEmpty()) {
+					int index = r.nextInt(expected.size());
+					assertEquals(expected.set(index, value), actual.set(index, value));
+				}
+				break;
+			case 4:
+				if (!expected.isEmpty()) {
+					int index = r.nextInt(expected.size());
+					assertEquals(expected.remove(index), actual.remove(index));
+				}
+				break;
+			case 5: {
+				int index = r.nextInt(expected.size() + 1);
+				expected.add(index, value);
+				actual.add(index, value);
+				break;
+			}
+			case 6: {
+				Iterator<Object> e = expected.iterator();
+				Iterator<Object> a = actual.iterator();
+				while (e.hasNext()) {
+					assertTrue(a.hasNext());
+					assertEquals(e.next(), a.next());
+					if (r.nextInt(8) == 0) {
+						e.remove();
+						a.remove();
+					}
+				}
+				assertFalse(a.hasNext());
+				break;
+			}
+			case 7:
+				if (r.nextInt(20) == 0) {
+					expected.clear();
+					actual.clear();
+				}
+				break;
+			default:
+				assertSameList(expected, actual);
+			}
+			if (actual.isNumeric()) {
+				for (int j = 0; j < expected.size(); j++) {
+					Number n = (Number) expected.get(j);
+					assertEquals(n.intValue(), actual.getInt(j));
+					assertEquals(n.longValue(), actual.getLong(j));
+					assertEquals(n.doubleValue(), actual.getDouble(j), 0);
+				}
+			}
+		}
+		assertSameList(expected, actual);
+	}
+
+	@Test
+	public void behavesLikeArrayList() {
+		for (long seed = 0; seed < 200; seed++) {
+			randomOperations(seed, NumericList.ofIntegers(), new ArrayList<Object>());
+		}
+	}
+
+	@Test
+	public void behavesLikeArrayListFromArrays() {
+		Random r = new Random(1);
+		for (long seed = 0; seed < 100; seed++) {
+			int[] ints = new int[r.nextInt(20)];
+			long[] longs = new long[ints.length];
+			double[] doubles = new double[ints.length];
+			List<Object> i = new ArrayList<>();
+			List<Object> l = new ArrayList<>();
+			List<Object> d = new ArrayList<>();
+			for (int k = 0; k < ints.length; k++) {
+				ints[k] = r.nextInt();
+				longs[k] = r.nextLong();
+				doubles[k] = r.nextDouble();
+				i.add(ints[k]);
+				l.add(longs[k]);
+				d.add(doubles[k]);
+			}
+			randomOperations(seed, NumericList.of(ints), i);
+			randomOperations(seed, NumericList.of(longs), l);
+			randomOperations(seed, NumericList.of(doubles), d);
+		}
+	}
+
+	@Test
+	public void keepsTheKindAdded() {
+		NumericList list = NumericList.ofIntegers();
+		list.add(1);
+		list.add(Long.MAX_VALUE);
+		list.add(2L);
+		assertFalse("a small Long would come back as an Integer", list.isNumeric());
+		assertEquals(Arrays.asList(1, Long.MAX_VALUE, 2L), list);
+		assertEquals(Long.class, list.get(2).getClass());
+
+		list = NumericList.ofIntegers();
+		list.add(1);
+		list.add(Long.MIN_VALUE);
+		list.add(3);
+		assertTrue(list.isNumeric());
+		assertEquals(Integer.class, list.get(0).getClass());
+		assertEquals(Long.class, list.get(1).getClass());
+		assertEquals(Integer.class, list.get(2).getClass());
+		assertArrayEquals(new long[] { 1, Long.MIN_VALUE, 3 }, list.toLongArray());
+
+		list = NumericList.ofIntegers();
+		list.add(1.5);
+		list.add(2.0);
+		assertTrue(list.isNumeric());
+		list.add(3);
+		assertFalse(list.isNumeric());
+		assertEquals(Arrays.asList(1.5, 2.0, 3), list);
+
+		list = NumericList.ofIntegers();
+		list.add(1);
+		list.add(2.5);
+		assertFalse(list.isNumeric());
+		assertEquals(Arrays.asList(1, 2.5), list);
+
+		list = NumericList.of(new long[] { 1, 2 });
+		assertEquals(Long.class, list.get(0).getClass());
+		list.add(3);
+		assertFalse(list.isNumeric());
+		assertEquals(Arrays.asList(1L, 2L, 3), list);
+
+		list = NumericList.ofIntegers();
+		list.add(1);
+		list.add(null);
+		assertFalse(list.isNumeric());
+		assertEquals(Arrays.asList(1, null), list);
+	}
+
+	@Test
+	public void copiesArrays() {
+		int[] ints = { 1, 2, 3 };
+		NumericList list = NumericList.of(ints);
+		ints[0] = 9;
+		assertEquals(Arrays.asList(1, 2, 3), list);
+		int[] copy = list.toIntArray();
+		copy[1] = 9;
+		assertEquals(Arrays.asList(1, 2, 3), list);
+		list.add(4);
+		assertArrayEquals(new int[] { 1, 2, 3, 4 }, list.toIntArray());
+	}
+
+	@Test
+	public void checksBounds() {
+		NumericList list = NumericList.of(new double[] { 1, 2 });
+		list.remove(1);
+		for (int index : new int[] { -1, 1, 2 }) {
+			try {
+				list.get(index);
+				fail("get " + index);
+			} catch (IndexOutOfBoundsException expected) {
+			}
+			try {
+				list.getDouble(index);
+				fail("getDouble " + index);
+			} catch (IndexOutOfBoundsException expected) {
+			}
+			try {
+				list.set(index, 1.0);
+				fail("set " + index);
+			} catch (IndexOutOfBoundsException expected) {
+			}
+		}
+		try {
+			list.add(3, 1.0);
+			fail();
+		} catch (IndexOutOfBoundsException expected) {
+		}
+	}
+
+	@Test
+	public void failsFastOnConcurrentChange() {
+		NumericList list = NumericList.of(new int[] { 1, 2, 3 });
+		ListIterator<Object> i = list.listIterator();
+		i.next();
+		list.add(4);
+		try {
+			i.next();
+			fail();
+		} catch (ConcurrentModificationException expected) {
+		}
+	}
+
+	private static final String[] ARRAYS = { "[1,2,3]", "[-2147483648,2147483647]", "[1,2147483648,3]",
+			"[9223372036854775807,-9223372036854775808]", "[1.5,2.5,-0.0]", "[1e3,2]", "[1,2.5]", "[2.5,1]",
+			"[1,\"2\",3]", "[1,null,3]", "[1,,3]", "[1,2,]", "[1,true]", "[[1],2]", "[{\"a\":1},2]", "[]", "[0]",
+			"[1,99999999999999999999]", "[0.1,1e400]", "[-1,-0]", "[1 , 2 ,\n3]" };
+
+	/**
+	 * The elements JSONTokener reads one at a time, which is what JSONArray
+	 * kept before numbers were stored unboxed.
+	 */
+	private static List<Object> elements(String text) {
+		JSONTokener x = new JSONTokener(text);
+		List<Object> list = new ArrayList<>();
+		x.next('[');
+		if (x.nextClean() == ']') {
+			return list;
+		}
+		x.back();
+		for (;;) {
+			if (x.nextClean() == ',') {
+				x.back();
+				list.add(JSONObject.NULL);
+			} else {
+				x.back();
+				list.add(x.nextValue());
+			}
+			char c = x.nextClean();
+			if (c == ']') {
+				return list;
+			}
+			if (x.nextClean() == ']') {
+				return list;
+			}
+			x.back();
+		}
+	}
+
+	@Test
+	public void parsesLikeBoxedElements() {
+		for (String text : ARRAYS) {
+			JSONArray parsed = new JSONArray(text);
+			List<Object> expected = elements(text);
+			assertEquals(text, expected.size(), parsed.length());
+			for (int i = 0; i < expected.size(); i++) {
+				Object e = expected.get(i);
+				Object a = parsed.get(i);
+				if (e instanceof JSONArray || e instanceof JSONObject) {
+					assertEquals(text, e.toString(), a.toString());
+				} else {
+					assertEquals(text, e, a);
+					assertEquals(text, e.getClass(), a.getClass());
+				}
+			}
+			assertEquals(text, new JSONArray(expected).toString(), parsed.toString());
+			assertEquals(text, parsed.toString(), new JSONArray(parsed.toString()).toString());
+		}
+	}
+
+	/**
+	 * getInt, getLong, getDouble and the array copies agree between an array
+	 * kept as numbers and the same elements kept as boxes.
+	 */
+	@Test
+	public void readsLikeBoxedElements() {
+		for (String text : ARRAYS) {
+			JSONArray parsed = new JSONArray(text);
+			JSONArray boxed = new JSONArray(elements(text));
+			for (int i = -1; i <= boxed.length(); i++) {
+				assertEquals(text + i, outcome(boxed, i, 0), outcome(parsed, i, 0));
+				assertEquals(text + i, outcome(boxed, i, 1), outcome(parsed, i, 1));
+				assertEquals(text + i, outcome(boxed, i, 2), outcome(parsed, i, 2));
+				assertEquals(text + i, boxed.optInt(i, 7), parsed.optInt(i, 7));
+				assertEquals(text + i, boxed.optLong(i, 7), parsed.optLong(i, 7));
+				assertEquals(text + i, boxed.optDouble(i, 7), parsed.optDouble(i, 7), 0);
+			}
+			assertEquals(text, outcome(boxed, -1, 3), outcome(parsed, -1, 3));
+			assertEquals(text, outcome(boxed, -1, 4), outcome(parsed, -1, 4));
+			assertEquals(text, outcome(boxed, -1, 5), outcome(parsed, -1, 5));
+		}
+	}
+
+	/**
+	 * The value read, or the exception class if reading failed.
+	 */
+	private static Object outcome(JSONArray array, int index, int what) {
+		try {
+			switch (what) {
+			case 0:
+				return array.getInt(index);
+			case 1:
+				return array.getLong(index);
+			case 2:
+				return array.getDouble(index);
+			case 3:
+				return Arrays.toString(array.toIntArray());
+			case 4:
+				return Arrays.toString(array.toLongArray());
+			default:
+				return Arrays.toString(array.toDoubleArray());
+			}
+		} catch (RuntimeException e) {
+			return e.getClass();
+		}
+	}
+
+	@Test
+	public void copiesPrimitiveArrays() {
+		int[] ints = { 1, -2, Integer.MAX_VALUE };
+		long[] longs = { 1, -2, Long.MAX_VALUE };
+		double[] doubles = { 1.5, -2, Double.MIN_VALUE };
+		JSONArray i = new JSONArray(ints);
+		JSONArray l = new JSONArray(longs);
+		JSONArray d = new JSONArray(doubles);
+		assertEquals(new JSONArray(Arrays.asList(1, -2, Integer.MAX_VALUE)).toString(), i.toString());
+		assertEquals(new JSONArray(Arrays.asList(1L, -2L, Long.MAX_VALUE)).toString(), l.toString());
+		assertEquals(new JSONArray(Arrays.asList(1.5, -2.0, Double.MIN_VALUE)).toString(), d.toString());
+		assertEquals(Long.class, l.get(0).getClass());
+		ints[0] = 9;
+		longs[0] = 9;
+		doubles[0] = 9;
+		assertEquals(1, i.getInt(0));
+		assertEquals(1, l.getLong(0));
+		assertEquals(1.5, d.getDouble(0), 0);
+		assertArrayEquals(new int[] { 1, -2, Integer.MAX_VALUE }, i.toIntArray());
+		assertArrayEquals(new long[] { 1, -2, Long.MAX_VALUE }, l.toLongArray());
+		assertArrayEquals(new double[] { 1.5, -2, Double.MIN_VALUE }, d.toDoubleArray(), 0);
+		assertArrayEquals(new int[] { 1, -2, (int) Long.MAX_VALUE }, l.toIntArray());
+		assertArrayEquals(new int[] { 1, -2, 0 }, d.toIntArray());
+	}
+
+	@Test
+	public void putFallsBackWithoutLosingElements() {
+		JSONArray array = new JSONArray("[1,2,3]");
+		array.put("x");
+		array.put(5, 6);
+		assertEquals("[1,2,3,\"x\",null,6]", array.toString());
+		assertEquals(3, array.getInt(2));
+		assertEquals(6, array.getInt(5));
+		assertArrayEquals(new int[] { 1, 2, 3 }, new JSONArray("[1,2,3]").toIntArray());
+		try {
+			array.toIntArray();
+			fail();
+		} catch (JSONException expected) {
+		}
+
+		array = new JSONArray(new double[] { 1, 2 });
+		array.put(0, 7);
+		assertEquals("[7,2]", array.toString());
+		assertEquals(Integer.class, array.get(0).getClass());
+		assertEquals(7.0, array.getDouble(0), 0);
+
+		array = new JSONArray("[1,2]");
+		array.put(Long.MAX_VALUE);
+		array.remove(0);
+		assertEquals("[2,9223372036854775807]", array.toString());
+		assertArrayEquals(new long[] { 2, Long.MAX_VALUE }, array.toLongArray());
+	}
+}
@@ -0,0 +1,135 @@
+package org.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class PooledWriterTest {
+
+	/**
+	 * Acquires writers until the pool is empty, so that the next release is
+	 * the only idle buffer.
+	 */
+	private static List<PooledWriter> drain() {
+		List<PooledWriter> held = new ArrayList<>();
+		for (int i = 0; i < PooledWriter.POOL_SIZE; i++) {
+			held.add(PooledWriter.acquire(PooledWriterTest.class));
+		}
+		return held;
+	}
+
+	private static void releaseAll(List<PooledWriter> writers) {
+		for (PooledWriter w : writers) {
+			w.release();
+		}
+	}
+
+	@Test
+	public void nestedWritersAreDistinct() {
+		PooledWriter outer = PooledWriter.acquire(PooledWriterTest.class);
+		outer.write("outer");
+		PooledWriter inner = PooledWriter.acquire(PooledWriterTest.class);
+		inner.write("inner");
+		assertNotSame(outer, inner);
+		assertEquals("inner", inner.toString());
+		inner.release();
+		assertEquals("outer", outer.toString());
+		outer.release();
+	}
+
+	@Test
+	public void reusedAcrossThreads() throws Exception {
+		List<PooledWriter> held = drain();
+		PooledWriter w = PooledWriter.acquire(PooledWriterTest.class);
+		w.write("text");
+		w.release();
+		AtomicReference<PooledWriter> other = new AtomicReference<>();
+		Thread t = new Thread(() -> {
+			PooledWriter x = PooledWriter.acquire(PooledWriterTest.class);
+			other.set(x);
+			assertEquals(0, x.length());
+			x.release();
+		});
+		t.start();
+		t.join();
+		assertSame(w, other.get());
+		releaseAll(held);
+	}
+
+	@Test
+	public void releasingTwiceDoesNotShareABuffer() {
+		List<PooledWriter> held = drain();
+		PooledWriter w = PooledWriter.acquire(PooledWriterTest.class);
+		w.release();
+		w.release();
+		PooledWriter a = PooledWriter.acquire(PooledWriterTest.class);
+		PooledWriter b = PooledWriter.acquire(PooledWriterTest.class);
+		assertNotSame(a, b);
+		a.release();
+		b.release();
+		releaseAll(held);
+	}
+
+	@Test
+	public void keepsAtMostPoolSizeIdleBuffers() {
+		List<PooledWriter> held = drain();
+		List<PooledWriter> many = new ArrayList<>();
+		for (int i = 0; i < PooledWriter.POOL_SIZE * 4; i++) {
+			many.add(PooledWriter.acquire(PooledWriterTest.class));
+		}
+		releaseAll(many);
+		Set<PooledWriter> released = Collections.newSetFromMap(new IdentityHashMap<PooledWriter, Boolean>());
+		released.addAll(many);
+		List<PooledWriter> again = new ArrayList<>();
+		int reused = 0;
+		for (int i = 0; i < PooledWriter.POOL_SIZE * 4; i++) {
+			PooledWriter w = PooledWriter.acquire(PooledWriterTest.class);
+			again.add(w);
+			if (released.contains(w))
+				reused++;
+		}
+		assertEquals(PooledWriter.POOL_SIZE, reused);
+		releaseAll(again);
+		releaseAll(held);
+	}
+
+	@Test
+	public void concurrentUse() throws Exception {
+		List<Thread> threads = new ArrayList<>();
+		List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+		for (int t = 0; t < 8; t++) {
+			String name = "thread" + t;
+			threads.add(new Thread(() -> {
+				try {
+					for (int i = 0; i < 20000; i++) {
+						PooledWriter w = PooledWriter.acquire(String.class);
+						w.write(name);
+						w.write(':');
+						w.write(Integer.toString(i));
+						assertEquals(name + ":" + i, w.toString());
+						w.release();
+					}
+				} catch (Throwable e) {
+					failures.add(e);
+				}
+			}));
+		}
+		for (Thread t : threads) {
+			t.start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		assertTrue(failures.toString(), failures.isEmpty());
+	}
+}
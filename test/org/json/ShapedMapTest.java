@@ -0,0 +1,239 @@
+package org.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class ShapedMapTest {
+
+	private static void assertSameMap(Map<String, Object> expected, ShapedMap actual) {
+		assertEquals(expected.size(), actual.size());
+		assertEquals(new ArrayList<>(expected.entrySet()), new ArrayList<>(actual.entrySet()));
+		assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(actual.keySet()));
+		assertEquals(expected, actual);
+		assertEquals(actual, expected);
+		assertEquals(expected.hashCode(), actual.hashCode());
+	}
+
+	/**
+	 * Applies the same random operations to a ShapedMap and a LinkedHashMap.
+	 * The key pool is larger than a shape may hold, so maps also fall back.
+	 */
+	private static void randomOperations(ShapedMap.Shape root, long seed, int keys) {
+		Random r = new Random(seed);
+		LinkedHashMap<String, Object> expected = new LinkedHashMap<>();
+		ShapedMap actual = new ShapedMap(root, r.nextInt(10));
+		for (int i = 0; i < 2000; i++) {
+			String key = "k" + r.nextInt(keys);
+			Object value = r.nextInt(5) == 0 ? null : Integer.valueOf(r.nextInt(100));
+			switch (r.nextInt(10)) {
+			case 0:
+			case 1:
+			case 2:
+				assertEquals(expected.put(key, value), actual.put(key, value));
+				break;
+			case 3:
+				assertEquals(expected.remove(key), actual.remove(key));
+				break;
+			case 4:
+				assertEquals(expected.get(key), actual.get(key));
+				assertEquals(expected.containsKey(key), actual.containsKey(key));
+				break;
+			case 5: {
+				Iterator<Map.Entry<String, Object>> e = expected.entrySet().iterator();
+				Iterator<Map.Entry<String, Object>> a = actual.entrySet().iterator();
+				while (e.hasNext()) {
+					assertTrue(a.hasNext());
+					Map.Entry<String, Object> ee = e.next();
+					Map.Entry<String, Object> ae = a.next();
+					assertEquals(ee, ae);
+					if (r.nextInt(4) == 0) {
+						e.remove();
+						a.remove();
+					} else if (r.nextInt(4) == 0) {
+						assertEquals(ee.setValue(value), ae.setValue(value));
+						assertEquals(ee.getValue(), ae.getValue());
+					}
+				}
+				assertFalse(a.hasNext());
+				break;
+			}
+			case 6:
+				if (r.nextInt(20) == 0) {
+					expected.clear();
+					actual.clear();
+				}
+				break;
+			default:
+				for (int n = r.nextInt(8); n > 0; n--) {
+					String k = "k" + r.nextInt(keys);
+					assertEquals(expected.put(k, i), actual.put(k, i));
+				}
+			}
+			assertSameMap(expected, actual);
+		}
+		assertNull(actual.get(null));
+		assertFalse(actual.containsKey(null));
+		assertNull(actual.remove(null));
+	}
+
+	@Test
+	public void behavesLikeLinkedHashMap() {
+		for (int seed = 0; seed < 40; seed++) {
+			randomOperations(ShapedMap.Shape.root(ShapedMap.Shape.MAX_SHAPES), seed, seed % 2 == 0 ? 12 : 100);
+			randomOperations(ShapedMap.Shape.root(seed), seed, 12);
+		}
+	}
+
+	@Test
+	public void sharesShapes() {
+		ShapedMap.Shape root = ShapedMap.Shape.root(ShapedMap.Shape.MAX_SHAPES);
+		ShapedMap.Shape ab = root.with("a").with("b");
+		assertSame(ab, root.with("a").with("b"));
+		assertEquals(1, ab.indexOf(new String("b")));
+		assertEquals(-1, ab.indexOf("c"));
+
+		ShapedMap.Shape wide = root;
+		for (int i = 0; i < 20; i++)
+			wide = wide.with("wide" + i);
+		for (int i = 0; i < 20; i++)
+			assertEquals(i, wide.indexOf("wide" + i));
+		assertEquals(-1, wide.indexOf("wide20"));
+
+		ShapedMap.Shape deep = root;
+		for (int i = 0; i < ShapedMap.Shape.MAX_KEYS; i++)
+			deep = deep.with("deep" + i);
+		assertNull(deep.with("one too many"));
+	}
+
+	@Test
+	public void parsesLikeHashMapObjects() {
+		String json = "[{\"a\":1,\"b\":{\"c\":[1,2],\"d\":null}},{\"a\":2,\"b\":{\"c\":[],\"d\":\"x\"}},{\"b\":1,\"a\":2}]";
+		JSONTokener x = new JSONTokener(json);
+		x.setSharedKeys(true);
+		JSONArray shared = new JSONArray(x);
+		JSONArray plain = new JSONArray(json);
+		assertTrue(shared.similar(plain));
+		assertEquals("{\"b\":1,\"a\":2}", shared.getJSONObject(2).toString());
+		JSONObject first = shared.getJSONObject(0);
+		first.put("e", 5).remove("a");
+		assertEquals("{\"b\":{\"c\":[1,2],\"d\":null},\"e\":5}", first.toString());
+		assertEquals(2, first.length());
+
+		JSONObject sized = new JSONObject(3, true);
+		sized.put("z", 1).put("y", 2).put("x", 3).put("w", 4);
+		assertEquals("{\"z\":1,\"y\":2,\"x\":3,\"w\":4}", sized.toString());
+		assertNotNull(sized.opt("w"));
+		assertTrue(sized.similar(new JSONObject("{\"w\":4,\"x\":3,\"y\":2,\"z\":1}")));
+	}
+
+	@Test
+	public void sharedAcrossThreads() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Callable<Void>> tasks = new ArrayList<>();
+			ShapedMap.Shape root = ShapedMap.Shape.root(ShapedMap.Shape.MAX_SHAPES);
+			ShapedMap.Shape small = ShapedMap.Shape.root(200);
+			for (int t = 0; t < 8; t++) {
+				long seed = 100 + t;
+				tasks.add(() -> {
+					randomOperations(root, seed, 30);
+					randomOperations(small, seed, 30);
+					return null;
+				});
+			}
+			for (Future<Void> f : executor.invokeAll(tasks))
+				f.get();
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Threads that add keys to the same root together make exactly as many
+	 * shapes as its budget allows.
+	 */
+	@Test
+	public void budgetIsExactAcrossThreads() throws Exception {
+		ShapedMap.Shape root = ShapedMap.Shape.root(500);
+		Set<ShapedMap.Shape> made = Collections.newSetFromMap(new ConcurrentHashMap<ShapedMap.Shape, Boolean>());
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Callable<Void>> tasks = new ArrayList<>();
+			for (int t = 0; t < 8; t++) {
+				Random r = new Random(t);
+				tasks.add(() -> {
+					for (int i = 0; i < 2000; i++) {
+						ShapedMap.Shape s = root;
+						while ((s = s.with("k" + r.nextInt(6))) != null)
+							made.add(s);
+					}
+					return null;
+				});
+			}
+			for (Future<Void> f : executor.invokeAll(tasks))
+				f.get();
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(500, made.size());
+		for (ShapedMap.Shape s : made)
+			assertSame(s, s.parent == root ? root.with(s.keys[0]) : s.parent.with(s.keys[s.keys.length - 1]));
+		ShapedMap map = new ShapedMap(root, 0);
+		for (int i = 0; i < 10; i++)
+			map.put("new" + i, i);
+		assertNull(map.shape());
+		assertEquals(10, map.size());
+		assertEquals(9, map.get("new9"));
+	}
+
+	@Test
+	public void tokenersHaveTheirOwnShapes() {
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < 40; i++)
+			sb.append(i == 0 ? "" : ",").append("{\"first").append(i).append("\":").append(i).append('}');
+		JSONTokener full = new JSONTokener(sb.append(']').toString());
+		full.setSharedKeys(true);
+		JSONArray array = new JSONArray(full);
+		assertEquals(39, array.getJSONObject(39).getInt("first39"));
+		assertNull(full.shapes().with("other"));
+
+		JSONTokener other = new JSONTokener("[{\"a\":1},{\"a\":2}]");
+		other.setSharedKeys(true);
+		new JSONArray(other);
+		assertNotSame(full.shapes(), other.shapes());
+		assertNotNull(other.shapes().with("other"));
+	}
+
+	@Test
+	public void sharedRootIsReplacedWhenFull() {
+		ShapedMap.Shape root = ShapedMap.Shape.shared();
+		for (int i = 0; i < ShapedMap.Shape.MAX_TRANSITIONS; i++)
+			new JSONObject(0, true).put("replaced" + i, i);
+		ShapedMap.Shape fresh = ShapedMap.Shape.shared();
+		assertNotSame(root, fresh);
+		assertNotNull(fresh.with("replaced" + ShapedMap.Shape.MAX_TRANSITIONS));
+		JSONObject o = new JSONObject(0, true).put("after", 1);
+		assertEquals(1, o.getInt("after"));
+	}
+}
@@ -0,0 +1,129 @@
+package org.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class StringCacheTest {
+
+	private static final String RECORDS = "[{\"version\":1,\"name\":\"same\",\"tag\":\"caf\\u00e9\"},"
+			+ "{\"version\":1,\"name\":\"same\",\"tag\":\"café\"},"
+			+ "{\"version\":1, \"name\" : \"same\" ,\"tag\":\"café\",\"long\":\"" + repeat('x', 100) + "\"}]";
+
+	private static String repeat(char c, int n) {
+		char[] chars = new char[n];
+		java.util.Arrays.fill(chars, c);
+		return new String(chars);
+	}
+
+	private static String key(JSONObject o, String key) {
+		for (String k : o.keySet()) {
+			if (k.equals(key)) {
+				return k;
+			}
+		}
+		throw new AssertionError(key);
+	}
+
+	@Test
+	public void sharesEqualStrings() {
+		StringCache cache = new StringCache();
+		char[] chars = "xxnamexx".toCharArray();
+		String s = cache.get(chars, 2, 4);
+		assertEquals("name", s);
+		assertSame(s, cache.get(chars, 2, 4));
+		assertSame(s, cache.get("name".getBytes(StandardCharsets.US_ASCII), 0, 4));
+		assertSame(s, cache.get(new StringBuilder("name")));
+		assertSame(cache.get(chars, 0, 0), cache.get(new StringBuilder()));
+		assertEquals("", cache.get(chars, 0, 0));
+
+		String big = repeat('y', 65);
+		assertNotSame(cache.get(new StringBuilder(big)), cache.get(new StringBuilder(big)));
+		assertEquals(big, cache.get(big.toCharArray(), 0, 65));
+
+		cache.clear();
+		assertNotSame(s, cache.get(chars, 2, 4));
+	}
+
+	@Test
+	public void evictsOnCollision() {
+		StringCache cache = new StringCache(1, 8);
+		Random r = new Random(1);
+		for (int i = 0; i < 10000; i++) {
+			String s = Integer.toString(r.nextInt(50));
+			assertEquals(s, cache.get(s));
+			assertEquals(s, cache.get(s.toCharArray(), 0, s.length()));
+		}
+		String a = cache.get(new StringBuilder("a"));
+		assertSame(a, cache.get(new StringBuilder("a")));
+		cache.get(new StringBuilder("b"));
+		assertNotSame(a, cache.get(new StringBuilder("a")));
+	}
+
+	@Test
+	public void tokenersShareKeysAndValues() {
+		byte[] utf8 = RECORDS.getBytes(StandardCharsets.UTF_8);
+		JSONTokener[] tokeners = { new JSONTokener(RECORDS), new JSONTokener(new StringReader(RECORDS)),
+				new Utf8Tokener(utf8) };
+		String expected = new JSONArray(RECORDS).toString();
+		for (JSONTokener x : tokeners) {
+			x.setStringCache(new StringCache());
+			JSONArray a = new JSONArray(x);
+			assertEquals(expected, a.toString());
+			JSONObject first = a.getJSONObject(0);
+			for (int i = 1; i < a.length(); i++) {
+				JSONObject o = a.getJSONObject(i);
+				assertSame(key(first, "version"), key(o, "version"));
+				assertSame(key(first, "name"), key(o, "name"));
+				assertSame(first.getString("name"), o.getString("name"));
+				assertSame(a.getJSONObject(1).getString("tag"), o.getString("tag"));
+			}
+			assertEquals("café", first.getString("tag"));
+		}
+		// Without a cache, every record has its own copies.
+		JSONArray a = new JSONArray(new JSONTokener(RECORDS));
+		assertNotSame(a.getJSONObject(0).getString("name"), a.getJSONObject(1).getString("name"));
+	}
+
+	@Test
+	public void sharedAcrossThreads() throws Exception {
+		StringCache cache = new StringCache(16, 64);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Callable<Void>> tasks = new ArrayList<>();
+			for (int t = 0; t < 8; t++) {
+				int seed = t;
+				tasks.add(() -> {
+					Random r = new Random(seed);
+					for (int i = 0; i < 2000; i++) {
+						JSONArray a = new JSONArray();
+						for (int j = 0; j < 5; j++)
+							a.put(new JSONObject().put("k" + r.nextInt(40), "v" + r.nextInt(40)));
+						String json = a.toString();
+						JSONTokener x = i % 2 == 0 ? new JSONTokener(json)
+								: new Utf8Tokener(json.getBytes(StandardCharsets.UTF_8));
+						x.setStringCache(cache);
+						assertEquals(json, new JSONArray(x).toString());
+					}
+					return null;
+				});
+			}
+			for (Future<Void> f : executor.invokeAll(tasks))
+				f.get();
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package org.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class Utf8TokenerTest {
+
+	private static final String[] PIECES = { "a", "Z", " ", "\\n", "\\\"", "\\\\", "\\/", "\\u00e9", "\\u20ac",
+			"\u00e9", "\u20ac", "\ud83d\ude00", "\u4e2d\u6587", "\\t", "'" };
+
+	private static String text(Random r, int length) {
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < length) {
+			sb.append(PIECES[r.nextInt(PIECES.length)]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Reads a few bytes at a time, so that values straddle refills.
+	 */
+	private static InputStream trickle(byte[] data) {
+		return new FilterInputStream(new ByteArrayInputStream(data)) {
+			@Override
+			public int read(byte[] b, int off, int len) throws java.io.IOException {
+				return super.read(b, off, Math.min(len, 7));
+			}
+		};
+	}
+
+	private static void assertSame(String json) {
+		Object expected = new JSONTokener(json).nextValue();
+		byte[] utf8 = json.getBytes(StandardCharsets.UTF_8);
+		assertValue(expected, new Utf8Tokener(utf8).nextValue());
+		assertValue(expected, new Utf8Tokener(ByteBuffer.wrap(utf8)).nextValue());
+		assertValue(expected, new Utf8Tokener(new ByteArrayInputStream(utf8)).nextValue());
+		assertValue(expected, new Utf8Tokener(trickle(utf8)).nextValue());
+	}
+
+	private static void assertValue(Object expected, Object actual) {
+		assertEquals(expected.getClass(), actual.getClass());
+		assertEquals(expected.toString(), actual.toString());
+	}
+
+	@Test
+	public void longEscapedStrings() {
+		Random r = new Random(1);
+		for (int length : new int[] { 1, 63, 64, 65, 200, 1000, 70000 }) {
+			for (int i = 0; i < 20; i++) {
+				assertSame("[\"" + text(r, length) + "\"]");
+			}
+		}
+	}
+
+	@Test
+	public void stringWithLeadingEscape() {
+		StringBuilder sb = new StringBuilder("\\n");
+		for (int i = 0; i < 200; i++) {
+			sb.append('x');
+		}
+		String s = (String) new Utf8Tokener(("\"" + sb + "\"").getBytes(StandardCharsets.UTF_8)).nextValue();
+		assertEquals(201, s.length());
+		assertEquals('\n', s.charAt(0));
+		assertEquals('x', s.charAt(200));
+	}
+
+	@Test
+	public void stringsAcrossRefillBoundary() {
+		Random r = new Random(2);
+		for (int offset = 65536 - 40; offset < 65536 + 8; offset++) {
+			StringBuilder sb = new StringBuilder("[");
+			while (sb.length() < offset) {
+				sb.append(' ');
+			}
+			sb.append('"').append(text(r, 100)).append("\",\"\u00e9\u20ac\ud83d\ude00\",12345.5e3,true]");
+			assertSame(sb.toString());
+		}
+	}
+
+	@Test
+	public void randomDocuments() {
+		Random r = new Random(3);
+		for (int i = 0; i < 2000; i++) {
+			StringBuilder sb = new StringBuilder();
+			document(r, sb, 0);
+			assertSame(sb.toString());
+		}
+	}
+
+	private static void document(Random r, StringBuilder sb, int depth) {
+		switch (depth > 3 ? 2 + r.nextInt(3) : r.nextInt(5)) {
+		case 0:
+			sb.append('{');
+			for (int i = 0, n = r.nextInt(6); i < n; i++) {
+				sb.append(i > 0 ? "," : "").append("\"k").append(i).append(text(r, r.nextInt(4))).append("\":");
+				document(r, sb, depth + 1);
+			}
+			sb.append('}');
+			break;
+		case 1:
+			sb.append('[');
+			for (int i = 0, n = r.nextInt(6); i < n; i++) {
+				sb.append(i > 0 ? " , " : "");
+				document(r, sb, depth + 1);
+			}
+			sb.append(']');
+			break;
+		case 2:
+			sb.append('"').append(text(r, r.nextInt(120))).append('"');
+			break;
+		case 3:
+			sb.append(r.nextBoolean() ? Long.toString(r.nextLong()) : Double.toString(r.nextDouble()));
+			break;
+		default:
+			sb.append(r.nextBoolean() ? "null" : "false");
+		}
+	}
+
+	@Test
+	public void malformedInput() {
+		for (String json : new String[] { "[\"abc", "[\"a\\q\"]", "[\"\\u12G4\"]", "{\"a\" 1}", "[1,2" }) {
+			try {
+				new Utf8Tokener(json.getBytes(StandardCharsets.UTF_8)).nextValue();
+				fail(json);
+			} catch (JSONException expected) {
+			}
+		}
+	}
+}
@@ -0,0 +1,204 @@
+package org.json;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class Utf8WriterTest {
+
+	private static final String[] PIECES = { "a", "Z", " ", "\u007f", "\u0080", "é", "߿", "ࠀ", "€",
+			"￿", "😀", "􏿿", "\ud800", "\udc00", "中文" };
+
+	private static String text(Random r, int length) {
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < length) {
+			sb.append(PIECES[r.nextInt(PIECES.length)]);
+		}
+		return sb.toString();
+	}
+
+	private static byte[] streamed(String s, Random r) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Utf8Writer w = new Utf8Writer(out);
+		int i = 0;
+		while (i < s.length()) {
+			int n = Math.min(s.length() - i, r.nextInt(3) == 0 ? 1 : r.nextInt(20000));
+			switch (r.nextInt(5)) {
+			case 0:
+				w.write(s.charAt(i));
+				n = 1;
+				break;
+			case 1:
+				w.write(s.toCharArray(), i, n);
+				break;
+			case 2:
+				w.append(new StringBuilder(s), i, i + n);
+				break;
+			case 3:
+				w.append(s, i, i + n);
+				break;
+			default:
+				w.write(s, i, n);
+			}
+			i += n;
+			if (r.nextInt(10) == 0)
+				w.flush();
+		}
+		w.close();
+		return out.toByteArray();
+	}
+
+	@Test
+	public void matchesGetBytes() throws IOException {
+		Random r = new Random(3);
+		for (int length : new int[] { 0, 1, 2, 100, 8191, 8192, 8193, 50000 }) {
+			for (int i = 0; i < 10; i++) {
+				String s = text(r, length);
+				byte[] expected = s.getBytes(StandardCharsets.UTF_8);
+				assertArrayEquals(s, expected, streamed(s, r));
+
+				ByteBuffer buffer = ByteBuffer.allocate(expected.length + 3);
+				buffer.put((byte) 'x');
+				Utf8Writer w = new Utf8Writer(buffer);
+				w.write(s);
+				w.close();
+				assertEquals(expected.length + 1, buffer.position());
+				assertArrayEquals(expected, Arrays.copyOfRange(buffer.array(), 1, buffer.position()));
+			}
+		}
+	}
+
+	@Test
+	public void pairsSurrogatesAcrossWrites() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Utf8Writer w = new Utf8Writer(out);
+		w.write("a\ud83d");
+		w.flush();
+		w.write('\ude00');
+		w.write("\ud83d");
+		w.close();
+		assertArrayEquals("a😀\ud83d".getBytes(StandardCharsets.UTF_8), out.toByteArray());
+	}
+
+	@Test
+	public void writesRawBytes() throws IOException {
+		byte[] big = new byte[20000];
+		Arrays.fill(big, (byte) 'b');
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		Utf8Writer w = new Utf8Writer(out);
+		w.write("é");
+		w.writeRaw("\"k\":".getBytes(StandardCharsets.UTF_8));
+		w.writeRaw(big);
+		w.write('c');
+		w.close();
+		assertEquals("é\"k\":" + new String(big, StandardCharsets.US_ASCII) + "c",
+				new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * A stream that fails on every write.
+	 */
+	private static final class Failing extends OutputStream {
+		@Override
+		public void write(int b) throws IOException {
+			throw new IOException("full");
+		}
+	}
+
+	@Test
+	public void passesOnStreamFailures() {
+		char[] chars = new char[20000];
+		Arrays.fill(chars, '\u00e9');
+		String big = new String(chars);
+		String[] calls = { "char", "chars", "string", "append" };
+		for (String call : calls) {
+			Writer w = new Utf8Writer(new Failing());
+			try {
+				for (int i = 0; i < 20000; i++) {
+					switch (call) {
+					case "char":
+						w.write('\u00e9');
+						break;
+					case "chars":
+						w.write(chars, 0, chars.length);
+						break;
+					case "string":
+						w.write(big, 1, big.length() - 1);
+						break;
+					default:
+						w.append(big);
+					}
+				}
+				fail(call);
+			} catch (IOException e) {
+				assertEquals("full", e.getMessage());
+			}
+		}
+		JSONObject o = new JSONObject().put("k", big);
+		try {
+			o.writeTo(new Failing());
+			fail();
+		} catch (JSONException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		try {
+			new JSONArray().put(big).writeTo(new Failing());
+			fail();
+		} catch (JSONException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+
+	@Test
+	public void objectsAndArrays() {
+		Random r = new Random(5);
+		for (int i = 0; i < 20; i++) {
+			JSONObject o = new JSONObject();
+			o.put(text(r, 10), text(r, 1 + r.nextInt(20000)));
+			o.put("n", r.nextDouble());
+			JSONArray a = new JSONArray().put(o).put(text(r, 50)).put(JSONObject.NULL).put(new JSONArray());
+			for (Object value : new Object[] { o, a }) {
+				byte[] expected = value.toString().getBytes(StandardCharsets.UTF_8);
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				ByteBuffer buffer = ByteBuffer.allocate(expected.length);
+				if (value instanceof JSONObject) {
+					((JSONObject) value).writeTo(out);
+					((JSONObject) value).writeTo(buffer);
+				} else {
+					((JSONArray) value).writeTo(out);
+					((JSONArray) value).writeTo(buffer);
+				}
+				assertArrayEquals(expected, out.toByteArray());
+				assertArrayEquals(expected, buffer.array());
+			}
+		}
+	}
+
+	@Test
+	public void overflowsSmallBuffers() {
+		JSONArray a = new JSONArray().put("ééé");
+		try {
+			a.writeTo(ByteBuffer.allocate(8));
+			fail();
+		} catch (BufferOverflowException expected) {
+		}
+		try {
+			new JSONObject().put("a", 1.0 / 0).writeTo(new ByteArrayOutputStream());
+			fail();
+		} catch (JSONException expected) {
+		}
+	}
+}